@@ -0,0 +1,59 @@
+package com.tw.finseta.payment.benchmark;
+
+import com.tw.finseta.payment.PaymentApplication;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Boots the application against a named in-memory H2 database, without the web tier unless a server is asked for.
+ *
+ * @author Ranga Raju
+ */
+final class BenchmarkContext {
+
+    private BenchmarkContext() {
+    }
+
+    /**
+     * @param database the H2 database name, kept open after the context closes so it can be reused
+     * @param properties extra {@code key=value} properties
+     */
+    static ConfigurableApplicationContext start(String database, String... properties) {
+        return start(WebApplicationType.NONE, database, properties);
+    }
+
+    /**
+     * Boots the application with its web server on a random port, read back with {@link #port}.
+     *
+     * @param database the H2 database name, kept open after the context closes so it can be reused
+     * @param properties extra {@code key=value} properties
+     */
+    static ConfigurableApplicationContext startServer(String database, String... properties) {
+        List<String> args = new ArrayList<>(List.of(properties));
+        args.add("server.port=0");
+        return start(WebApplicationType.SERVLET, database, args.toArray(new String[0]));
+    }
+
+    static int port(ConfigurableApplicationContext context) {
+        return ((WebServerApplicationContext) context).getWebServer().getPort();
+    }
+
+    private static ConfigurableApplicationContext start(WebApplicationType type, String database, String... properties) {
+        List<String> args = new ArrayList<>(List.of(
+                "--spring.datasource.url=jdbc:h2:mem:" + database + ";DB_CLOSE_DELAY=-1",
+                // Per-save INFO lines would otherwise dominate the measurement
+                "--logging.level.root=WARN",
+                "--spring.h2.console.enabled=false"));
+        for (String property : properties) {
+            args.add("--" + property);
+        }
+        SpringApplication application = new SpringApplication(PaymentApplication.class);
+        application.setWebApplicationType(type);
+        return application.run(args.toArray(new String[0]));
+    }
+}
@@ -0,0 +1,61 @@
+package com.tw.finseta.payment.benchmark;
+
+import com.tw.finseta.payment.dao.AccountDAO;
+import com.tw.finseta.payment.dao.AccountType;
+import com.tw.finseta.payment.dao.PaymentDAO;
+import com.tw.finseta.payment.model.Account;
+import com.tw.finseta.payment.model.Payment;
+import com.tw.finseta.payment.money.CurrencyCode;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Deterministic payment fixtures shared by the benchmarks.
+ *
+ * @author Ranga Raju
+ */
+final class BenchmarkData {
+
+    static final String[] CURRENCIES = {"GBP", "USD", "EUR", "JPY", "INR"};
+    static final int ACCOUNTS = 1000;
+
+    private BenchmarkData() {
+    }
+
+    static Account account(int i) {
+        return new Account(Account.TypeEnum.SORT_CODE_ACCOUNT_NUMBER, String.format("%08d", i), "123456");
+    }
+
+    static List<Payment> payments(int size) {
+        Random random = new Random(size);
+        List<Payment> payments = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            String currency = CURRENCIES[i % CURRENCIES.length];
+            payments.add(new Payment(currency, amount(random, CurrencyCode.of(currency)), account(i % ACCOUNTS)));
+        }
+        return payments;
+    }
+
+    static List<PaymentDAO> paymentDAOs(int size) {
+        Random random = new Random(size);
+        List<PaymentDAO> payments = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            CurrencyCode currency = CurrencyCode.of(CURRENCIES[i % CURRENCIES.length]);
+            AccountDAO account = new AccountDAO((long) (i % ACCOUNTS), AccountType.SORT_CODE_ACCOUNT_NUMBER,
+                    String.format("%08d", i % ACCOUNTS), "123456");
+            PaymentDAO payment = new PaymentDAO(currency, random.nextInt(1_000_000), account);
+            payment.setId((long) i + 1);
+            payments.add(payment);
+        }
+        return payments;
+    }
+
+    // Up to 10 000.00 in the currency's own minor units
+    static BigDecimal amount(Random random, CurrencyCode currency) {
+        return BigDecimal.valueOf(random.nextInt(1_000_000), 2).setScale(currency.exponent(), RoundingMode.DOWN);
+    }
+}
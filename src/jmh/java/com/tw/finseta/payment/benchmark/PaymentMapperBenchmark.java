@@ -0,0 +1,60 @@
+package com.tw.finseta.payment.benchmark;
+
+import com.tw.finseta.payment.dao.PaymentDAO;
+import com.tw.finseta.payment.model.Payment;
+import com.tw.finseta.payment.util.PaymentMapper;
+import com.tw.finseta.payment.util.PaymentMapperImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mapping between the API models and the entities, per list of {@code size} payments.
+ *
+ * @author Ranga Raju
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class PaymentMapperBenchmark {
+
+    @Param({"10", "100", "1000"})
+    private int size;
+
+    private final PaymentMapper paymentMapper = new PaymentMapperImpl();
+    private List<Payment> payments;
+    private List<PaymentDAO> paymentDAOs;
+
+    @Setup
+    public void setUp() {
+        payments = BenchmarkData.payments(size);
+        paymentDAOs = BenchmarkData.paymentDAOs(size);
+    }
+
+    @Benchmark
+    public void toDAO(Blackhole blackhole) {
+        for (Payment payment : payments) {
+            blackhole.consume(paymentMapper.toDAO(payment));
+        }
+    }
+
+    @Benchmark
+    public List<Payment> toModelList() {
+        return paymentMapper.toModelList(paymentDAOs);
+    }
+}
@@ -0,0 +1,109 @@
+package com.tw.finseta.payment.benchmark;
+
+import com.tw.finseta.payment.money.CurrencyCode;
+import com.tw.finseta.payment.service.PaymentPage;
+import com.tw.finseta.payment.service.PaymentService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * First page of {@code PaymentServiceImpl.getPaymentsByFilters} (default limit) over {@code rows} stored payments,
+ * for each filter combination, from the database or from the in-memory read model.
+ *
+ * <p>Payments are spread evenly over five currencies with amounts up to 10 000.00, {@code minAmount} is 9 000 so
+ * roughly a tenth of each currency matches.</p>
+ *
+ * @author Ranga Raju
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class PaymentQueryBenchmark {
+
+    private static final int INSERT_BATCH_SIZE = 10_000;
+
+    @Param({"10000", "100000", "1000000"})
+    private int rows;
+
+    @Param({"none", "currencies", "minAmount", "both"})
+    private String filter;
+
+    @Param({"false", "true"})
+    private boolean readModel;
+
+    private ConfigurableApplicationContext context;
+    private PaymentService paymentService;
+    private List<String> currencies;
+    private BigDecimal minAmount;
+
+    @Setup
+    public void setUp() {
+        // Seed with a throwaway context, then start the measured one on the same database so the read model loads it
+        String database = "query" + rows;
+        try (ConfigurableApplicationContext seedContext = BenchmarkContext.start(database,
+                "spring.jpa.hibernate.ddl-auto=create")) {
+            seed(seedContext.getBean(JdbcTemplate.class));
+        }
+        context = BenchmarkContext.start(database, "spring.jpa.hibernate.ddl-auto=none",
+                "payment.read-model.enabled=" + readModel);
+        paymentService = context.getBean(PaymentService.class);
+
+        currencies = (filter.equals("currencies") || filter.equals("both")) ? List.of("GBP", "USD") : null;
+        minAmount = (filter.equals("minAmount") || filter.equals("both")) ? BigDecimal.valueOf(9000) : null;
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.getBean(JdbcTemplate.class).execute("DROP ALL OBJECTS");
+        context.close();
+    }
+
+    @Benchmark
+    public PaymentPage firstPage() {
+        return paymentService.getPaymentsByFilters(currencies, minAmount, null, null, null, null);
+    }
+
+    private void seed(JdbcTemplate jdbcTemplate) {
+        List<Object[]> accounts = new ArrayList<>(BenchmarkData.ACCOUNTS);
+        for (int i = 0; i < BenchmarkData.ACCOUNTS; i++) {
+            accounts.add(new Object[]{(long) i + 1, "SORT_CODE_ACCOUNT_NUMBER", String.format("%08d", i), "123456"});
+        }
+        jdbcTemplate.batchUpdate("INSERT INTO accounts (id, type, account_number, sort_code) VALUES (?, ?, ?, ?)",
+                accounts);
+
+        Random random = new Random(rows);
+        List<Object[]> batch = new ArrayList<>(INSERT_BATCH_SIZE);
+        for (int i = 0; i < rows; i++) {
+            CurrencyCode currency = CurrencyCode.of(BenchmarkData.CURRENCIES[i % BenchmarkData.CURRENCIES.length]);
+            long amountMinor = BenchmarkData.amount(random, currency).unscaledValue().longValue();
+            batch.add(new Object[]{(long) i + 1, (long) (i % BenchmarkData.ACCOUNTS) + 1, amountMinor, currency.toString()});
+            if (batch.size() == INSERT_BATCH_SIZE || i == rows - 1) {
+                jdbcTemplate.batchUpdate(
+                        "INSERT INTO payments (id, accounts_id, amount_minor, currency) VALUES (?, ?, ?, ?)", batch);
+                batch.clear();
+            }
+        }
+        jdbcTemplate.execute("ANALYZE");
+    }
+}
@@ -0,0 +1,152 @@
+package com.tw.finseta.payment.benchmark;
+
+import com.tw.finseta.payment.logging.RequestFields;
+import com.tw.finseta.payment.logging.RequestLog;
+import com.tw.finseta.payment.model.Payment;
+import com.tw.finseta.payment.money.CurrencyCode;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.core.Appender;
+import org.apache.logging.log4j.core.LoggerContext;
+import org.apache.logging.log4j.core.appender.OutputStreamAppender;
+import org.apache.logging.log4j.core.config.Configuration;
+import org.apache.logging.log4j.core.config.LoggerConfig;
+import org.apache.logging.log4j.core.layout.PatternLayout;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of logging one create and one query request, before and after {@link RequestLog}.
+ *
+ * <p>{@code sync} is the previous path: the controller's INFO line with the whole payment, the service's INFO
+ * line for a create, formatted and written on the request thread. {@code ring} is the current one: the request's
+ * fields are handed to the request log's writer thread, which is all the request waits for. Run flat out, the
+ * writer cannot keep up and most lines are dropped, so {@code ringWritten} also waits for each line to be
+ * written, and is the cost of a line across both threads. All of them write through the application's pattern
+ * layout to a discarding stream, so the numbers leave out disk I/O. The lines written and dropped are printed
+ * at the end of each trial.</p>
+ *
+ * @author Ranga Raju
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class PaymentRequestLogBenchmark {
+
+    private static final String PATTERN = "%d{yyyy-MM-dd HH:mm:ss.SSS} [%t] %-5level %logger{36} - %msg%n";
+
+    private static final Logger controllerLogger = LogManager.getLogger("com.tw.finseta.payment.api.PaymentController");
+    private static final Logger serviceLogger =
+            LogManager.getLogger("com.tw.finseta.payment.service.PaymentServiceImpl");
+
+    @Param({"sync", "ring", "ringWritten"})
+    private String path;
+
+    private final List<String> currencies = List.of("GBP", "USD");
+    private final BigDecimal minAmount = new BigDecimal("9000");
+    private final Integer limit = 100;
+    private final Long id = 123_456L;
+    private final Long accountId = 42L;
+    private final CurrencyCode currency = CurrencyCode.of("GBP");
+    private Payment payment;
+    private RequestLog requestLog;
+    private FunctionCounter written;
+    private FunctionCounter dropped;
+    private double lines;
+
+    @Setup
+    public void setUp() {
+        discardLogs();
+        payment = BenchmarkData.payments(1).get(0);
+        if (!path.equals("sync")) {
+            requestLog = new RequestLog(8192, "", true);
+            SimpleMeterRegistry registry = new SimpleMeterRegistry();
+            requestLog.bindTo(registry);
+            written = registry.get("payment.request-log.lines").tag("outcome", "written").functionCounter();
+            dropped = registry.get("payment.request-log.lines").tag("outcome", "dropped").functionCounter();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (requestLog != null) {
+            System.out.printf("%n%s: %.0f lines written, %.0f dropped%n", path, written.count(), dropped.count());
+        }
+    }
+
+    private void awaitWritten() {
+        lines++;
+        if (path.equals("ringWritten")) {
+            while (written.count() < lines) {
+                Thread.yield();
+            }
+        }
+    }
+
+    // Every logger writes to one appender with the application's layout and a stream that discards the bytes
+    private static void discardLogs() {
+        LoggerContext context = (LoggerContext) LogManager.getContext(false);
+        Configuration configuration = context.getConfiguration();
+        Appender appender = OutputStreamAppender.newBuilder()
+                .setName("Discard")
+                .setLayout(PatternLayout.newBuilder().withPattern(PATTERN).withConfiguration(configuration).build())
+                .setTarget(OutputStream.nullOutputStream())
+                .build();
+        appender.start();
+        configuration.addAppender(appender);
+        for (LoggerConfig logger : configuration.getLoggers().values()) {
+            logger.getAppenders().keySet().forEach(logger::removeAppender);
+            logger.addAppender(appender, null, null);
+        }
+        context.updateLoggers();
+    }
+
+    @Benchmark
+    public void create() {
+        if (requestLog == null) {
+            controllerLogger.info("Received createPayment request: {}", payment);
+            serviceLogger.info("Saved paymentDAO: id: {} + currency: {} + amount: {} + counterparty id: {}",
+                    id, currency, payment.getAmount(), accountId);
+            return;
+        }
+        RequestFields fields = requestLog.begin("POST");
+        RequestLog.payment(payment);
+        requestLog.end(fields, "/payments", 201);
+        awaitWritten();
+    }
+
+    @Benchmark
+    public void query() {
+        if (requestLog == null) {
+            controllerLogger.info("Received getPaymentsByFilters request: currencies: {} + minAmount: {} + from: {} "
+                    + "+ to: {} + limit: {} + cursor: {}", currencies, minAmount, null, null, limit, null);
+            return;
+        }
+        RequestFields fields = requestLog.begin("GET");
+        RequestLog.query(currencies, minAmount, null, null);
+        RequestLog.count(limit);
+        requestLog.end(fields, "/payments", 200);
+        awaitWritten();
+    }
+}
@@ -0,0 +1,64 @@
+package com.tw.finseta.payment.benchmark;
+
+import com.tw.finseta.payment.model.Payment;
+import com.tw.finseta.payment.service.PaymentService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@code PaymentServiceImpl.savePayment} against embedded H2, for a counterparty that already exists and for
+ * a new counterparty on every call.
+ *
+ * @author Ranga Raju
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class PaymentSaveBenchmark {
+
+    private ConfigurableApplicationContext context;
+    private PaymentService paymentService;
+    private int nextAccount = BenchmarkData.ACCOUNTS;
+
+    @Setup
+    public void setUp() {
+        context = BenchmarkContext.start("save");
+        paymentService = context.getBean(PaymentService.class);
+        paymentService.savePayment(payment(0));
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public Payment existingCounterparty() {
+        return paymentService.savePayment(payment(0));
+    }
+
+    @Benchmark
+    public Payment newCounterparty() {
+        return paymentService.savePayment(payment(nextAccount++));
+    }
+
+    private static Payment payment(int account) {
+        return new Payment("GBP", new BigDecimal("10.50"), BenchmarkData.account(account));
+    }
+}
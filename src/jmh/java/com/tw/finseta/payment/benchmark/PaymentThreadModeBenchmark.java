@@ -0,0 +1,127 @@
+package com.tw.finseta.payment.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.lang.management.ThreadMXBean;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the HTTP endpoints with request handling on Tomcat's platform thread pool and on virtual threads,
+ * toggled by {@code spring.threads.virtual.enabled}, under {@value #CONCURRENCY} concurrent requests.
+ *
+ * <p>{@code query} reads a page of payments, which holds a pooled connection for the whole request, so both modes
+ * are bounded by the connection pool. {@code journal} posts payments in journal ingestion mode, where a request
+ * blocks waiting for the group fsync without a connection: there the number of request threads is the bound,
+ * 200 by default on platform threads and none on virtual threads. Peak live threads and heap in use are printed
+ * at the end of each trial. {@code threads=virtual} needs Java 21.</p>
+ *
+ * @author Ranga Raju
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx1g")
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class PaymentThreadModeBenchmark {
+
+    static final int CONCURRENCY = 1000;
+
+    @Param({"platform", "virtual"})
+    private String threads;
+
+    @Param({"query", "journal"})
+    private String workload;
+
+    private ConfigurableApplicationContext context;
+    private Path journal;
+    private HttpClient client;
+    private HttpRequest request;
+
+    @Setup
+    public void setUp() throws Exception {
+        boolean virtual = threads.equals("virtual");
+        if (virtual && Runtime.version().feature() < 21) {
+            throw new IllegalStateException("Virtual threads need Java 21, running on " + Runtime.version());
+        }
+        journal = Files.createTempDirectory("payment-journal");
+        context = BenchmarkContext.startServer("threads-" + threads + "-" + workload,
+                "spring.threads.virtual.enabled=" + virtual,
+                "payment.ingest.mode=" + (workload.equals("journal") ? "journal" : "direct"),
+                "payment.ingest.journal.dir=" + journal,
+                // Measure the thread model, not the shedding in front of it
+                "payment.admission.enabled=false",
+                "payment.response-cache.enabled=false");
+        URI payments = URI.create("http://localhost:" + BenchmarkContext.port(context) + "/payments");
+        client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+
+        String body = new ObjectMapper().writeValueAsString(BenchmarkData.payments(1).get(0));
+        HttpRequest post = HttpRequest.newBuilder(payments)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build();
+        for (int i = 0; i < 100; i++) {
+            client.send(post, HttpResponse.BodyHandlers.discarding());
+        }
+        request = workload.equals("journal")
+                ? post
+                : HttpRequest.newBuilder(URI.create(payments + "?currencies=GBP&limit=100")).GET().build();
+        ManagementFactory.getThreadMXBean().resetPeakThreadCount();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        System.out.printf("%n%s/%s: peak live threads %d, heap used %d MB of %d MB committed%n", threads, workload,
+                threadBean.getPeakThreadCount(), heap.getUsed() >> 20, heap.getCommitted() >> 20);
+        context.close();
+        try (var files = Files.list(journal)) {
+            for (Path file : files.toList()) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(journal);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CONCURRENCY)
+    public int requests() {
+        CompletableFuture<?>[] responses = new CompletableFuture<?>[CONCURRENCY];
+        for (int i = 0; i < CONCURRENCY; i++) {
+            responses[i] = client.sendAsync(request, HttpResponse.BodyHandlers.discarding());
+        }
+        CompletableFuture.allOf(responses).join();
+        int failed = 0;
+        for (CompletableFuture<?> response : responses) {
+            if (((HttpResponse<?>) response.join()).statusCode() >= 400) {
+                failed++;
+            }
+        }
+        return failed;
+    }
+}
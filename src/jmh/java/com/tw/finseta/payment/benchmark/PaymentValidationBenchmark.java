@@ -0,0 +1,105 @@
+package com.tw.finseta.payment.benchmark;
+
+import com.tw.finseta.payment.exception.ValidationException;
+import com.tw.finseta.payment.model.Account;
+import com.tw.finseta.payment.model.Error;
+import com.tw.finseta.payment.model.Payment;
+import com.tw.finseta.payment.validation.PaymentValidator;
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Validation;
+import jakarta.validation.Validator;
+import org.hibernate.validator.HibernateValidator;
+import org.hibernate.validator.HibernateValidatorConfiguration;
+import org.hibernate.validator.cfg.ConstraintMapping;
+import org.hibernate.validator.cfg.defs.DecimalMinDef;
+import org.hibernate.validator.cfg.defs.NotNullDef;
+import org.hibernate.validator.cfg.defs.SizeDef;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of validating one create request, valid or rejected, before and after {@link PaymentValidator}.
+ *
+ * <p>{@code beanValidation} is the previous path: Hibernate Validator over the constraints the OpenAPI generator
+ * used to put on the models, then an exception with a stack trace that the handler logged in full.
+ * {@code paymentValidator} is the current one, which throws a {@link ValidationException} without a stack trace;
+ * the sampled reject log is left out, it writes nothing for all but a few rejects per second.</p>
+ *
+ * @author Ranga Raju
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class PaymentValidationBenchmark {
+
+    @Param({"valid", "invalid"})
+    private String request;
+
+    private final PaymentValidator paymentValidator = new PaymentValidator();
+    private Validator beanValidator;
+    private Payment payment;
+
+    @Setup
+    public void setUp() {
+        HibernateValidatorConfiguration configuration = Validation.byProvider(HibernateValidator.class).configure();
+        ConstraintMapping mapping = configuration.createConstraintMapping();
+        mapping.type(Payment.class)
+                .field("currency").constraint(new NotNullDef()).constraint(new SizeDef().min(3).max(3))
+                .field("amount").constraint(new NotNullDef()).constraint(new DecimalMinDef().value("0"))
+                .field("counterparty").constraint(new NotNullDef()).valid()
+                .type(Account.class)
+                .field("type").constraint(new NotNullDef())
+                .field("accountNumber").constraint(new NotNullDef()).constraint(new SizeDef().min(8).max(8))
+                .field("sortCode").constraint(new NotNullDef()).constraint(new SizeDef().min(6).max(6));
+        beanValidator = configuration.addMapping(mapping).buildValidatorFactory().getValidator();
+
+        payment = request.equals("valid")
+                ? BenchmarkData.payments(1).get(0)
+                : new Payment("GBPX", new BigDecimal("-1"),
+                        new Account(Account.TypeEnum.SORT_CODE_ACCOUNT_NUMBER, "1234", "12"));
+    }
+
+    @Benchmark
+    public Object beanValidation() {
+        Set<ConstraintViolation<Payment>> violations = beanValidator.validate(payment);
+        if (violations.isEmpty()) {
+            return violations;
+        }
+        List<Error> errors = violations.stream()
+                .map(violation -> new Error().message(violation.getPropertyPath() + " : " + violation.getMessage()))
+                .toList();
+        // What logger.error(message, ex) rendered for every reject
+        StringWriter log = new StringWriter();
+        new IllegalArgumentException("Validation failed: " + errors.size() + " errors").printStackTrace(new PrintWriter(log));
+        return log.toString();
+    }
+
+    @Benchmark
+    public Object paymentValidator() {
+        try {
+            paymentValidator.validate(payment);
+            return payment;
+        } catch (ValidationException ex) {
+            return ex.getErrors();
+        }
+    }
+}
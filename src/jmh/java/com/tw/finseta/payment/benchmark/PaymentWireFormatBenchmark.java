@@ -0,0 +1,97 @@
+package com.tw.finseta.payment.benchmark;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.luben.zstd.ZstdInputStream;
+import com.github.luben.zstd.ZstdOutputStream;
+import com.tw.finseta.payment.codec.PaymentBinaryCodec;
+import com.tw.finseta.payment.model.Payment;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * CPU cost of writing and reading a 10 000 payment response in each wire format and content coding. The
+ * size of each response on the wire is printed once per trial.
+ *
+ * @author Ranga Raju
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class PaymentWireFormatBenchmark {
+
+    static final int PAYMENTS = 10_000;
+
+    @Param({"json", "binary"})
+    private String format;
+
+    @Param({"identity", "gzip", "zstd"})
+    private String coding;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(1 << 21);
+    private List<Payment> payments;
+    private byte[] encoded;
+
+    @Setup
+    public void setUp() throws IOException {
+        payments = BenchmarkData.payments(PAYMENTS);
+        encoded = write().toByteArray();
+        System.out.printf("%n%s/%s: %d bytes for %d payments%n", format, coding, encoded.length, PAYMENTS);
+    }
+
+    @Benchmark
+    public ByteArrayOutputStream write() throws IOException {
+        buffer.reset();
+        OutputStream out = switch (coding) {
+            case "gzip" -> new GZIPOutputStream(buffer, 8192);
+            case "zstd" -> new ZstdOutputStream(buffer, 3);
+            default -> buffer;
+        };
+        try (out) {
+            if (format.equals("binary")) {
+                PaymentBinaryCodec.writeAll(payments, out);
+            } else {
+                objectMapper.writeValue(out, payments);
+            }
+        }
+        return buffer;
+    }
+
+    @Benchmark
+    public List<Payment> read() throws IOException {
+        InputStream bytes = new ByteArrayInputStream(encoded);
+        InputStream in = switch (coding) {
+            case "gzip" -> new GZIPInputStream(bytes, 8192);
+            case "zstd" -> new ZstdInputStream(bytes);
+            default -> bytes;
+        };
+        try (in) {
+            return format.equals("binary")
+                    ? PaymentBinaryCodec.readAll(in, PAYMENTS)
+                    : objectMapper.readValue(in, new TypeReference<>() { });
+        }
+    }
+}
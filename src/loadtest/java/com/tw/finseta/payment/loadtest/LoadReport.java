@@ -0,0 +1,32 @@
+package com.tw.finseta.payment.loadtest;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Machine-readable result of a load test run, written as JSON.
+ *
+ * @param config the settings of the run
+ * @param achievedRate the requests actually sent per second during the measurement
+ * @param requests the results by kind of request, {@code create}, {@code query} and {@code all}
+ * @param violations the limits the run exceeded, empty if it passed
+ * @author Ranga Raju
+ */
+record LoadReport(Map<String, Object> config, double achievedRate, Map<String, Requests> requests,
+                  List<String> violations) {
+
+    /**
+     * @param count the successful requests
+     * @param errors the requests answered with an error status, failed or timed out
+     * @param errorsByCause the failed requests by response status, or by exception without a response
+     * @param errorRate the fraction of requests that failed
+     * @param throughput the successful requests per second
+     */
+    record Requests(long count, long errors, Map<String, Long> errorsByCause, double errorRate, double throughput,
+                    double p50Millis, double p99Millis, double p999Millis, double maxMillis) {
+    }
+
+    boolean passed() {
+        return violations.isEmpty();
+    }
+}
@@ -0,0 +1,176 @@
+package com.tw.finseta.payment.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.tw.finseta.payment.PaymentApplication;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Load test of the whole service over HTTP: boots {@link PaymentApplication} on a random port against an
+ * in-memory database, stores a data set, then sends a mix of payment creations and queries at a constant rate
+ * and writes the latency percentiles and throughput of each kind of request to a JSON report.
+ *
+ * <p>The arrival rate is fixed in advance, an open model: a request is sent when it is due whether or not
+ * earlier ones have been answered, and its latency is measured from the time it was due. A slow server
+ * therefore shows up in the percentiles instead of slowing the client down and hiding itself. With
+ * {@code max-p99} or {@code max-error-rate} set, a run beyond either exits with status 1, failing the build.
+ * See {@link LoadTestConfig} for the settings.</p>
+ *
+ * @author Ranga Raju
+ */
+public final class LoadTest {
+
+    private static final int DATASET_BATCH_SIZE = 1000;
+
+    private LoadTest() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadTestConfig config = LoadTestConfig.parse(args);
+        LoadReport report;
+        try (ConfigurableApplicationContext context = start(config)) {
+            int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+            report = run(config, URI.create("http://localhost:" + port + "/payments"),
+                    context.getBean(ObjectMapper.class));
+            Files.createDirectories(config.report().toAbsolutePath().getParent());
+            context.getBean(ObjectMapper.class).writerWithDefaultPrettyPrinter()
+                    .writeValue(config.report().toFile(), report);
+        }
+        report.requests().forEach((kind, requests) -> System.out.printf(
+                "%-6s %8d ok %6d errors %9.1f/s  p50 %8.2f ms  p99 %8.2f ms  p99.9 %8.2f ms  max %8.2f ms%n",
+                kind, requests.count(), requests.errors(), requests.throughput(), requests.p50Millis(),
+                requests.p99Millis(), requests.p999Millis(), requests.maxMillis()));
+        System.out.printf("Sent %.1f requests/s against a target of %.1f, report in %s%n",
+                report.achievedRate(), config.rate(), config.report());
+        report.violations().forEach(violation -> System.out.println("FAILED: " + violation));
+        System.exit(report.passed() ? 0 : 1);
+    }
+
+    private static ConfigurableApplicationContext start(LoadTestConfig config) {
+        List<String> args = new ArrayList<>(List.of(
+                "--server.port=0",
+                "--spring.datasource.url=jdbc:h2:mem:loadtest;DB_CLOSE_DELAY=-1",
+                // Per-save INFO lines would otherwise dominate the measurement
+                "--logging.level.root=WARN",
+                "--spring.h2.console.enabled=false"));
+        args.addAll(config.applicationArgs());
+        return SpringApplication.run(PaymentApplication.class, args.toArray(new String[0]));
+    }
+
+    static LoadReport run(LoadTestConfig config, URI payments, ObjectMapper objectMapper)
+            throws IOException, InterruptedException {
+        HttpClient client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(config.timeout())
+                .build();
+        PaymentRequests requests = new PaymentRequests(payments, objectMapper, config);
+        for (HttpRequest batch : requests.dataset(config.dataset(), DATASET_BATCH_SIZE)) {
+            HttpResponse<String> response = client.send(batch, HttpResponse.BodyHandlers.ofString());
+            if (response.statusCode() != 200) {
+                throw new IllegalStateException("Storing the data set failed with " + response.statusCode()
+                        + ": " + response.body());
+            }
+        }
+
+        RequestStats creates = new RequestStats();
+        RequestStats queries = new RequestStats();
+        AtomicInteger outstanding = new AtomicInteger();
+        double intervalNanos = TimeUnit.SECONDS.toNanos(1) / config.rate();
+        long start = System.nanoTime();
+        long measureFrom = start + config.warmup().toNanos();
+        long end = measureFrom + config.duration().toNanos();
+        long measured = 0;
+        long lastSent = measureFrom;
+        for (long i = 0; ; i++) {
+            long scheduled = start + (long) (i * intervalNanos);
+            if (scheduled - end >= 0) {
+                break;
+            }
+            for (long wait = scheduled - System.nanoTime(); wait > 0; wait = scheduled - System.nanoTime()) {
+                LockSupport.parkNanos(wait);
+            }
+            boolean create = ThreadLocalRandom.current().nextDouble() < config.postRatio();
+            RequestStats stats = scheduled - measureFrom >= 0 ? (create ? creates : queries) : null;
+            outstanding.incrementAndGet();
+            client.sendAsync(create ? requests.create() : requests.query(), HttpResponse.BodyHandlers.discarding())
+                    .whenComplete((response, failure) -> {
+                        long completed = System.nanoTime();
+                        if (stats != null) {
+                            if (failure != null) {
+                                stats.error(failure.getClass().getSimpleName());
+                            } else if (response.statusCode() >= 400) {
+                                stats.error(Integer.toString(response.statusCode()));
+                            } else {
+                                stats.success(scheduled, completed);
+                            }
+                        }
+                        outstanding.decrementAndGet();
+                    });
+            if (stats != null) {
+                measured++;
+                lastSent = System.nanoTime();
+            }
+        }
+        long deadline = System.nanoTime() + config.timeout().plusSeconds(1).toNanos();
+        while (outstanding.get() > 0 && System.nanoTime() - deadline < 0) {
+            Thread.sleep(10);
+        }
+
+        double seconds = config.duration().toNanos() / 1e9;
+        RequestStats all = new RequestStats();
+        creates.addTo(all);
+        queries.addTo(all);
+        Map<String, LoadReport.Requests> results = new LinkedHashMap<>();
+        results.put("create", creates.report(seconds));
+        results.put("query", queries.report(seconds));
+        results.put("all", all.report(seconds));
+        return new LoadReport(settings(config), measured / Math.max(seconds, (lastSent - measureFrom) / 1e9),
+                results, violations(config, results.get("all")));
+    }
+
+    private static Map<String, Object> settings(LoadTestConfig config) {
+        Map<String, Object> settings = new LinkedHashMap<>();
+        settings.put("rate", config.rate());
+        settings.put("warmup", config.warmup().toString());
+        settings.put("duration", config.duration().toString());
+        settings.put("postRatio", config.postRatio());
+        settings.put("counterpartyReuse", config.counterpartyReuse());
+        settings.put("dataset", config.dataset());
+        settings.put("maxP99", config.maxP99() == null ? null : config.maxP99().toString());
+        settings.put("maxErrorRate", config.maxErrorRate());
+        settings.put("applicationArgs", config.applicationArgs());
+        return settings;
+    }
+
+    private static List<String> violations(LoadTestConfig config, LoadReport.Requests all) {
+        List<String> violations = new ArrayList<>();
+        Duration maxP99 = config.maxP99();
+        if (maxP99 != null && all.p99Millis() > maxP99.toNanos() / 1e6) {
+            violations.add("p99 of " + all.p99Millis() + " ms is above " + maxP99.toMillis() + " ms");
+        }
+        if (config.maxErrorRate() != null && all.errorRate() > config.maxErrorRate()) {
+            violations.add("error rate of " + all.errorRate() + " is above " + config.maxErrorRate());
+        }
+        if (all.count() == 0) {
+            violations.add("no request succeeded");
+        }
+        return violations;
+    }
+}
@@ -0,0 +1,81 @@
+package com.tw.finseta.payment.loadtest;
+
+import org.springframework.boot.convert.DurationStyle;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Settings of one load test run, parsed from {@code key=value} arguments; a later argument overrides an earlier
+ * one. Arguments starting with {@code --} are passed to the application instead.
+ *
+ * @param rate the requests sent per second, whatever the latency of earlier requests
+ * @param warmup how long requests are sent before latencies are recorded
+ * @param duration how long latencies are recorded after the warm up
+ * @param postRatio the fraction of requests that create a payment, the rest query payments
+ * @param counterpartyReuse the fraction of created payments whose counterparty is already stored
+ * @param dataset the payments stored before the run, with one counterparty for every ten of them
+ * @param timeout the time after which a request counts as failed
+ * @param report the file the JSON report is written to
+ * @param maxP99 the p99 latency above which the run fails, {@code null} for no limit
+ * @param maxErrorRate the fraction of failed requests above which the run fails, {@code null} for no limit
+ * @param applicationArgs the arguments passed to the application
+ * @author Ranga Raju
+ */
+record LoadTestConfig(double rate, Duration warmup, Duration duration, double postRatio, double counterpartyReuse,
+                      int dataset, Duration timeout, Path report, Duration maxP99, Double maxErrorRate,
+                      List<String> applicationArgs) {
+
+    static LoadTestConfig parse(String... args) {
+        double rate = 50;
+        Duration warmup = Duration.ofSeconds(10);
+        Duration duration = Duration.ofSeconds(30);
+        double postRatio = 0.2;
+        double counterpartyReuse = 0.9;
+        int dataset = 10_000;
+        Duration timeout = Duration.ofSeconds(10);
+        Path report = Path.of("target", "loadtest-report.json");
+        Duration maxP99 = null;
+        Double maxErrorRate = null;
+        List<String> applicationArgs = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.startsWith("--")) {
+                applicationArgs.add(arg);
+                continue;
+            }
+            int separator = arg.indexOf('=');
+            if (separator < 0) {
+                throw new IllegalArgumentException("Expected key=value but got " + arg);
+            }
+            String value = arg.substring(separator + 1);
+            switch (arg.substring(0, separator)) {
+                case "rate" -> rate = Double.parseDouble(value);
+                case "warmup" -> warmup = DurationStyle.detectAndParse(value);
+                case "duration" -> duration = DurationStyle.detectAndParse(value);
+                case "post-ratio" -> postRatio = ratio(arg, value);
+                case "counterparty-reuse" -> counterpartyReuse = ratio(arg, value);
+                case "dataset" -> dataset = Integer.parseInt(value);
+                case "timeout" -> timeout = DurationStyle.detectAndParse(value);
+                case "report" -> report = Path.of(value);
+                case "max-p99" -> maxP99 = value.isEmpty() ? null : DurationStyle.detectAndParse(value);
+                case "max-error-rate" -> maxErrorRate = value.isEmpty() ? null : ratio(arg, value);
+                default -> throw new IllegalArgumentException("Unknown load test setting " + arg);
+            }
+        }
+        if (rate <= 0 || duration.isZero() || duration.isNegative()) {
+            throw new IllegalArgumentException("rate and duration must be positive");
+        }
+        return new LoadTestConfig(rate, warmup, duration, postRatio, counterpartyReuse, dataset, timeout, report,
+                maxP99, maxErrorRate, List.copyOf(applicationArgs));
+    }
+
+    private static double ratio(String arg, String value) {
+        double ratio = Double.parseDouble(value);
+        if (ratio < 0 || ratio > 1) {
+            throw new IllegalArgumentException("Expected a ratio between 0 and 1 but got " + arg);
+        }
+        return ratio;
+    }
+}
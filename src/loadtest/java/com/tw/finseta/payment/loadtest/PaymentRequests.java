@@ -0,0 +1,109 @@
+package com.tw.finseta.payment.loadtest;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.tw.finseta.payment.model.Account;
+import com.tw.finseta.payment.model.Payment;
+import com.tw.finseta.payment.money.CurrencyCode;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The requests of a load test: payments to create, with a share of stored and of new counterparties, and
+ * filtered payment queries.
+ *
+ * @author Ranga Raju
+ */
+final class PaymentRequests {
+
+    static final String[] CURRENCIES = {"GBP", "USD", "EUR", "JPY", "INR"};
+    static final int PAYMENTS_PER_COUNTERPARTY = 10;
+
+    private static final String JSON = "application/json";
+
+    private final URI payments;
+    private final ObjectMapper objectMapper;
+    private final Duration timeout;
+    private final double counterpartyReuse;
+    private final int counterparties;
+    // New counterparties are numbered after the stored ones
+    private final AtomicInteger nextCounterparty;
+
+    PaymentRequests(URI payments, ObjectMapper objectMapper, LoadTestConfig config) {
+        this.payments = payments;
+        this.objectMapper = objectMapper;
+        this.timeout = config.timeout();
+        this.counterpartyReuse = config.counterpartyReuse();
+        this.counterparties = Math.max(1, config.dataset() / PAYMENTS_PER_COUNTERPARTY);
+        this.nextCounterparty = new AtomicInteger(counterparties);
+    }
+
+    /**
+     * Batches storing the data set, {@code dataset} payments over {@code dataset / 10} counterparties.
+     */
+    List<HttpRequest> dataset(int size, int batchSize) {
+        List<HttpRequest> batches = new ArrayList<>();
+        for (int from = 0; from < size; from += batchSize) {
+            List<Payment> batch = new ArrayList<>(batchSize);
+            for (int i = from; i < Math.min(size, from + batchSize); i++) {
+                batch.add(payment(i % counterparties));
+            }
+            batches.add(post(payments.resolve("/payments/batch"), batch));
+        }
+        return batches;
+    }
+
+    /** Creates one payment, for a stored counterparty with probability {@code counterparty-reuse}. */
+    HttpRequest create() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int counterparty = random.nextDouble() < counterpartyReuse
+                ? random.nextInt(counterparties)
+                : nextCounterparty.getAndIncrement();
+        return post(payments, payment(counterparty));
+    }
+
+    /** Queries a page of payments by currency, by minimum amount or by both. */
+    HttpRequest query() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        String currency = CURRENCIES[random.nextInt(CURRENCIES.length)];
+        String query = switch (random.nextInt(3)) {
+            case 0 -> "currencies=" + currency;
+            case 1 -> "minAmount=" + random.nextInt(10_000);
+            default -> "currencies=" + currency + "&minAmount=" + random.nextInt(10_000);
+        };
+        return HttpRequest.newBuilder(URI.create(payments + "?" + query + "&limit=100"))
+                .timeout(timeout)
+                .GET()
+                .build();
+    }
+
+    private Payment payment(int counterparty) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        String currency = CURRENCIES[random.nextInt(CURRENCIES.length)];
+        // Up to 10 000.00 in the currency's own minor units
+        BigDecimal amount = BigDecimal.valueOf(random.nextInt(1_000_000), 2)
+                .setScale(CurrencyCode.of(currency).exponent(), RoundingMode.DOWN);
+        return new Payment(currency, amount, new Account(Account.TypeEnum.SORT_CODE_ACCOUNT_NUMBER,
+                String.format("%08d", counterparty), "123456"));
+    }
+
+    private HttpRequest post(URI uri, Object body) {
+        try {
+            return HttpRequest.newBuilder(uri)
+                    .timeout(timeout)
+                    .header("Content-Type", JSON)
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(objectMapper.writeValueAsBytes(body)))
+                    .build();
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.tw.finseta.payment.loadtest;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latencies and failures of one kind of request, recorded concurrently from the client's completion threads.
+ *
+ * <p>Latency runs from the time a request was scheduled to be sent, not the time it was sent, so a stalled
+ * server is charged for every request that queued behind it.</p>
+ *
+ * @author Ranga Raju
+ */
+final class RequestStats {
+
+    // Microseconds, to 3 significant digits, resized as larger values arrive
+    private final Histogram latencies = new ConcurrentHistogram(3);
+    // By response status, or by exception for requests without a response
+    private final Map<String, LongAdder> errors = new ConcurrentHashMap<>();
+
+    void success(long scheduledNanos, long completedNanos) {
+        latencies.recordValue(TimeUnit.NANOSECONDS.toMicros(completedNanos - scheduledNanos));
+    }
+
+    void error(String cause) {
+        errors.computeIfAbsent(cause, key -> new LongAdder()).increment();
+    }
+
+    /**
+     * @param seconds the length of the measurement
+     */
+    LoadReport.Requests report(double seconds) {
+        long count = latencies.getTotalCount();
+        Map<String, Long> errorsByCause = new TreeMap<>();
+        errors.forEach((cause, adder) -> errorsByCause.put(cause, adder.sum()));
+        long errorCount = errorsByCause.values().stream().mapToLong(Long::longValue).sum();
+        return new LoadReport.Requests(count, errorCount, errorsByCause,
+                count + errorCount == 0 ? 0 : (double) errorCount / (count + errorCount),
+                count / seconds,
+                millis(latencies.getValueAtPercentile(50)),
+                millis(latencies.getValueAtPercentile(99)),
+                millis(latencies.getValueAtPercentile(99.9)),
+                millis(latencies.getMaxValue()));
+    }
+
+    void addTo(RequestStats total) {
+        total.latencies.add(latencies);
+        errors.forEach((cause, adder) ->
+                total.errors.computeIfAbsent(cause, key -> new LongAdder()).add(adder.sum()));
+    }
+
+    private static double millis(long micros) {
+        return micros / 1000.0;
+    }
+}
@@ -0,0 +1,104 @@
+package com.tw.finseta.payment.admission;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Concurrency limit of one endpoint, adjusted by additive increase and multiplicative decrease on its latency.
+ *
+ * <p>A request completing within the latency target while at least half the limit is in use grows the limit by
+ * {@code 1 / limit}, so by one for each full round of requests. A request slower than the target shrinks it by
+ * {@value #BACKOFF}, at most once per target interval, so a single burst of slow requests counts once. Requests
+ * beyond the limit are not queued, {@link #tryAcquire()} simply fails.</p>
+ *
+ * <p>The limit and the time of the last decrease are each updated by compare-and-set, so completing requests
+ * never wait for each other or pin the carrier of a virtual thread.</p>
+ *
+ * @author Ranga Raju
+ */
+final class AdaptiveLimit {
+
+    static final double BACKOFF = 0.9;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final long targetNanos;
+    private final AtomicInteger inflight = new AtomicInteger();
+
+    // The limit as the bits of a double
+    private final AtomicLong limit;
+    private final AtomicLong lastDecrease;
+
+    AdaptiveLimit(int initialLimit, int minLimit, int maxLimit, long targetNanos) {
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.targetNanos = targetNanos;
+        this.limit = new AtomicLong(Double.doubleToRawLongBits(Math.max(minLimit, Math.min(maxLimit, initialLimit))));
+        this.lastDecrease = new AtomicLong(System.nanoTime() - targetNanos);
+    }
+
+    /**
+     * Takes a slot if fewer requests than the limit are in flight.
+     *
+     * @return whether the request is admitted, in which case {@link #release(long, long)} must follow
+     */
+    boolean tryAcquire() {
+        while (true) {
+            int current = inflight.get();
+            if (current >= limit()) {
+                return false;
+            }
+            if (inflight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Frees the slot of a completed request and adjusts the limit by its latency.
+     *
+     * @param start the {@link System#nanoTime()} at which the request was admitted
+     * @param end the {@link System#nanoTime()} at which it completed
+     */
+    void release(long start, long end) {
+        int current = inflight.getAndDecrement();
+        if (end - start > targetNanos) {
+            // Whoever moves the time of the last decrease on applies the decrease, once per target interval
+            long last = lastDecrease.get();
+            if (end - last >= targetNanos && lastDecrease.compareAndSet(last, end)) {
+                while (true) {
+                    long bits = limit.get();
+                    double value = Double.longBitsToDouble(bits);
+                    double decreased = Math.max(minLimit, value * BACKOFF);
+                    if (decreased == value || limit.compareAndSet(bits, Double.doubleToRawLongBits(decreased))) {
+                        return;
+                    }
+                }
+            }
+        } else {
+            while (true) {
+                long bits = limit.get();
+                double value = Double.longBitsToDouble(bits);
+                double increased = Math.min(maxLimit, value + 1 / value);
+                // Unchanged at the maximum, so a steady load does not contend on the limit at all
+                if (2 * current < value || increased == value
+                        || limit.compareAndSet(bits, Double.doubleToRawLongBits(increased))) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /** Whether every slot is taken. */
+    boolean saturated() {
+        return inflight.get() >= limit();
+    }
+
+    int limit() {
+        return (int) Double.longBitsToDouble(limit.get());
+    }
+
+    int inflight() {
+        return inflight.get();
+    }
+}
@@ -0,0 +1,209 @@
+package com.tw.finseta.payment.admission;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Admission control in front of the payment endpoints: requests that cannot be served promptly are rejected
+ * at once instead of queueing for a Tomcat thread or a database connection.
+ *
+ * <p>Each endpoint has an {@link AdaptiveLimit} on its concurrent requests, driven by a latency target for
+ * writes and another for reads; a request beyond the limit gets {@code 503}. Writes come first: while any write
+ * endpoint is at its limit, reads are rejected too, so a read storm cannot starve ingestion of threads or
+ * connections. With {@code payment.admission.client-rate} set, each client, named by the
+ * {@code payment.admission.client-header} header or else its address, also has a {@link TokenBucket}, and a
+ * client over its rate gets {@code 429}. Both carry a {@code Retry-After} header. The long-lived NDJSON and
+ * event streams are not limited.</p>
+ *
+ * @author Ranga Raju
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE + 10)
+@ConditionalOnProperty(name = "payment.admission.enabled", havingValue = "true", matchIfMissing = true)
+public class AdmissionFilter extends OncePerRequestFilter {
+
+    static final String REJECTED_METRIC = "payment.admission.rejected";
+    static final long LIMIT_RETRY_AFTER_SECONDS = 1;
+
+    private static final String NDJSON_VALUE = "application/x-ndjson";
+
+    /**
+     * The limited endpoints, each with its own concurrency limit.
+     */
+    enum Endpoint {
+        CREATE("POST", "/payments", true),
+        CREATE_BATCH("POST", "/payments/batch", true),
+        QUERY("GET", "/payments", false),
+        SUMMARY("GET", "/payments/summary", false);
+
+        private final String method;
+        private final String path;
+        private final boolean write;
+
+        Endpoint(String method, String path, boolean write) {
+            this.method = method;
+            this.path = path;
+            this.write = write;
+        }
+
+        static Endpoint of(HttpServletRequest request) {
+            for (Endpoint endpoint : values()) {
+                if (endpoint.method.equals(request.getMethod()) && endpoint.path.equals(request.getRequestURI())) {
+                    return endpoint;
+                }
+            }
+            return null;
+        }
+
+        String tag() {
+            return method + " " + path;
+        }
+    }
+
+    private final Map<Endpoint, AdaptiveLimit> limits = new EnumMap<>(Endpoint.class);
+    private final Map<Endpoint, Map<String, Counter>> rejections = new EnumMap<>(Endpoint.class);
+    private final Cache<String, TokenBucket> buckets;
+    private final double clientRate;
+    private final int clientBurst;
+    private final String clientHeader;
+
+    /**
+     * Constructs an AdmissionFilter.
+     *
+     * @param initialLimit the concurrency limit of each endpoint at startup
+     * @param minLimit the lowest an endpoint's limit may fall to
+     * @param maxLimit the highest an endpoint's limit may rise to
+     * @param readLatencyTarget the latency above which the limit of a read endpoint is lowered
+     * @param writeLatencyTarget the latency above which the limit of a write endpoint is lowered
+     * @param clientRate the requests per second allowed to each client, 0 for no per-client limit
+     * @param clientBurst the requests a client may send at once before its rate applies
+     * @param clientHeader the request header naming the client, its address is used without it
+     * @param meterRegistry the registry of the limit and in-flight gauges and the rejection counters
+     */
+    public AdmissionFilter(@Value("${payment.admission.initial-limit:20}") int initialLimit,
+                           @Value("${payment.admission.min-limit:2}") int minLimit,
+                           @Value("${payment.admission.max-limit:200}") int maxLimit,
+                           @Value("${payment.admission.read-latency-target:100ms}") Duration readLatencyTarget,
+                           @Value("${payment.admission.write-latency-target:250ms}") Duration writeLatencyTarget,
+                           @Value("${payment.admission.client-rate:0}") double clientRate,
+                           @Value("${payment.admission.client-burst:50}") int clientBurst,
+                           @Value("${payment.admission.client-header:X-Client-Id}") String clientHeader,
+                           MeterRegistry meterRegistry) {
+        for (Endpoint endpoint : Endpoint.values()) {
+            Duration target = endpoint.write ? writeLatencyTarget : readLatencyTarget;
+            AdaptiveLimit limit = new AdaptiveLimit(initialLimit, minLimit, maxLimit, target.toNanos());
+            limits.put(endpoint, limit);
+            Gauge.builder("payment.admission.limit", limit, AdaptiveLimit::limit)
+                    .description("Current concurrency limit of each payment endpoint")
+                    .tag("endpoint", endpoint.tag())
+                    .register(meterRegistry);
+            Gauge.builder("payment.admission.inflight", limit, AdaptiveLimit::inflight)
+                    .description("Admitted requests in flight on each payment endpoint")
+                    .tag("endpoint", endpoint.tag())
+                    .register(meterRegistry);
+            rejections.put(endpoint, Map.of(
+                    "limit", rejected(meterRegistry, endpoint, "limit"),
+                    "priority", rejected(meterRegistry, endpoint, "priority"),
+                    "rate", rejected(meterRegistry, endpoint, "rate")));
+        }
+        this.clientRate = clientRate;
+        this.clientBurst = clientBurst;
+        this.clientHeader = clientHeader;
+        this.buckets = Caffeine.newBuilder()
+                .expireAfterAccess(Duration.ofMinutes(10))
+                .maximumSize(100_000)
+                .build();
+    }
+
+    private static Counter rejected(MeterRegistry meterRegistry, Endpoint endpoint, String reason) {
+        return Counter.builder(REJECTED_METRIC)
+                .description("Requests rejected by admission control")
+                .tag("endpoint", endpoint.tag())
+                .tag("reason", reason)
+                .register(meterRegistry);
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        String accept = request.getHeader(HttpHeaders.ACCEPT);
+        return Endpoint.of(request) == null || (accept != null && accept.contains(NDJSON_VALUE));
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        Endpoint endpoint = Endpoint.of(request);
+        if (clientRate > 0) {
+            long wait = bucket(request).tryAcquire(System.nanoTime());
+            if (wait > 0) {
+                reject(response, endpoint, "rate", HttpStatus.TOO_MANY_REQUESTS.value(),
+                        Math.max(1, TimeUnit.NANOSECONDS.toSeconds(wait + TimeUnit.SECONDS.toNanos(1) - 1)));
+                return;
+            }
+        }
+        if (!endpoint.write && writesSaturated()) {
+            reject(response, endpoint, "priority", HttpServletResponse.SC_SERVICE_UNAVAILABLE, LIMIT_RETRY_AFTER_SECONDS);
+            return;
+        }
+        AdaptiveLimit limit = limits.get(endpoint);
+        if (!limit.tryAcquire()) {
+            reject(response, endpoint, "limit", HttpServletResponse.SC_SERVICE_UNAVAILABLE, LIMIT_RETRY_AFTER_SECONDS);
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            limit.release(start, System.nanoTime());
+        }
+    }
+
+    private TokenBucket bucket(HttpServletRequest request) {
+        String client = request.getHeader(clientHeader);
+        if (client == null) {
+            client = request.getRemoteAddr();
+        }
+        return buckets.get(client, key -> new TokenBucket(clientRate, clientBurst, System.nanoTime()));
+    }
+
+    private boolean writesSaturated() {
+        for (Endpoint endpoint : Endpoint.values()) {
+            if (endpoint.write && limits.get(endpoint).saturated()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void reject(HttpServletResponse response, Endpoint endpoint, String reason, int status, long retryAfter) {
+        rejections.get(endpoint).get(reason).increment();
+        response.setStatus(status);
+        response.setHeader(HttpHeaders.RETRY_AFTER, Long.toString(retryAfter));
+    }
+
+    /** Current concurrency limit of an endpoint. */
+    int limit(Endpoint endpoint) {
+        return limits.get(endpoint).limit();
+    }
+}
@@ -0,0 +1,41 @@
+package com.tw.finseta.payment.admission;
+
+/**
+ * Request rate limit of one client: up to {@code burst} requests at once, refilled at {@code ratePerSecond}.
+ *
+ * @author Ranga Raju
+ */
+final class TokenBucket {
+
+    private static final double NANOS_PER_SECOND = 1e9;
+
+    private final double tokensPerNano;
+    private final double burst;
+
+    // Guarded by this
+    private double tokens;
+    private long refilled;
+
+    TokenBucket(double ratePerSecond, double burst, long now) {
+        this.tokensPerNano = ratePerSecond / NANOS_PER_SECOND;
+        this.burst = burst;
+        this.tokens = burst;
+        this.refilled = now;
+    }
+
+    /**
+     * Takes a token for one request.
+     *
+     * @param now the current {@link System#nanoTime()}
+     * @return 0 if the request may proceed, otherwise the nanoseconds until a token will be available
+     */
+    synchronized long tryAcquire(long now) {
+        tokens = Math.min(burst, tokens + (now - refilled) * tokensPerNano);
+        refilled = now;
+        if (tokens >= 1) {
+            tokens -= 1;
+            return 0;
+        }
+        return (long) Math.ceil((1 - tokens) / tokensPerNano);
+    }
+}
@@ -0,0 +1,56 @@
+package com.tw.finseta.payment.advice;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Decides which rejected requests are logged: the first {@code perSecond} of each second, the rest only counted.
+ *
+ * <p>A flood of invalid requests therefore costs a few counter updates each rather than a log line each, and
+ * the next line that is logged reports how many were left out before it.</p>
+ *
+ * @author Ranga Raju
+ */
+final class RejectSampler {
+
+    /** Returned by {@link #sample()} when the reject should not be logged. */
+    static final long SKIP = -1;
+
+    private final int perSecond;
+    private final LongSupplier nanoClock;
+    private final AtomicLong second = new AtomicLong(Long.MIN_VALUE);
+    private final AtomicInteger logged = new AtomicInteger();
+    private final LongAdder skipped = new LongAdder();
+
+    RejectSampler(int perSecond) {
+        this(perSecond, System::nanoTime);
+    }
+
+    RejectSampler(int perSecond, LongSupplier nanoClock) {
+        this.perSecond = perSecond;
+        this.nanoClock = nanoClock;
+    }
+
+    /**
+     * Samples one reject.
+     *
+     * @return {@link #SKIP} if it should not be logged, otherwise the number of rejects skipped since the last
+     *         one that was
+     */
+    long sample() {
+        long now = TimeUnit.NANOSECONDS.toSeconds(nanoClock.getAsLong());
+        long current = second.get();
+        // Only the thread that moves the window on resets it, a racing reject may count towards either second
+        if (now != current && second.compareAndSet(current, now)) {
+            logged.set(0);
+        }
+        if (logged.incrementAndGet() > perSecond) {
+            skipped.increment();
+            return SKIP;
+        }
+        return skipped.sumThenReset();
+    }
+}
@@ -1,28 +1,47 @@
 package com.tw.finseta.payment.advice;
 
+import com.tw.finseta.payment.codec.PaymentBinaryMessageConverter;
+import com.tw.finseta.payment.exception.IdempotencyKeyException;
 import com.tw.finseta.payment.exception.ValidationException;
+import com.tw.finseta.payment.logging.AccountMasking;
 import com.tw.finseta.payment.model.BadRequest;
 import com.tw.finseta.payment.model.Error;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.http.converter.HttpMessageNotReadableException;
-import org.springframework.validation.FieldError;
-import org.springframework.web.bind.MethodArgumentNotValidException;
+import org.springframework.transaction.CannotCreateTransactionException;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.RestControllerAdvice;
+import org.springframework.web.method.annotation.MethodArgumentTypeMismatchException;
 
 import java.util.List;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 /**
  * REST controller advice that handles validation and deserialization errors for the payment API.
  *
- * <p>Maps {@link ValidationException} and deserialization exceptions to HTTP error responses, ensuring
+ * <p>Maps {@link ValidationException}, deserialization and conversion exceptions to HTTP error responses, ensuring
  * clients receive meaningful feedback for invalid requests. Utilizes Spring's @RestControllerAdvice.</p>
  *
+ * <p>Invalid requests are the client's fault, so they are logged as one WARN line without a stack trace, and
+ * only the first {@code payment.validation.log-rejects-per-second} of each second; the rest are counted by the
+ * error metric and summarized on the next line logged. Unhandled exceptions are logged at ERROR the same way, up
+ * to {@code payment.request-log.errors-per-second}, so a failing dependency cannot flood the log either.</p>
+ *
+ * <p>Account numbers in logged messages are masked unless {@code payment.request-log.mask-accounts=false}.
+ * Exception messages can quote them, from a database constraint violation for instance, so with masking on an
+ * unhandled exception is logged in full at ERROR with the {@link AccountMasking#MASKED} marker, and the log layout
+ * masks the account numbers in its messages as it writes the stack trace.</p>
+ *
  * @author Ranga Raju
  */
 @RestControllerAdvice
@@ -30,40 +49,149 @@ public class RestExceptionHandler {
 
     private static final Logger logger = LogManager.getLogger(RestExceptionHandler.class);
 
+    static final String ERRORS_METRIC = "payment.errors";
+
+    private final Counter validationErrors;
+    private final Counter notReadableErrors;
+    private final Counter typeMismatchErrors;
+    private final Counter unavailableErrors;
+    private final Counter idempotencyErrors;
+    private final Counter unhandledErrors;
+    private final RejectSampler rejectSampler;
+    private final RejectSampler errorSampler;
+    private final boolean maskAccounts;
+
+    /**
+     * @param meterRegistry the registry of the per handler error counters
+     * @param rejectsPerSecond the maximum number of rejected requests logged per second
+     * @param errorsPerSecond the maximum number of unhandled exceptions logged per second
+     * @param maskAccounts whether to mask account numbers in logged messages
+     */
+    public RestExceptionHandler(MeterRegistry meterRegistry,
+                                @Value("${payment.validation.log-rejects-per-second:10}") int rejectsPerSecond,
+                                @Value("${payment.request-log.errors-per-second:10}") int errorsPerSecond,
+                                @Value("${payment.request-log.mask-accounts:true}") boolean maskAccounts) {
+        this.rejectSampler = new RejectSampler(rejectsPerSecond);
+        this.errorSampler = new RejectSampler(errorsPerSecond);
+        this.maskAccounts = maskAccounts;
+        this.validationErrors = errorCounter(meterRegistry, "validation");
+        this.notReadableErrors = errorCounter(meterRegistry, "not_readable");
+        this.typeMismatchErrors = errorCounter(meterRegistry, "type_mismatch");
+        this.unavailableErrors = errorCounter(meterRegistry, "unavailable");
+        this.idempotencyErrors = errorCounter(meterRegistry, "idempotency");
+        this.unhandledErrors = errorCounter(meterRegistry, "unhandled");
+    }
+
+    private static Counter errorCounter(MeterRegistry meterRegistry, String type) {
+        return Counter.builder(ERRORS_METRIC)
+                .description("Requests answered by each exception handler")
+                .tag("type", type)
+                .register(meterRegistry);
+    }
+
     @ExceptionHandler(ValidationException.class)
     public ResponseEntity<BadRequest> handleValidationException(ValidationException ex) {
-        logger.error("ValidationException:", ex);
+        validationErrors.increment();
+        logReject("validation", () -> messages(ex.getErrors()));
         BadRequest badRequest = new BadRequest();
         badRequest.setErrors(ex.getErrors());
-        return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(badRequest);
+        return badRequest(badRequest);
     }
 
     @ExceptionHandler(HttpMessageNotReadableException.class)
     public ResponseEntity<BadRequest> handleNotReadableException(HttpMessageNotReadableException ex) {
-        logger.error("HttpMessageNotReadableException:", ex);
+        notReadableErrors.increment();
         BadRequest badRequest = new BadRequest();
-        badRequest.setErrors(List.of(new Error().message("Counterparty type must be SORT_CODE_ACCOUNT_NUMBER")));
-        return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(badRequest);
+        badRequest.setErrors(List.of(new Error().message(isPaymentBinary(ex)
+                ? firstLine(ex.getMessage())
+                : "Counterparty type must be SORT_CODE_ACCOUNT_NUMBER")));
+        logReject("not_readable", () -> firstLine(ex.getMostSpecificCause().getMessage()));
+        return badRequest(badRequest);
     }
 
-    @ExceptionHandler(MethodArgumentNotValidException.class)
-    public ResponseEntity<BadRequest> handleMethodArgumentNotValidException(MethodArgumentNotValidException ex) {
-        logger.error("MethodArgumentNotValidException:", ex);
-
-        List<Error> liErrors = ex.getBindingResult().getAllErrors().stream().flatMap(error -> {
-            String fieldName = ((error instanceof  FieldError) ? ((FieldError)error).getField() : error.getObjectName());
-            String errMsg = error.getDefaultMessage();
-            return  Stream.of(new Error().message(fieldName + " : " + errMsg));
-        }).collect(Collectors.toList());
+    /**
+     * Handles query parameters that cannot be converted, such as a {@code from} that is not an ISO 8601 date-time.
+     */
+    @ExceptionHandler(MethodArgumentTypeMismatchException.class)
+    public ResponseEntity<BadRequest> handleTypeMismatchException(MethodArgumentTypeMismatchException ex) {
+        typeMismatchErrors.increment();
+        Class<?> type = ex.getRequiredType();
+        Error error = new Error().message(ex.getName() + " : must be a valid "
+                + ((type == null) ? "value" : type.getSimpleName()));
+        logReject("type_mismatch", error::getMessage);
+        BadRequest badRequest = new BadRequest();
+        badRequest.setErrors(List.of(error));
+        return badRequest(badRequest);
+    }
 
+    /**
+     * Handles a create request whose {@code Idempotency-Key} was used with another payment ({@code 422}) or is held
+     * by a request still in progress ({@code 409}).
+     */
+    @ExceptionHandler(IdempotencyKeyException.class)
+    public ResponseEntity<BadRequest> handleIdempotencyKeyException(IdempotencyKeyException ex) {
+        idempotencyErrors.increment();
+        logReject("idempotency", ex::getMessage);
         BadRequest badRequest = new BadRequest();
-        badRequest.setErrors(liErrors);
-        return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(badRequest);
+        badRequest.setErrors(List.of(new Error().message(ex.getMessage())));
+        return ResponseEntity.status(ex.getStatus()).contentType(MediaType.APPLICATION_JSON).body(badRequest);
+    }
+
+    // Errors are always JSON, also for a request that only accepts the binary payment format
+    private static ResponseEntity<BadRequest> badRequest(BadRequest badRequest) {
+        return ResponseEntity.status(HttpStatus.BAD_REQUEST).contentType(MediaType.APPLICATION_JSON).body(badRequest);
+    }
+
+    private static boolean isPaymentBinary(HttpMessageNotReadableException ex) {
+        MediaType contentType = ex.getHttpInputMessage() == null
+                ? null : ex.getHttpInputMessage().getHeaders().getContentType();
+        return contentType != null && PaymentBinaryMessageConverter.PAYMENT_BINARY.includes(contentType);
+    }
+
+    // One line per sampled reject, with the number of rejects skipped since the previous line. The detail is
+    // only formatted for the rejects that are logged
+    private void logReject(String type, Supplier<String> detail) {
+        long skipped = rejectSampler.sample();
+        if (skipped != RejectSampler.SKIP) {
+            logger.warn("Rejected request: type={} skipped={} errors=[{}]", type, skipped, mask(detail.get()));
+        }
+    }
+
+    private String mask(String message) {
+        return maskAccounts ? AccountMasking.maskAll(message) : message;
+    }
+
+    private static String messages(List<Error> errors) {
+        return errors.stream().map(Error::getMessage).collect(Collectors.joining("; "));
+    }
+
+    private static String firstLine(String message) {
+        if (message == null) {
+            return null;
+        }
+        int newline = message.indexOf('\n');
+        return (newline < 0) ? message : message.substring(0, newline);
+    }
+
+    /**
+     * Handles requests that found no database connection within the pool's connection timeout. The pool is what
+     * bounds concurrent database work, with virtual threads in particular, so running out of it is an overload to
+     * retry rather than a fault.
+     */
+    @ExceptionHandler({CannotCreateTransactionException.class, DataAccessResourceFailureException.class})
+    public ResponseEntity<Void> handleUnavailableException(Exception ex) {
+        unavailableErrors.increment();
+        logReject("unavailable", () -> firstLine(ex.getMessage()));
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).header(HttpHeaders.RETRY_AFTER, "1").build();
     }
 
     @ExceptionHandler(Exception.class)
     public ResponseEntity<String> handleException(Exception ex) {
-        logger.error("Unhandled Exception:", ex);
+        unhandledErrors.increment();
+        long skipped = errorSampler.sample();
+        if (skipped != RejectSampler.SKIP) {
+            logger.error(maskAccounts ? AccountMasking.MASKED : null, "Unhandled exception: skipped={}", skipped, ex);
+        }
         return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(ex.getMessage());
     }
 }
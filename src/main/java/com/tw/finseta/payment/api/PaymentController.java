@@ -1,26 +1,53 @@
 package com.tw.finseta.payment.api;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.tw.finseta.payment.exception.ValidationException;
+import com.tw.finseta.payment.feed.PaymentFeed;
+import com.tw.finseta.payment.idempotency.IdempotencyStore;
+import com.tw.finseta.payment.ingest.AcceptedPayment;
+import com.tw.finseta.payment.ingest.PaymentJournal;
+import com.tw.finseta.payment.logging.RequestFields;
+import com.tw.finseta.payment.logging.RequestLog;
+import com.tw.finseta.payment.model.CurrencySummary;
 import com.tw.finseta.payment.model.Payment;
+import com.tw.finseta.payment.model.PaymentBatchResult;
+import com.tw.finseta.payment.repository.PaymentFilter;
+import com.tw.finseta.payment.service.PaymentPage;
 import com.tw.finseta.payment.service.PaymentService;
+import com.tw.finseta.payment.validation.PaymentValidator;
 import lombok.RequiredArgsConstructor;
-import org.apache.logging.log4j.LogManager;
-import org.apache.logging.log4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.math.BigDecimal;
+import java.time.Instant;
+import java.time.OffsetDateTime;
 import java.util.List;
+import java.util.function.Consumer;
 
 /**
  * REST controller for managing payments.
  * <p>
  * Provides endpoints to retrieve a list of payments with optional filtering by minimum amount and currencies,
- * and to create new payments.
+ * to stream them as newline-delimited JSON, to subscribe to new payments as server-sent events, and to create
+ * new payments singly or in batches.
  * </p>
  * <p>
- * This controller delegates business logic to {@link PaymentService}.
+ * This controller delegates business logic to {@link PaymentService}. It logs nothing itself: it adds the
+ * payment, filters and counts of each request to its {@link RequestLog} line.
  * </p>
  *
  * @author Ranga Raju
@@ -29,44 +56,217 @@ import java.util.List;
 @RequiredArgsConstructor
 public class PaymentController implements PaymentsApi {
 
-    private static final Logger logger = LogManager.getLogger(PaymentController.class);
+    public static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+    static final String INGEST_ID_HEADER = "X-Ingest-Id";
+
+    static final String NDJSON_VALUE = "application/x-ndjson";
+    private static final int STREAM_FLUSH_INTERVAL = 500;
+
     private PaymentService paymentService;
+    private ObjectMapper objectMapper;
+    private PaymentFeed paymentFeed;
+    private PaymentValidator paymentValidator;
+    private PaymentJournal paymentJournal;
+    private IdempotencyStore idempotencyStore;
 
     /**
      * Constructor with PaymentService injection.
      *
      * @param paymentService Service for payment operations
+     * @param objectMapper Jackson mapper used to write streamed payments
+     * @param paymentFeed Change feed of committed payments for event stream subscribers
+     * @param paymentValidator Validator of the payments in create requests
+     * @param idempotencyStore Store of the responses to create requests with an {@code Idempotency-Key}
      */
     @Autowired
-    public PaymentController(PaymentService paymentService) {
+    public PaymentController(PaymentService paymentService, ObjectMapper objectMapper, PaymentFeed paymentFeed,
+                             PaymentValidator paymentValidator, IdempotencyStore idempotencyStore) {
         this.paymentService = paymentService;
+        this.objectMapper = objectMapper;
+        this.paymentFeed = paymentFeed;
+        this.paymentValidator = paymentValidator;
+        this.idempotencyStore = idempotencyStore;
+    }
+
+    /**
+     * Switches single payment creation to write-behind ingestion, present when {@code payment.ingest.mode=journal}.
+     *
+     * @param paymentJournal Journal that acknowledges payments before they are committed to the database
+     */
+    @Autowired(required = false)
+    public void setPaymentJournal(PaymentJournal paymentJournal) {
+        this.paymentJournal = paymentJournal;
     }
 
     /**
-     * Retrieve a list of payments optionally filtered by minimum amount and currencies.
+     * Retrieve one page of payments optionally filtered by minimum amount, currencies and creation time.
+     * The cursor of the next page, if any, is returned in the {@value #NEXT_CURSOR_HEADER} header.
      *
      * @param minAmount Optional filter to select payments with amount >= minAmount
      * @param currencies Optional filter to select payments matching specified currency codes
-     * @return ResponseEntity containing list of matching payments and HTTP status 200 (OK)
+     * @param from Optional filter to select payments created at or after this time
+     * @param to Optional filter to select payments created before this time
+     * @param limit Maximum number of payments in the page
+     * @param cursor Optional cursor returned with the previous page
+     * @return ResponseEntity containing the page of matching payments and HTTP status 200 (OK)
      */
     @Override
-    public ResponseEntity<List<Payment>> paymentsGet(BigDecimal minAmount, List<String> currencies) {
-        logger.info("Received getPaymentsByFilters request: currencies: {} + minAmount: {}", currencies, minAmount);
-        List<Payment> payments = paymentService.getPaymentsByFilters(currencies, minAmount);
-        return new ResponseEntity<>(payments, HttpStatus.OK);
+    public ResponseEntity<List<Payment>> paymentsGet(BigDecimal minAmount, List<String> currencies,
+                                                     OffsetDateTime from, OffsetDateTime to,
+                                                     Integer limit, String cursor) {
+        RequestLog.query(currencies, minAmount, from, to);
+        PaymentPage page = paymentService.getPaymentsByFilters(currencies, minAmount, toInstant(from), toInstant(to),
+                limit, cursor);
+        RequestLog.count(page.getPayments().size());
+        HttpHeaders headers = new HttpHeaders();
+        if (page.getNextCursor() != null) {
+            headers.set(NEXT_CURSOR_HEADER, page.getNextCursor());
+        }
+        return new ResponseEntity<>(page.getPayments(), headers, HttpStatus.OK);
+    }
+
+    /**
+     * Stream every payment optionally filtered by minimum amount, currencies and creation time as
+     * newline-delimited JSON.
+     * Selected with {@code Accept: application/x-ndjson}; rows are written as they are read from the
+     * database, so memory use stays flat and the first payment is sent without waiting for the last.
+     *
+     * @param minAmount Optional filter to select payments with amount >= minAmount
+     * @param currencies Optional filter to select payments matching specified currency codes
+     * @param from Optional filter to select payments created at or after this time
+     * @param to Optional filter to select payments created before this time
+     * @return ResponseEntity streaming one JSON payment per line and HTTP status 200 (OK)
+     */
+    @GetMapping(value = "/payments", produces = NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> paymentsStream(
+            @RequestParam(value = "minAmount", required = false) BigDecimal minAmount,
+            @RequestParam(value = "currencies", required = false) List<String> currencies,
+            @RequestParam(value = "from", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) OffsetDateTime from,
+            @RequestParam(value = "to", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) OffsetDateTime to) {
+        RequestLog.query(currencies, minAmount, from, to);
+        // Written from the thread streaming the body, before the request completes and its line is logged
+        RequestFields logFields = RequestLog.current();
+        StreamingResponseBody body = out -> {
+            JsonGenerator generator = objectMapper.getFactory().createGenerator(out);
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            // Rows are separated by the newline written after each one, not by Jackson's default space
+            generator.setRootValueSeparator(null);
+            long count = paymentService.streamPaymentsByFilters(currencies, minAmount,
+                    toInstant(from), toInstant(to), new Consumer<>() {
+                private long written;
+
+                @Override
+                public void accept(Payment payment) {
+                    try {
+                        generator.writeObject(payment);
+                        generator.writeRaw('\n');
+                        // Push the first row straight away, then in blocks to keep syscalls down
+                        if (written++ % STREAM_FLUSH_INTERVAL == 0) {
+                            generator.flush();
+                        }
+                    } catch (IOException ex) {
+                        throw new UncheckedIOException(ex);
+                    }
+                }
+            });
+            generator.flush();
+            if (logFields != null) {
+                logFields.count(count);
+            }
+        };
+        return ResponseEntity.ok().contentType(MediaType.valueOf(NDJSON_VALUE)).body(body);
+    }
+
+    /**
+     * Subscribe to payments as they are committed, as server-sent events, optionally filtered by minimum amount
+     * and currencies. Each {@code payment} event carries one payment as JSON and an id that can be sent back
+     * in the {@code Last-Event-ID} header to resume after a disconnect; a {@code reset} event means the
+     * payments since that id are no longer available and should be reloaded with a query.
+     *
+     * @param minAmount Optional filter to select payments with amount >= minAmount
+     * @param currencies Optional filter to select payments matching specified currency codes
+     * @param lastEventId Optional id of the last event received, to resume from
+     * @return ResponseEntity streaming the events and HTTP status 200 (OK), or 503 (Service Unavailable)
+     *         when the subscriber limit is reached
+     */
+    @GetMapping(value = "/payments/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> paymentsSubscribe(
+            @RequestParam(value = "minAmount", required = false) BigDecimal minAmount,
+            @RequestParam(value = "currencies", required = false) List<String> currencies,
+            @RequestHeader(value = "Last-Event-ID", required = false) String lastEventId) {
+        RequestLog.query(currencies, minAmount, null, null);
+        return paymentFeed.subscribe(new PaymentFilter(currencies, minAmount), lastEventId)
+                .map(ResponseEntity::ok)
+                .orElseGet(() -> ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build());
+    }
+
+    /**
+     * Retrieve the count, sum, minimum and maximum of the payments in each currency.
+     *
+     * @param minAmount Optional filter to only summarize payments with amount >= minAmount
+     * @return ResponseEntity containing one summary per currency and HTTP status 200 (OK)
+     */
+    @Override
+    public ResponseEntity<List<CurrencySummary>> paymentsSummaryGet(BigDecimal minAmount) {
+        RequestLog.query(null, minAmount, null, null);
+        return new ResponseEntity<>(paymentService.getPaymentSummary(minAmount), HttpStatus.OK);
     }
 
     /**
      * Create a new payment.
+     * In journal ingestion mode the payment is acknowledged once it is durable in the local journal and committed
+     * to the database shortly after; its journal sequence is returned in the {@value #INGEST_ID_HEADER} header.
+     * A request repeating the {@code Idempotency-Key} of an earlier one gets that one's response back, marked with
+     * the {@value IdempotencyStore#REPLAYED_HEADER} header, and creates nothing.
      *
      * @param payment Payment object to create; must be valid
-     * @return ResponseEntity containing the created payment object and HTTP status 201 (Created)
+     * @param idempotencyKey Optional key of the payment chosen by the client
+     * @return ResponseEntity containing the created payment object and HTTP status 201 (Created),
+     *         or 202 (Accepted) in journal ingestion mode
+     * @throws ValidationException if the payment is invalid
+     * @throws com.tw.finseta.payment.exception.IdempotencyKeyException if the key was used with another payment
+     *         or its first request is still in progress
      */
     @Override
-    public ResponseEntity<Payment> paymentsPost(Payment payment) {
-        logger.info("Received createPayment request: {}", payment);
-        Payment savedPayment = paymentService.savePayment(payment);
+    public ResponseEntity<Payment> paymentsPost(Payment payment, String idempotencyKey) {
+        RequestLog.payment(payment);
+        paymentValidator.validate(payment);
+        if (idempotencyKey == null) {
+            return create(payment, null, 0);
+        }
+        return idempotencyStore.execute(idempotencyKey, payment,
+                requestHash -> create(payment, idempotencyKey, requestHash));
+    }
+
+    private ResponseEntity<Payment> create(Payment payment, String idempotencyKey, long requestHash) {
+        if (paymentJournal != null) {
+            AcceptedPayment accepted = paymentJournal.append(payment);
+            HttpHeaders headers = new HttpHeaders();
+            headers.set(INGEST_ID_HEADER, Long.toString(accepted.ingestId()));
+            return new ResponseEntity<>(accepted.payment(), headers, HttpStatus.ACCEPTED);
+        }
+        Payment savedPayment = (idempotencyKey == null)
+                ? paymentService.savePayment(payment)
+                : paymentService.savePayment(payment, idempotencyKey, requestHash);
         return new ResponseEntity<>(savedPayment, HttpStatus.CREATED);
     }
-}
 
+    /**
+     * Create a batch of payments in one request.
+     *
+     * @param payments Payments to create, each one is validated and reported on individually
+     * @return ResponseEntity containing the outcome of each payment and HTTP status 200 (OK)
+     * @throws ValidationException if any payment is invalid, listing the errors of all of them
+     */
+    @Override
+    public ResponseEntity<PaymentBatchResult> paymentsBatchPost(List<Payment> payments) {
+        RequestLog.count(payments.size());
+        paymentValidator.validateAll(payments);
+        PaymentBatchResult result = paymentService.savePayments(payments);
+        return new ResponseEntity<>(result, HttpStatus.OK);
+    }
+
+    private static Instant toInstant(OffsetDateTime time) {
+        return (time == null) ? null : time.toInstant();
+    }
+}
@@ -0,0 +1,382 @@
+package com.tw.finseta.payment.archive;
+
+import com.tw.finseta.payment.money.CurrencyCode;
+import com.tw.finseta.payment.money.Money;
+import com.tw.finseta.payment.repository.CurrencyTotals;
+import com.tw.finseta.payment.repository.PaymentFilter;
+import com.tw.finseta.payment.repository.PaymentRow;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PostConstruct;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * Cold tier of the payments: the {@link PaymentArchiveFile}s that {@link PaymentArchiver} has moved out of the
+ * payments table, served next to it by {@link com.tw.finseta.payment.service.PaymentService}.
+ *
+ * <p>Enabled with {@code payment.archive.enabled=true}. The footers of the files in {@code payment.archive.dir}
+ * are read while the context starts. Queries are pruned twice before anything is decompressed: a file, and
+ * then each of its row groups, is skipped when its id range lies before the cursor, its creation time range
+ * misses {@code from}/{@code to}, or none of its currencies has an amount up to the {@code minAmount}
+ * threshold. The row groups left are merged lazily in id order, so a page only decodes the groups it
+ * reaches. Read and pruned groups are counted in {@code payment.archive.row_groups}.</p>
+ *
+ * <p>The directory belongs with the database whose rows were moved into it, like the ingestion journal.</p>
+ *
+ * @author Ranga Raju
+ */
+@Component
+@ConditionalOnProperty(name = "payment.archive.enabled", havingValue = "true")
+public class PaymentArchive implements MeterBinder {
+
+    private static final Logger logger = LogManager.getLogger(PaymentArchive.class);
+
+    static final String FILE_SUFFIX = ".pay";
+    static final String TEMP_SUFFIX = ".tmp";
+
+    private final Path directory;
+    // Copied on write, in ascending first id order
+    private volatile List<PaymentArchiveFile> files = List.of();
+    private final LongAdder groupsRead = new LongAdder();
+    private final LongAdder groupsPruned = new LongAdder();
+
+    public PaymentArchive(@Value("${payment.archive.dir:data/archive}") Path directory) {
+        this.directory = directory;
+    }
+
+    @PostConstruct
+    void load() throws IOException {
+        long start = System.nanoTime();
+        Files.createDirectories(directory);
+        List<PaymentArchiveFile> loaded = new ArrayList<>();
+        try (Stream<Path> paths = Files.list(directory)) {
+            for (Path path : paths.toList()) {
+                String name = path.getFileName().toString();
+                if (name.endsWith(TEMP_SUFFIX)) {
+                    // Left by an archiving run that stopped before its rows were deleted, they are still in the table
+                    Files.delete(path);
+                } else if (name.endsWith(FILE_SUFFIX)) {
+                    loaded.add(PaymentArchiveFile.open(path));
+                }
+            }
+        }
+        loaded.sort(Comparator.comparingLong(file -> file.getSummary().minId()));
+        files = List.copyOf(loaded);
+        logger.info("Loaded payment archive {}: {} files, {} payments in {} ms", directory.toAbsolutePath(),
+                loaded.size(), payments(), (System.nanoTime() - start) / 1_000_000);
+    }
+
+    /** Directory of the archive files. */
+    public Path directory() {
+        return directory;
+    }
+
+    /** Archive files in ascending first id order. */
+    public List<PaymentArchiveFile> files() {
+        return files;
+    }
+
+    /** Adds a newly written file to the files queries read. */
+    public synchronized void add(PaymentArchiveFile file) {
+        List<PaymentArchiveFile> updated = new ArrayList<>(files);
+        updated.add(file);
+        updated.sort(Comparator.comparingLong(archived -> archived.getSummary().minId()));
+        files = List.copyOf(updated);
+    }
+
+    /** Withdraws a file whose rows could not be removed from the payments table. */
+    public synchronized void remove(PaymentArchiveFile file) {
+        List<PaymentArchiveFile> updated = new ArrayList<>(files);
+        updated.remove(file);
+        files = List.copyOf(updated);
+    }
+
+    /** Number of files already written for a month, the generation of the next one. */
+    int generations(YearMonth month) {
+        return (int) files.stream().filter(file -> file.getMonth().equals(month)).count();
+    }
+
+    /** Number of archived payments. */
+    public long payments() {
+        return files.stream().mapToLong(file -> file.getSummary().rows()).sum();
+    }
+
+    /**
+     * Highest journal sequence committed before any of the archived payments were moved, 0 if none. Archived
+     * journal sequences are no longer in the payments table, so journal recovery reads its watermark from both.
+     */
+    public long maxIngestSeq() {
+        return files.stream().mapToLong(PaymentArchiveFile::getMaxIngestSeq).max().orElse(0);
+    }
+
+    /** Totals of every archived payment per currency, from the file summaries alone. */
+    public List<CurrencyTotals> totals() {
+        Map<CurrencyCode, CurrencyTotals> byCurrency = new TreeMap<>();
+        for (PaymentArchiveFile file : files) {
+            file.getSummary().currencies().forEach(totals -> byCurrency.merge(totals.currency(), totals, CurrencyTotals::plus));
+        }
+        return new ArrayList<>(byCurrency.values());
+    }
+
+    /**
+     * Reads at most {@code limit} archived payments matching the filter with an id above {@code afterId}, in id
+     * order.
+     */
+    public List<PaymentRow> findPage(PaymentFilter filter, long afterId, int limit) {
+        List<PaymentRow> rows = new ArrayList<>(Math.min(limit, PaymentArchiveFile.ROW_GROUP_SIZE));
+        Iterator<PaymentRow> iterator = iterator(filter, afterId);
+        while (rows.size() < limit && iterator.hasNext()) {
+            rows.add(iterator.next());
+        }
+        return rows;
+    }
+
+    /**
+     * Iterates over the archived payments matching the filter with an id above {@code afterId}, in id order,
+     * decoding each row group when the iteration reaches it.
+     *
+     * @throws UncheckedIOException from the iterator if a file cannot be read
+     */
+    public Iterator<PaymentRow> iterator(PaymentFilter filter, long afterId) {
+        Match match = new Match(filter, afterId);
+        PriorityQueue<GroupCursor> queue = new PriorityQueue<>(Comparator.comparingLong(GroupCursor::key));
+        for (PaymentArchiveFile file : files) {
+            if (!match.mayMatch(file.getSummary())) {
+                groupsPruned.add(file.groupCount());
+                continue;
+            }
+            for (int group = 0; group < file.groupCount(); group++) {
+                if (match.mayMatch(file.groupSummary(group))) {
+                    queue.add(new GroupCursor(file, group, match));
+                } else {
+                    groupsPruned.increment();
+                }
+            }
+        }
+        return new Iterator<>() {
+            private PaymentRow next;
+
+            @Override
+            public boolean hasNext() {
+                while (next == null && !queue.isEmpty()) {
+                    GroupCursor cursor = queue.poll();
+                    if (cursor.rows == null) {
+                        cursor.load();
+                    } else {
+                        next = cursor.row();
+                    }
+                    if (cursor.advance()) {
+                        queue.add(cursor);
+                    }
+                }
+                return next != null;
+            }
+
+            @Override
+            public PaymentRow next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                PaymentRow row = next;
+                next = null;
+                return row;
+            }
+        };
+    }
+
+    /**
+     * Aggregates the archived payments matching the filter per currency, in currency code order. A row group
+     * whose summary shows every payment of a currency inside the filter contributes its summary for that
+     * currency; only groups that straddle the filter are decoded.
+     */
+    public List<CurrencyTotals> summarize(PaymentFilter filter) {
+        Match match = new Match(filter, Long.MIN_VALUE);
+        Map<CurrencyCode, CurrencyTotals> byCurrency = new TreeMap<>();
+        for (PaymentArchiveFile file : files) {
+            if (!match.mayMatch(file.getSummary())) {
+                groupsPruned.add(file.groupCount());
+                continue;
+            }
+            for (int group = 0; group < file.groupCount(); group++) {
+                PaymentArchiveFile.Summary summary = file.groupSummary(group);
+                if (!match.mayMatch(summary)) {
+                    groupsPruned.increment();
+                } else if (match.covers(summary)) {
+                    for (CurrencyTotals totals : summary.currencies()) {
+                        if (match.includes(totals.currency()) && totals.minMinor() >= match.threshold(totals.currency())) {
+                            byCurrency.merge(totals.currency(), totals, CurrencyTotals::plus);
+                        }
+                    }
+                } else {
+                    PaymentArchiveFile.Rows rows = read(file, group);
+                    for (int row = 0; row < rows.size(); row++) {
+                        if (match.matches(rows, row)) {
+                            byCurrency.merge(rows.currency(row), CurrencyTotals.of(rows.currency(row), rows.amount(row)),
+                                    CurrencyTotals::plus);
+                        }
+                    }
+                }
+            }
+        }
+        return new ArrayList<>(byCurrency.values());
+    }
+
+    private PaymentArchiveFile.Rows read(PaymentArchiveFile file, int group) {
+        try {
+            groupsRead.increment();
+            return file.readGroup(group);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read payment archive file " + file.getPath(), e);
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("payment.archive.files", this, archive -> archive.files().size())
+                .description("Payment archive files")
+                .register(registry);
+        Gauge.builder("payment.archive.payments", this, PaymentArchive::payments)
+                .description("Payments moved to the archive files")
+                .baseUnit("payments")
+                .register(registry);
+        FunctionCounter.builder("payment.archive.row_groups", groupsRead, LongAdder::sum)
+                .description("Archive row groups decoded or skipped by queries")
+                .tag("result", "read")
+                .register(registry);
+        FunctionCounter.builder("payment.archive.row_groups", groupsPruned, LongAdder::sum)
+                .description("Archive row groups decoded or skipped by queries")
+                .tag("result", "pruned")
+                .register(registry);
+    }
+
+    // Position in one row group taking part in the id order merge. Ordered by the group's first id until it is
+    // decoded, then by the id of its current matching row
+    private final class GroupCursor {
+
+        private final PaymentArchiveFile file;
+        private final int group;
+        private final Match match;
+        private PaymentArchiveFile.Rows rows;
+        private int position = -1;
+
+        private GroupCursor(PaymentArchiveFile file, int group, Match match) {
+            this.file = file;
+            this.group = group;
+            this.match = match;
+        }
+
+        private long key() {
+            return (rows == null) ? file.groupSummary(group).minId() : rows.id(position);
+        }
+
+        private void load() {
+            rows = read(file, group);
+        }
+
+        // Moves to the next matching row, false once the group is exhausted
+        private boolean advance() {
+            while (++position < rows.size()) {
+                if (match.matches(rows, position)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private PaymentRow row() {
+            try {
+                return rows.row(position);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot read payment archive file " + file.getPath(), e);
+            }
+        }
+    }
+
+    // A filter translated to the archive columns: creation times in microseconds and a minor unit threshold
+    // per currency exponent
+    private static final class Match {
+
+        private final List<CurrencyCode> currencies;
+        private final long[] thresholds;
+        private final long from;
+        private final long to;
+        private final long afterId;
+
+        private Match(PaymentFilter filter, long afterId) {
+            this.currencies = filter.getCurrencies();
+            int maxExponent = CurrencyCode.byExponent().keySet().stream().mapToInt(Integer::intValue).max().orElse(0);
+            this.thresholds = new long[maxExponent + 1];
+            for (int exponent = 0; exponent <= maxExponent; exponent++) {
+                thresholds[exponent] = (filter.getMinAmount() == null)
+                        ? Long.MIN_VALUE
+                        : Money.ceilMinorUnits(filter.getMinAmount(), exponent);
+            }
+            this.from = (filter.getFrom() == null) ? Long.MIN_VALUE : PaymentArchiveFile.toMicros(filter.getFrom());
+            this.to = (filter.getTo() == null) ? Long.MAX_VALUE : PaymentArchiveFile.toMicros(filter.getTo());
+            this.afterId = afterId;
+        }
+
+        private boolean includes(CurrencyCode currency) {
+            return currencies == null || currencies.contains(currency);
+        }
+
+        private long threshold(CurrencyCode currency) {
+            return thresholds[currency.exponent()];
+        }
+
+        private boolean mayMatch(PaymentArchiveFile.Summary summary) {
+            if (summary.maxId() <= afterId || summary.maxCreated() < from || summary.minCreated() >= to) {
+                return false;
+            }
+            for (CurrencyTotals totals : summary.currencies()) {
+                if (includes(totals.currency()) && totals.maxMinor() >= threshold(totals.currency())) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        // Whether every payment of each included currency matches, or none does
+        private boolean covers(PaymentArchiveFile.Summary summary) {
+            if (summary.minId() <= afterId || summary.minCreated() < from || summary.maxCreated() >= to) {
+                return false;
+            }
+            for (CurrencyTotals totals : summary.currencies()) {
+                long threshold = threshold(totals.currency());
+                if (includes(totals.currency()) && totals.minMinor() < threshold && totals.maxMinor() >= threshold) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private boolean matches(PaymentArchiveFile.Rows rows, int row) {
+            long created = rows.created(row);
+            CurrencyCode currency = rows.currency(row);
+            return rows.id(row) > afterId && created >= from && created < to && includes(currency)
+                    && rows.amount(row) >= threshold(currency);
+        }
+    }
+}
@@ -0,0 +1,553 @@
+package com.tw.finseta.payment.archive;
+
+import com.github.luben.zstd.Zstd;
+import com.tw.finseta.payment.dao.AccountType;
+import com.tw.finseta.payment.model.Account;
+import com.tw.finseta.payment.money.CurrencyCode;
+import com.tw.finseta.payment.repository.CurrencyTotals;
+import com.tw.finseta.payment.repository.PaymentRow;
+import lombok.Getter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.YearMonth;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * One immutable archive file holding payments of one calendar month, written once by {@link PaymentArchiver}
+ * and only ever read afterwards.
+ *
+ * <p>The file is columnar. Payments are cut, in id order, into row groups of up to {@value #ROW_GROUP_SIZE}
+ * rows, and each group stores its columns one after the other in a single zstd frame: ids as deltas,
+ * creation times in microseconds as zigzag deltas, currencies as indexes into the group's currency list,
+ * amounts in minor units as zigzag varints and counterparties as indexes into a dictionary of the group's
+ * accounts. A footer at the end of the file summarizes the file and each group with its id range, creation
+ * time range and, per currency, the count, sum, minimum and maximum amount. Opening a file reads the footer
+ * only; a group is decompressed when its summary can match a query, and the counterparty column only for the
+ * rows that do. Version 1 footers stored the sums as {@code long}s and are still read.</p>
+ *
+ * @author Ranga Raju
+ */
+public final class PaymentArchiveFile {
+
+    static final int ROW_GROUP_SIZE = 8192;
+
+    private static final long MAGIC = 0x5041594152434831L; // "PAYARCH1"
+    private static final int VERSION = 2;
+    private static final int LONG_SUM_VERSION = 1;
+    private static final int TRAILER_BYTES = Integer.BYTES + Long.BYTES;
+    private static final AccountType[] TYPES = AccountType.values();
+
+    @Getter
+    private final Path path;
+    @Getter
+    private final YearMonth month;
+    @Getter
+    private final long maxIngestSeq;
+    @Getter
+    private final Summary summary;
+    private final List<RowGroup> groups;
+
+    private PaymentArchiveFile(Path path, YearMonth month, long maxIngestSeq, Summary summary, List<RowGroup> groups) {
+        this.path = path;
+        this.month = month;
+        this.maxIngestSeq = maxIngestSeq;
+        this.summary = summary;
+        this.groups = groups;
+    }
+
+    /**
+     * Id range, creation time range in microseconds since the epoch, and per-currency totals of a file or of
+     * one of its row groups. The currencies are in code order.
+     */
+    public record Summary(long rows, long minId, long maxId, long minCreated, long maxCreated,
+                          List<CurrencyTotals> currencies) {
+    }
+
+    private record RowGroup(long offset, int length, int rawLength, Summary summary) {
+    }
+
+    /**
+     * Writes the payments to a new file and forces it to disk.
+     *
+     * @param path the file to create, must not exist
+     * @param month the month the payments were created in
+     * @param rows the payments in ascending id order, each carrying its creation time
+     * @param maxIngestSeq the highest journal sequence committed when the payments were read, 0 if none
+     * @param level the zstd compression level
+     * @return the written file, ready to be read
+     */
+    public static PaymentArchiveFile write(Path path, YearMonth month, Iterator<PaymentRow> rows, long maxIngestSeq,
+                                           int level) throws IOException {
+        List<RowGroup> groups = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(Long.BYTES).putLong(0, MAGIC);
+            writeFully(channel, header);
+            long offset = Long.BYTES;
+
+            List<PaymentRow> batch = new ArrayList<>(ROW_GROUP_SIZE);
+            while (rows.hasNext()) {
+                batch.add(rows.next());
+                if (batch.size() == ROW_GROUP_SIZE || !rows.hasNext()) {
+                    RowGroup group = writeGroup(channel, offset, batch, level);
+                    groups.add(group);
+                    offset += group.length;
+                    batch.clear();
+                }
+            }
+
+            Summary summary = merge(groups);
+            ByteArrayOutputStream footerBytes = new ByteArrayOutputStream();
+            DataOutputStream footer = new DataOutputStream(footerBytes);
+            footer.writeInt(VERSION);
+            footer.writeUTF(month.toString());
+            footer.writeLong(maxIngestSeq);
+            writeSummary(footer, summary);
+            footer.writeInt(groups.size());
+            for (RowGroup group : groups) {
+                footer.writeLong(group.offset);
+                footer.writeInt(group.length);
+                footer.writeInt(group.rawLength);
+                writeSummary(footer, group.summary);
+            }
+            footer.writeInt(footerBytes.size());
+            footer.writeLong(MAGIC);
+            writeFully(channel, ByteBuffer.wrap(footerBytes.toByteArray()));
+            channel.force(true);
+            return new PaymentArchiveFile(path, month, maxIngestSeq, summary, List.copyOf(groups));
+        }
+    }
+
+    /**
+     * Opens a file written by {@link #write}, reading its footer only.
+     *
+     * @throws IOException if the file cannot be read or is not a complete archive file
+     */
+    public static PaymentArchiveFile open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            ByteBuffer trailer = ByteBuffer.allocate(TRAILER_BYTES);
+            if (size < Long.BYTES + TRAILER_BYTES || channel.read(trailer, size - TRAILER_BYTES) != TRAILER_BYTES
+                    || trailer.getLong(Integer.BYTES) != MAGIC) {
+                throw new IOException("Not a complete payment archive file: " + path);
+            }
+            int footerLength = trailer.getInt(0);
+            ByteBuffer footerBytes = ByteBuffer.allocate(footerLength);
+            readFully(channel, footerBytes, size - TRAILER_BYTES - footerLength);
+
+            DataInputStream footer = new DataInputStream(new ByteArrayInputStream(footerBytes.array()));
+            int version = footer.readInt();
+            if (version != VERSION && version != LONG_SUM_VERSION) {
+                throw new IOException("Unsupported payment archive version: " + path);
+            }
+            YearMonth month = YearMonth.parse(footer.readUTF());
+            long maxIngestSeq = footer.readLong();
+            Summary summary = readSummary(footer, version);
+            int groupCount = footer.readInt();
+            List<RowGroup> groups = new ArrayList<>(groupCount);
+            for (int i = 0; i < groupCount; i++) {
+                groups.add(new RowGroup(footer.readLong(), footer.readInt(), footer.readInt(),
+                        readSummary(footer, version)));
+            }
+            return new PaymentArchiveFile(path, month, maxIngestSeq, summary, List.copyOf(groups));
+        }
+    }
+
+    /** Number of row groups in the file. */
+    public int groupCount() {
+        return groups.size();
+    }
+
+    /** Summary of one row group. */
+    Summary groupSummary(int group) {
+        return groups.get(group).summary;
+    }
+
+    /**
+     * Decompresses one row group and decodes every column but the counterparties.
+     */
+    Rows readGroup(int group) throws IOException {
+        RowGroup rowGroup = groups.get(group);
+        ByteBuffer compressed = ByteBuffer.allocate(rowGroup.length);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            readFully(channel, compressed, rowGroup.offset);
+        }
+        byte[] raw = Zstd.decompress(compressed.array(), rowGroup.rawLength);
+        return new Rows(raw, rowGroup.summary);
+    }
+
+    /**
+     * Decoded columns of one row group. Counterparties are left encoded until {@link #row(int)} first needs one.
+     */
+    static final class Rows {
+
+        private final int size;
+        private final long[] ids;
+        private final long[] created;
+        private final CurrencyCode[] currencies;
+        private final long[] amounts;
+        private final Input accountsInput;
+        private int[] accountIndexes;
+        private AccountType[] accountTypes;
+        private String[] accountNumbers;
+        private String[] sortCodes;
+
+        private Rows(byte[] raw, Summary summary) throws IOException {
+            Input in = new Input(raw);
+            size = (int) summary.rows;
+            ids = new long[size];
+            created = new long[size];
+            currencies = new CurrencyCode[size];
+            amounts = new long[size];
+
+            long id = 0;
+            for (int i = 0; i < size; i++) {
+                id += in.readVarLong();
+                ids[i] = id;
+            }
+            long time = 0;
+            for (int i = 0; i < size; i++) {
+                time += unzigzag(in.readVarLong());
+                created[i] = time;
+            }
+            List<CurrencyTotals> groupCurrencies = summary.currencies;
+            for (int i = 0; i < size; i++) {
+                currencies[i] = groupCurrencies.get(in.readByte()).currency();
+            }
+            for (int i = 0; i < size; i++) {
+                amounts[i] = unzigzag(in.readVarLong());
+            }
+            accountsInput = in;
+        }
+
+        int size() {
+            return size;
+        }
+
+        long id(int row) {
+            return ids[row];
+        }
+
+        long created(int row) {
+            return created[row];
+        }
+
+        CurrencyCode currency(int row) {
+            return currencies[row];
+        }
+
+        long amount(int row) {
+            return amounts[row];
+        }
+
+        /** The row as a projection, decoding the counterparty column on first use. */
+        PaymentRow row(int row) throws IOException {
+            if (accountIndexes == null) {
+                decodeAccounts();
+            }
+            int account = accountIndexes[row];
+            return new PaymentRow(ids[row], currencies[row], amounts[row], accountTypes[account],
+                    accountNumbers[account], sortCodes[account], toInstant(created[row]));
+        }
+
+        private void decodeAccounts() throws IOException {
+            Input in = accountsInput;
+            int count = (int) in.readVarLong();
+            accountTypes = new AccountType[count];
+            accountNumbers = new String[count];
+            sortCodes = new String[count];
+            for (int i = 0; i < count; i++) {
+                int type = in.readByte();
+                accountTypes[i] = (type == 0) ? null : TYPES[type - 1];
+                accountNumbers[i] = in.readString();
+                sortCodes[i] = in.readString();
+            }
+            int[] indexes = new int[size];
+            for (int i = 0; i < size; i++) {
+                indexes[i] = (int) in.readVarLong();
+            }
+            accountIndexes = indexes;
+        }
+    }
+
+    /** Microseconds since the epoch, the precision of the {@code created_at} column. */
+    static long toMicros(Instant instant) {
+        return ChronoUnit.MICROS.between(Instant.EPOCH, instant);
+    }
+
+    static Instant toInstant(long micros) {
+        return Instant.EPOCH.plus(micros, ChronoUnit.MICROS);
+    }
+
+    private static RowGroup writeGroup(FileChannel channel, long offset, List<PaymentRow> rows, int level)
+            throws IOException {
+        Map<CurrencyCode, CurrencyTotals> totals = new TreeMap<>();
+        long minCreated = Long.MAX_VALUE;
+        long maxCreated = Long.MIN_VALUE;
+        for (PaymentRow row : rows) {
+            long micros = toMicros(row.getCreatedAt());
+            minCreated = Math.min(minCreated, micros);
+            maxCreated = Math.max(maxCreated, micros);
+            totals.merge(row.getCurrency(), CurrencyTotals.of(row.getCurrency(), row.getAmountMinor()),
+                    CurrencyTotals::plus);
+        }
+        List<CurrencyTotals> currencies = new ArrayList<>(totals.size());
+        Map<CurrencyCode, Integer> currencyIndexes = new HashMap<>();
+        totals.forEach((currency, currencyTotals) -> {
+            currencyIndexes.put(currency, currencies.size());
+            currencies.add(currencyTotals);
+        });
+
+        Output out = new Output(rows.size() * 16);
+        long previousId = 0;
+        for (PaymentRow row : rows) {
+            out.writeVarLong(row.getId() - previousId);
+            previousId = row.getId();
+        }
+        long previousCreated = 0;
+        for (PaymentRow row : rows) {
+            long micros = toMicros(row.getCreatedAt());
+            out.writeVarLong(zigzag(micros - previousCreated));
+            previousCreated = micros;
+        }
+        for (PaymentRow row : rows) {
+            out.writeByte(currencyIndexes.get(row.getCurrency()));
+        }
+        for (PaymentRow row : rows) {
+            out.writeVarLong(zigzag(row.getAmountMinor()));
+        }
+
+        Map<String, Integer> accountIndexes = new HashMap<>();
+        Output accounts = new Output(256);
+        int[] indexes = new int[rows.size()];
+        for (int i = 0; i < rows.size(); i++) {
+            Account account = rows.get(i).getPayment().getCounterparty();
+            String type = (account.getType() == null) ? null : account.getType().getValue();
+            String key = type + '|' + account.getAccountNumber() + '|' + account.getSortCode();
+            Integer index = accountIndexes.get(key);
+            if (index == null) {
+                index = accountIndexes.size();
+                accountIndexes.put(key, index);
+                accounts.writeByte((type == null) ? 0 : AccountType.fromValue(type).ordinal() + 1);
+                accounts.writeString(account.getAccountNumber());
+                accounts.writeString(account.getSortCode());
+            }
+            indexes[i] = index;
+        }
+        out.writeVarLong(accountIndexes.size());
+        out.write(accounts);
+        for (int index : indexes) {
+            out.writeVarLong(index);
+        }
+
+        byte[] compressed = Zstd.compress(out.toByteArray(), level);
+        channel.position(offset);
+        writeFully(channel, ByteBuffer.wrap(compressed));
+        Summary summary = new Summary(rows.size(), rows.get(0).getId(), rows.get(rows.size() - 1).getId(),
+                minCreated, maxCreated, List.copyOf(currencies));
+        return new RowGroup(offset, compressed.length, out.size(), summary);
+    }
+
+    private static Summary merge(List<RowGroup> groups) {
+        long rows = 0;
+        long minId = Long.MAX_VALUE;
+        long maxId = Long.MIN_VALUE;
+        long minCreated = Long.MAX_VALUE;
+        long maxCreated = Long.MIN_VALUE;
+        Map<CurrencyCode, CurrencyTotals> currencies = new TreeMap<>();
+        for (RowGroup group : groups) {
+            Summary summary = group.summary;
+            rows += summary.rows;
+            minId = Math.min(minId, summary.minId);
+            maxId = Math.max(maxId, summary.maxId);
+            minCreated = Math.min(minCreated, summary.minCreated);
+            maxCreated = Math.max(maxCreated, summary.maxCreated);
+            for (CurrencyTotals totals : summary.currencies) {
+                currencies.merge(totals.currency(), totals, CurrencyTotals::plus);
+            }
+        }
+        return new Summary(rows, minId, maxId, minCreated, maxCreated, List.copyOf(currencies.values()));
+    }
+
+    private static void writeSummary(DataOutputStream out, Summary summary) throws IOException {
+        out.writeLong(summary.rows);
+        out.writeLong(summary.minId);
+        out.writeLong(summary.maxId);
+        out.writeLong(summary.minCreated);
+        out.writeLong(summary.maxCreated);
+        out.writeShort(summary.currencies.size());
+        for (CurrencyTotals totals : summary.currencies) {
+            out.writeShort(totals.currency().code());
+            out.writeLong(totals.count());
+            byte[] sum = totals.sumMinor().toByteArray();
+            out.writeByte(sum.length);
+            out.write(sum);
+            out.writeLong(totals.minMinor());
+            out.writeLong(totals.maxMinor());
+        }
+    }
+
+    private static Summary readSummary(DataInputStream in, int version) throws IOException {
+        long rows = in.readLong();
+        long minId = in.readLong();
+        long maxId = in.readLong();
+        long minCreated = in.readLong();
+        long maxCreated = in.readLong();
+        int count = in.readShort();
+        List<CurrencyTotals> currencies = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            CurrencyCode currency = CurrencyCode.of(in.readShort());
+            long payments = in.readLong();
+            BigInteger sum;
+            if (version == LONG_SUM_VERSION) {
+                sum = BigInteger.valueOf(in.readLong());
+            } else {
+                byte[] bytes = new byte[in.readUnsignedByte()];
+                in.readFully(bytes);
+                sum = new BigInteger(bytes);
+            }
+            currencies.add(new CurrencyTotals(currency, payments, sum, in.readLong(), in.readLong()));
+        }
+        return new Summary(rows, minId, maxId, minCreated, maxCreated, List.copyOf(currencies));
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new IOException("Truncated payment archive file");
+            }
+        }
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    // Growable byte array with the varint and string encodings of the column data
+    private static final class Output {
+
+        private byte[] bytes;
+        private int size;
+
+        private Output(int capacity) {
+            bytes = new byte[capacity];
+        }
+
+        private void ensure(int extra) {
+            if (size + extra > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + extra));
+            }
+        }
+
+        private void writeByte(int value) {
+            ensure(1);
+            bytes[size++] = (byte) value;
+        }
+
+        private void writeVarLong(long value) {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                bytes[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            bytes[size++] = (byte) value;
+        }
+
+        // Length plus one, so 0 stands for null
+        private void writeString(String value) {
+            if (value == null) {
+                writeVarLong(0);
+                return;
+            }
+            byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(utf8.length + 1L);
+            ensure(utf8.length);
+            System.arraycopy(utf8, 0, bytes, size, utf8.length);
+            size += utf8.length;
+        }
+
+        private void write(Output other) {
+            ensure(other.size);
+            System.arraycopy(other.bytes, 0, bytes, size, other.size);
+            size += other.size;
+        }
+
+        private int size() {
+            return size;
+        }
+
+        private byte[] toByteArray() {
+            return Arrays.copyOf(bytes, size);
+        }
+    }
+
+    private static final class Input {
+
+        private final byte[] bytes;
+        private int position;
+
+        private Input(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        private int readByte() throws IOException {
+            if (position >= bytes.length) {
+                throw new IOException("Truncated payment archive row group");
+            }
+            return bytes[position++] & 0xFF;
+        }
+
+        private long readVarLong() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Malformed varint in payment archive row group");
+        }
+
+        private String readString() throws IOException {
+            int length = (int) readVarLong() - 1;
+            if (length < 0) {
+                return null;
+            }
+            if (position + length > bytes.length) {
+                throw new IOException("Truncated payment archive row group");
+            }
+            String value = new String(bytes, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return value;
+        }
+    }
+}
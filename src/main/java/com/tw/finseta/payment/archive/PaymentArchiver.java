@@ -0,0 +1,271 @@
+package com.tw.finseta.payment.archive;
+
+import com.tw.finseta.payment.repository.PaymentRepository;
+import com.tw.finseta.payment.repository.PaymentRow;
+import com.tw.finseta.payment.shard.PaymentShards;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Retention job that moves closed months of payments out of the payments table into {@link PaymentArchiveFile}s.
+ *
+ * <p>Enabled with {@code payment.archive.enabled=true}. The table is bucketed by calendar month (UTC) of
+ * {@code created_at}: the current month and the {@code payment.archive.hot-months} minus one before it stay in
+ * the table, every older month is archived, oldest first, every {@code payment.archive.interval}. A month is
+ * streamed in id order into a temporary file, which is then renamed into place and registered with
+ * {@link PaymentArchive} in the same transaction that deletes the month's rows by id, so payments are readable
+ * throughout and never counted twice once the transaction ends; until then queries drop the duplicates.
+ * Payments that are already in an archive file of the month, left by a run that stopped before its delete
+ * committed, are deleted without being written again. With several {@link PaymentShards} the shards are
+ * archived one after the other, each month of each shard to its own file.</p>
+ *
+ * @author Ranga Raju
+ */
+@Component
+@ConditionalOnProperty(name = "payment.archive.enabled", havingValue = "true")
+public class PaymentArchiver {
+
+    private static final Logger logger = LogManager.getLogger(PaymentArchiver.class);
+
+    private static final int DELETE_BATCH_SIZE = 1000;
+
+    private final PaymentArchive archive;
+    private final PaymentRepository paymentRepository;
+    private final PaymentShards shards;
+    private final TransactionTemplate transaction;
+    private final TransactionTemplate readOnlyTransaction;
+    private final int hotMonths;
+    private final Duration interval;
+    private final int level;
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * Constructs a PaymentArchiver.
+     *
+     * @param archive the archive the files are added to
+     * @param paymentRepository reads and deletes the archived rows
+     * @param shards the shards whose rows are archived
+     * @param transactionManager runs the read and the delete of each month
+     * @param hotMonths the number of months kept in the payments table, the current one included
+     * @param interval the time between two archiving runs
+     * @param level the zstd compression level of the archive files
+     */
+    public PaymentArchiver(PaymentArchive archive, PaymentRepository paymentRepository, PaymentShards shards,
+                           PlatformTransactionManager transactionManager,
+                           @Value("${payment.archive.hot-months:3}") int hotMonths,
+                           @Value("${payment.archive.interval:1h}") Duration interval,
+                           @Value("${payment.archive.zstd-level:9}") int level) {
+        if (hotMonths < 1) {
+            throw new IllegalArgumentException("payment.archive.hot-months must be at least 1");
+        }
+        this.archive = archive;
+        this.paymentRepository = paymentRepository;
+        this.shards = shards;
+        this.transaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+        this.hotMonths = hotMonths;
+        this.interval = interval;
+        this.level = level;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "payment-archiver");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PostConstruct
+    void start() {
+        scheduler.scheduleWithFixedDelay(this::run, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    void stop() {
+        scheduler.shutdownNow();
+    }
+
+    private void run() {
+        try {
+            archive(Instant.now());
+        } catch (RuntimeException e) {
+            // The month is left in the table and retried by the next run
+            logger.error("Payment archiving failed: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Archives every month that ended before the retention period as of {@code now}.
+     *
+     * @param now the current time
+     * @return the number of payments moved out of the payments table
+     */
+    public long archive(Instant now) {
+        YearMonth firstHot = YearMonth.from(now.atOffset(ZoneOffset.UTC)).minusMonths(hotMonths - 1L);
+        long archived = 0;
+        for (int shard : shards.all()) {
+            archived += shards.on(shard, () -> archiveBefore(firstHot));
+        }
+        return archived;
+    }
+
+    // Archives the months before firstHot of the current shard
+    private long archiveBefore(YearMonth firstHot) {
+        long archived = 0;
+        Instant oldest = paymentRepository.findMinCreatedAt();
+        while (oldest != null && YearMonth.from(oldest.atOffset(ZoneOffset.UTC)).isBefore(firstHot)) {
+            archived += archiveMonth(YearMonth.from(oldest.atOffset(ZoneOffset.UTC)));
+            oldest = paymentRepository.findMinCreatedAt();
+        }
+        return archived;
+    }
+
+    private long archiveMonth(YearMonth month) {
+        long start = System.nanoTime();
+        Instant from = month.atDay(1).atStartOfDay().toInstant(ZoneOffset.UTC);
+        Instant to = month.plusMonths(1).atDay(1).atStartOfDay().toInstant(ZoneOffset.UTC);
+        int generation = archive.generations(month);
+        Path target = archive.directory().resolve("payments-" + month + "." + generation + PaymentArchive.FILE_SUFFIX);
+        Path temp = target.resolveSibling(target.getFileName() + PaymentArchive.TEMP_SUFFIX);
+        long[] alreadyArchived = archivedIds(month);
+
+        Long watermark = paymentRepository.findMaxIngestSeq();
+        IdRecorder ids = new IdRecorder();
+        boolean written = Boolean.TRUE.equals(readOnlyTransaction.execute(status -> {
+            try (Stream<PaymentRow> rows = paymentRepository.streamCreated(from, to)) {
+                Iterator<PaymentRow> toWrite = rows
+                        .peek(row -> ids.add(row.getId()))
+                        .filter(row -> Arrays.binarySearch(alreadyArchived, row.getId()) < 0)
+                        .iterator();
+                if (!toWrite.hasNext()) {
+                    return false;
+                }
+                Files.deleteIfExists(temp);
+                PaymentArchiveFile.write(temp, month, toWrite, (watermark == null) ? 0 : watermark, level);
+                return true;
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot write payment archive file " + temp, e);
+            }
+        }));
+
+        PaymentArchiveFile[] added = new PaymentArchiveFile[1];
+        try {
+            transaction.executeWithoutResult(status -> {
+                for (long[] batch : ids.batches()) {
+                    paymentRepository.deleteAllByIdInBatch(Arrays.stream(batch).boxed().toList());
+                }
+                if (written) {
+                    try {
+                        Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+                        added[0] = PaymentArchiveFile.open(target);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException("Cannot publish payment archive file " + target, e);
+                    }
+                    archive.add(added[0]);
+                }
+            });
+        } catch (RuntimeException e) {
+            // The rows are still in the table, the file must not be read next to them
+            if (added[0] != null) {
+                archive.remove(added[0]);
+            }
+            deleteQuietly(temp);
+            if (written) {
+                deleteQuietly(target);
+            }
+            throw e;
+        }
+        logger.info("Archived payments of {}: {} payments to {} in {} ms", month, ids.size(),
+                written ? target : "existing files", (System.nanoTime() - start) / 1_000_000);
+        return ids.size();
+    }
+
+    // Ids in the files already written for the month, sorted
+    private long[] archivedIds(YearMonth month) {
+        long[] ids = new long[0];
+        int size = 0;
+        for (PaymentArchiveFile file : archive.files()) {
+            if (!file.getMonth().equals(month)) {
+                continue;
+            }
+            for (int group = 0; group < file.groupCount(); group++) {
+                try {
+                    PaymentArchiveFile.Rows rows = file.readGroup(group);
+                    ids = Arrays.copyOf(ids, size + rows.size());
+                    for (int row = 0; row < rows.size(); row++) {
+                        ids[size++] = rows.id(row);
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Cannot read payment archive file " + file.getPath(), e);
+                }
+            }
+        }
+        Arrays.sort(ids);
+        return ids;
+    }
+
+    private static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            logger.warn("Cannot delete {}: {}", path, e.getMessage());
+        }
+    }
+
+    // Ids of the rows read for a month, in growable blocks
+    private static final class IdRecorder {
+
+        private final List<long[]> blocks = new ArrayList<>();
+        private long[] current = new long[0];
+        private int position;
+        private long size;
+
+        private void add(long id) {
+            if (position == current.length) {
+                current = new long[DELETE_BATCH_SIZE];
+                blocks.add(current);
+                position = 0;
+            }
+            current[position++] = id;
+            size++;
+        }
+
+        private long size() {
+            return size;
+        }
+
+        // Blocks of at most DELETE_BATCH_SIZE ids
+        private List<long[]> batches() {
+            List<long[]> batches = new ArrayList<>(blocks.size());
+            for (int i = 0; i < blocks.size(); i++) {
+                long[] block = blocks.get(i);
+                batches.add(i == blocks.size() - 1 ? Arrays.copyOf(block, position) : block);
+            }
+            return batches;
+        }
+    }
+}
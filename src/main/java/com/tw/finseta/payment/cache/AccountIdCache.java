@@ -0,0 +1,116 @@
+package com.tw.finseta.payment.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Bounded in-process cache of counterparty account ids keyed by (sortCode, accountNumber).
+ *
+ * <p>Accounts are never updated or deleted once created, so an id cached for a counterparty stays valid
+ * and lets the save path attach the account by reference without selecting it. The 6 digit sort code and
+ * 8 digit account number are packed into a single {@code long} key, see {@link #key(String, String)}; with
+ * several payment shards each has its own accounts table and ids, so the shard is packed in too.
+ * Eviction is size bounded with Caffeine's W-TinyLFU policy and hit, miss and eviction counts are
+ * recorded and published as {@code cache.*} metrics under the name {@value #CACHE_NAME}.</p>
+ *
+ * @author Ranga Raju
+ */
+@Component
+public class AccountIdCache implements MeterBinder {
+
+    static final String CACHE_NAME = "accountIds";
+
+    /** Key returned for counterparties that cannot be packed, they are never cached. */
+    public static final long NOT_CACHEABLE = -1L;
+
+    private static final int SORT_CODE_LENGTH = 6;
+    private static final int ACCOUNT_NUMBER_LENGTH = 8;
+    private static final long ACCOUNT_NUMBER_RANGE = 100_000_000L;
+    private static final long SHARD_RANGE = 100_000_000_000_000L;
+
+    private final Cache<Long, Long> cache;
+
+    public AccountIdCache(@Value("${payment.account-cache.maximum-size:100000}") long maximumSize) {
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * Packs a counterparty into a cache key as {@code sortCode * 10^8 + accountNumber}, 14 decimal digits
+     * which fit comfortably in a {@code long}, without allocating.
+     *
+     * @return the packed key, or {@link #NOT_CACHEABLE} if either part is not all digits of the expected length
+     */
+    public static long key(String sortCode, String accountNumber) {
+        long sortCodeDigits = digits(sortCode, SORT_CODE_LENGTH);
+        long accountNumberDigits = digits(accountNumber, ACCOUNT_NUMBER_LENGTH);
+        if (sortCodeDigits < 0 || accountNumberDigits < 0) {
+            return NOT_CACHEABLE;
+        }
+        return sortCodeDigits * ACCOUNT_NUMBER_RANGE + accountNumberDigits;
+    }
+
+    /**
+     * As {@link #key(String, String)} for the accounts of a payment shard, {@code shard * 10^14} is added to the
+     * key of shard 0.
+     */
+    public static long key(int shard, String sortCode, String accountNumber) {
+        long key = key(sortCode, accountNumber);
+        return (key == NOT_CACHEABLE) ? NOT_CACHEABLE : shard * SHARD_RANGE + key;
+    }
+
+    private static long digits(String value, int length) {
+        if (value == null || value.length() != length) {
+            return -1L;
+        }
+        long result = 0;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1L;
+            }
+            result = result * 10 + (c - '0');
+        }
+        return result;
+    }
+
+    /**
+     * @return the cached account id, or null on a miss or for {@link #NOT_CACHEABLE}
+     */
+    public Long get(long key) {
+        return key == NOT_CACHEABLE ? null : cache.getIfPresent(key);
+    }
+
+    /**
+     * Caches the id of a committed account, ignored for {@link #NOT_CACHEABLE}.
+     */
+    public void put(long key, long accountId) {
+        if (key != NOT_CACHEABLE) {
+            cache.put(key, accountId);
+        }
+    }
+
+    public long size() {
+        return cache.estimatedSize();
+    }
+
+    /**
+     * @return a snapshot of the hit, miss and eviction counters
+     */
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        CaffeineCacheMetrics.monitor(registry, cache, CACHE_NAME);
+    }
+}
@@ -0,0 +1,208 @@
+package com.tw.finseta.payment.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.tw.finseta.payment.api.PaymentController;
+import com.tw.finseta.payment.money.CurrencyCode;
+import com.tw.finseta.payment.repository.PaymentFilter;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.util.ContentCachingResponseWrapper;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Conditional GET and a cache of serialized responses for the payment queries, {@code GET /payments} and
+ * {@code GET /payments/summary}.
+ *
+ * <p>Each response carries a strong {@code ETag} made of the {@link PaymentVersions} epoch, the version of the
+ * payments the query reads and a hash of the normalized query. A request whose {@code If-None-Match} still holds
+ * the current tag is answered with 304 before any query runs. Otherwise the response bytes are looked up by the
+ * normalized query, currencies sorted with unknown codes dropped and {@code minAmount} without trailing zeros,
+ * and served when they were cached at the current version; a miss runs the query and caches the 200 response.
+ * An entry from an older version is simply replaced, and the cache is bounded by the total size of the cached
+ * bodies. Streamed NDJSON responses are never cached.</p>
+ *
+ * <p>The version is read before the query, so a save committing meanwhile can only make a cached body newer
+ * than its version, which the next save supersedes.</p>
+ *
+ * @author Ranga Raju
+ */
+@Component
+@ConditionalOnProperty(name = "payment.response-cache.enabled", havingValue = "true", matchIfMissing = true)
+public class PaymentResponseCache extends OncePerRequestFilter {
+
+    static final String CACHE_NAME = "paymentResponses";
+    static final String RESULTS_METRIC = "payment.response_cache.requests";
+
+    private static final String NDJSON_VALUE = "application/x-ndjson";
+    private static final List<String> CACHED_PATHS = List.of("/payments", "/payments/summary");
+    private static final int ENTRY_OVERHEAD_BYTES = 96;
+
+    private final PaymentVersions versions;
+    private final Cache<String, CachedResponse> cache;
+    private final Counter notModified;
+    private final Counter hits;
+    private final Counter misses;
+
+    public PaymentResponseCache(PaymentVersions versions, MeterRegistry meterRegistry,
+                                @Value("${payment.response-cache.maximum-bytes:16777216}") long maximumBytes) {
+        this.versions = versions;
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(maximumBytes)
+                .weigher((String key, CachedResponse response) -> ENTRY_OVERHEAD_BYTES + 2 * key.length() + response.body().length)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, CACHE_NAME);
+        this.notModified = requests(meterRegistry, "not_modified");
+        this.hits = requests(meterRegistry, "hit");
+        this.misses = requests(meterRegistry, "miss");
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        String accept = request.getHeader(HttpHeaders.ACCEPT);
+        return !"GET".equals(request.getMethod())
+                || !CACHED_PATHS.contains(request.getRequestURI())
+                || (accept != null && accept.contains(NDJSON_VALUE));
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        PaymentFilter filter;
+        try {
+            filter = new PaymentFilter(currencies(request), minAmount(request));
+        } catch (NumberFormatException e) {
+            // Left to the controller to reject
+            chain.doFilter(request, response);
+            return;
+        }
+        String key = key(request, filter);
+        long version = versions.version(filter.getCurrencies());
+        String eTag = "\"" + Long.toHexString(versions.epoch()) + "-" + version + "-"
+                + Integer.toHexString(key.hashCode()) + "\"";
+
+        if (matches(request.getHeader(HttpHeaders.IF_NONE_MATCH), eTag)) {
+            notModified.increment();
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            response.setHeader(HttpHeaders.ETAG, eTag);
+            return;
+        }
+
+        CachedResponse cached = cache.getIfPresent(key);
+        if (cached != null && cached.version() == version) {
+            hits.increment();
+            response.setStatus(HttpServletResponse.SC_OK);
+            response.setHeader(HttpHeaders.ETAG, eTag);
+            response.setContentType(cached.contentType());
+            if (cached.nextCursor() != null) {
+                response.setHeader(PaymentController.NEXT_CURSOR_HEADER, cached.nextCursor());
+            }
+            response.setContentLength(cached.body().length);
+            response.getOutputStream().write(cached.body());
+            return;
+        }
+
+        misses.increment();
+        ContentCachingResponseWrapper wrapper = new ContentCachingResponseWrapper(response);
+        try {
+            chain.doFilter(request, wrapper);
+            if (wrapper.getStatus() == HttpServletResponse.SC_OK) {
+                cache.put(key, new CachedResponse(version, wrapper.getContentType(),
+                        wrapper.getHeader(PaymentController.NEXT_CURSOR_HEADER), wrapper.getContentAsByteArray()));
+                wrapper.setHeader(HttpHeaders.ETAG, eTag);
+            }
+        } finally {
+            wrapper.copyBodyToResponse();
+        }
+    }
+
+    // Spring binds a comma separated value and repeated parameters to the same list
+    private static List<String> currencies(HttpServletRequest request) {
+        String[] values = request.getParameterValues("currencies");
+        if (values == null) {
+            return null;
+        }
+        List<String> currencies = new ArrayList<>();
+        for (String value : values) {
+            for (String currency : StringUtils.commaDelimitedListToStringArray(value)) {
+                if (!currency.isBlank()) {
+                    currencies.add(currency.trim());
+                }
+            }
+        }
+        return currencies;
+    }
+
+    private static BigDecimal minAmount(HttpServletRequest request) {
+        String value = request.getParameter("minAmount");
+        return (value == null || value.isBlank()) ? null : new BigDecimal(value.trim());
+    }
+
+    /**
+     * Normalized query: equal keys always produce the same response at the same version.
+     */
+    static String key(HttpServletRequest request, PaymentFilter filter) {
+        StringBuilder key = new StringBuilder(request.getRequestURI());
+        key.append("|currencies=");
+        if (filter.getCurrencies() != null) {
+            filter.getCurrencies().stream().sorted().map(CurrencyCode::toString).forEach(code -> key.append(code).append(','));
+        }
+        key.append("|minAmount=");
+        if (filter.getMinAmount() != null) {
+            key.append(filter.getMinAmount().stripTrailingZeros().toPlainString());
+        }
+        key.append("|from=").append(strip(request.getParameter("from")));
+        key.append("|to=").append(strip(request.getParameter("to")));
+        key.append("|limit=").append(strip(request.getParameter("limit")));
+        key.append("|cursor=").append(request.getParameter("cursor"));
+        key.append("|accept=").append(request.getHeader(HttpHeaders.ACCEPT));
+        return key.toString();
+    }
+
+    private static String strip(String value) {
+        return (value == null) ? null : value.strip();
+    }
+
+    // Weak comparison as for any If-None-Match, W/ prefixes are ignored
+    private static boolean matches(String ifNoneMatch, String eTag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : StringUtils.commaDelimitedListToStringArray(ifNoneMatch)) {
+            String value = candidate.trim();
+            if (value.startsWith("W/")) {
+                value = value.substring(2);
+            }
+            if (value.equals(eTag) || value.equals("*")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Counter requests(MeterRegistry registry, String result) {
+        return Counter.builder(RESULTS_METRIC)
+                .description("Payment queries answered by the response cache, by outcome")
+                .tag("result", result)
+                .register(registry);
+    }
+
+    private record CachedResponse(long version, String contentType, String nextCursor, byte[] body) {
+    }
+}
@@ -0,0 +1,76 @@
+package com.tw.finseta.payment.cache;
+
+import com.tw.finseta.payment.money.CurrencyCode;
+import com.tw.finseta.payment.repository.PaymentRow;
+import com.tw.finseta.payment.service.PaymentsSavedEvent;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Write versions of the payments, a global one and one per currency, bumped after every committed save.
+ *
+ * <p>A query result can only change when the version of the data it reads changes: the versions of the filtered
+ * currencies for a currency filter, the global version otherwise. Versions restart from zero with the process,
+ * so they are qualified by a random {@link #epoch()} chosen at startup.</p>
+ *
+ * @author Ranga Raju
+ */
+@Component
+public class PaymentVersions {
+
+    private final long epoch = ThreadLocalRandom.current().nextLong() >>> 1;
+    private final AtomicLong global = new AtomicLong();
+    private final Map<CurrencyCode, AtomicLong> byCurrency = new ConcurrentHashMap<>();
+
+    /**
+     * Bumps the versions of the saved currencies and the global version. Runs after the other commit listeners,
+     * so a result read at the new version already includes the save in every in-memory read model.
+     */
+    @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT)
+    @Order(Ordered.LOWEST_PRECEDENCE)
+    public void onPaymentsSaved(PaymentsSavedEvent event) {
+        Set<CurrencyCode> currencies = new HashSet<>();
+        for (PaymentRow row : event.getPayments()) {
+            if (currencies.add(row.getCurrency())) {
+                byCurrency.computeIfAbsent(row.getCurrency(), currency -> new AtomicLong()).incrementAndGet();
+            }
+        }
+        global.incrementAndGet();
+    }
+
+    /** Random value identifying this process, distinguishing its versions from those of earlier runs. */
+    public long epoch() {
+        return epoch;
+    }
+
+    /**
+     * Version of the payments matching a currency filter: the sum of the currency versions, which grows with
+     * every save in any of them, or the global version when the filter is absent.
+     *
+     * @param currencies the filtered currencies, null for all payments
+     */
+    public long version(List<CurrencyCode> currencies) {
+        if (currencies == null) {
+            return global.get();
+        }
+        long version = 0;
+        for (CurrencyCode currency : currencies) {
+            AtomicLong currencyVersion = byCurrency.get(currency);
+            if (currencyVersion != null) {
+                version += currencyVersion.get();
+            }
+        }
+        return version;
+    }
+}
@@ -0,0 +1,335 @@
+package com.tw.finseta.payment.codec;
+
+import com.tw.finseta.payment.model.Account;
+import com.tw.finseta.payment.model.Payment;
+import com.tw.finseta.payment.service.PaymentService;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compact binary encoding of {@link Payment}s, for service-to-service callers that would otherwise pay for
+ * text JSON on every request.
+ *
+ * <p>A payment starts with one byte flagging its non-null fields, followed by those fields in order:
+ * the currency, the amount as its zigzag varint scale and unscaled value, the counterparty type as its
+ * position in {@link Account.TypeEnum}, then the account number and sort code. Strings are a varint byte
+ * length followed by UTF-8. An unscaled amount beyond a {@code long} is written as a length-prefixed two's
+ * complement instead, flagged as {@link #BIG_AMOUNT}. A list is a varint count followed by its payments.
+ * A typical payment takes about 25 bytes against 130 as JSON.</p>
+ *
+ * <p>Reading rejects strings over {@value #MAX_STRING_BYTES} bytes, unscaled amounts over
+ * {@value #MAX_AMOUNT_BYTES} bytes, scales beyond {@value #MAX_SCALE} either way and lists over
+ * {@link PaymentService#MAX_BATCH_SIZE} payments before reading them, so a body cannot carry values that
+ * JSON's read constraints would refuse.</p>
+ *
+ * @author Ranga Raju
+ */
+public final class PaymentBinaryCodec {
+
+    private static final int CURRENCY = 1;
+    private static final int AMOUNT = 1 << 1;
+    private static final int COUNTERPARTY = 1 << 2;
+    private static final int TYPE = 1 << 3;
+    private static final int ACCOUNT_NUMBER = 1 << 4;
+    private static final int SORT_CODE = 1 << 5;
+    private static final int BIG_AMOUNT = 1 << 6;
+
+    static final int MAX_STRING_BYTES = 64;
+    static final int MAX_AMOUNT_BYTES = 16;
+    static final int MAX_SCALE = 64;
+
+    private static final Account.TypeEnum[] TYPES = Account.TypeEnum.values();
+    private static final int BUFFER_BYTES = 8192;
+
+    private PaymentBinaryCodec() {
+    }
+
+    public static void write(Payment payment, OutputStream out) throws IOException {
+        Output output = new Output(out);
+        output.payment(payment);
+        output.flush();
+    }
+
+    public static void writeAll(List<Payment> payments, OutputStream out) throws IOException {
+        Output output = new Output(out);
+        output.varint(payments.size());
+        for (Payment payment : payments) {
+            output.payment(payment);
+        }
+        output.flush();
+    }
+
+    /**
+     * @throws IOException if the input ends early, or is not an encoded payment
+     */
+    public static Payment read(InputStream in) throws IOException {
+        return new Input(in).payment();
+    }
+
+    /**
+     * @throws IOException if the input ends early, is not an encoded list of payments, or lists more than
+     *                     {@link PaymentService#MAX_BATCH_SIZE} of them
+     */
+    public static List<Payment> readAll(InputStream in) throws IOException {
+        return readAll(in, PaymentService.MAX_BATCH_SIZE);
+    }
+
+    /**
+     * @param maxSize the most payments the list may hold
+     * @throws IOException if the input ends early, is not an encoded list of payments, or lists more than
+     *                     {@code maxSize} of them
+     */
+    public static List<Payment> readAll(InputStream in, int maxSize) throws IOException {
+        Input input = new Input(in);
+        int size = input.varint();
+        if (size < 0 || size > maxSize) {
+            throw new IOException("Invalid payment count " + size);
+        }
+        // Sized by the payments actually read, not by a count the sender could inflate
+        List<Payment> payments = new ArrayList<>(Math.min(size, 1024));
+        for (int i = 0; i < size; i++) {
+            payments.add(input.payment());
+        }
+        return payments;
+    }
+
+    private static final class Output {
+
+        private final OutputStream out;
+        private final byte[] buffer = new byte[BUFFER_BYTES];
+        private int position;
+
+        private Output(OutputStream out) {
+            this.out = out;
+        }
+
+        private void payment(Payment payment) throws IOException {
+            Account counterparty = payment.getCounterparty();
+            BigDecimal amount = payment.getAmount();
+            BigInteger unscaled = amount == null ? null : amount.unscaledValue();
+            boolean big = unscaled != null && unscaled.bitLength() > 63;
+            int flags = (payment.getCurrency() != null ? CURRENCY : 0)
+                    | (amount != null ? AMOUNT : 0)
+                    | (big ? BIG_AMOUNT : 0)
+                    | (counterparty != null ? COUNTERPARTY : 0);
+            if (counterparty != null) {
+                flags |= (counterparty.getType() != null ? TYPE : 0)
+                        | (counterparty.getAccountNumber() != null ? ACCOUNT_NUMBER : 0)
+                        | (counterparty.getSortCode() != null ? SORT_CODE : 0);
+            }
+            ensure(1);
+            buffer[position++] = (byte) flags;
+            if ((flags & CURRENCY) != 0) {
+                string(payment.getCurrency());
+            }
+            if ((flags & AMOUNT) != 0) {
+                varlong(zigzag(amount.scale()));
+                if (big) {
+                    bytes(unscaled.toByteArray());
+                } else {
+                    varlong(zigzag(unscaled.longValue()));
+                }
+            }
+            if ((flags & TYPE) != 0) {
+                ensure(1);
+                buffer[position++] = (byte) counterparty.getType().ordinal();
+            }
+            if ((flags & ACCOUNT_NUMBER) != 0) {
+                string(counterparty.getAccountNumber());
+            }
+            if ((flags & SORT_CODE) != 0) {
+                string(counterparty.getSortCode());
+            }
+        }
+
+        // Codes and account numbers are ASCII, written char by char without encoding them to a new array first
+        private void string(String value) throws IOException {
+            int length = value.length();
+            if (length > buffer.length - 10) {
+                bytes(value.getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+            for (int i = 0; i < length; i++) {
+                if (value.charAt(i) >= 0x80) {
+                    bytes(value.getBytes(StandardCharsets.UTF_8));
+                    return;
+                }
+            }
+            varint(length);
+            ensure(length);
+            for (int i = 0; i < length; i++) {
+                buffer[position++] = (byte) value.charAt(i);
+            }
+        }
+
+        private void bytes(byte[] value) throws IOException {
+            varint(value.length);
+            if (value.length > buffer.length) {
+                flush();
+                out.write(value);
+                return;
+            }
+            ensure(value.length);
+            System.arraycopy(value, 0, buffer, position, value.length);
+            position += value.length;
+        }
+
+        private void varint(int value) throws IOException {
+            varlong(value & 0xFFFFFFFFL);
+        }
+
+        private void varlong(long value) throws IOException {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buffer[position++] = (byte) value;
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (position + bytes > buffer.length) {
+                flush();
+            }
+        }
+
+        private void flush() throws IOException {
+            out.write(buffer, 0, position);
+            position = 0;
+        }
+    }
+
+    private static final class Input {
+
+        private final InputStream in;
+        private final byte[] buffer = new byte[BUFFER_BYTES];
+        private int position;
+        private int limit;
+
+        private Input(InputStream in) {
+            this.in = in;
+        }
+
+        private Payment payment() throws IOException {
+            int flags = readByte();
+            if ((flags & ~(CURRENCY | AMOUNT | COUNTERPARTY | TYPE | ACCOUNT_NUMBER | SORT_CODE | BIG_AMOUNT)) != 0) {
+                throw new IOException("Invalid payment flags " + flags);
+            }
+            Payment payment = new Payment();
+            if ((flags & CURRENCY) != 0) {
+                payment.setCurrency(string());
+            }
+            if ((flags & AMOUNT) != 0) {
+                long scale = unzigzag(varlong());
+                if (scale < -MAX_SCALE || scale > MAX_SCALE) {
+                    throw new IOException("Invalid amount scale " + scale);
+                }
+                if ((flags & BIG_AMOUNT) != 0) {
+                    byte[] unscaled = bytes(MAX_AMOUNT_BYTES);
+                    if (unscaled.length == 0) {
+                        throw new IOException("Invalid amount");
+                    }
+                    payment.setAmount(new BigDecimal(new BigInteger(unscaled), (int) scale));
+                } else {
+                    payment.setAmount(BigDecimal.valueOf(unzigzag(varlong()), (int) scale));
+                }
+            }
+            if ((flags & COUNTERPARTY) != 0) {
+                Account counterparty = new Account();
+                if ((flags & TYPE) != 0) {
+                    int type = readByte();
+                    if (type >= TYPES.length) {
+                        throw new IOException("Invalid counterparty type " + type);
+                    }
+                    counterparty.setType(TYPES[type]);
+                }
+                if ((flags & ACCOUNT_NUMBER) != 0) {
+                    counterparty.setAccountNumber(string());
+                }
+                if ((flags & SORT_CODE) != 0) {
+                    counterparty.setSortCode(string());
+                }
+                payment.setCounterparty(counterparty);
+            }
+            return payment;
+        }
+
+        private String string() throws IOException {
+            return new String(bytes(MAX_STRING_BYTES), StandardCharsets.UTF_8);
+        }
+
+        // The length is checked before anything is allocated or read
+        private byte[] bytes(int maxLength) throws IOException {
+            int length = varint();
+            if (length < 0 || length > maxLength) {
+                throw new IOException("Invalid length " + length);
+            }
+            if (limit - position >= length) {
+                byte[] value = new byte[length];
+                System.arraycopy(buffer, position, value, 0, length);
+                position += length;
+                return value;
+            }
+            // Longer than what is buffered: the rest is read straight from the stream, never trusting the length
+            byte[] head = new byte[limit - position];
+            System.arraycopy(buffer, position, head, 0, head.length);
+            position = limit;
+            byte[] tail = in.readNBytes(length - head.length);
+            if (tail.length < length - head.length) {
+                throw new EOFException("Payment truncated");
+            }
+            byte[] value = new byte[length];
+            System.arraycopy(head, 0, value, 0, head.length);
+            System.arraycopy(tail, 0, value, head.length, tail.length);
+            return value;
+        }
+
+        private int varint() throws IOException {
+            long value = varlong();
+            if (value > Integer.MAX_VALUE) {
+                throw new IOException("Invalid length " + value);
+            }
+            return (int) value;
+        }
+
+        private long varlong() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Invalid varint");
+        }
+
+        private int readByte() throws IOException {
+            if (position == limit) {
+                limit = in.read(buffer, 0, buffer.length);
+                position = 0;
+                if (limit <= 0) {
+                    limit = 0;
+                    throw new EOFException("Payment truncated");
+                }
+            }
+            return buffer[position++] & 0xFF;
+        }
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
@@ -0,0 +1,83 @@
+package com.tw.finseta.payment.codec;
+
+import com.tw.finseta.payment.model.Payment;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractGenericHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.List;
+
+/**
+ * Reads and writes a {@link Payment} or a list of them as {@value #PAYMENT_BINARY_VALUE}, encoded by
+ * {@link PaymentBinaryCodec}. Registered with Spring MVC as a bean, next to the JSON converter, so callers choose
+ * the format with {@code Content-Type} and {@code Accept}; JSON stays the default.
+ *
+ * @author Ranga Raju
+ */
+@Component
+public class PaymentBinaryMessageConverter extends AbstractGenericHttpMessageConverter<Object> {
+
+    public static final String PAYMENT_BINARY_VALUE = "application/x-payment-binary";
+    public static final MediaType PAYMENT_BINARY = MediaType.valueOf(PAYMENT_BINARY_VALUE);
+
+    public PaymentBinaryMessageConverter() {
+        super(PAYMENT_BINARY);
+    }
+
+    @Override
+    protected boolean supports(Class<?> clazz) {
+        return clazz == Payment.class;
+    }
+
+    @Override
+    public boolean canRead(Type type, @Nullable Class<?> contextClass, @Nullable MediaType mediaType) {
+        return (type == Payment.class || isPaymentList(type)) && canRead(mediaType);
+    }
+
+    @Override
+    public boolean canWrite(@Nullable Type type, Class<?> clazz, @Nullable MediaType mediaType) {
+        return (type == null ? clazz == Payment.class : type == Payment.class || isPaymentList(type))
+                && canWrite(mediaType);
+    }
+
+    private static boolean isPaymentList(Type type) {
+        return type instanceof ParameterizedType parameterized
+                && parameterized.getRawType() instanceof Class<?> raw
+                && List.class.isAssignableFrom(raw)
+                && parameterized.getActualTypeArguments()[0] == Payment.class;
+    }
+
+    @Override
+    public Object read(Type type, @Nullable Class<?> contextClass, HttpInputMessage inputMessage) throws IOException {
+        try {
+            return type == Payment.class
+                    ? PaymentBinaryCodec.read(inputMessage.getBody())
+                    : PaymentBinaryCodec.readAll(inputMessage.getBody());
+        } catch (IOException e) {
+            throw new HttpMessageNotReadableException("Invalid " + PAYMENT_BINARY_VALUE + " body: " + e.getMessage(),
+                    e, inputMessage);
+        }
+    }
+
+    @Override
+    protected Object readInternal(Class<?> clazz, HttpInputMessage inputMessage) throws IOException {
+        return read(clazz, null, inputMessage);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected void writeInternal(Object body, @Nullable Type type, HttpOutputMessage outputMessage) throws IOException {
+        if (body instanceof Payment payment) {
+            PaymentBinaryCodec.write(payment, outputMessage.getBody());
+        } else {
+            PaymentBinaryCodec.writeAll((List<Payment>) body, outputMessage.getBody());
+        }
+    }
+}
@@ -0,0 +1,285 @@
+package com.tw.finseta.payment.compression;
+
+import com.github.luben.zstd.ZstdOutputStream;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.HttpServletResponseWrapper;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.web.ServerProperties;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * {@code zstd} or else {@code gzip} response compression, by the client's {@code Accept-Encoding}.
+ *
+ * <p>Uses the {@code server.compression} settings: a response is compressed once its body reaches
+ * {@code min-response-size} and only if its content type is one of {@code mime-types}; smaller responses, and
+ * any response flushed before reaching the threshold, go out as they are. Compressed responses carry a weak
+ * {@code ETag}, as their bytes differ from the identity response's. Tomcat's own compression does not apply to
+ * responses with a strong {@code ETag}, which every cached payment query has, so it is only left the streamed
+ * NDJSON responses, which this filter skips.</p>
+ *
+ * @author Ranga Raju
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE + 20)
+@ConditionalOnProperty(name = "server.compression.enabled", havingValue = "true")
+public class ResponseCompressionFilter extends OncePerRequestFilter {
+
+    static final String ZSTD = "zstd";
+    static final String GZIP = "gzip";
+
+    private static final int GZIP_BUFFER_BYTES = 8192;
+
+    private final int minResponseBytes;
+    private final List<MediaType> mimeTypes;
+    private final int zstdLevel;
+
+    public ResponseCompressionFilter(ServerProperties serverProperties,
+                                     @Value("${payment.compression.zstd-level:3}") int zstdLevel) {
+        this.minResponseBytes = (int) serverProperties.getCompression().getMinResponseSize().toBytes();
+        this.mimeTypes = MediaType.parseMediaTypes(List.of(serverProperties.getCompression().getMimeTypes()));
+        this.zstdLevel = zstdLevel;
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        String accept = request.getHeader(HttpHeaders.ACCEPT);
+        return coding(request.getHeader(HttpHeaders.ACCEPT_ENCODING)) == null
+                || (accept != null && (accept.contains("application/x-ndjson")
+                || accept.contains(MediaType.TEXT_EVENT_STREAM_VALUE)));
+    }
+
+    /**
+     * The content coding to compress with, {@code zstd} for its better ratio at lower cost when accepted,
+     * else {@code gzip}, or {@code null} for neither.
+     */
+    static String coding(String acceptEncoding) {
+        return accepts(acceptEncoding, ZSTD) ? ZSTD : accepts(acceptEncoding, GZIP) ? GZIP : null;
+    }
+
+    // Accepted unless absent or refused with q=0; a malformed q-value is taken as a refusal
+    private static boolean accepts(String acceptEncoding, String coding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String accepted : StringUtils.commaDelimitedListToStringArray(acceptEncoding)) {
+            String[] parts = accepted.split(";");
+            if (parts[0].trim().equalsIgnoreCase(coding)) {
+                for (int i = 1; i < parts.length; i++) {
+                    String parameter = parts[i].trim();
+                    if (parameter.startsWith("q=") && !(quality(parameter.substring(2)) > 0)) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // NaN when it is not a number, so it compares as refused
+    private static double quality(String value) {
+        try {
+            return Double.parseDouble(value.trim());
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        CompressingResponse compressing = new CompressingResponse(response,
+                coding(request.getHeader(HttpHeaders.ACCEPT_ENCODING)));
+        chain.doFilter(request, compressing);
+        compressing.finish();
+    }
+
+    private boolean compressible(String contentType) {
+        if (contentType == null) {
+            return false;
+        }
+        MediaType mediaType = MediaType.parseMediaType(contentType);
+        for (MediaType mimeType : mimeTypes) {
+            if (mimeType.isCompatibleWith(mediaType)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Holds the body back until it reaches the threshold, then sends it on compressed or as it is.
+     */
+    private final class CompressingResponse extends HttpServletResponseWrapper {
+
+        private final String coding;
+        private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+        private OutputStream target;
+        private boolean compressed;
+        private ServletOutputStream outputStream;
+        private PrintWriter writer;
+        private long contentLength = -1;
+
+        private CompressingResponse(HttpServletResponse response, String coding) {
+            super(response);
+            this.coding = coding;
+        }
+
+        @Override
+        public void setContentLength(int length) {
+            setContentLengthLong(length);
+        }
+
+        @Override
+        public void setContentLengthLong(long length) {
+            if (target == null) {
+                contentLength = length;
+            } else if (!compressed) {
+                super.setContentLengthLong(length);
+            }
+        }
+
+        @Override
+        public void setHeader(String name, String value) {
+            if (HttpHeaders.CONTENT_LENGTH.equalsIgnoreCase(name)) {
+                setContentLengthLong(Long.parseLong(value));
+            } else {
+                super.setHeader(name, value);
+            }
+        }
+
+        @Override
+        public void addHeader(String name, String value) {
+            if (HttpHeaders.CONTENT_LENGTH.equalsIgnoreCase(name)) {
+                setContentLengthLong(Long.parseLong(value));
+            } else {
+                super.addHeader(name, value);
+            }
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            if (outputStream == null) {
+                outputStream = new ServletOutputStream() {
+                    @Override
+                    public void write(int b) throws IOException {
+                        write(new byte[] {(byte) b}, 0, 1);
+                    }
+
+                    @Override
+                    public void write(byte[] bytes, int offset, int length) throws IOException {
+                        CompressingResponse.this.write(bytes, offset, length);
+                    }
+
+                    @Override
+                    public void flush() throws IOException {
+                        CompressingResponse.this.flush();
+                    }
+
+                    @Override
+                    public boolean isReady() {
+                        return true;
+                    }
+
+                    @Override
+                    public void setWriteListener(WriteListener listener) {
+                        throw new UnsupportedOperationException("Non-blocking writes are not compressed");
+                    }
+                };
+            }
+            return outputStream;
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            if (writer == null) {
+                writer = new PrintWriter(new OutputStreamWriter(getOutputStream(),
+                        Charset.forName(getCharacterEncoding())));
+            }
+            return writer;
+        }
+
+        @Override
+        public void flushBuffer() throws IOException {
+            flush();
+            super.flushBuffer();
+        }
+
+        private void write(byte[] bytes, int offset, int length) throws IOException {
+            if (target == null) {
+                pending.write(bytes, offset, length);
+                if (pending.size() >= minResponseBytes) {
+                    start(compressible(getContentType()) && !containsHeader(HttpHeaders.CONTENT_ENCODING));
+                }
+                return;
+            }
+            target.write(bytes, offset, length);
+        }
+
+        private void flush() throws IOException {
+            if (writer != null) {
+                writer.flush();
+            }
+            if (target == null) {
+                start(false);
+            }
+            target.flush();
+        }
+
+        private void start(boolean compress) throws IOException {
+            HttpServletResponse response = (HttpServletResponse) getResponse();
+            if (compress) {
+                response.setHeader(HttpHeaders.CONTENT_ENCODING, coding);
+                response.addHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+                String eTag = response.getHeader(HttpHeaders.ETAG);
+                if (eTag != null && !eTag.startsWith("W/")) {
+                    response.setHeader(HttpHeaders.ETAG, "W/" + eTag);
+                }
+                target = coding.equals(ZSTD)
+                        ? new ZstdOutputStream(response.getOutputStream(), zstdLevel)
+                        : new GZIPOutputStream(response.getOutputStream(), GZIP_BUFFER_BYTES, true);
+                compressed = true;
+            } else {
+                if (contentLength >= 0) {
+                    response.setContentLengthLong(contentLength);
+                }
+                target = response.getOutputStream();
+            }
+            pending.writeTo(target);
+        }
+
+        private void finish() throws IOException {
+            if (writer != null) {
+                writer.flush();
+            }
+            if (target == null) {
+                start(false);
+            }
+            if (compressed) {
+                // Ends the frame; the servlet stream it closes is closed by the container anyway
+                target.close();
+            }
+        }
+    }
+}
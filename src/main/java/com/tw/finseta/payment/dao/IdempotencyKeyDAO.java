@@ -0,0 +1,66 @@
+package com.tw.finseta.payment.dao;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.ConstraintMode;
+import jakarta.persistence.Entity;
+import jakarta.persistence.FetchType;
+import jakarta.persistence.ForeignKey;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.JoinColumn;
+import jakarta.persistence.ManyToOne;
+import jakarta.persistence.Table;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import org.hibernate.annotations.NotFound;
+import org.hibernate.annotations.NotFoundAction;
+import org.springframework.data.domain.Persistable;
+
+import java.time.Instant;
+
+/**
+ * Entity recording the payment created for an {@code Idempotency-Key}, so a retry after a restart still gets the
+ * original response. Inserted in the transaction of the payment, in the payment's shard.
+ * This entity is persisted in the "idempotency_keys" table.
+ *
+ * Author: Ranga Raju
+ */
+@Entity
+@Table(name = "idempotency_keys", indexes = {
+        @Index(name = "idx_idempotency_keys_created_at", columnList = "created_at")
+})
+@Getter
+@NoArgsConstructor
+@AllArgsConstructor
+public class IdempotencyKeyDAO implements Persistable<String> {
+
+    @Id
+    @Column(name = "idempotency_key", length = 255)
+    private String key;
+
+    // Fingerprint of the request, a retry must carry the same payment
+    @Column(name = "request_hash", nullable = false)
+    private long requestHash;
+
+    // No foreign key: the payment may be archived after the key has expired, the row is then simply ignored
+    @ManyToOne(fetch = FetchType.EAGER)
+    @JoinColumn(name = "payments_id", nullable = false, foreignKey = @ForeignKey(ConstraintMode.NO_CONSTRAINT))
+    @NotFound(action = NotFoundAction.IGNORE)
+    private PaymentDAO payment;
+
+    @Column(name = "created_at", nullable = false)
+    private Instant createdAt;
+
+    @Override
+    public String getId() {
+        return key;
+    }
+
+    // Rows are only ever inserted, so save() persists and a key taken meanwhile fails on the primary key instead
+    // of being merged over
+    @Override
+    public boolean isNew() {
+        return true;
+    }
+}
@@ -1,6 +1,7 @@
 package com.tw.finseta.payment.dao;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.tw.finseta.payment.money.CurrencyCode;
 import jakarta.persistence.*;
 import lombok.Getter;
 import lombok.Setter;
@@ -9,19 +10,26 @@ import lombok.AllArgsConstructor;
 import lombok.EqualsAndHashCode;
 import lombok.ToString;
 
-import java.math.BigDecimal;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
 
 /**
  * Entity representing a monetary payment.
  * Contains core details such as the currency, amount, and associated counterparty account.
  * This entity is persisted in the "payments" table.
  * Provides a JPA mapping to associate an Account as the counterparty for the payment.
+ * The amount is held as a BIGINT of minor units of the currency, e.g. pence for GBP.
  * Typical usage includes representing a payment in financial transactions within the application.
  *
  * Author: Ranga Raju
  */
 @Entity
-@Table(name = "payments")
+@Table(name = "payments", indexes = {
+        @Index(name = "idx_payments_currency_amount", columnList = "currency, amount_minor"),
+        @Index(name = "idx_payments_amount", columnList = "amount_minor"),
+        @Index(name = "idx_payments_accounts_id", columnList = "accounts_id"),
+        @Index(name = "idx_payments_created_at", columnList = "created_at")
+})
 @Getter
 @Setter
 @NoArgsConstructor
@@ -30,24 +38,49 @@ import java.math.BigDecimal;
 @ToString
 public class PaymentDAO {
 
+    // Pooled sequence rather than IDENTITY so Hibernate can assign ids up front and batch the inserts
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "payments_seq")
+    @SequenceGenerator(name = "payments_seq", sequenceName = "payments_seq", allocationSize = 50)
     private Long id;
 
-    @ManyToOne(optional = false, fetch = FetchType.EAGER, cascade = CascadeType.ALL)
+    // No cascade: accounts are created by CounterpartyResolver, which owns the insert-or-get race handling
+    @ManyToOne(optional = false, fetch = FetchType.EAGER)
     @JoinColumn(name = "accounts_id")
     @JsonProperty("counterparty")
     private AccountDAO counterparty;
 
-    @JsonProperty("amount")
-    private BigDecimal amount;
+    // Fixed-point minor units, compared and indexed as a plain BIGINT
+    @Column(name = "amount_minor", nullable = false)
+    @JsonProperty("amountMinor")
+    private long amountMinor;
 
+    @Column(length = 3, nullable = false)
     @JsonProperty("currency")
-    private String currency;
+    private CurrencyCode currency;
 
-    public PaymentDAO(String currency, BigDecimal amount, AccountDAO counterparty) {
+    // Journal sequence of a payment accepted through the ingestion journal, null for direct saves. Unique, so
+    // the highest committed sequence is an index lookup and a replayed record can never be inserted twice
+    @Column(name = "ingest_seq", unique = true)
+    @JsonProperty("ingestSeq")
+    private Long ingestSeq;
+
+    // When the payment was saved, to microseconds as the column holds them. Buckets the table by month for
+    // from/to queries and for PaymentArchiver, which moves closed months out to archive files
+    @Column(name = "created_at", nullable = false)
+    @JsonProperty("createdAt")
+    private Instant createdAt;
+
+    public PaymentDAO(CurrencyCode currency, long amountMinor, AccountDAO counterparty) {
         this.currency = currency;
-        this.amount = amount;
+        this.amountMinor = amountMinor;
         this.counterparty = counterparty;
     }
-}
\ No newline at end of file
+
+    @PrePersist
+    void onCreate() {
+        if (createdAt == null) {
+            createdAt = Instant.now().truncatedTo(ChronoUnit.MICROS);
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package com.tw.finseta.payment.exception;
+
+import lombok.Getter;
+import lombok.ToString;
+import org.springframework.http.HttpStatus;
+
+/**
+ * Exception thrown when a request cannot be answered for its {@code Idempotency-Key}: the key was used with a
+ * different payment, or the request holding it is still in progress.
+ *
+ * <p>Like {@link ValidationException} it reports a client error, so no stack trace is captured.</p>
+ *
+ * @author Ranga Raju
+ */
+@Getter
+@ToString(callSuper = true)
+public class IdempotencyKeyException extends RuntimeException {
+
+    private final HttpStatus status;
+
+    public IdempotencyKeyException(HttpStatus status, String message) {
+        super(message, null, false, false);
+        this.status = status;
+    }
+}
@@ -12,6 +12,9 @@ import java.util.List;
  * <p>Contains a list of error messages describing validation rule violations.
  * Used for propagating error responses in a structured manner in REST APIs.</p>
  *
+ * <p>It reports a client error rather than a fault, so no stack trace is captured: rejecting a request
+ * costs the error list and nothing more.</p>
+ *
  * @author Ranga Raju
  */
 @Getter
@@ -21,7 +24,7 @@ public class ValidationException extends RuntimeException {
     private final List<Error> errors;
 
     public ValidationException(List<Error> errors) {
-        super("Payment validation failed");
+        super("Payment validation failed", null, false, false);
         this.errors = errors;
     }
 }
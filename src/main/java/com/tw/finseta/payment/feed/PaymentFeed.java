@@ -0,0 +1,347 @@
+package com.tw.finseta.payment.feed;
+
+import com.tw.finseta.payment.money.CurrencyCode;
+import com.tw.finseta.payment.money.Money;
+import com.tw.finseta.payment.repository.PaymentFilter;
+import com.tw.finseta.payment.repository.PaymentRow;
+import com.tw.finseta.payment.service.PaymentsSavedEvent;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Change feed of committed payments for server-sent event subscribers.
+ *
+ * <p>Every committed save is appended once to a fixed ring of the last {@code payment.feed.capacity} payments,
+ * each under the next feed sequence, and the subscribers are then signalled. A subscriber is a cursor into the
+ * ring with its own filter; it is drained by a task on the feed's executor, at most one at a time, which writes
+ * the matching payments from its cursor onwards. Writers therefore never wait for a client: a client that falls
+ * so far behind that the ring overwrites its cursor is disconnected, and resumes, or is told to resync, when it
+ * reconnects.</p>
+ *
+ * <p>The executor has a fixed {@code payment.feed.senders} threads, and a subscriber is queued at most once, so
+ * neither threads nor queued tasks grow with the number of clients. A client that stops reading blocks the
+ * thread writing to it, so a write that has not completed within {@code payment.feed.send-timeout} disconnects
+ * its subscriber: nothing more is scheduled for it and the emitter is completed once the container gives up on
+ * the write.</p>
+ *
+ * <p>Event ids are {@code <epoch>-<sequence>}, the epoch being random per process. A reconnect with a
+ * {@code Last-Event-ID} still held by the ring continues right after it; any other resume point gets a
+ * {@value #RESET_EVENT} event first, after which the client should reload with {@code GET /payments}.</p>
+ *
+ * @author Ranga Raju
+ */
+@Component
+public class PaymentFeed {
+
+    private static final Logger logger = LogManager.getLogger(PaymentFeed.class);
+
+    static final String PAYMENT_EVENT = "payment";
+    static final String RESET_EVENT = "reset";
+
+    private static final int MAX_EXPONENT = CurrencyCode.byExponent().keySet().stream().max(Integer::compare).orElseThrow();
+
+    private final long epoch = ThreadLocalRandom.current().nextLong() >>> 1;
+    private final PaymentRow[] ring;
+    private final int mask;
+    private final int maxSubscribers;
+    private final Set<Subscription> subscriptions = ConcurrentHashMap.newKeySet();
+    private final ExecutorService senders;
+    private final ScheduledExecutorService heartbeats;
+    private final long sendTimeoutNanos;
+    private final Counter dropped;
+    private final Counter stalled;
+
+    // Sequence of the last payment in the ring, written after its slot under the feed lock
+    private volatile long published;
+
+    /**
+     * Constructs a PaymentFeed.
+     *
+     * @param capacity the number of recent payments kept for subscribers, rounded up to a power of two
+     * @param maxSubscribers the maximum number of concurrent subscribers
+     * @param senders the number of threads writing to subscribers
+     * @param heartbeat the interval of the keep-alive comments that also detect closed connections
+     * @param sendTimeout how long a write to a subscriber may block before the subscriber is disconnected
+     * @param meterRegistry the registry of the subscriber gauge and the disconnected subscriber counters
+     */
+    @Autowired
+    public PaymentFeed(@Value("${payment.feed.capacity:65536}") int capacity,
+                       @Value("${payment.feed.max-subscribers:256}") int maxSubscribers,
+                       @Value("${payment.feed.senders:8}") int senders,
+                       @Value("${payment.feed.heartbeat:15s}") Duration heartbeat,
+                       @Value("${payment.feed.send-timeout:10s}") Duration sendTimeout,
+                       MeterRegistry meterRegistry) {
+        int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        this.ring = new PaymentRow[size];
+        this.mask = size - 1;
+        this.maxSubscribers = maxSubscribers;
+        this.sendTimeoutNanos = sendTimeout.toNanos();
+        this.senders = Executors.newFixedThreadPool(senders, daemonThreads("payment-feed-sender-"));
+        this.heartbeats = Executors.newSingleThreadScheduledExecutor(daemonThreads("payment-feed-heartbeat-"));
+        this.heartbeats.scheduleAtFixedRate(this::heartbeat, heartbeat.toMillis(), heartbeat.toMillis(), TimeUnit.MILLISECONDS);
+        long watchdog = Math.max(1, sendTimeout.toMillis() / 2);
+        this.heartbeats.scheduleAtFixedRate(this::disconnectStalled, watchdog, watchdog, TimeUnit.MILLISECONDS);
+        this.dropped = Counter.builder("payment.feed.dropped")
+                .description("Feed subscribers disconnected for falling behind the ring")
+                .register(meterRegistry);
+        this.stalled = Counter.builder("payment.feed.stalled")
+                .description("Feed subscribers disconnected for a write that did not complete in time")
+                .register(meterRegistry);
+        Gauge.builder("payment.feed.subscribers", subscriptions, Set::size)
+                .description("Connected payment feed subscribers")
+                .register(meterRegistry);
+    }
+
+    private static ThreadFactory daemonThreads(String prefix) {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Appends the committed payments to the ring and signals the subscribers, without waiting for any of them.
+     */
+    @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT)
+    public void onPaymentsSaved(PaymentsSavedEvent event) {
+        synchronized (ring) {
+            long sequence = published;
+            for (PaymentRow row : event.getPayments()) {
+                ring[(int) (++sequence & mask)] = row;
+            }
+            published = sequence;
+        }
+        for (Subscription subscription : subscriptions) {
+            schedule(subscription);
+        }
+    }
+
+    /**
+     * Subscribes to the payments committed from now on, or after the given event id, that match the filter.
+     *
+     * @param filter the currencies and minimum amount of the payments to send
+     * @param lastEventId the id of the last event received before reconnecting, null for a new subscription
+     * @return the emitter of the subscription, or empty if the subscriber limit is reached
+     */
+    public Optional<SseEmitter> subscribe(PaymentFilter filter, String lastEventId) {
+        return subscribe(filter, lastEventId, new SseEmitter());
+    }
+
+    Optional<SseEmitter> subscribe(PaymentFilter filter, String lastEventId, SseEmitter emitter) {
+        if (subscriptions.size() >= maxSubscribers) {
+            return Optional.empty();
+        }
+        long head = published;
+        long resumeAfter = resumePoint(lastEventId);
+        boolean resumable = resumeAfter >= 0 && resumeAfter <= head && resumeAfter >= head - ring.length;
+        Subscription subscription = new Subscription(emitter, filter, resumable ? resumeAfter + 1 : head + 1,
+                lastEventId != null && !resumable);
+        emitter.onCompletion(() -> subscriptions.remove(subscription));
+        emitter.onTimeout(() -> subscriptions.remove(subscription));
+        emitter.onError(error -> subscriptions.remove(subscription));
+        subscriptions.add(subscription);
+        schedule(subscription);
+        return Optional.of(emitter);
+    }
+
+    // Sequence of an event id of this process, -1 if it is malformed or from another process
+    private long resumePoint(String lastEventId) {
+        if (lastEventId == null) {
+            return -1;
+        }
+        int dash = lastEventId.indexOf('-');
+        try {
+            if (dash < 0 || Long.parseLong(lastEventId.substring(0, dash), 16) != epoch) {
+                return -1;
+            }
+            return Long.parseLong(lastEventId.substring(dash + 1));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private String eventId(long sequence) {
+        return Long.toHexString(epoch) + "-" + sequence;
+    }
+
+    /** Number of connected subscribers. */
+    public int subscribers() {
+        return subscriptions.size();
+    }
+
+    private void heartbeat() {
+        for (Subscription subscription : subscriptions) {
+            subscription.heartbeat = true;
+            schedule(subscription);
+        }
+    }
+
+    // Runs on the heartbeat thread. The emitter is left to the blocked sender, completing it takes its write lock
+    private void disconnectStalled() {
+        long now = System.nanoTime();
+        for (Subscription subscription : subscriptions) {
+            if (subscription.writing && now - subscription.writeStarted > sendTimeoutNanos
+                    && subscriptions.remove(subscription)) {
+                subscription.closed = true;
+                stalled.increment();
+                logger.warn("Disconnecting payment feed subscriber blocked on a write for {} ms",
+                        (now - subscription.writeStarted) / 1_000_000);
+            }
+        }
+    }
+
+    private void schedule(Subscription subscription) {
+        if (subscription.scheduled.compareAndSet(false, true)) {
+            try {
+                senders.execute(() -> drain(subscription));
+            } catch (RuntimeException e) {
+                // Shutting down
+                subscription.scheduled.set(false);
+            }
+        }
+    }
+
+    // Writes everything from the cursor to the head, then checks again for payments published meanwhile
+    private void drain(Subscription subscription) {
+        try {
+            do {
+                send(subscription);
+                subscription.scheduled.set(false);
+            } while (!subscription.closed && subscription.cursor <= published
+                    && subscription.scheduled.compareAndSet(false, true));
+            if (subscription.closed) {
+                subscription.emitter.complete();
+            }
+        } catch (IOException | IllegalStateException e) {
+            // The client went away, or the emitter was completed
+            subscriptions.remove(subscription);
+            subscription.emitter.completeWithError(e);
+        }
+    }
+
+    private void send(Subscription subscription) throws IOException {
+        if (subscription.closed) {
+            return;
+        }
+        if (subscription.reset) {
+            subscription.reset = false;
+            write(subscription, SseEmitter.event().id(eventId(subscription.cursor - 1)).name(RESET_EVENT).data(""));
+        }
+        boolean sent = false;
+        long head = published;
+        while (!subscription.closed && subscription.cursor <= head) {
+            long sequence = subscription.cursor;
+            PaymentRow row = ring[(int) (sequence & mask)];
+            // The slot may have been overwritten while it was read
+            if (sequence <= published - ring.length) {
+                drop(subscription);
+                return;
+            }
+            if (subscription.matches(row)) {
+                write(subscription, SseEmitter.event().id(eventId(sequence)).name(PAYMENT_EVENT)
+                        .data(row.getPayment(), MediaType.APPLICATION_JSON));
+                sent = true;
+            }
+            subscription.cursor = sequence + 1;
+        }
+        if (subscription.heartbeat) {
+            subscription.heartbeat = false;
+            if (!sent) {
+                write(subscription, SseEmitter.event().comment("keep-alive"));
+            }
+        }
+    }
+
+    private static void write(Subscription subscription, SseEmitter.SseEventBuilder event) throws IOException {
+        subscription.writeStarted = System.nanoTime();
+        subscription.writing = true;
+        try {
+            subscription.emitter.send(event);
+        } finally {
+            subscription.writing = false;
+        }
+    }
+
+    private void drop(Subscription subscription) {
+        subscription.closed = true;
+        subscriptions.remove(subscription);
+        dropped.increment();
+        logger.warn("Disconnecting payment feed subscriber {} payments behind", published - subscription.cursor + 1);
+    }
+
+    @PreDestroy
+    void close() {
+        heartbeats.shutdownNow();
+        senders.shutdownNow();
+        for (Subscription subscription : subscriptions) {
+            subscription.emitter.complete();
+        }
+        subscriptions.clear();
+    }
+
+    /**
+     * One subscriber: its emitter, filter and the sequence of the next payment to look at. The cursor and the
+     * flags are only touched by the drain task, which runs once at a time per subscriber, except for the watchdog
+     * closing a subscriber whose write is blocked.
+     */
+    private static final class Subscription {
+
+        private final SseEmitter emitter;
+        private final List<CurrencyCode> currencies;
+        // Minimum amount in minor units by currency exponent, Long.MIN_VALUE without a minimum
+        private final long[] thresholds;
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private volatile long cursor;
+        private volatile boolean reset;
+        private volatile boolean heartbeat;
+        private volatile boolean closed;
+        private volatile boolean writing;
+        private volatile long writeStarted;
+
+        private Subscription(SseEmitter emitter, PaymentFilter filter, long cursor, boolean reset) {
+            this.emitter = emitter;
+            this.currencies = filter.getCurrencies();
+            this.thresholds = new long[MAX_EXPONENT + 1];
+            for (int exponent = 0; exponent <= MAX_EXPONENT; exponent++) {
+                thresholds[exponent] = (filter.getMinAmount() == null)
+                        ? Long.MIN_VALUE
+                        : Money.ceilMinorUnits(filter.getMinAmount(), exponent);
+            }
+            this.cursor = cursor;
+            this.reset = reset;
+        }
+
+        private boolean matches(PaymentRow row) {
+            return (currencies == null || currencies.contains(row.getCurrency()))
+                    && row.getAmountMinor() >= thresholds[row.getCurrency().exponent()];
+        }
+    }
+}
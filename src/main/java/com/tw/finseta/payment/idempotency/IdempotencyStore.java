@@ -0,0 +1,317 @@
+package com.tw.finseta.payment.idempotency;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.tw.finseta.payment.dao.IdempotencyKeyDAO;
+import com.tw.finseta.payment.exception.IdempotencyKeyException;
+import com.tw.finseta.payment.exception.ValidationException;
+import com.tw.finseta.payment.model.Account;
+import com.tw.finseta.payment.model.Error;
+import com.tw.finseta.payment.model.Payment;
+import com.tw.finseta.payment.repository.IdempotencyKeyRepository;
+import com.tw.finseta.payment.shard.PaymentShards;
+import com.tw.finseta.payment.util.PaymentMapper;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PreDestroy;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongFunction;
+
+/**
+ * Answers retried create requests carrying an {@code Idempotency-Key} with the response of the first one instead
+ * of creating the payment again.
+ *
+ * <p>Responses are kept in a Caffeine cache of at most {@code payment.idempotency.maximum-size} keys for
+ * {@code payment.idempotency.ttl}, so a replay is one hash lookup. The key is also recorded in the
+ * {@code idempotency_keys} table in the transaction of its payment, so a retry after a restart, or after the
+ * key was evicted, finds it there; rows older than the ttl are deleted every
+ * {@code payment.idempotency.cleanup-interval}. With the ingestion journal payments are committed later, and their
+ * keys are only kept in memory.</p>
+ *
+ * <p>Concurrent requests with the same key wait for the first one, for at most
+ * {@code payment.idempotency.wait-timeout}, and get its response, so a burst of retries costs one save. A key
+ * sent again with a different payment is refused with {@code 422}.</p>
+ *
+ * @author Ranga Raju
+ */
+@Component
+public class IdempotencyStore implements MeterBinder {
+
+    private static final Logger logger = LogManager.getLogger(IdempotencyStore.class);
+
+    static final String CACHE_NAME = "idempotencyKeys";
+    static final String REQUESTS_METRIC = "payment.idempotency.requests";
+
+    /** Set to {@code true} on a response replayed for a key. */
+    public static final String REPLAYED_HEADER = "Idempotent-Replayed";
+
+    static final int MAX_KEY_LENGTH = 255;
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /**
+     * The response given to the first request with a key.
+     */
+    record StoredResponse(long requestHash, HttpStatusCode status, HttpHeaders headers, Payment body) {
+    }
+
+    /**
+     * The first request with a key while it runs, which the others with the key wait for.
+     */
+    private record InFlight(long requestHash, CompletableFuture<StoredResponse> response) {
+    }
+
+    private final Cache<String, StoredResponse> responses;
+    private final ConcurrentHashMap<String, InFlight> inFlight = new ConcurrentHashMap<>();
+    private final IdempotencyKeyRepository repository;
+    private final PaymentMapper paymentMapper;
+    private final PaymentShards shards;
+    private final Duration ttl;
+    private final Duration waitTimeout;
+    private final ScheduledExecutorService cleaner;
+
+    private final LongAdder stored = new LongAdder();
+    private final LongAdder replayed = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder conflicts = new LongAdder();
+
+    /**
+     * Constructs an IdempotencyStore.
+     *
+     * @param maximumSize the most keys kept in memory
+     * @param ttl how long a key is honoured after its payment was created
+     * @param waitTimeout how long a request waits for the one holding its key before giving up with {@code 409}
+     * @param cleanupInterval the time between two deletions of the expired keys from the database
+     * @param repository the recorded keys
+     * @param paymentMapper maps a recorded key's payment back to the response body
+     * @param shards finds the shard a key was recorded in, the shard of its payment
+     */
+    public IdempotencyStore(@Value("${payment.idempotency.maximum-size:100000}") long maximumSize,
+                            @Value("${payment.idempotency.ttl:24h}") Duration ttl,
+                            @Value("${payment.idempotency.wait-timeout:10s}") Duration waitTimeout,
+                            @Value("${payment.idempotency.cleanup-interval:1h}") Duration cleanupInterval,
+                            IdempotencyKeyRepository repository, PaymentMapper paymentMapper,
+                            PaymentShards shards) {
+        this.responses = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build();
+        this.repository = repository;
+        this.paymentMapper = paymentMapper;
+        this.shards = shards;
+        this.ttl = ttl;
+        this.waitTimeout = waitTimeout;
+        this.cleaner = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "payment-idempotency-cleaner");
+            thread.setDaemon(true);
+            return thread;
+        });
+        cleaner.scheduleWithFixedDelay(this::deleteExpired, cleanupInterval.toMillis(), cleanupInterval.toMillis(),
+                TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    void stop() {
+        cleaner.shutdownNow();
+    }
+
+    /**
+     * Answers a create request with a key: with the stored response of the key if there is one, otherwise with
+     * the response of {@code create}, which is then stored for the key.
+     *
+     * @param key the request's {@code Idempotency-Key}
+     * @param payment the validated payment of the request
+     * @param create creates the payment, given the fingerprint of the request to record with the key
+     * @return the response, with an {@value #REPLAYED_HEADER} header if it is a stored one
+     * @throws ValidationException if the key is empty or too long
+     * @throws IdempotencyKeyException if the key was used with another payment, or its first request is still
+     *         running after the wait timeout
+     */
+    public ResponseEntity<Payment> execute(String key, Payment payment, LongFunction<ResponseEntity<Payment>> create) {
+        if (key.isEmpty() || key.length() > MAX_KEY_LENGTH) {
+            throw new ValidationException(List.of(new Error().message(
+                    "Idempotency-Key : size must be between 1 and " + MAX_KEY_LENGTH)));
+        }
+        long requestHash = fingerprint(payment);
+        StoredResponse response = responses.getIfPresent(key);
+        if (response != null) {
+            return replay(response, requestHash, replayed);
+        }
+
+        InFlight mine = new InFlight(requestHash, new CompletableFuture<>());
+        InFlight first = inFlight.putIfAbsent(key, mine);
+        if (first != null) {
+            return replay(await(first), requestHash, coalesced);
+        }
+        try {
+            // The first request may have finished between the two lookups, or before a restart
+            response = responses.getIfPresent(key);
+            if (response == null) {
+                response = load(key, payment);
+            }
+            if (response != null) {
+                mine.response().complete(response);
+                return replay(response, requestHash, replayed);
+            }
+
+            ResponseEntity<Payment> created;
+            try {
+                created = create.apply(requestHash);
+            } catch (DataIntegrityViolationException e) {
+                // Another instance recorded the key first
+                response = load(key, payment);
+                if (response == null) {
+                    throw e;
+                }
+                mine.response().complete(response);
+                return replay(response, requestHash, replayed);
+            }
+            HttpHeaders headers = new HttpHeaders();
+            headers.addAll(created.getHeaders());
+            response = new StoredResponse(requestHash, created.getStatusCode(), headers, created.getBody());
+            responses.put(key, response);
+            stored.increment();
+            mine.response().complete(response);
+            return created;
+        } catch (RuntimeException | java.lang.Error e) {
+            mine.response().completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, mine);
+        }
+    }
+
+    private StoredResponse await(InFlight first) {
+        try {
+            return first.response().get(waitTimeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            throw new IdempotencyKeyException(HttpStatus.CONFLICT,
+                    "Idempotency-Key : a request with this key is still in progress");
+        } catch (ExecutionException e) {
+            // The first request failed, so does this one
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            if (cause instanceof java.lang.Error error) {
+                throw error;
+            }
+            throw new IllegalStateException("Idempotent request failed", cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the request with the same key", e);
+        }
+    }
+
+    private ResponseEntity<Payment> replay(StoredResponse response, long requestHash, LongAdder outcome) {
+        if (response.requestHash() != requestHash) {
+            conflicts.increment();
+            throw new IdempotencyKeyException(HttpStatus.UNPROCESSABLE_ENTITY,
+                    "Idempotency-Key : already used with a different payment");
+        }
+        outcome.increment();
+        HttpHeaders headers = new HttpHeaders();
+        headers.addAll(response.headers());
+        headers.set(REPLAYED_HEADER, "true");
+        return new ResponseEntity<>(response.body(), headers, response.status());
+    }
+
+    // Reads the key from the shard its payment would be in, the shard of the request's payment if it is a retry
+    private StoredResponse load(String key, Payment payment) {
+        int shard = shards.isSharded() ? shards.shardOf(paymentMapper.toDAO(payment)) : 0;
+        IdempotencyKeyDAO recorded = shards.on(shard, () -> repository.findById(key)).orElse(null);
+        if (recorded == null || recorded.getPayment() == null
+                || recorded.getCreatedAt().isBefore(Instant.now().minus(ttl))) {
+            return null;
+        }
+        StoredResponse response = new StoredResponse(recorded.getRequestHash(), HttpStatus.CREATED,
+                new HttpHeaders(), paymentMapper.toModel(recorded.getPayment()));
+        responses.put(key, response);
+        return response;
+    }
+
+    /**
+     * Deletes the keys older than the ttl from every shard.
+     *
+     * @return the number of keys deleted
+     */
+    int deleteExpired() {
+        Instant before = Instant.now().minus(ttl);
+        int deleted = 0;
+        try {
+            for (int shard : shards.all()) {
+                deleted += shards.on(shard, () -> repository.deleteByCreatedAtBefore(before));
+            }
+        } catch (RuntimeException e) {
+            logger.warn("Cannot delete expired idempotency keys: {}", e.getMessage());
+        }
+        return deleted;
+    }
+
+    /**
+     * 64-bit FNV-1a hash of the fields of a payment; equal amounts of a different scale, {@code 10.5} and
+     * {@code 10.50}, are the same payment.
+     */
+    static long fingerprint(Payment payment) {
+        long hash = FNV_OFFSET_BASIS;
+        hash = hash(hash, payment.getCurrency());
+        hash = hash(hash, (payment.getAmount() == null) ? null : payment.getAmount().stripTrailingZeros().toPlainString());
+        Account counterparty = payment.getCounterparty();
+        if (counterparty != null) {
+            hash = hash(hash, (counterparty.getType() == null) ? null : counterparty.getType().getValue());
+            hash = hash(hash, counterparty.getSortCode());
+            hash = hash(hash, counterparty.getAccountNumber());
+        }
+        return hash;
+    }
+
+    // Each field is followed by a separator, so moving characters between fields changes the hash
+    private static long hash(long hash, String field) {
+        if (field != null) {
+            for (int i = 0; i < field.length(); i++) {
+                hash = (hash ^ field.charAt(i)) * FNV_PRIME;
+            }
+        }
+        return (hash ^ 0xFFFF) * FNV_PRIME;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        CaffeineCacheMetrics.monitor(registry, responses, CACHE_NAME);
+        bindOutcome(registry, "stored", stored);
+        bindOutcome(registry, "replayed", replayed);
+        bindOutcome(registry, "coalesced", coalesced);
+        bindOutcome(registry, "conflict", conflicts);
+    }
+
+    private static void bindOutcome(MeterRegistry registry, String outcome, LongAdder count) {
+        FunctionCounter.builder(REQUESTS_METRIC, count, LongAdder::sum)
+                .description("Create requests with an Idempotency-Key, by outcome")
+                .tag("outcome", outcome)
+                .register(registry);
+    }
+}
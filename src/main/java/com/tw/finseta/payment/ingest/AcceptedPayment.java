@@ -0,0 +1,13 @@
+package com.tw.finseta.payment.ingest;
+
+import com.tw.finseta.payment.model.Payment;
+
+/**
+ * A payment durably appended to the {@link PaymentJournal} but not necessarily committed to the database yet.
+ *
+ * @param ingestId the journal sequence assigned to the payment, stored with it as {@code ingest_seq}
+ * @param payment the payment as it will be stored, with the amount scaled to its currency
+ * @author Ranga Raju
+ */
+public record AcceptedPayment(long ingestId, Payment payment) {
+}
@@ -0,0 +1,797 @@
+package com.tw.finseta.payment.ingest;
+
+import com.tw.finseta.payment.archive.PaymentArchive;
+import com.tw.finseta.payment.dao.AccountDAO;
+import com.tw.finseta.payment.dao.AccountType;
+import com.tw.finseta.payment.dao.PaymentDAO;
+import com.tw.finseta.payment.exception.ValidationException;
+import com.tw.finseta.payment.logging.AccountMasking;
+import com.tw.finseta.payment.model.Payment;
+import com.tw.finseta.payment.money.CurrencyCode;
+import com.tw.finseta.payment.repository.PaymentRepository;
+import com.tw.finseta.payment.service.PaymentService;
+import com.tw.finseta.payment.shard.PaymentShards;
+import com.tw.finseta.payment.util.PaymentMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.hibernate.exception.JDBCConnectionException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.RecoverableDataAccessException;
+import org.springframework.dao.TransientDataAccessException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.CannotCreateTransactionException;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientException;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Write-behind ingestion journal: payments are acknowledged once they are durable in a local append-only log
+ * and committed to the database afterwards, in large batches.
+ *
+ * <p>Enabled with {@code payment.ingest.mode=journal}. The journal is a directory of fixed-size memory-mapped
+ * segments, each named after the sequence of its first record. {@link #append(Payment)} validates a payment,
+ * writes it to the current segment under a short lock and waits for the flusher thread, which forces the
+ * segment to disk on behalf of every payment appended since its previous force. One fsync therefore covers
+ * all concurrent requests (group commit). The committer thread reads the durable records back in batches of up
+ * to {@code commit-batch-size} and saves each batch in one transaction through
+ * {@link PaymentService#saveIngested(List)}, so database round trips are amortized the same way.</p>
+ *
+ * <p>Every payment is stored with its journal sequence in the unique {@code ingest_seq} column, making the
+ * highest committed sequence the recovery watermark. On startup the segments are scanned, a torn record at the
+ * end of the last one is ignored, and everything above the watermark is replayed before new payments; a batch
+ * is either committed whole or retried, so no payment is lost or saved twice. Segments whose records are all
+ * committed are deleted. The journal starts once every singleton is created, so listeners of the replayed
+ * saves are loaded first, and stops after the web server.</p>
+ *
+ * <p>A batch that still fails after {@code commit-retries} attempts is saved one payment at a time. A payment
+ * that fails on its own for a reason other than a lost connection or transaction is a poison record: it is
+ * appended as it is to the {@value #DEAD_LETTER_FILE} file in the journal directory, counted and logged at
+ * ERROR, and the committer moves past it. Its sequence counts towards the watermark, so it is not replayed.</p>
+ *
+ * <p>Record layout: {@code int length, int crc32c} followed by {@code length} bytes of
+ * {@code long seq, short currency, long amountMinor, byte accountType, string accountNumber, string sortCode},
+ * strings as an unsigned short byte count and UTF-8 bytes. A zero length marks the unwritten end of a
+ * segment.</p>
+ *
+ * @author Ranga Raju
+ */
+@Component
+@ConditionalOnProperty(name = "payment.ingest.mode", havingValue = "journal")
+public class PaymentJournal implements SmartLifecycle {
+
+    private static final Logger logger = LogManager.getLogger(PaymentJournal.class);
+
+    static final String SEGMENT_SUFFIX = ".journal";
+    static final String DEAD_LETTER_FILE = "dead-letter.records";
+    private static final int HEADER_BYTES = 2 * Integer.BYTES;
+    private static final int FIXED_BODY_BYTES = Long.BYTES + Short.BYTES + Long.BYTES + Byte.BYTES + 2 * Short.BYTES;
+    private static final int NULL_STRING = 0xFFFF;
+    private static final long RETRY_BACKOFF_MILLIS = 1000;
+    private static final int MAX_CAUSES = 10;
+    // Before the web server starts accepting payments and after it has stopped
+    private static final int PHASE = SmartLifecycle.DEFAULT_PHASE - 4096;
+
+    private final PaymentService paymentService;
+    private final PaymentRepository paymentRepository;
+    private final PaymentMapper paymentMapper;
+    private final Path directory;
+    private final int segmentBytes;
+    private final int commitBatchSize;
+    private final int commitRetries;
+    private final Duration shutdownTimeout;
+
+    private final Timer fsyncTimer;
+    private final DistributionSummary fsyncBatch;
+    private final DistributionSummary commitBatch;
+    private final Counter deadLetters;
+
+    // Segments oldest first, the last one is the head being appended to. Guarded by lock, as is open. A lock
+    // rather than a monitor, so request threads waiting for an fsync never pin a virtual thread's carrier
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private final ArrayDeque<Segment> segments = new ArrayDeque<>();
+    private Segment head;
+    private boolean open;
+
+    // Written under lock, volatile for the backlog gauge
+    private volatile long appendedSeq;
+    private volatile long durableSeq;
+    // Written by the committer thread only
+    private volatile long committedSeq;
+    private long deadLetteredSeq;
+
+    private Thread flusher;
+    private Thread committer;
+    private PaymentArchive archive;
+    private PaymentShards shards;
+
+    /**
+     * Constructs a PaymentJournal.
+     *
+     * @param paymentService commits the journaled payments
+     * @param paymentRepository reads the highest committed journal sequence
+     * @param paymentMapper validates and converts the accepted payments
+     * @param meterRegistry the registry of the fsync and commit batch metrics
+     * @param directory the directory of the journal segments, created if missing
+     * @param segmentBytes the size of each memory-mapped segment
+     * @param commitBatchSize the maximum number of payments committed in one transaction
+     * @param commitRetries the failed attempts at a batch before it is saved one payment at a time
+     * @param shutdownTimeout how long shutdown waits for the committer to drain the journal
+     */
+    @Autowired
+    public PaymentJournal(PaymentService paymentService, PaymentRepository paymentRepository,
+                          PaymentMapper paymentMapper, MeterRegistry meterRegistry,
+                          @Value("${payment.ingest.journal.dir:data/journal}") Path directory,
+                          @Value("${payment.ingest.journal.segment-bytes:67108864}") int segmentBytes,
+                          @Value("${payment.ingest.journal.commit-batch-size:1000}") int commitBatchSize,
+                          @Value("${payment.ingest.journal.commit-retries:3}") int commitRetries,
+                          @Value("${payment.ingest.journal.shutdown-timeout:30s}") Duration shutdownTimeout) {
+        this.paymentService = paymentService;
+        this.paymentRepository = paymentRepository;
+        this.paymentMapper = paymentMapper;
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.commitBatchSize = commitBatchSize;
+        this.commitRetries = commitRetries;
+        this.shutdownTimeout = shutdownTimeout;
+        this.fsyncTimer = Timer.builder("payment.ingest.fsync")
+                .description("Time to force a journal segment to disk")
+                .register(meterRegistry);
+        this.fsyncBatch = DistributionSummary.builder("payment.ingest.fsync.batch")
+                .description("Payments made durable by one journal fsync")
+                .baseUnit("payments")
+                .register(meterRegistry);
+        this.commitBatch = DistributionSummary.builder("payment.ingest.commit.batch")
+                .description("Journaled payments committed to the database in one transaction")
+                .baseUnit("payments")
+                .register(meterRegistry);
+        this.deadLetters = Counter.builder("payment.ingest.dead_letters")
+                .description("Journaled payments that could not be committed, moved to the dead-letter file")
+                .baseUnit("payments")
+                .register(meterRegistry);
+        Gauge.builder("payment.ingest.backlog", this, PaymentJournal::backlog)
+                .description("Payments accepted by the journal and not yet committed to the database")
+                .baseUnit("payments")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Reads archived journal sequences too, present when {@code payment.archive.enabled} is set.
+     *
+     * @param archive the archive the oldest payments are moved to, with their journal sequences
+     */
+    @Autowired(required = false)
+    public void setPaymentArchive(PaymentArchive archive) {
+        this.archive = archive;
+    }
+
+    /**
+     * The journal commits a batch in one transaction, which a batch spread over several shards cannot do, so
+     * {@link #open()} refuses to start with more than one.
+     *
+     * @param shards the payment shards
+     */
+    @Autowired(required = false)
+    public void setPaymentShards(PaymentShards shards) {
+        this.shards = shards;
+    }
+
+    /**
+     * Recovers the journal, queueing every record above the committed watermark for replay, and starts the
+     * flusher and committer threads.
+     */
+    public void open() throws IOException {
+        if (shards != null && shards.isSharded()) {
+            throw new IllegalStateException("payment.ingest.mode=journal needs a single payment shard, "
+                    + "payment.shards.count is " + shards.count());
+        }
+        Files.createDirectories(directory);
+        deadLetteredSeq = deadLetteredWatermark();
+        committedSeq = committedWatermark();
+
+        long lastSeq = committedSeq;
+        List<Path> paths;
+        try (Stream<Path> files = Files.list(directory)) {
+            paths = files.filter(path -> path.getFileName().toString().endsWith(SEGMENT_SUFFIX)).sorted().toList();
+        }
+        lock.lock();
+        try {
+            for (Path path : paths) {
+                Segment segment = Segment.recover(path);
+                // Empty segments are left behind by a crash right after a roll
+                if (segment.lastSeq <= committedSeq || segment.lastSeq < segment.firstSeq) {
+                    segment.delete();
+                } else {
+                    segments.add(segment);
+                    lastSeq = Math.max(lastSeq, segment.lastSeq);
+                }
+            }
+            // Recovered segments are only read, new records always start a fresh segment
+            head = Segment.create(directory, lastSeq + 1, segmentBytes);
+            segments.add(head);
+            appendedSeq = lastSeq;
+            durableSeq = lastSeq;
+            open = true;
+        } finally {
+            lock.unlock();
+        }
+        logger.info("Opened payment journal {}: {} segments, {} payments to replay after sequence {}",
+                directory.toAbsolutePath(), segments.size(), lastSeq - committedSeq, committedSeq);
+
+        flusher = new Thread(this::flushLoop, "payment-journal-flusher");
+        committer = new Thread(this::commitLoop, "payment-journal-committer");
+        flusher.start();
+        committer.start();
+    }
+
+    /**
+     * Stops accepting payments and waits up to the shutdown timeout for the committer to drain the journal.
+     * Segments that are fully committed are deleted, the rest are replayed by the next start.
+     */
+    public void close() throws InterruptedException {
+        lock.lock();
+        try {
+            if (!open) {
+                return;
+            }
+            open = false;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        flusher.join();
+        committer.join(shutdownTimeout.toMillis());
+        if (committer.isAlive()) {
+            committer.interrupt();
+            committer.join();
+        }
+        lock.lock();
+        try {
+            for (Segment segment : segments) {
+                // Empty segments are left behind by a crash right after a roll
+                if (segment.lastSeq <= committedSeq || segment.lastSeq < segment.firstSeq) {
+                    segment.delete();
+                } else {
+                    segment.close();
+                }
+            }
+            segments.clear();
+        } finally {
+            lock.unlock();
+        }
+        logger.info("Closed payment journal {}: {} payments left to replay", directory.toAbsolutePath(), backlog());
+    }
+
+    @Override
+    public void start() {
+        try {
+            open();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot open payment journal " + directory.toAbsolutePath(), e);
+        }
+    }
+
+    @Override
+    public void stop() {
+        try {
+            close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        lock.lock();
+        try {
+            return open;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int getPhase() {
+        return PHASE;
+    }
+
+    /**
+     * Validates a payment and appends it to the journal, returning once it is on disk.
+     *
+     * @param payment the payment to accept
+     * @return the payment with its assigned journal sequence
+     * @throws ValidationException if the currency or amount is invalid, as for a direct save
+     * @throws IllegalStateException if the journal is closed
+     */
+    public AcceptedPayment append(Payment payment) {
+        PaymentDAO paymentDAO = paymentMapper.toDAO(payment);
+        AccountDAO counterparty = paymentDAO.getCounterparty();
+        byte[] accountNumber = utf8(counterparty.getAccountNumber());
+        byte[] sortCode = utf8(counterparty.getSortCode());
+        int length = FIXED_BODY_BYTES + length(accountNumber) + length(sortCode);
+        if (HEADER_BYTES + length > segmentBytes) {
+            throw new IllegalArgumentException("Payment of " + length + " bytes does not fit a journal segment");
+        }
+
+        long seq;
+        lock.lock();
+        try {
+            requireOpen();
+            if (head.remaining() < HEADER_BYTES + length) {
+                roll();
+            }
+            seq = appendedSeq + 1;
+            ByteBuffer buffer = head.buffer;
+            int offset = head.writeOffset;
+            int position = offset + HEADER_BYTES;
+            buffer.putLong(position, seq);
+            buffer.putShort(position + 8, paymentDAO.getCurrency().code());
+            buffer.putLong(position + 10, paymentDAO.getAmountMinor());
+            buffer.put(position + 18, (byte) ((counterparty.getType() == null) ? -1 : counterparty.getType().ordinal()));
+            position = putString(buffer, position + 19, accountNumber);
+            putString(buffer, position, sortCode);
+            CRC32C crc = new CRC32C();
+            crc.update(buffer.slice(offset + HEADER_BYTES, length));
+            buffer.putInt(offset + Integer.BYTES, (int) crc.getValue());
+            // The length goes last, a record is never visible before it is complete
+            buffer.putInt(offset, length);
+            head.writeOffset = offset + HEADER_BYTES + length;
+            head.lastSeq = seq;
+            appendedSeq = seq;
+            changed.signalAll();
+
+            while (durableSeq < seq) {
+                try {
+                    changed.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted waiting for the payment journal to sync", e);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        paymentDAO.setIngestSeq(seq);
+        return new AcceptedPayment(seq, paymentMapper.toModel(paymentDAO));
+    }
+
+    /** Payments accepted and not yet committed to the database. */
+    public long backlog() {
+        return Math.max(0, appendedSeq - committedSeq);
+    }
+
+    // Forces the head to disk, then continues in a new segment. Called under lock
+    private void roll() {
+        long start = System.nanoTime();
+        head.buffer.force();
+        fsyncTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        fsyncBatch.record(appendedSeq - durableSeq);
+        durableSeq = appendedSeq;
+        try {
+            head = Segment.create(directory, appendedSeq + 1, segmentBytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot create payment journal segment", e);
+        }
+        segments.add(head);
+        changed.signalAll();
+    }
+
+    private void requireOpen() {
+        if (!open) {
+            throw new IllegalStateException("Payment journal is closed");
+        }
+    }
+
+    // Group commit: each force covers every record appended while the previous one was running
+    private void flushLoop() {
+        while (true) {
+            Segment segment;
+            long target;
+            lock.lock();
+            try {
+                while (durableSeq == appendedSeq && open) {
+                    await();
+                }
+                if (durableSeq == appendedSeq) {
+                    return;
+                }
+                segment = head;
+                target = appendedSeq;
+            } finally {
+                lock.unlock();
+            }
+            // Earlier segments were forced when they were rolled, so forcing the head covers the target
+            long start = System.nanoTime();
+            segment.buffer.force();
+            fsyncTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            lock.lock();
+            try {
+                if (target > durableSeq) {
+                    fsyncBatch.record(target - durableSeq);
+                    durableSeq = target;
+                }
+                changed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private void commitLoop() {
+        Segment segment;
+        lock.lock();
+        try {
+            segment = segments.peekFirst();
+        } finally {
+            lock.unlock();
+        }
+        int offset = 0;
+        long readSeq = segment.firstSeq - 1;
+        int failures = 0;
+        while (true) {
+            long durable;
+            lock.lock();
+            try {
+                while (committedSeq == durableSeq && open) {
+                    await();
+                }
+                if (committedSeq >= durableSeq) {
+                    return;
+                }
+                durable = durableSeq;
+            } finally {
+                lock.unlock();
+            }
+
+            // Read a batch from the cursor, which only moves once the batch is committed
+            List<PaymentDAO> batch = new ArrayList<>();
+            List<ByteBuffer> records = new ArrayList<>();
+            Segment batchSegment = segment;
+            int batchOffset = offset;
+            long batchSeq = readSeq;
+            while (batch.size() < commitBatchSize && batchSeq < durable) {
+                if (batchSeq >= batchSegment.lastSeq) {
+                    batchSegment = next(batchSegment);
+                    batchOffset = 0;
+                    continue;
+                }
+                PaymentDAO payment = read(batchSegment.buffer, batchOffset + HEADER_BYTES);
+                int size = HEADER_BYTES + batchSegment.buffer.getInt(batchOffset);
+                ByteBuffer record = batchSegment.buffer.slice(batchOffset, size);
+                batchOffset += size;
+                batchSeq = payment.getIngestSeq();
+                // Records of a recovered segment, or of a batch saved in part, may already be committed
+                if (batchSeq > committedSeq) {
+                    batch.add(payment);
+                    records.add(record);
+                }
+            }
+
+            try {
+                if (failures < commitRetries) {
+                    paymentService.saveIngested(batch);
+                } else {
+                    saveEach(batch, records);
+                }
+            } catch (RuntimeException e) {
+                failures++;
+                logger.error(AccountMasking.MASKED, "Failed to commit {} journaled payments after sequence {}, "
+                        + "attempt {}, retrying", batch.size(), committedSeq, failures, e);
+                if (!backOff()) {
+                    return;
+                }
+                continue;
+            }
+            failures = 0;
+            commitBatch.record(batch.size());
+            segment = batchSegment;
+            offset = batchOffset;
+            readSeq = batchSeq;
+            committedSeq = batchSeq;
+            truncate(segment);
+        }
+    }
+
+    // Saves a batch that keeps failing one payment at a time, moving each poison record to the dead-letter file.
+    // A failure that says nothing about the payment stops the pass, what was saved so far stays committed
+    private void saveEach(List<PaymentDAO> batch, List<ByteBuffer> records) {
+        for (int i = 0; i < batch.size(); i++) {
+            PaymentDAO payment = batch.get(i);
+            try {
+                paymentService.saveIngested(List.of(payment));
+            } catch (RuntimeException e) {
+                if (isTransient(e)) {
+                    throw e;
+                }
+                deadLetter(payment, records.get(i), e);
+            }
+            committedSeq = payment.getIngestSeq();
+        }
+    }
+
+    // Appends the record as it is to the dead-letter file and forces it to disk before the committer moves past it
+    private void deadLetter(PaymentDAO payment, ByteBuffer record, RuntimeException cause) {
+        Path path = directory.resolve(DEAD_LETTER_FILE);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND)) {
+            ByteBuffer bytes = record.duplicate();
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+            channel.force(false);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot write payment journal dead-letter file " + path, e);
+        }
+        deadLetteredSeq = payment.getIngestSeq();
+        deadLetters.increment();
+        AccountDAO counterparty = payment.getCounterparty();
+        logger.error(AccountMasking.MASKED, "Moved journaled payment {} to {}: currency={} amountMinor={} "
+                        + "account={} sortCode={}", payment.getIngestSeq(), path, payment.getCurrency(),
+                payment.getAmountMinor(), AccountMasking.maskAll(counterparty.getAccountNumber()),
+                counterparty.getSortCode(), cause);
+    }
+
+    // A lost connection or transaction, which any payment would have failed with
+    private static boolean isTransient(Throwable e) {
+        for (int depth = 0; e != null && depth < MAX_CAUSES; depth++, e = e.getCause()) {
+            if (e instanceof TransientDataAccessException || e instanceof RecoverableDataAccessException
+                    || e instanceof DataAccessResourceFailureException || e instanceof CannotCreateTransactionException
+                    || e instanceof JDBCConnectionException || e instanceof SQLTransientException
+                    || e instanceof SQLRecoverableException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Deletes the segments before the cursor, all their records are committed
+    private void truncate(Segment cursor) {
+        lock.lock();
+        try {
+            Iterator<Segment> iterator = segments.iterator();
+            while (iterator.hasNext()) {
+                Segment segment = iterator.next();
+                if (segment == cursor || segment == head || segment.lastSeq > committedSeq) {
+                    return;
+                }
+                iterator.remove();
+                segment.delete();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Segment next(Segment segment) {
+        lock.lock();
+        try {
+            Iterator<Segment> iterator = segments.iterator();
+            while (iterator.next() != segment) {
+                // skip to the current segment
+            }
+            return iterator.next();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Sleeps before a retry. False if interrupted by shutdown, the journal keeps the batch for the next start
+    private boolean backOff() {
+        try {
+            Thread.sleep(RETRY_BACKOFF_MILLIS);
+        } catch (InterruptedException e) {
+            return false;
+        }
+        // A batch whose transaction committed before the failure surfaced must not be saved again
+        try {
+            long watermark = committedWatermark();
+            if (watermark > committedSeq) {
+                committedSeq = Math.min(watermark, durableSeq);
+            }
+        } catch (RuntimeException e) {
+            logger.warn("Cannot read the committed journal sequence: {}", e.getMessage());
+        }
+        return true;
+    }
+
+    // Highest committed journal sequence, the archived and dead-lettered payments included, 0 if none
+    private long committedWatermark() {
+        Long watermark = paymentRepository.findMaxIngestSeq();
+        long archived = (archive == null) ? 0 : archive.maxIngestSeq();
+        return Math.max(Math.max((watermark == null) ? 0 : watermark, archived), deadLetteredSeq);
+    }
+
+    // Highest sequence in the dead-letter file, 0 if there is none. A record torn by a crash ends the scan
+    private long deadLetteredWatermark() throws IOException {
+        Path path = directory.resolve(DEAD_LETTER_FILE);
+        if (!Files.exists(path)) {
+            return 0;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(path));
+        long seq = 0;
+        int offset = 0;
+        while (offset <= buffer.limit() - HEADER_BYTES - FIXED_BODY_BYTES) {
+            int length = buffer.getInt(offset);
+            if (length < FIXED_BODY_BYTES || length > buffer.limit() - offset - HEADER_BYTES) {
+                break;
+            }
+            seq = Math.max(seq, buffer.getLong(offset + HEADER_BYTES));
+            offset += HEADER_BYTES + length;
+        }
+        return seq;
+    }
+
+    private void await() {
+        try {
+            changed.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static PaymentDAO read(ByteBuffer buffer, int position) {
+        long seq = buffer.getLong(position);
+        CurrencyCode currency = CurrencyCode.of(buffer.getShort(position + 8));
+        long amountMinor = buffer.getLong(position + 10);
+        byte type = buffer.get(position + 18);
+        position += 19;
+        String accountNumber = getString(buffer, position);
+        position += length(buffer, position);
+        String sortCode = getString(buffer, position);
+        AccountDAO counterparty = new AccountDAO(null, (type < 0) ? null : AccountType.values()[type],
+                accountNumber, sortCode);
+        PaymentDAO payment = new PaymentDAO(currency, amountMinor, counterparty);
+        payment.setIngestSeq(seq);
+        return payment;
+    }
+
+    private static byte[] utf8(String value) {
+        return (value == null) ? null : value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int length(byte[] value) {
+        return (value == null) ? 0 : value.length;
+    }
+
+    // Bytes taken by the string at position, including its length
+    private static int length(ByteBuffer buffer, int position) {
+        int length = Short.toUnsignedInt(buffer.getShort(position));
+        return Short.BYTES + ((length == NULL_STRING) ? 0 : length);
+    }
+
+    private static int putString(ByteBuffer buffer, int position, byte[] value) {
+        if (value == null) {
+            buffer.putShort(position, (short) NULL_STRING);
+            return position + Short.BYTES;
+        }
+        buffer.putShort(position, (short) value.length);
+        buffer.put(position + Short.BYTES, value);
+        return position + Short.BYTES + value.length;
+    }
+
+    private static String getString(ByteBuffer buffer, int position) {
+        int length = Short.toUnsignedInt(buffer.getShort(position));
+        if (length == NULL_STRING) {
+            return null;
+        }
+        byte[] value = new byte[length];
+        buffer.get(position + Short.BYTES, value);
+        return new String(value, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * One memory-mapped journal file. Records are written under the journal lock and only read back up to
+     * {@link #lastSeq}, which is published after the record bytes.
+     */
+    private static final class Segment {
+
+        private final Path path;
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+        private final long firstSeq;
+        private int writeOffset;
+        private volatile long lastSeq;
+
+        private Segment(Path path, FileChannel channel, MappedByteBuffer buffer, long firstSeq) {
+            this.path = path;
+            this.channel = channel;
+            this.buffer = buffer;
+            this.firstSeq = firstSeq;
+            this.lastSeq = firstSeq - 1;
+        }
+
+        private static Segment create(Path directory, long firstSeq, int bytes) throws IOException {
+            Path path = directory.resolve(String.format("%020d%s", firstSeq, SEGMENT_SUFFIX));
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            return new Segment(path, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes), firstSeq);
+        }
+
+        // Maps an existing segment and finds its last intact record
+        private static Segment recover(Path path) throws IOException {
+            String name = path.getFileName().toString();
+            long firstSeq = Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            Segment segment = new Segment(path, channel,
+                    channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size()), firstSeq);
+            int offset = 0;
+            int size;
+            while ((size = segment.recordSize(offset)) > 0) {
+                long seq = segment.buffer.getLong(offset + HEADER_BYTES);
+                if (seq <= segment.lastSeq) {
+                    break;
+                }
+                segment.lastSeq = seq;
+                offset += size;
+            }
+            if (offset < segment.buffer.capacity() && segment.buffer.getInt(offset) != 0) {
+                logger.warn("Ignoring torn payment journal record after sequence {} in {}", segment.lastSeq, path);
+            }
+            segment.writeOffset = offset;
+            return segment;
+        }
+
+        // Size of the record at offset, or 0 if there is no complete, intact record there
+        private int recordSize(int offset) {
+            if (offset > buffer.capacity() - HEADER_BYTES) {
+                return 0;
+            }
+            int length = buffer.getInt(offset);
+            if (length < FIXED_BODY_BYTES || length > buffer.capacity() - offset - HEADER_BYTES) {
+                return 0;
+            }
+            CRC32C crc = new CRC32C();
+            crc.update(buffer.slice(offset + HEADER_BYTES, length));
+            return ((int) crc.getValue() == buffer.getInt(offset + Integer.BYTES)) ? HEADER_BYTES + length : 0;
+        }
+
+        private int remaining() {
+            return buffer.capacity() - writeOffset;
+        }
+
+        private void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                logger.warn("Cannot close payment journal segment {}: {}", path, e.getMessage());
+            }
+        }
+
+        private void delete() {
+            close();
+            try {
+                Files.deleteIfExists(path);
+            } catch (IOException e) {
+                logger.warn("Cannot delete payment journal segment {}: {}", path, e.getMessage());
+            }
+        }
+    }
+}
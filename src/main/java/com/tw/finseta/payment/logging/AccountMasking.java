@@ -0,0 +1,73 @@
+package com.tw.finseta.payment.logging;
+
+import org.apache.logging.log4j.Marker;
+import org.apache.logging.log4j.MarkerManager;
+
+import java.util.regex.Pattern;
+
+/**
+ * Hides account numbers in log output, leaving their last four digits: {@code 12345678} becomes
+ * {@code ****5678}.
+ *
+ * @author Ranga Raju
+ */
+public final class AccountMasking {
+
+    /**
+     * Marks an event whose exception is written with its account numbers masked, by
+     * {@link MaskedThrowablePatternConverter}.
+     */
+    public static final Marker MASKED = MarkerManager.getMarker("MASKED_ACCOUNTS");
+
+    private static final String MASK = "****";
+    private static final int VISIBLE_DIGITS = 4;
+
+    // Eight digits on their own, the form of an account number; longer runs such as ids are left alone
+    private static final Pattern ACCOUNT_NUMBER = Pattern.compile("(?<!\\d)\\d{4}(\\d{4})(?!\\d)");
+
+    private AccountMasking() {
+    }
+
+    /**
+     * Appends an account number, masked.
+     */
+    static void append(StringBuilder out, String accountNumber) {
+        out.append(MASK);
+        int length = accountNumber.length();
+        if (length > VISIBLE_DIGITS) {
+            out.append(accountNumber, length - VISIBLE_DIGITS, length);
+        }
+    }
+
+    /**
+     * Masks every account number in a free text message, such as an exception message quoting a request.
+     */
+    public static String maskAll(String text) {
+        return (text == null) ? null : ACCOUNT_NUMBER.matcher(text).replaceAll(MASK + "$1");
+    }
+
+    /**
+     * Masks every account number from {@code start} to the end of {@code text} in place, matching the same
+     * numbers as {@link #maskAll(String)} without creating a new string.
+     */
+    static void maskAll(StringBuilder text, int start) {
+        int run = 0;
+        for (int i = start; i <= text.length(); i++) {
+            if (i < text.length() && isDigit(text.charAt(i))) {
+                run++;
+                continue;
+            }
+            if (run == MASK.length() + VISIBLE_DIGITS) {
+                for (int j = i - run; j < i - VISIBLE_DIGITS; j++) {
+                    text.setCharAt(j, '*');
+                }
+            }
+            run = 0;
+        }
+    }
+
+    // ASCII digits only, as \d in the pattern
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+}
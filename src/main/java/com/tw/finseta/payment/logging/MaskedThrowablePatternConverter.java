@@ -0,0 +1,47 @@
+package com.tw.finseta.payment.logging;
+
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.config.Configuration;
+import org.apache.logging.log4j.core.config.plugins.Plugin;
+import org.apache.logging.log4j.core.pattern.ConverterKeys;
+import org.apache.logging.log4j.core.pattern.ExtendedThrowablePatternConverter;
+import org.apache.logging.log4j.core.pattern.PatternConverter;
+import org.apache.logging.log4j.core.pattern.ThrowablePatternConverter;
+
+/**
+ * {@code %maskedEx} in a pattern layout: the event's exception and stack trace as {@code %xEx} writes them,
+ * with account numbers masked when the event carries {@link AccountMasking#MASKED}.
+ *
+ * <p>Exception messages can quote account numbers, from a constraint violation for instance, so the exception
+ * is masked as it is written rather than left out of the log. Events without an exception, every request line
+ * among them, are not touched.</p>
+ *
+ * @author Ranga Raju
+ */
+@Plugin(name = "MaskedThrowablePatternConverter", category = PatternConverter.CATEGORY)
+@ConverterKeys({"maskedEx"})
+public final class MaskedThrowablePatternConverter extends ThrowablePatternConverter {
+
+    private final ExtendedThrowablePatternConverter delegate;
+
+    private MaskedThrowablePatternConverter(Configuration config, String[] options) {
+        super("MaskedThrowable", "throwable", options, config);
+        this.delegate = ExtendedThrowablePatternConverter.newInstance(config, options);
+    }
+
+    public static MaskedThrowablePatternConverter newInstance(Configuration config, String[] options) {
+        return new MaskedThrowablePatternConverter(config, options);
+    }
+
+    @Override
+    public void format(LogEvent event, StringBuilder buffer) {
+        if (event.getThrown() == null) {
+            return;
+        }
+        int start = buffer.length();
+        delegate.format(event, buffer);
+        if (event.getMarker() != null && event.getMarker().isInstanceOf(AccountMasking.MASKED)) {
+            AccountMasking.maskAll(buffer, start);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.tw.finseta.payment.logging;
+
+import com.tw.finseta.payment.model.Account;
+import com.tw.finseta.payment.model.Payment;
+
+import java.math.BigDecimal;
+import java.time.OffsetDateTime;
+import java.util.List;
+
+/**
+ * The structured fields of one request log line, filled in while the request runs and copied into a slot of
+ * the {@link RequestLog} ring when it ends.
+ *
+ * <p>Every field is a primitive or a reference to an object the request already holds, so filling one in
+ * allocates nothing; turning them into text is left to the log writer thread. Each request thread reuses one
+ * instance, found with {@link RequestLog#current()}.</p>
+ *
+ * @author Ranga Raju
+ */
+public final class RequestFields {
+
+    static final long NONE = -1;
+
+    boolean open;
+    long startNanos;
+    String method;
+    String route;
+    int status;
+    long durationNanos;
+
+    String currency;
+    BigDecimal amount;
+    String sortCode;
+    String accountNumber;
+
+    List<String> currencies;
+    BigDecimal minAmount;
+    OffsetDateTime from;
+    OffsetDateTime to;
+
+    long count = NONE;
+
+    /**
+     * Records the payment of a create request. Its account number is masked when the line is written.
+     */
+    public void payment(Payment payment) {
+        currency = payment.getCurrency();
+        amount = payment.getAmount();
+        Account counterparty = payment.getCounterparty();
+        if (counterparty != null) {
+            sortCode = counterparty.getSortCode();
+            accountNumber = counterparty.getAccountNumber();
+        }
+    }
+
+    /**
+     * Records the filters of a query.
+     */
+    public void query(List<String> currencies, BigDecimal minAmount, OffsetDateTime from, OffsetDateTime to) {
+        this.currencies = currencies;
+        this.minAmount = minAmount;
+        this.from = from;
+        this.to = to;
+    }
+
+    /**
+     * Records the number of payments in the request or the response.
+     */
+    public void count(long count) {
+        this.count = count;
+    }
+
+    void copyTo(RequestFields target) {
+        target.method = method;
+        target.route = route;
+        target.status = status;
+        target.durationNanos = durationNanos;
+        target.currency = currency;
+        target.amount = amount;
+        target.sortCode = sortCode;
+        target.accountNumber = accountNumber;
+        target.currencies = currencies;
+        target.minAmount = minAmount;
+        target.from = from;
+        target.to = to;
+        target.count = count;
+    }
+
+    // Drops the references too, so a slot does not keep a finished request's objects reachable
+    void clear() {
+        open = false;
+        method = null;
+        route = null;
+        status = 0;
+        durationNanos = 0;
+        currency = null;
+        amount = null;
+        sortCode = null;
+        accountNumber = null;
+        currencies = null;
+        minAmount = null;
+        from = null;
+        to = null;
+        count = NONE;
+    }
+}
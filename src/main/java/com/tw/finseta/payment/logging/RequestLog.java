@@ -0,0 +1,378 @@
+package com.tw.finseta.payment.logging;
+
+import com.tw.finseta.payment.model.Payment;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PreDestroy;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.message.Message;
+import org.apache.logging.log4j.message.ReusableSimpleMessage;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.math.BigDecimal;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * One structured line per request on the {@value #LOGGER_NAME} logger, written off the request threads.
+ *
+ * <p>{@link RequestLogFilter} opens the {@link RequestFields} of the current thread when a request starts, the
+ * controller adds to them, and when the request ends they are copied into the next slot of a ring of
+ * {@code payment.request-log.capacity} preallocated slots. Request threads claim slots with a compare-and-set
+ * and never wait: when the ring is full the line is dropped and counted. A single daemon thread turns the
+ * slots into {@code key=value} text in a reused buffer and hands it to Log4j as a reusable message, so neither
+ * side allocates per request. Lines are therefore written a few milliseconds after their request ended.</p>
+ *
+ * <p>{@code payment.request-log.sampling} lists endpoints to sample, such as {@code GET /payments=100} to
+ * write one request in 100; other endpoints, and every response with a 5xx status, are always written.
+ * Counterparty account numbers are masked unless {@code payment.request-log.mask-accounts=false}.</p>
+ *
+ * @author Ranga Raju
+ */
+@Component
+@ConditionalOnProperty(name = "payment.request-log.enabled", havingValue = "true", matchIfMissing = true)
+public class RequestLog implements MeterBinder {
+
+    /** The logger the request lines are written to. */
+    public static final String LOGGER_NAME = "payment.requests";
+
+    private static final Logger requestLogger = LogManager.getLogger(LOGGER_NAME);
+
+    private static final ThreadLocal<RequestFields> CURRENT = new ThreadLocal<>();
+    private static final int IDLE_YIELDS = 100;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+
+    /**
+     * A slot of the ring. Holds the fields of the line at {@code sequence} once that is set.
+     */
+    private static final class Slot {
+        final RequestFields fields = new RequestFields();
+        volatile long sequence = -1;
+    }
+
+    /**
+     * Writes one in {@code every} requests of an endpoint.
+     */
+    private static final class Sampler {
+        final String method;
+        final String route;
+        final long every;
+        final AtomicLong seen = new AtomicLong();
+
+        Sampler(String method, String route, long every) {
+            this.method = method;
+            this.route = route;
+            this.every = every;
+        }
+    }
+
+    private final Slot[] ring;
+    private final int mask;
+    private final AtomicLong claimed = new AtomicLong();
+    private volatile long consumed;
+    private final Sampler[] samplers;
+    private final boolean maskAccounts;
+    private final Consumer<CharSequence> sink;
+    private final StringBuilder line = new StringBuilder(256);
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder sampledOut = new LongAdder();
+    private volatile long written;
+    private volatile boolean running = true;
+    private final Thread writer;
+
+    /**
+     * Constructs a RequestLog writing to the {@value #LOGGER_NAME} logger.
+     *
+     * @param capacity the number of lines waiting to be written before more are dropped, rounded up to a
+     *                 power of two
+     * @param sampling comma separated {@code METHOD route=N} entries, writing one in {@code N} requests of
+     *                 each endpoint
+     * @param maskAccounts whether to mask counterparty account numbers
+     */
+    @Autowired
+    public RequestLog(@Value("${payment.request-log.capacity:8192}") int capacity,
+                      @Value("${payment.request-log.sampling:}") String sampling,
+                      @Value("${payment.request-log.mask-accounts:true}") boolean maskAccounts) {
+        this(capacity, sampling, maskAccounts, log4jSink());
+    }
+
+    RequestLog(int capacity, String sampling, boolean maskAccounts, Consumer<CharSequence> sink) {
+        if (capacity < 1 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("payment.request-log.capacity must be between 1 and 2^30");
+        }
+        int size = Integer.highestOneBit(capacity - 1) << 1;
+        this.ring = new Slot[Math.max(1, size)];
+        for (int i = 0; i < ring.length; i++) {
+            ring[i] = new Slot();
+        }
+        this.mask = ring.length - 1;
+        this.samplers = parseSampling(sampling);
+        this.maskAccounts = maskAccounts;
+        this.sink = sink;
+        this.writer = new Thread(this::drain, "payment-request-log");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    private static Consumer<CharSequence> log4jSink() {
+        // Only used by the writer thread, and Log4j has formatted it by the time info() returns
+        ReusableSimpleMessage message = new ReusableSimpleMessage();
+        return text -> {
+            message.set(text);
+            requestLogger.info((Message) message);
+        };
+    }
+
+    private static Sampler[] parseSampling(String sampling) {
+        List<Sampler> parsed = new ArrayList<>();
+        for (String entry : sampling.split(",")) {
+            if (entry.isBlank()) {
+                continue;
+            }
+            int equals = entry.lastIndexOf('=');
+            String[] endpoint = (equals < 0) ? new String[0] : entry.substring(0, equals).trim().split("\\s+");
+            if (endpoint.length != 2) {
+                throw new IllegalArgumentException("payment.request-log.sampling entries must look like "
+                        + "'GET /payments=100', not '" + entry.trim() + "'");
+            }
+            long every = Long.parseLong(entry.substring(equals + 1).trim());
+            if (every < 1) {
+                throw new IllegalArgumentException("payment.request-log.sampling rate of " + entry.trim()
+                        + " must be at least 1");
+            }
+            parsed.add(new Sampler(endpoint[0], endpoint[1], every));
+        }
+        return parsed.toArray(new Sampler[0]);
+    }
+
+    @PreDestroy
+    void close() {
+        running = false;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * The fields of the request running on the current thread, null outside a request.
+     */
+    public static RequestFields current() {
+        RequestFields fields = CURRENT.get();
+        return (fields != null && fields.open) ? fields : null;
+    }
+
+    /**
+     * Records the payment of the current request's create, if any request is being logged.
+     */
+    public static void payment(Payment payment) {
+        RequestFields fields = current();
+        if (fields != null) {
+            fields.payment(payment);
+        }
+    }
+
+    /**
+     * Records the filters of the current request's query, if any request is being logged.
+     */
+    public static void query(List<String> currencies, BigDecimal minAmount, OffsetDateTime from, OffsetDateTime to) {
+        RequestFields fields = current();
+        if (fields != null) {
+            fields.query(currencies, minAmount, from, to);
+        }
+    }
+
+    /**
+     * Records the number of payments in the current request or its response, if any request is being logged.
+     */
+    public static void count(long count) {
+        RequestFields fields = current();
+        if (fields != null) {
+            fields.count(count);
+        }
+    }
+
+    /**
+     * Opens the fields of a request starting on the current thread.
+     */
+    public RequestFields begin(String method) {
+        RequestFields fields = CURRENT.get();
+        if (fields == null) {
+            fields = new RequestFields();
+            CURRENT.set(fields);
+        }
+        fields.clear();
+        fields.open = true;
+        fields.method = method;
+        fields.startNanos = System.nanoTime();
+        return fields;
+    }
+
+    /**
+     * Takes the fields of a request going asynchronous off the current thread, so they follow it to the thread
+     * that completes it; the current thread gets new fields for its next request.
+     */
+    RequestFields detach() {
+        RequestFields fields = CURRENT.get();
+        CURRENT.remove();
+        return fields;
+    }
+
+    /**
+     * Puts the fields of an asynchronous request back on the thread dispatching its completion.
+     */
+    void resume(RequestFields fields) {
+        CURRENT.set(fields);
+    }
+
+    /**
+     * Ends a request, queueing its line unless it is sampled out.
+     *
+     * @param fields the fields opened by {@link #begin(String)}
+     * @param route the route pattern of the request, or its path when no route matched
+     * @param status the response status
+     */
+    public void end(RequestFields fields, String route, int status) {
+        fields.route = route;
+        fields.status = status;
+        fields.durationNanos = System.nanoTime() - fields.startNanos;
+        if (status >= 500 || sampled(fields.method, route)) {
+            publish(fields);
+        } else {
+            sampledOut.increment();
+        }
+        fields.clear();
+    }
+
+    private boolean sampled(String method, String route) {
+        for (Sampler sampler : samplers) {
+            if (sampler.route.equals(route) && sampler.method.equals(method)) {
+                return sampler.seen.getAndIncrement() % sampler.every == 0;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Copies the fields into the next free slot of the ring for the writer thread.
+     *
+     * @return false if the ring was full and the line dropped
+     */
+    boolean publish(RequestFields fields) {
+        long sequence;
+        do {
+            sequence = claimed.get();
+            if (sequence - consumed >= ring.length) {
+                dropped.increment();
+                return false;
+            }
+        } while (!claimed.compareAndSet(sequence, sequence + 1));
+        Slot slot = ring[(int) sequence & mask];
+        fields.copyTo(slot.fields);
+        // Publishes the fields to the writer, which reads the sequence before them
+        slot.sequence = sequence;
+        return true;
+    }
+
+    // The writer thread: writes the slots in sequence order, waiting while the next one is not published yet.
+    // It yields for a while first, so the next line of a burst is picked up at once, then parks until the next
+    // check. Exits once closed and every published line is written
+    private void drain() {
+        long next = 0;
+        int idle = 0;
+        while (true) {
+            Slot slot = ring[(int) next & mask];
+            if (slot.sequence != next) {
+                if (!running && claimed.get() == next) {
+                    return;
+                }
+                if (++idle < IDLE_YIELDS) {
+                    Thread.yield();
+                } else {
+                    LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                }
+                continue;
+            }
+            idle = 0;
+            try {
+                format(slot.fields);
+                sink.accept(line);
+            } catch (RuntimeException e) {
+                requestLogger.warn("Cannot write request log line: {}", e.toString());
+            }
+            slot.fields.clear();
+            consumed = ++next;
+            written++;
+        }
+    }
+
+    private void format(RequestFields fields) {
+        StringBuilder out = line;
+        out.setLength(0);
+        out.append("method=").append(fields.method)
+                .append(" route=").append(fields.route)
+                .append(" status=").append(fields.status)
+                .append(" micros=").append(fields.durationNanos / 1000);
+        if (fields.currency != null) {
+            out.append(" currency=").append(fields.currency);
+        }
+        if (fields.amount != null) {
+            out.append(" amount=").append(fields.amount);
+        }
+        if (fields.accountNumber != null) {
+            if (maskAccounts) {
+                out.append(" account=");
+                AccountMasking.append(out, fields.accountNumber);
+            } else {
+                out.append(" sortCode=").append(fields.sortCode).append(" account=").append(fields.accountNumber);
+            }
+        }
+        if (fields.currencies != null) {
+            out.append(" currencies=");
+            for (int i = 0; i < fields.currencies.size(); i++) {
+                out.append(i == 0 ? "" : ",").append(fields.currencies.get(i));
+            }
+        }
+        if (fields.minAmount != null) {
+            out.append(" minAmount=").append(fields.minAmount);
+        }
+        if (fields.from != null) {
+            out.append(" from=").append(fields.from);
+        }
+        if (fields.to != null) {
+            out.append(" to=").append(fields.to);
+        }
+        if (fields.count != RequestFields.NONE) {
+            out.append(" count=").append(fields.count);
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("payment.request-log.lines", this, log -> log.written)
+                .description("Request log lines by outcome")
+                .tag("outcome", "written")
+                .register(registry);
+        FunctionCounter.builder("payment.request-log.lines", dropped, LongAdder::sum)
+                .description("Request log lines by outcome")
+                .tag("outcome", "dropped")
+                .register(registry);
+        FunctionCounter.builder("payment.request-log.lines", sampledOut, LongAdder::sum)
+                .description("Request log lines by outcome")
+                .tag("outcome", "sampled_out")
+                .register(registry);
+    }
+}
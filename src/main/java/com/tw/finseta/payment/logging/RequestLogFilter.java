@@ -0,0 +1,72 @@
+package com.tw.finseta.payment.logging;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.servlet.HandlerMapping;
+
+import java.io.IOException;
+
+/**
+ * Times every request and hands it to the {@link RequestLog} when it ends, under its route pattern, such as
+ * {@code /payments}, rather than its path.
+ *
+ * <p>Runs first, so requests rejected by admission control are logged too. An asynchronous request, an NDJSON
+ * stream or an event stream, is logged once, when it completes: its fields are kept on the request and this
+ * filter picks them up again on the dispatch that completes it.</p>
+ *
+ * @author Ranga Raju
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+@ConditionalOnProperty(name = "payment.request-log.enabled", havingValue = "true", matchIfMissing = true)
+public class RequestLogFilter extends OncePerRequestFilter {
+
+    private static final String FIELDS_ATTRIBUTE = RequestLogFilter.class.getName() + ".fields";
+
+    private final RequestLog requestLog;
+
+    public RequestLogFilter(RequestLog requestLog) {
+        this.requestLog = requestLog;
+    }
+
+    @Override
+    protected boolean shouldNotFilterAsyncDispatch() {
+        return false;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        RequestFields fields = (RequestFields) request.getAttribute(FIELDS_ATTRIBUTE);
+        if (fields == null) {
+            fields = requestLog.begin(request.getMethod());
+        } else {
+            request.removeAttribute(FIELDS_ATTRIBUTE);
+            requestLog.resume(fields);
+        }
+        boolean completed = false;
+        try {
+            chain.doFilter(request, response);
+            completed = true;
+        } finally {
+            if (request.isAsyncStarted()) {
+                request.setAttribute(FIELDS_ATTRIBUTE, requestLog.detach());
+            } else {
+                // An exception escaping the chain becomes a 500 once it leaves the container
+                requestLog.end(fields, route(request), completed ? response.getStatus() : 500);
+            }
+        }
+    }
+
+    private static String route(HttpServletRequest request) {
+        Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+        return (pattern instanceof String route) ? route : request.getRequestURI();
+    }
+}
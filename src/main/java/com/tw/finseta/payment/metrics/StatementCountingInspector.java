@@ -0,0 +1,76 @@
+package com.tw.finseta.payment.metrics;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.servlet.HandlerMapping;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Counts the SQL statements Hibernate prepares while serving each HTTP request and records the count in the
+ * {@code payment.hibernate.statements} distribution, tagged with the request method and URI pattern.
+ *
+ * <p>Registered as the session factory's {@link StatementInspector} unless one is already configured. Only
+ * statements issued on the request thread are counted, the rows of a streamed response are read after the
+ * request thread has returned.</p>
+ *
+ * @author Ranga Raju
+ */
+@Component
+public class StatementCountingInspector extends OncePerRequestFilter
+        implements StatementInspector, HibernatePropertiesCustomizer {
+
+    static final String STATEMENTS_METRIC = "payment.hibernate.statements";
+
+    private static final ThreadLocal<int[]> COUNT = new ThreadLocal<>();
+
+    private final MeterRegistry meterRegistry;
+
+    public StatementCountingInspector(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    public void customize(Map<String, Object> hibernateProperties) {
+        hibernateProperties.putIfAbsent(AvailableSettings.STATEMENT_INSPECTOR, this);
+    }
+
+    @Override
+    public String inspect(String sql) {
+        int[] count = COUNT.get();
+        if (count != null) {
+            count[0]++;
+        }
+        return sql;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        int[] count = new int[1];
+        COUNT.set(count);
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            COUNT.remove();
+            Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+            DistributionSummary.builder(STATEMENTS_METRIC)
+                    .description("SQL statements prepared per request")
+                    .baseUnit("statements")
+                    .tag("method", request.getMethod())
+                    .tag("uri", (pattern == null) ? "UNKNOWN" : pattern.toString())
+                    .register(meterRegistry)
+                    .record(count[0]);
+        }
+    }
+}
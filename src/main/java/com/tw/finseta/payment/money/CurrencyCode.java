@@ -0,0 +1,141 @@
+package com.tw.finseta.payment.money;
+
+import java.util.ArrayList;
+import java.util.Currency;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Compact ISO 4217 currency code.
+ *
+ * <p>The three letters are packed five bits each into a {@code short}, which indexes a table of shared
+ * instances built once from {@link Currency}. Looking a code up therefore never allocates, two codes compare
+ * by identity, and each instance carries the ISO exponent, the number of minor unit digits, used to scale
+ * amounts held as {@code long} minor units. Currencies without a decimal exponent, such as precious metals,
+ * are not payment currencies and have no instance.</p>
+ *
+ * @author Ranga Raju
+ */
+public final class CurrencyCode implements Comparable<CurrencyCode> {
+
+    /** Exponent of most ISO 4217 currencies, e.g. GBP has 100 pence to the pound. */
+    public static final int DEFAULT_EXPONENT = 2;
+
+    private static final int LETTER_BITS = 5;
+    private static final CurrencyCode[] CODES = new CurrencyCode[1 << (3 * LETTER_BITS)];
+    private static final Map<Integer, List<CurrencyCode>> BY_EXPONENT;
+
+    static {
+        Map<Integer, List<CurrencyCode>> byExponent = new TreeMap<>();
+        for (Currency currency : Currency.getAvailableCurrencies()) {
+            String value = currency.getCurrencyCode();
+            int packed = pack(value);
+            int exponent = currency.getDefaultFractionDigits();
+            if (packed >= 0 && exponent >= 0) {
+                CODES[packed] = new CurrencyCode((short) packed, value, exponent);
+                byExponent.computeIfAbsent(exponent, e -> new ArrayList<>()).add(CODES[packed]);
+            }
+        }
+        byExponent.replaceAll((exponent, codes) -> codes.stream().sorted().toList());
+        BY_EXPONENT = Map.copyOf(byExponent);
+    }
+
+    private final short code;
+    private final String value;
+    private final int exponent;
+
+    private CurrencyCode(short code, String value, int exponent) {
+        this.code = code;
+        this.value = value;
+        this.exponent = exponent;
+    }
+
+    /**
+     * Returns the currency for a three letter upper case ISO 4217 code.
+     *
+     * @param value the code, e.g. {@code GBP}
+     * @return the shared instance, or null if the value is not a known payment currency
+     */
+    public static CurrencyCode lookup(String value) {
+        int packed = pack(value);
+        return (packed < 0) ? null : CODES[packed];
+    }
+
+    /**
+     * Returns the currency for a three letter upper case ISO 4217 code.
+     *
+     * @throws IllegalArgumentException if the value is not a known payment currency
+     */
+    public static CurrencyCode of(String value) {
+        CurrencyCode currency = lookup(value);
+        if (currency == null) {
+            throw new IllegalArgumentException("Unknown currency '" + value + "'");
+        }
+        return currency;
+    }
+
+    /**
+     * Returns the currency of a packed code previously obtained from {@link #code()}.
+     *
+     * @throws IllegalArgumentException if the code is not a known payment currency
+     */
+    public static CurrencyCode of(short code) {
+        CurrencyCode currency = (code < 0) ? null : CODES[code];
+        if (currency == null) {
+            throw new IllegalArgumentException("Unknown currency code " + code);
+        }
+        return currency;
+    }
+
+    /**
+     * All known payment currencies grouped by exponent, in exponent and then code order.
+     */
+    public static Map<Integer, List<CurrencyCode>> byExponent() {
+        return BY_EXPONENT;
+    }
+
+    // -1 unless the value is exactly three letters A-Z
+    static int pack(String value) {
+        if (value == null || value.length() != 3) {
+            return -1;
+        }
+        int packed = 0;
+        for (int i = 0; i < 3; i++) {
+            int letter = value.charAt(i) - 'A';
+            if (letter < 0 || letter > 25) {
+                return -1;
+            }
+            packed = (packed << LETTER_BITS) | letter;
+        }
+        return packed;
+    }
+
+    public short code() {
+        return code;
+    }
+
+    public int exponent() {
+        return exponent;
+    }
+
+    @Override
+    public int compareTo(CurrencyCode other) {
+        return Short.compare(code, other.code);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof CurrencyCode && ((CurrencyCode) other).code == code;
+    }
+
+    @Override
+    public int hashCode() {
+        return code;
+    }
+
+    @Override
+    public String toString() {
+        return value;
+    }
+}
@@ -0,0 +1,24 @@
+package com.tw.finseta.payment.money;
+
+import jakarta.persistence.AttributeConverter;
+import jakarta.persistence.Converter;
+
+/**
+ * Stores a {@link CurrencyCode} as its three letter ISO 4217 code, so the column stays readable and the
+ * values already stored keep their meaning. Applied to every {@code CurrencyCode} attribute.
+ *
+ * @author Ranga Raju
+ */
+@Converter(autoApply = true)
+public class CurrencyCodeConverter implements AttributeConverter<CurrencyCode, String> {
+
+    @Override
+    public String convertToDatabaseColumn(CurrencyCode currency) {
+        return (currency == null) ? null : currency.toString();
+    }
+
+    @Override
+    public CurrencyCode convertToEntityAttribute(String value) {
+        return (value == null) ? null : CurrencyCode.of(value);
+    }
+}
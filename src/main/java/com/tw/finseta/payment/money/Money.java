@@ -0,0 +1,126 @@
+package com.tw.finseta.payment.money;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+
+/**
+ * Fixed-point amount of money: a {@code long} count of minor units of a {@link CurrencyCode}.
+ *
+ * <p>{@code 12.34 GBP} is held as {@code 1234} pence. Comparisons and sums are plain {@code long} arithmetic,
+ * {@link BigDecimal} only appears at the edges where amounts are read from or written to JSON, and the static
+ * helpers let hot paths work on the minor units directly without creating a {@code Money} at all.</p>
+ *
+ * @author Ranga Raju
+ */
+public final class Money implements Comparable<Money> {
+
+    private final long minorUnits;
+    private final CurrencyCode currency;
+
+    private Money(long minorUnits, CurrencyCode currency) {
+        this.minorUnits = minorUnits;
+        this.currency = currency;
+    }
+
+    public static Money ofMinor(long minorUnits, CurrencyCode currency) {
+        return new Money(minorUnits, currency);
+    }
+
+    /**
+     * @throws ArithmeticException if the amount has more decimal places than the currency or does not fit a long
+     */
+    public static Money of(BigDecimal amount, CurrencyCode currency) {
+        return new Money(toMinorUnits(amount, currency), currency);
+    }
+
+    /**
+     * Converts a decimal amount to minor units without rounding, so {@code 10.50 GBP} gives {@code 1050}
+     * while {@code 10.505 GBP} is rejected.
+     *
+     * @throws ArithmeticException if the amount has more decimal places than the currency or does not fit a long
+     */
+    public static long toMinorUnits(BigDecimal amount, CurrencyCode currency) {
+        return amount.setScale(currency.exponent(), RoundingMode.UNNECESSARY).unscaledValue().longValueExact();
+    }
+
+    /**
+     * Smallest number of minor units that is greater than or equal to a decimal amount, clamped to the long
+     * range. Turns a {@code >= amount} filter into an exact comparison on minor units.
+     */
+    public static long ceilMinorUnits(BigDecimal amount, int exponent) {
+        BigDecimal minor = amount.movePointRight(exponent).setScale(0, RoundingMode.CEILING);
+        if (minor.compareTo(BigDecimal.valueOf(Long.MAX_VALUE)) > 0) {
+            return Long.MAX_VALUE;
+        }
+        if (minor.compareTo(BigDecimal.valueOf(Long.MIN_VALUE)) < 0) {
+            return Long.MIN_VALUE;
+        }
+        return minor.longValue();
+    }
+
+    /**
+     * Decimal value of an amount in minor units, with exactly the currency's number of decimal places.
+     */
+    public static BigDecimal toDecimal(long minorUnits, CurrencyCode currency) {
+        return BigDecimal.valueOf(minorUnits, currency.exponent());
+    }
+
+    /**
+     * Decimal value of a total in minor units, such as a sum of amounts that may not fit a long.
+     */
+    public static BigDecimal toDecimal(BigInteger minorUnits, CurrencyCode currency) {
+        return new BigDecimal(minorUnits, currency.exponent());
+    }
+
+    public long minorUnits() {
+        return minorUnits;
+    }
+
+    public CurrencyCode currency() {
+        return currency;
+    }
+
+    public BigDecimal toDecimal() {
+        return toDecimal(minorUnits, currency);
+    }
+
+    /**
+     * @throws IllegalArgumentException if the currencies differ
+     * @throws ArithmeticException if the sum overflows
+     */
+    public Money plus(Money other) {
+        requireSameCurrency(other);
+        return new Money(Math.addExact(minorUnits, other.minorUnits), currency);
+    }
+
+    /**
+     * @throws IllegalArgumentException if the currencies differ
+     */
+    @Override
+    public int compareTo(Money other) {
+        requireSameCurrency(other);
+        return Long.compare(minorUnits, other.minorUnits);
+    }
+
+    private void requireSameCurrency(Money other) {
+        if (currency != other.currency) {
+            throw new IllegalArgumentException("Currency mismatch: " + currency + " and " + other.currency);
+        }
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof Money money && money.minorUnits == minorUnits && money.currency == currency;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Long.hashCode(minorUnits) + currency.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return currency + " " + toDecimal();
+    }
+}
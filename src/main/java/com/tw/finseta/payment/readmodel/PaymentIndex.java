@@ -0,0 +1,346 @@
+package com.tw.finseta.payment.readmodel;
+
+import com.tw.finseta.payment.model.Account;
+import com.tw.finseta.payment.model.Payment;
+import com.tw.finseta.payment.money.CurrencyCode;
+import com.tw.finseta.payment.money.Money;
+import com.tw.finseta.payment.repository.PaymentFilter;
+import com.tw.finseta.payment.repository.PaymentRow;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory index of payments, one segment per currency sorted by (amount in minor units, id).
+ *
+ * <p>A segment is a pair of immutable runs of parallel primitive arrays: a large base and a small delta that
+ * absorbs new payments and is merged into the base once it outgrows {@value #DELTA_LIMIT} entries or a
+ * fraction of the base. Writers build the next pair under the segment lock and publish it through a volatile
+ * field, so readers never block and always see a consistent snapshot. A {@code minAmount} filter is a binary
+ * search per run followed by a contiguous scan of the tail, keeping the smallest ids past the cursor.</p>
+ *
+ * <p>Counterparties are interned once in an append-only table and referenced by position.</p>
+ *
+ * @author Ranga Raju
+ */
+public class PaymentIndex {
+
+    static final int DELTA_LIMIT = 1024;
+
+    // Rough per-object costs of a 64-bit JVM with compressed oops, used for the footprint estimate
+    private static final long ARRAY_HEADER_BYTES = 16;
+    private static final long OBJECT_BYTES = 24;
+    private static final long STRING_BYTES = 40;
+
+    private final Map<CurrencyCode, Segment> segments = new ConcurrentHashMap<>();
+    private final AccountTable accounts = new AccountTable();
+
+    /**
+     * Adds committed payments to the index. Payments are expected to be added once, in any order.
+     */
+    public void addAll(List<PaymentRow> rows) {
+        Map<CurrencyCode, List<PaymentRow>> byCurrency = new HashMap<>();
+        for (PaymentRow row : rows) {
+            byCurrency.computeIfAbsent(row.getCurrency(), currency -> new ArrayList<>()).add(row);
+        }
+        // Intern the counterparties before any snapshot referencing them is published
+        for (Map.Entry<CurrencyCode, List<PaymentRow>> group : byCurrency.entrySet()) {
+            Run run = Run.of(group.getValue(), accounts);
+            segments.computeIfAbsent(group.getKey(), Segment::new).add(run);
+        }
+    }
+
+    /**
+     * Reads one keyset page of payments matching the filter, in ascending id order.
+     *
+     * @param filter the currencies and minimum amount, absent filters match every payment
+     * @param afterId only payments with a greater id are returned
+     * @param limit the maximum number of payments returned
+     */
+    public List<PaymentRow> findPage(PaymentFilter filter, long afterId, int limit) {
+        List<CurrencyCode> currencies = filter.getCurrencies();
+        Iterable<Segment> targets = (currencies == null)
+                ? segments.values()
+                : currencies.stream().map(segments::get).filter(Objects::nonNull).toList();
+
+        SmallestIds smallest = new SmallestIds(limit);
+        for (Segment segment : targets) {
+            long threshold = (filter.getMinAmount() == null)
+                    ? Long.MIN_VALUE
+                    : Money.ceilMinorUnits(filter.getMinAmount(), segment.currency.exponent());
+            Snapshot snapshot = segment.snapshot;
+            snapshot.base.scan(threshold, afterId, segment.currency, smallest);
+            snapshot.delta.scan(threshold, afterId, segment.currency, smallest);
+        }
+        return smallest.toRows(accounts.entries);
+    }
+
+    /** Number of payments in the index. */
+    public long size() {
+        long size = 0;
+        for (Segment segment : segments.values()) {
+            Snapshot snapshot = segment.snapshot;
+            size += snapshot.base.length + snapshot.delta.length;
+        }
+        return size;
+    }
+
+    /** Estimated heap retained by the index arrays and the interned counterparties, in bytes. */
+    public long heapBytes() {
+        long bytes = 0;
+        for (Segment segment : segments.values()) {
+            Snapshot snapshot = segment.snapshot;
+            bytes += OBJECT_BYTES + snapshot.base.heapBytes() + snapshot.delta.heapBytes();
+        }
+        return bytes + accounts.heapBytes();
+    }
+
+    /**
+     * The published runs of one currency, replaced as a whole on every write.
+     */
+    private static final class Segment {
+
+        private final CurrencyCode currency;
+        private volatile Snapshot snapshot = new Snapshot(Run.EMPTY, Run.EMPTY);
+
+        private Segment(CurrencyCode currency) {
+            this.currency = currency;
+        }
+
+        private synchronized void add(Run run) {
+            Snapshot current = snapshot;
+            Run delta = Run.merge(current.delta, run);
+            snapshot = (delta.length > Math.max(DELTA_LIMIT, current.base.length >>> 6))
+                    ? new Snapshot(Run.merge(current.base, delta), Run.EMPTY)
+                    : new Snapshot(current.base, delta);
+        }
+    }
+
+    private record Snapshot(Run base, Run delta) {
+    }
+
+    /**
+     * Immutable entries sorted by (amount, id), stored as parallel primitive arrays.
+     */
+    static final class Run {
+
+        static final Run EMPTY = new Run(new long[0], new long[0], new int[0]);
+
+        private final long[] amounts;
+        private final long[] ids;
+        private final int[] accounts;
+        private final int length;
+
+        private Run(long[] amounts, long[] ids, int[] accounts) {
+            this.amounts = amounts;
+            this.ids = ids;
+            this.accounts = accounts;
+            this.length = ids.length;
+        }
+
+        private static Run of(List<PaymentRow> rows, AccountTable table) {
+            List<PaymentRow> sorted = new ArrayList<>(rows);
+            sorted.sort(Comparator.comparingLong(PaymentRow::getAmountMinor).thenComparingLong(PaymentRow::getId));
+            long[] amounts = new long[sorted.size()];
+            long[] ids = new long[sorted.size()];
+            int[] accounts = new int[sorted.size()];
+            for (int i = 0; i < sorted.size(); i++) {
+                PaymentRow row = sorted.get(i);
+                amounts[i] = row.getAmountMinor();
+                ids[i] = row.getId();
+                accounts[i] = table.intern(row.getPayment().getCounterparty());
+            }
+            return new Run(amounts, ids, accounts);
+        }
+
+        private static Run merge(Run a, Run b) {
+            if (a.length == 0) {
+                return b;
+            }
+            if (b.length == 0) {
+                return a;
+            }
+            int length = a.length + b.length;
+            long[] amounts = new long[length];
+            long[] ids = new long[length];
+            int[] accounts = new int[length];
+            int i = 0;
+            int j = 0;
+            for (int k = 0; k < length; k++) {
+                boolean takeA = j >= b.length || (i < a.length && (a.amounts[i] < b.amounts[j]
+                        || (a.amounts[i] == b.amounts[j] && a.ids[i] < b.ids[j])));
+                Run from = takeA ? a : b;
+                int index = takeA ? i++ : j++;
+                amounts[k] = from.amounts[index];
+                ids[k] = from.ids[index];
+                accounts[k] = from.accounts[index];
+            }
+            return new Run(amounts, ids, accounts);
+        }
+
+        // Index of the first entry with an amount >= threshold
+        private int lowerBound(long threshold) {
+            int low = 0;
+            int high = length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (amounts[mid] < threshold) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        private void scan(long threshold, long afterId, CurrencyCode currency, SmallestIds smallest) {
+            for (int i = (threshold == Long.MIN_VALUE) ? 0 : lowerBound(threshold); i < length; i++) {
+                if (ids[i] > afterId) {
+                    smallest.offer(ids[i], amounts[i], accounts[i], currency);
+                }
+            }
+        }
+
+        private long heapBytes() {
+            return (length == 0) ? 0 : OBJECT_BYTES + 3 * ARRAY_HEADER_BYTES + length * (2L * Long.BYTES + Integer.BYTES);
+        }
+    }
+
+    /**
+     * Bounded max-heap on id that keeps the {@code limit} smallest ids offered, with their entries.
+     */
+    private static final class SmallestIds {
+
+        private final long[] ids;
+        private final long[] amounts;
+        private final int[] accounts;
+        private final CurrencyCode[] currencies;
+        private int size;
+
+        private SmallestIds(int limit) {
+            this.ids = new long[limit];
+            this.amounts = new long[limit];
+            this.accounts = new int[limit];
+            this.currencies = new CurrencyCode[limit];
+        }
+
+        private void offer(long id, long amount, int account, CurrencyCode currency) {
+            if (size < ids.length) {
+                set(size, id, amount, account, currency);
+                siftUp(size++);
+            } else if (size > 0 && id < ids[0]) {
+                set(0, id, amount, account, currency);
+                siftDown(0);
+            }
+        }
+
+        private void set(int i, long id, long amount, int account, CurrencyCode currency) {
+            ids[i] = id;
+            amounts[i] = amount;
+            accounts[i] = account;
+            currencies[i] = currency;
+        }
+
+        private void swap(int i, int j) {
+            long id = ids[i];
+            long amount = amounts[i];
+            int account = accounts[i];
+            CurrencyCode currency = currencies[i];
+            set(i, ids[j], amounts[j], accounts[j], currencies[j]);
+            set(j, id, amount, account, currency);
+        }
+
+        private void siftUp(int i) {
+            while (i > 0 && ids[(i - 1) >>> 1] < ids[i]) {
+                swap(i, (i - 1) >>> 1);
+                i = (i - 1) >>> 1;
+            }
+        }
+
+        private void siftDown(int i) {
+            while (true) {
+                int largest = i;
+                int left = 2 * i + 1;
+                int right = left + 1;
+                if (left < size && ids[left] > ids[largest]) {
+                    largest = left;
+                }
+                if (right < size && ids[right] > ids[largest]) {
+                    largest = right;
+                }
+                if (largest == i) {
+                    return;
+                }
+                swap(i, largest);
+                i = largest;
+            }
+        }
+
+        // Drains the heap largest id first, filling the page from the back
+        private List<PaymentRow> toRows(AccountEntry[] accountEntries) {
+            PaymentRow[] rows = new PaymentRow[size];
+            while (size > 0) {
+                CurrencyCode currency = currencies[0];
+                rows[size - 1] = new PaymentRow(ids[0], currency, amounts[0], new Payment(currency.toString(),
+                        Money.toDecimal(amounts[0], currency), accountEntries[accounts[0]].toModel()));
+                swap(0, --size);
+                siftDown(0);
+            }
+            return Arrays.asList(rows);
+        }
+    }
+
+    private record AccountEntry(Account.TypeEnum type, String accountNumber, String sortCode) {
+
+        private Account toModel() {
+            return new Account(type, accountNumber, sortCode);
+        }
+    }
+
+    /**
+     * Append-only table of distinct counterparties. Entries are written before the array is republished
+     * and before any run referencing them, so readers need no lock.
+     */
+    private static final class AccountTable {
+
+        private final Map<AccountEntry, Integer> positions = new HashMap<>();
+        private volatile AccountEntry[] entries = new AccountEntry[16];
+        private int size;
+
+        private synchronized int intern(Account account) {
+            AccountEntry entry = new AccountEntry(account.getType(), account.getAccountNumber(), account.getSortCode());
+            Integer position = positions.get(entry);
+            if (position != null) {
+                return position;
+            }
+            AccountEntry[] current = entries;
+            if (size == current.length) {
+                current = Arrays.copyOf(current, current.length * 2);
+            }
+            current[size] = entry;
+            entries = current;
+            positions.put(entry, size);
+            return size++;
+        }
+
+        private synchronized long heapBytes() {
+            long bytes = ARRAY_HEADER_BYTES + 4L * entries.length;
+            for (AccountEntry entry : positions.keySet()) {
+                bytes += OBJECT_BYTES + stringBytes(entry.accountNumber()) + stringBytes(entry.sortCode())
+                        // the lookup map node and its boxed position
+                        + 2 * OBJECT_BYTES;
+            }
+            return bytes;
+        }
+
+        private static long stringBytes(String value) {
+            return (value == null) ? 0 : STRING_BYTES + value.length();
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package com.tw.finseta.payment.readmodel;
+
+import com.tw.finseta.payment.repository.PaymentFilter;
+import com.tw.finseta.payment.repository.PaymentRepository;
+import com.tw.finseta.payment.repository.PaymentRow;
+import com.tw.finseta.payment.service.PaymentsSavedEvent;
+import com.tw.finseta.payment.shard.PaymentShards;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PostConstruct;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Optional read model that answers filtered payment queries from a {@link PaymentIndex} instead of the database.
+ *
+ * <p>Enabled with {@code payment.read-model.enabled=true}. The index is loaded from the payments table while the
+ * context starts, one {@link PaymentShards shard} after the other, before any request is served, and then follows every committed save through
+ * {@link PaymentsSavedEvent}. Its size and estimated heap footprint are published as gauges.</p>
+ *
+ * @author Ranga Raju
+ */
+@Component
+@ConditionalOnProperty(name = "payment.read-model.enabled", havingValue = "true")
+public class PaymentReadModel implements MeterBinder {
+
+    private static final Logger logger = LogManager.getLogger(PaymentReadModel.class);
+
+    private static final int LOAD_BATCH_SIZE = 10_000;
+
+    private final PaymentIndex index = new PaymentIndex();
+    private final PaymentRepository paymentRepository;
+    private final TransactionTemplate readOnlyTransaction;
+    private final PaymentShards shards;
+
+    public PaymentReadModel(PaymentRepository paymentRepository, PlatformTransactionManager transactionManager,
+                            PaymentShards shards) {
+        this.paymentRepository = paymentRepository;
+        this.shards = shards;
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+    }
+
+    @PostConstruct
+    void load() {
+        long start = System.nanoTime();
+        for (int shard : shards.all()) {
+            shards.on(shard, this::loadShard);
+        }
+        logger.info("Loaded payment read model: {} payments, ~{} bytes in {} ms",
+                index.size(), index.heapBytes(), (System.nanoTime() - start) / 1_000_000);
+    }
+
+    // The index merges runs in any order, each shard is added in its own id order
+    private Void loadShard() {
+        readOnlyTransaction.executeWithoutResult(status -> {
+            try (Stream<PaymentRow> stream = paymentRepository.stream(new PaymentFilter(null, null))) {
+                List<PaymentRow> batch = new ArrayList<>(LOAD_BATCH_SIZE);
+                Iterator<PaymentRow> iterator = stream.iterator();
+                while (iterator.hasNext()) {
+                    batch.add(iterator.next());
+                    if (batch.size() == LOAD_BATCH_SIZE) {
+                        index.addAll(batch);
+                        batch.clear();
+                    }
+                }
+                index.addAll(batch);
+            }
+        });
+        return null;
+    }
+
+    // Applied before PaymentVersions moves on, so a response cached at the new version includes the save
+    @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT)
+    @Order(Ordered.HIGHEST_PRECEDENCE)
+    public void onPaymentsSaved(PaymentsSavedEvent event) {
+        index.addAll(event.getPayments());
+    }
+
+    /**
+     * @see PaymentIndex#findPage(PaymentFilter, long, int)
+     */
+    public List<PaymentRow> findPage(PaymentFilter filter, long afterId, int limit) {
+        return index.findPage(filter, afterId, limit);
+    }
+
+    /** Number of payments held in memory. */
+    public long size() {
+        return index.size();
+    }
+
+    /** Estimated heap retained by the read model, in bytes. */
+    public long heapBytes() {
+        return index.heapBytes();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("payment.read_model.size", this, PaymentReadModel::size)
+                .description("Payments held by the in-memory read model")
+                .baseUnit("payments")
+                .register(registry);
+        Gauge.builder("payment.read_model.heap", this, PaymentReadModel::heapBytes)
+                .description("Estimated heap retained by the in-memory read model")
+                .baseUnit("bytes")
+                .register(registry);
+    }
+}
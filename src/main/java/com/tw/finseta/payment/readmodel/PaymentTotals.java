@@ -0,0 +1,137 @@
+package com.tw.finseta.payment.readmodel;
+
+import com.tw.finseta.payment.archive.PaymentArchive;
+import com.tw.finseta.payment.money.CurrencyCode;
+import com.tw.finseta.payment.repository.CurrencyTotals;
+import com.tw.finseta.payment.repository.PaymentFilter;
+import com.tw.finseta.payment.repository.PaymentRepository;
+import com.tw.finseta.payment.repository.PaymentRow;
+import com.tw.finseta.payment.service.PaymentsSavedEvent;
+import com.tw.finseta.payment.shard.PaymentShards;
+import jakarta.annotation.PostConstruct;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Running count, sum, minimum and maximum of the payments in each currency, so a summary costs one read per
+ * currency however many payments are stored.
+ *
+ * <p>The accumulators are seeded from one aggregate query per {@link PaymentShards shard}, plus the summaries of the archived payments when the
+ * {@link PaymentArchive} is enabled, while the context starts and then follow every
+ * committed save through {@link PaymentsSavedEvent}. Each currency has its own accumulators and each of those
+ * is a {@link LongAdder} or {@link LongAccumulator} of minor units, so concurrent saves neither share a lock
+ * nor contend on one counter. A snapshot reads the four values of a currency one after the other, so it may
+ * include part of a save that is being applied; the next read is exact again.</p>
+ *
+ * <p>A sum is kept as the sums of the high and low 32 bits of each amount, which cannot wrap, and recombined
+ * into a {@link BigInteger} when read, so a total beyond a {@code long} of minor units is still exact.</p>
+ *
+ * @author Ranga Raju
+ */
+@Component
+public class PaymentTotals {
+
+    private static final Logger logger = LogManager.getLogger(PaymentTotals.class);
+
+    // Sorted by currency code, so snapshots come out in the same order as the aggregate query
+    private final Map<CurrencyCode, Accumulator> byCurrency = new ConcurrentSkipListMap<>();
+    private final PaymentRepository paymentRepository;
+    private final PaymentArchive archive;
+    private final PaymentShards shards;
+
+    public PaymentTotals(PaymentRepository paymentRepository, ObjectProvider<PaymentArchive> archive,
+                         PaymentShards shards) {
+        this.paymentRepository = paymentRepository;
+        this.archive = archive.getIfAvailable();
+        this.shards = shards;
+    }
+
+    @PostConstruct
+    void load() {
+        long start = System.nanoTime();
+        List<CurrencyTotals> totals = (archive == null) ? List.of() : archive.totals();
+        for (List<CurrencyTotals> shardTotals
+                : shards.scatter(shards.all(), shard -> paymentRepository.summarize(new PaymentFilter(null, null)))) {
+            totals = CurrencyTotals.merge(totals, shardTotals);
+        }
+        for (CurrencyTotals currencyTotals : totals) {
+            byCurrency.computeIfAbsent(currencyTotals.currency(), currency -> new Accumulator()).add(currencyTotals);
+        }
+        logger.info("Loaded payment totals for {} currencies in {} ms",
+                totals.size(), (System.nanoTime() - start) / 1_000_000);
+    }
+
+    // Applied before PaymentVersions moves on, so a response cached at the new version includes the save
+    @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT)
+    @Order(Ordered.HIGHEST_PRECEDENCE)
+    public void onPaymentsSaved(PaymentsSavedEvent event) {
+        for (PaymentRow row : event.getPayments()) {
+            byCurrency.computeIfAbsent(row.getCurrency(), currency -> new Accumulator()).add(row.getAmountMinor());
+        }
+    }
+
+    /** Current totals of every currency with payments, in currency code order. */
+    public List<CurrencyTotals> snapshot() {
+        List<CurrencyTotals> totals = new ArrayList<>(byCurrency.size());
+        for (Map.Entry<CurrencyCode, Accumulator> entry : byCurrency.entrySet()) {
+            Accumulator accumulator = entry.getValue();
+            long count = accumulator.count.sum();
+            if (count > 0) {
+                totals.add(new CurrencyTotals(entry.getKey(), count, accumulator.sum(),
+                        accumulator.min.get(), accumulator.max.get()));
+            }
+        }
+        return totals;
+    }
+
+    private static final class Accumulator {
+
+        private static final long LOW_BITS = 0xFFFF_FFFFL;
+
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sumHigh = new LongAdder();
+        private final LongAdder sumLow = new LongAdder();
+        private final LongAccumulator min = new LongAccumulator(Math::min, Long.MAX_VALUE);
+        private final LongAccumulator max = new LongAccumulator(Math::max, Long.MIN_VALUE);
+
+        // The count goes last, a currency only shows up in a snapshot once its amounts are in
+        private void add(long amountMinor) {
+            addSum(amountMinor);
+            min.accumulate(amountMinor);
+            max.accumulate(amountMinor);
+            count.increment();
+        }
+
+        private void add(CurrencyTotals totals) {
+            sumHigh.add(totals.sumMinor().shiftRight(32).longValueExact());
+            sumLow.add(totals.sumMinor().longValue() & LOW_BITS);
+            min.accumulate(totals.minMinor());
+            max.accumulate(totals.maxMinor());
+            count.add(totals.count());
+        }
+
+        // Each half adds at most 2^32 per amount, so neither adder wraps before 2^31 payments
+        private void addSum(long amountMinor) {
+            sumHigh.add(amountMinor >> 32);
+            sumLow.add(amountMinor & LOW_BITS);
+        }
+
+        private BigInteger sum() {
+            return BigInteger.valueOf(sumHigh.sum()).shiftLeft(32).add(BigInteger.valueOf(sumLow.sum()));
+        }
+    }
+}
@@ -4,6 +4,8 @@ import com.tw.finseta.payment.dao.AccountDAO;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 
 /**
@@ -16,4 +18,11 @@ import java.util.Optional;
 @Repository
 public interface AccountRepository extends JpaRepository<AccountDAO, Long> {
     Optional<AccountDAO> findByAccountNumberAndSortCode(String accountNumber, String sortCode);
+
+    /**
+     * Loads candidate accounts for many counterparties in one query. The result is a superset of the
+     * requested (accountNumber, sortCode) pairs and must be matched exactly by the caller.
+     */
+    List<AccountDAO> findByAccountNumberInAndSortCodeIn(Collection<String> accountNumbers,
+                                                        Collection<String> sortCodes);
 }
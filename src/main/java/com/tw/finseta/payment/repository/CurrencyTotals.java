@@ -0,0 +1,37 @@
+package com.tw.finseta.payment.repository;
+
+import com.tw.finseta.payment.money.CurrencyCode;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Count, sum, minimum and maximum of the payments in one currency, amounts in minor units. Each amount fits a
+ * {@code long} but their sum may not, so the sum is a {@link BigInteger}.
+ *
+ * @author Ranga Raju
+ */
+public record CurrencyTotals(CurrencyCode currency, long count, BigInteger sumMinor, long minMinor, long maxMinor) {
+
+    /** Totals of a single payment. */
+    public static CurrencyTotals of(CurrencyCode currency, long amountMinor) {
+        return new CurrencyTotals(currency, 1, BigInteger.valueOf(amountMinor), amountMinor, amountMinor);
+    }
+
+    /** Totals of the payments of both, which must be in the same currency. */
+    public CurrencyTotals plus(CurrencyTotals other) {
+        return new CurrencyTotals(currency, count + other.count, sumMinor.add(other.sumMinor),
+                Math.min(minMinor, other.minMinor), Math.max(maxMinor, other.maxMinor));
+    }
+
+    /** Combines two lists of totals into one entry per currency, in currency code order. */
+    public static List<CurrencyTotals> merge(List<CurrencyTotals> first, List<CurrencyTotals> second) {
+        Map<CurrencyCode, CurrencyTotals> byCurrency = new TreeMap<>();
+        first.forEach(totals -> byCurrency.merge(totals.currency(), totals, CurrencyTotals::plus));
+        second.forEach(totals -> byCurrency.merge(totals.currency(), totals, CurrencyTotals::plus));
+        return new ArrayList<>(byCurrency.values());
+    }
+}
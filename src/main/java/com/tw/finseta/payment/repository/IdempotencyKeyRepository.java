@@ -0,0 +1,27 @@
+package com.tw.finseta.payment.repository;
+
+import com.tw.finseta.payment.dao.IdempotencyKeyDAO;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+
+/**
+ * Spring Data repository interface for managing IdempotencyKeyDAO entities.
+ *
+ * @author Ranga Raju
+ */
+public interface IdempotencyKeyRepository extends JpaRepository<IdempotencyKeyDAO, String> {
+
+    /**
+     * Deletes the keys recorded before a time.
+     *
+     * @return the number of keys deleted
+     */
+    @Modifying
+    @Transactional
+    @Query("delete from IdempotencyKeyDAO k where k.createdAt < :before")
+    int deleteByCreatedAtBefore(Instant before);
+}
@@ -0,0 +1,61 @@
+package com.tw.finseta.payment.repository;
+
+import com.tw.finseta.payment.money.CurrencyCode;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Optional filters of a payment query. A null field means the filter is absent and no predicate is emitted for it.
+ *
+ * @author Ranga Raju
+ */
+@Getter
+@ToString
+public class PaymentFilter {
+
+    private final List<CurrencyCode> currencies;
+    private final BigDecimal minAmount;
+    private final Instant from;
+    private final Instant to;
+
+    /**
+     * Codes that are not ISO 4217 payment currencies can never match a stored payment and are dropped, when
+     * none is left the filter is kept as an empty list that matches nothing.
+     *
+     * @param currencies the currency codes to include, null or empty for all currencies
+     * @param minAmount the minimum amount (inclusive) in each payment's own currency, null for any amount
+     */
+    public PaymentFilter(List<String> currencies, BigDecimal minAmount) {
+        this(currencies, minAmount, null, null);
+    }
+
+    /**
+     * As {@link #PaymentFilter(List, BigDecimal)}, restricted to the payments created in {@code [from, to)}.
+     *
+     * @param from the earliest creation time (inclusive), null for no lower bound
+     * @param to the latest creation time (exclusive), null for no upper bound
+     */
+    public PaymentFilter(List<String> currencies, BigDecimal minAmount, Instant from, Instant to) {
+        this.currencies = (currencies == null || currencies.isEmpty())
+                ? null
+                : currencies.stream().map(CurrencyCode::lookup).filter(Objects::nonNull).distinct().toList();
+        this.minAmount = minAmount;
+        this.from = from;
+        this.to = to;
+    }
+
+    /** Whether no filter is present, i.e. the query matches every payment. */
+    public boolean isEmpty() {
+        return currencies == null && minAmount == null && !isTimeBounded();
+    }
+
+    /** Whether the query is restricted to a creation time range. */
+    public boolean isTimeBounded() {
+        return from != null || to != null;
+    }
+}
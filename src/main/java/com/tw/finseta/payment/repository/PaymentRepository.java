@@ -3,25 +3,32 @@ package com.tw.finseta.payment.repository;
 import com.tw.finseta.payment.dao.PaymentDAO;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
-import org.springframework.data.repository.query.Param;
 
-import java.math.BigDecimal;
-import java.util.List;
+import java.time.Instant;
 
 /**
  * Spring Data repository interface for managing PaymentDAO entities.
  *
  * <p>Provides data access and query capabilities for payments, including
- * filtering by currency and amount criteria.</p>
+ * filtering by currency and amount criteria through {@link PaymentRepositoryCustom}.</p>
  *
  * @author Ranga Raju
  */
-public interface PaymentRepository extends JpaRepository<PaymentDAO, Long> {
+public interface PaymentRepository extends JpaRepository<PaymentDAO, Long>, PaymentRepositoryCustom {
 
-    @Query("SELECT p FROM PaymentDAO p WHERE " +
-            "(:currencies IS NULL OR p.currency IN :currencies) AND " +
-            "(:minAmount IS NULL OR p.amount >= :minAmount)")
-    List<PaymentDAO> findByCurrencyInAndAmountGreaterThanEqual(
-            @Param("currencies") List<String> currencies,
-            @Param("minAmount") BigDecimal minAmount);
-}
\ No newline at end of file
+    /**
+     * Highest ingestion journal sequence committed to the payments table.
+     *
+     * @return the sequence, or null if no journaled payment has been committed
+     */
+    @Query("select max(p.ingestSeq) from PaymentDAO p")
+    Long findMaxIngestSeq();
+
+    /**
+     * Creation time of the oldest payment in the payments table.
+     *
+     * @return the time, or null if the table is empty
+     */
+    @Query("select min(p.createdAt) from PaymentDAO p")
+    Instant findMinCreatedAt();
+}
@@ -0,0 +1,47 @@
+package com.tw.finseta.payment.repository;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Custom fragment of {@link PaymentRepository} for the dynamic filter queries.
+ *
+ * <p>Queries are built with the Criteria API so that only the predicates of the filters actually present
+ * are emitted, letting the database pick the matching index for each filter combination instead of
+ * planning a catch-all {@code (:param IS NULL OR ...)} query for the worst case.</p>
+ *
+ * @author Ranga Raju
+ */
+public interface PaymentRepositoryCustom {
+
+    /** JDBC fetch size used when streaming payments. */
+    int STREAM_FETCH_SIZE = 500;
+
+    /**
+     * Keyset page query: seeks past {@code afterId} on the primary key and reads at most {@code limit}
+     * matching rows in id order, so deep pages cost the same as the first one. The first page of a filtered
+     * query, {@code afterId} 0, has no seek, so the database can read it through the index of a filter. Each row
+     * carries its counterparty, read through the same join.
+     */
+    List<PaymentRow> findPage(PaymentFilter filter, long afterId, int limit);
+
+    /**
+     * Streams every matching payment in id order for bulk export. The counterparty is read through the
+     * same join and rows are pulled from the driver {@value #STREAM_FETCH_SIZE} at a time as projections,
+     * so the persistence context stays empty. Must be consumed inside a transaction and closed after use.
+     */
+    Stream<PaymentRow> stream(PaymentFilter filter);
+
+    /**
+     * Streams the payments created in {@code [from, to)} in id order, each carrying its creation time, for
+     * archiving. Same fetch size and transaction rules as {@link #stream(PaymentFilter)}.
+     */
+    Stream<PaymentRow> streamCreated(Instant from, Instant to);
+
+    /**
+     * Aggregates the matching payments per currency in one {@code GROUP BY} query, in currency code order.
+     * Currencies without matching payments are left out.
+     */
+    List<CurrencyTotals> summarize(PaymentFilter filter);
+}
@@ -0,0 +1,203 @@
+package com.tw.finseta.payment.repository;
+
+import com.tw.finseta.payment.dao.AccountDAO;
+import com.tw.finseta.payment.dao.PaymentDAO;
+import com.tw.finseta.payment.money.CurrencyCode;
+import com.tw.finseta.payment.money.Money;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.Tuple;
+import jakarta.persistence.criteria.CompoundSelection;
+import jakarta.persistence.criteria.CriteriaBuilder;
+import jakarta.persistence.criteria.CriteriaQuery;
+import jakarta.persistence.criteria.Join;
+import jakarta.persistence.criteria.Path;
+import jakarta.persistence.criteria.Predicate;
+import jakarta.persistence.criteria.Root;
+import org.hibernate.jpa.HibernateHints;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Criteria API implementation of {@link PaymentRepositoryCustom}, picked up by Spring Data as the
+ * {@code Impl} fragment of {@link PaymentRepository}.
+ *
+ * @author Ranga Raju
+ */
+public class PaymentRepositoryImpl implements PaymentRepositoryCustom {
+
+    static final String ID = "id";
+    static final String CURRENCY = "currency";
+    static final String AMOUNT = "amountMinor";
+    static final String CREATED_AT = "createdAt";
+    static final String COUNTERPARTY = "counterparty";
+    static final String TYPE = "type";
+    static final String ACCOUNT_NUMBER = "accountNumber";
+    static final String SORT_CODE = "sortCode";
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Override
+    public List<PaymentRow> findPage(PaymentFilter filter, long afterId, int limit) {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<PaymentRow> query = cb.createQuery(PaymentRow.class);
+        Root<PaymentDAO> payment = query.from(PaymentDAO.class);
+
+        List<Predicate> predicates = predicates(cb, payment, filter);
+        // Ids start above 0, a seek past 0 would only steer the planner away from the filter indexes
+        if (afterId > 0 || predicates.isEmpty()) {
+            predicates.add(cb.greaterThan(payment.get(ID), afterId));
+        }
+        query.select(projection(cb, payment))
+                .where(predicates.toArray(new Predicate[0]))
+                .orderBy(cb.asc(payment.get(ID)));
+
+        return entityManager.createQuery(query)
+                .setMaxResults(limit)
+                .getResultList();
+    }
+
+    @Override
+    public Stream<PaymentRow> stream(PaymentFilter filter) {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<PaymentRow> query = cb.createQuery(PaymentRow.class);
+        Root<PaymentDAO> payment = query.from(PaymentDAO.class);
+
+        query.select(projection(cb, payment))
+                .where(predicates(cb, payment, filter).toArray(new Predicate[0]))
+                .orderBy(cb.asc(payment.get(ID)));
+
+        return entityManager.createQuery(query)
+                .setHint(HibernateHints.HINT_FETCH_SIZE, STREAM_FETCH_SIZE)
+                .setHint(HibernateHints.HINT_CACHEABLE, false)
+                .getResultStream();
+    }
+
+    @Override
+    public Stream<PaymentRow> streamCreated(Instant from, Instant to) {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<PaymentRow> query = cb.createQuery(PaymentRow.class);
+        Root<PaymentDAO> payment = query.from(PaymentDAO.class);
+
+        Join<PaymentDAO, AccountDAO> counterparty = payment.join(COUNTERPARTY);
+        Path<Instant> createdAt = payment.get(CREATED_AT);
+        query.select(cb.construct(PaymentRow.class,
+                        payment.get(ID),
+                        payment.get(CURRENCY),
+                        payment.get(AMOUNT),
+                        counterparty.get(TYPE),
+                        counterparty.get(ACCOUNT_NUMBER),
+                        counterparty.get(SORT_CODE),
+                        createdAt))
+                .where(cb.greaterThanOrEqualTo(createdAt, from), cb.lessThan(createdAt, to))
+                .orderBy(cb.asc(payment.get(ID)));
+
+        return entityManager.createQuery(query)
+                .setHint(HibernateHints.HINT_FETCH_SIZE, STREAM_FETCH_SIZE)
+                .setHint(HibernateHints.HINT_CACHEABLE, false)
+                .getResultStream();
+    }
+
+    @Override
+    public List<CurrencyTotals> summarize(PaymentFilter filter) {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Tuple> query = cb.createTupleQuery();
+        Root<PaymentDAO> payment = query.from(PaymentDAO.class);
+
+        Path<CurrencyCode> currency = payment.get(CURRENCY);
+        Path<Long> amount = payment.get(AMOUNT);
+        // SUM of a BIGINT column is a NUMERIC and may be beyond a long, so it is read as a decimal
+        query.multiselect(currency, cb.count(payment), cb.toBigDecimal(cb.sum(amount)), cb.min(amount),
+                        cb.max(amount))
+                .where(predicates(cb, payment, filter).toArray(new Predicate[0]))
+                .groupBy(currency)
+                .orderBy(cb.asc(currency));
+
+        List<CurrencyTotals> totals = new ArrayList<>();
+        for (Tuple row : entityManager.createQuery(query).getResultList()) {
+            totals.add(new CurrencyTotals(row.get(0, CurrencyCode.class), row.get(1, Long.class),
+                    row.get(2, BigDecimal.class).toBigIntegerExact(), row.get(3, Long.class), row.get(4, Long.class)));
+        }
+        return totals;
+    }
+
+    /**
+     * Selects the payment and counterparty columns through one inner join into a {@link PaymentRow}
+     * constructor, so each row is read in the same round trip and never becomes a managed entity.
+     */
+    static CompoundSelection<PaymentRow> projection(CriteriaBuilder cb, Root<PaymentDAO> payment) {
+        Join<PaymentDAO, AccountDAO> counterparty = payment.join(COUNTERPARTY);
+        return cb.construct(PaymentRow.class,
+                payment.get(ID),
+                payment.get(CURRENCY),
+                payment.get(AMOUNT),
+                counterparty.get(TYPE),
+                counterparty.get(ACCOUNT_NUMBER),
+                counterparty.get(SORT_CODE));
+    }
+
+    /**
+     * Builds the predicates of the filters that are present, absent filters emit nothing. A creation time
+     * range is a range on the {@code created_at} index, so only the months it covers are read.
+     *
+     * <p>Amounts are stored in minor units, so {@code minAmount} becomes a per-currency threshold: a single
+     * range when every filtered currency shares one exponent, otherwise one exact threshold per exponent
+     * under the lowest of them as the indexable range.</p>
+     */
+    static List<Predicate> predicates(CriteriaBuilder cb, Root<PaymentDAO> payment, PaymentFilter filter) {
+        List<Predicate> predicates = new ArrayList<>(5);
+        Path<CurrencyCode> currency = payment.get(CURRENCY);
+        Path<Long> amount = payment.get(AMOUNT);
+        if (filter.getFrom() != null) {
+            predicates.add(cb.greaterThanOrEqualTo(payment.get(CREATED_AT), filter.getFrom()));
+        }
+        if (filter.getTo() != null) {
+            predicates.add(cb.lessThan(payment.get(CREATED_AT), filter.getTo()));
+        }
+        List<CurrencyCode> currencies = filter.getCurrencies();
+        if (currencies != null) {
+            predicates.add(currencies.isEmpty() ? cb.disjunction() : currency.in(currencies));
+        }
+        if (filter.getMinAmount() == null || (currencies != null && currencies.isEmpty())) {
+            return predicates;
+        }
+
+        Map<Integer, List<CurrencyCode>> byExponent = (currencies == null)
+                ? CurrencyCode.byExponent()
+                : currencies.stream().collect(Collectors.groupingBy(CurrencyCode::exponent));
+        if (byExponent.size() == 1) {
+            int exponent = byExponent.keySet().iterator().next();
+            predicates.add(cb.ge(amount, Money.ceilMinorUnits(filter.getMinAmount(), exponent)));
+            return predicates;
+        }
+
+        long lowest = Long.MAX_VALUE;
+        List<Predicate> perExponent = new ArrayList<>(byExponent.size());
+        for (Map.Entry<Integer, List<CurrencyCode>> group : byExponent.entrySet()) {
+            long threshold = Money.ceilMinorUnits(filter.getMinAmount(), group.getKey());
+            lowest = Math.min(lowest, threshold);
+            // Unfiltered, the large default exponent group is written as "none of the others"
+            Predicate inGroup = (currencies == null && group.getKey() == CurrencyCode.DEFAULT_EXPONENT)
+                    ? cb.not(currency.in(otherExponents(byExponent)))
+                    : currency.in(group.getValue());
+            perExponent.add(cb.and(inGroup, cb.ge(amount, threshold)));
+        }
+        predicates.add(cb.ge(amount, lowest));
+        predicates.add(cb.or(perExponent.toArray(new Predicate[0])));
+        return predicates;
+    }
+
+    private static List<CurrencyCode> otherExponents(Map<Integer, List<CurrencyCode>> byExponent) {
+        return byExponent.entrySet().stream()
+                .filter(group -> group.getKey() != CurrencyCode.DEFAULT_EXPONENT)
+                .flatMap(group -> group.getValue().stream())
+                .toList();
+    }
+}
@@ -0,0 +1,53 @@
+package com.tw.finseta.payment.repository;
+
+import com.tw.finseta.payment.dao.AccountType;
+import com.tw.finseta.payment.model.Account;
+import com.tw.finseta.payment.model.Payment;
+import com.tw.finseta.payment.money.CurrencyCode;
+import com.tw.finseta.payment.money.Money;
+import lombok.Getter;
+
+import java.time.Instant;
+
+/**
+ * Read-side projection of one payment row joined to its counterparty.
+ *
+ * <p>Instantiated by Hibernate straight from the result set columns, the API models are built here once so
+ * no managed entity, persistence context entry or mapper copy is created on the read path. The id is kept
+ * alongside the model for the keyset cursor, with the currency and minor units for the in-memory read model. The
+ * creation time is only read for archiving and is null otherwise.</p>
+ *
+ * @author Ranga Raju
+ */
+@Getter
+public class PaymentRow {
+
+    private final long id;
+    private final CurrencyCode currency;
+    private final long amountMinor;
+    private final Payment payment;
+    private final Instant createdAt;
+
+    public PaymentRow(long id, CurrencyCode currency, long amountMinor, Payment payment) {
+        this.id = id;
+        this.currency = currency;
+        this.amountMinor = amountMinor;
+        this.payment = payment;
+        this.createdAt = null;
+    }
+
+    public PaymentRow(Long id, CurrencyCode currency, Long amountMinor,
+                      AccountType type, String accountNumber, String sortCode) {
+        this(id, currency, amountMinor, type, accountNumber, sortCode, null);
+    }
+
+    public PaymentRow(Long id, CurrencyCode currency, Long amountMinor,
+                      AccountType type, String accountNumber, String sortCode, Instant createdAt) {
+        this.id = id;
+        this.currency = currency;
+        this.amountMinor = amountMinor;
+        this.createdAt = createdAt;
+        this.payment = new Payment(currency.toString(), Money.toDecimal(amountMinor, currency), new Account(
+                (type == null) ? null : Account.TypeEnum.fromValue(type.getValue()), accountNumber, sortCode));
+    }
+}
@@ -0,0 +1,215 @@
+package com.tw.finseta.payment.service;
+
+import com.tw.finseta.payment.cache.AccountIdCache;
+import com.tw.finseta.payment.dao.AccountDAO;
+import com.tw.finseta.payment.repository.AccountRepository;
+import com.tw.finseta.payment.shard.PaymentShards;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Resolves counterparty accounts to account ids, creating accounts that do not exist yet.
+ *
+ * <p>This is the insert-or-get path for the {@code accounts(accountNumber, sortCode)} unique constraint.
+ * Lookups go to the {@link AccountIdCache} first. On a miss, concurrent callers for the same counterparty
+ * are serialized on one of a fixed set of striped locks, so only the first one reads and inserts the
+ * account while the others find it in the cache once they get the lock; unrelated counterparties
+ * almost always take different stripes and proceed in parallel. Accounts are inserted in their own short
+ * transaction, and an insert that still loses a race, for instance against a batch or another node,
+ * falls back to reading the account committed by the winner.</p>
+ *
+ * <p>Every method commits its own transaction, so callers should not hold one open while calling in;
+ * doing so would take a second pooled connection per caller. Accounts are resolved in the payment shard
+ * selected on the calling thread, see {@link PaymentShards}, each shard keeps its own copy of the
+ * counterparties of its payments.</p>
+ *
+ * @author Ranga Raju
+ */
+@Component
+public class CounterpartyResolver {
+
+    private static final Logger logger = LogManager.getLogger(CounterpartyResolver.class);
+
+    private final AccountRepository accountRepository;
+    private final AccountIdCache accountIdCache;
+    private final TransactionTemplate requiresNewTransaction;
+    private final ReentrantLock[] stripes;
+
+    /**
+     * Constructs a CounterpartyResolver.
+     *
+     * @param accountRepository the account repository to be used
+     * @param accountIdCache the cache of counterparty account ids
+     * @param transactionManager the transaction manager used for the account transactions
+     * @param lockStripes the number of striped locks, rounded up to a power of two
+     */
+    @Autowired
+    public CounterpartyResolver(AccountRepository accountRepository, AccountIdCache accountIdCache,
+                                PlatformTransactionManager transactionManager,
+                                @Value("${payment.counterparty.lock-stripes:256}") int lockStripes) {
+        this.accountRepository = accountRepository;
+        this.accountIdCache = accountIdCache;
+        this.requiresNewTransaction = new TransactionTemplate(transactionManager);
+        this.requiresNewTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        int size = Integer.highestOneBit(Math.max(1, lockStripes - 1)) << 1;
+        this.stripes = new ReentrantLock[size];
+        for (int i = 0; i < size; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * Returns the id of the account for the counterparty, inserting the account if it does not exist.
+     *
+     * @param counterparty the counterparty, only its type, account number and sort code are used
+     * @return the id of the committed account
+     */
+    public long resolveAccountId(AccountDAO counterparty) {
+        long cacheKey = cacheKey(counterparty);
+        Long accountId = accountIdCache.get(cacheKey);
+        if (accountId != null) {
+            return accountId;
+        }
+
+        ReentrantLock lock = stripeFor(cacheKey, counterparty);
+        lock.lock();
+        try {
+            // A caller we waited on may have resolved the same counterparty already
+            accountId = accountIdCache.get(cacheKey);
+            if (accountId == null) {
+                accountId = findOrInsert(counterparty);
+                accountIdCache.put(cacheKey, accountId);
+            }
+            return accountId;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the account ids of many counterparties at once. Cached ids are used where possible, the
+     * remaining counterparties are read with a single IN query and the ones still missing are inserted
+     * together with JDBC batching. If that insert loses a race the missing ones are resolved one by one
+     * through {@link #resolveAccountId(AccountDAO)}.
+     *
+     * @param counterparties the counterparties, possibly repeated
+     * @return the account id of each distinct counterparty keyed by {@link #accountKey(AccountDAO)}
+     */
+    public Map<String, Long> resolveAccountIds(Collection<AccountDAO> counterparties) {
+        Map<String, AccountDAO> distinct = new LinkedHashMap<>();
+        for (AccountDAO counterparty : counterparties) {
+            distinct.putIfAbsent(accountKey(counterparty), counterparty);
+        }
+
+        Map<String, Long> resolved = new HashMap<>(distinct.size() * 2);
+        Set<String> accountNumbers = new HashSet<>();
+        Set<String> sortCodes = new HashSet<>();
+        distinct.forEach((key, counterparty) -> {
+            Long accountId = accountIdCache.get(cacheKey(counterparty));
+            if (accountId != null) {
+                resolved.put(key, accountId);
+            } else {
+                accountNumbers.add(counterparty.getAccountNumber());
+                sortCodes.add(counterparty.getSortCode());
+            }
+        });
+        if (accountNumbers.isEmpty()) {
+            return resolved;
+        }
+
+        List<AccountDAO> candidates = requiresNewTransaction.execute(status ->
+                accountRepository.findByAccountNumberInAndSortCodeIn(accountNumbers, sortCodes));
+        for (AccountDAO existing : candidates) {
+            String key = accountKey(existing);
+            if (distinct.containsKey(key) && !resolved.containsKey(key)) {
+                resolve(resolved, key, existing);
+            }
+        }
+
+        List<AccountDAO> newAccounts = new ArrayList<>();
+        distinct.forEach((key, counterparty) -> {
+            if (!resolved.containsKey(key)) {
+                newAccounts.add(newAccount(counterparty));
+            }
+        });
+        if (newAccounts.isEmpty()) {
+            return resolved;
+        }
+        try {
+            requiresNewTransaction.executeWithoutResult(status -> accountRepository.saveAllAndFlush(newAccounts));
+            for (AccountDAO account : newAccounts) {
+                resolve(resolved, accountKey(account), account);
+            }
+        } catch (DataIntegrityViolationException ex) {
+            logger.info("Batch account insert lost a race, resolving {} accounts one by one", newAccounts.size());
+            for (AccountDAO account : newAccounts) {
+                resolved.put(accountKey(account), resolveAccountId(account));
+            }
+        }
+        return resolved;
+    }
+
+    /**
+     * Key identifying a counterparty within one call, both parts are fixed length once validated so
+     * plain concatenation is unambiguous.
+     */
+    public static String accountKey(AccountDAO account) {
+        return account.getSortCode() + account.getAccountNumber();
+    }
+
+    private void resolve(Map<String, Long> resolved, String key, AccountDAO account) {
+        resolved.put(key, account.getId());
+        accountIdCache.put(cacheKey(account), account.getId());
+    }
+
+    private static long cacheKey(AccountDAO account) {
+        Integer shard = PaymentShards.current();
+        return AccountIdCache.key((shard == null) ? 0 : shard, account.getSortCode(), account.getAccountNumber());
+    }
+
+    private long findOrInsert(AccountDAO counterparty) {
+        try {
+            return requiresNewTransaction.execute(status -> accountRepository
+                    .findByAccountNumberAndSortCode(counterparty.getAccountNumber(), counterparty.getSortCode())
+                    .orElseGet(() -> accountRepository.saveAndFlush(newAccount(counterparty)))
+                    .getId());
+        } catch (DataIntegrityViolationException ex) {
+            // Lost the insert race to a caller outside this lock, its account is committed by now
+            logger.info("Account insert lost a race, reading the committed account");
+            return requiresNewTransaction.execute(status -> accountRepository
+                    .findByAccountNumberAndSortCode(counterparty.getAccountNumber(), counterparty.getSortCode())
+                    .orElseThrow(() -> ex)
+                    .getId());
+        }
+    }
+
+    // Always insert a fresh instance, the caller's entity must not pick up the id of a rolled back insert
+    private static AccountDAO newAccount(AccountDAO counterparty) {
+        return new AccountDAO(null, counterparty.getType(), counterparty.getAccountNumber(), counterparty.getSortCode());
+    }
+
+    private ReentrantLock stripeFor(long cacheKey, AccountDAO counterparty) {
+        int hash = (cacheKey != AccountIdCache.NOT_CACHEABLE)
+                ? Long.hashCode(cacheKey)
+                : accountKey(counterparty).hashCode();
+        hash ^= (hash >>> 16);
+        return stripes[hash & (stripes.length - 1)];
+    }
+}
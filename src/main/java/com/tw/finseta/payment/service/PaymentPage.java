@@ -0,0 +1,24 @@
+package com.tw.finseta.payment.service;
+
+import com.tw.finseta.payment.model.Payment;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.util.List;
+
+/**
+ * One page of payments returned by a keyset query.
+ *
+ * <p>{@code nextCursor} is null when the page is the last one.</p>
+ *
+ * @author Ranga Raju
+ */
+@Getter
+@AllArgsConstructor
+@ToString
+public class PaymentPage {
+
+    private final List<Payment> payments;
+    private final String nextCursor;
+}
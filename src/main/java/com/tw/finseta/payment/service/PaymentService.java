@@ -1,9 +1,14 @@
 package com.tw.finseta.payment.service;
 
+import com.tw.finseta.payment.dao.PaymentDAO;
+import com.tw.finseta.payment.model.CurrencySummary;
 import com.tw.finseta.payment.model.Payment;
+import com.tw.finseta.payment.model.PaymentBatchResult;
 
 import java.math.BigDecimal;
+import java.time.Instant;
 import java.util.List;
+import java.util.function.Consumer;
 
 /**
  * Service abstraction (interface) for payment business operations.
@@ -13,6 +18,17 @@ import java.util.List;
  * @author Ranga Raju.
  */
 public interface PaymentService {
+
+    /** The most payments saved by one batch request. */
+    int MAX_BATCH_SIZE = 1000;
+
     Payment savePayment(Payment payment);
-    List<Payment> getPaymentsByFilters(List<String> currencies, BigDecimal minAmount);
+    Payment savePayment(Payment payment, String idempotencyKey, long requestHash);
+    PaymentBatchResult savePayments(List<Payment> payments);
+    void saveIngested(List<PaymentDAO> payments);
+    PaymentPage getPaymentsByFilters(List<String> currencies, BigDecimal minAmount, Instant from, Instant to,
+                                     Integer limit, String cursor);
+    long streamPaymentsByFilters(List<String> currencies, BigDecimal minAmount, Instant from, Instant to,
+                                 Consumer<Payment> sink);
+    List<CurrencySummary> getPaymentSummary(BigDecimal minAmount);
 }
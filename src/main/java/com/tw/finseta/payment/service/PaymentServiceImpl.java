@@ -1,25 +1,58 @@
 package com.tw.finseta.payment.service;
 
-import com.tw.finseta.payment.dao.AccountDAO;
+import com.tw.finseta.payment.archive.PaymentArchive;
+import com.tw.finseta.payment.dao.IdempotencyKeyDAO;
 import com.tw.finseta.payment.dao.PaymentDAO;
+import com.tw.finseta.payment.exception.ValidationException;
+import com.tw.finseta.payment.logging.AccountMasking;
+import com.tw.finseta.payment.model.CurrencySummary;
+import com.tw.finseta.payment.model.Error;
 import com.tw.finseta.payment.model.Payment;
+import com.tw.finseta.payment.model.PaymentBatchItem;
+import com.tw.finseta.payment.model.PaymentBatchResult;
+import com.tw.finseta.payment.readmodel.PaymentReadModel;
+import com.tw.finseta.payment.readmodel.PaymentTotals;
 import com.tw.finseta.payment.repository.AccountRepository;
+import com.tw.finseta.payment.repository.IdempotencyKeyRepository;
+import com.tw.finseta.payment.repository.CurrencyTotals;
+import com.tw.finseta.payment.repository.PaymentFilter;
 import com.tw.finseta.payment.repository.PaymentRepository;
+import com.tw.finseta.payment.repository.PaymentRow;
+import com.tw.finseta.payment.shard.PaymentShards;
+import com.tw.finseta.payment.util.PaymentCursor;
 import com.tw.finseta.payment.util.PaymentMapper;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.RequiredArgsConstructor;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Optional;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 /**
  * Service implementation for handling payment operations.
  * This class provides methods to save payments and retrieve payments based on filters.
  * It performs validation on payments before saving and prevents duplicate account entries.
+ * With several {@link PaymentShards} each payment is saved in the shard of its currency or counterparty, and
+ * reads run on every shard that may hold a match in parallel, merged back into one id ordered result.
  *
  * @author Ranga Raju.
  */
@@ -29,27 +62,104 @@ public class PaymentServiceImpl implements PaymentService {
 
     private static final Logger logger = LogManager.getLogger(PaymentServiceImpl.class);
 
+    static final int DEFAULT_PAGE_SIZE = 100;
+    static final int MAX_PAGE_SIZE = 1000;
+    static final int STREAM_PAGE_SIZE = 1000;
+
+    static final String SAVE_PHASE_METRIC = "payment.save.phase";
+    static final String QUERY_RESULTS_METRIC = "payment.query.results";
+
     private PaymentRepository paymentRepository;
     private AccountRepository accountRepository;
+    private IdempotencyKeyRepository idempotencyKeyRepository;
     private PaymentMapper paymentMapper;
+    private CounterpartyResolver counterpartyResolver;
+    private TransactionTemplate transactionTemplate;
+    private TransactionTemplate readOnlyTransaction;
+    private ApplicationEventPublisher eventPublisher;
+    private PaymentReadModel readModel;
+    private PaymentTotals paymentTotals;
+    private PaymentArchive archive;
+    private PaymentShards shards;
+
+    private Timer mappingTimer;
+    private Timer accountLookupTimer;
+    private Timer insertTimer;
+    private Timer batchMappingTimer;
+    private Timer batchAccountLookupTimer;
+    private Timer batchInsertTimer;
+    private DistributionSummary databaseResults;
+    private DistributionSummary readModelResults;
 
     /**
      * Constructs a PaymentServiceImpl with the required repositories.
      *
      * @param paymentRepository the payment repository to be used
      * @param accountRepository the account repository to be used
+     * @param idempotencyKeyRepository the repository of the idempotency keys recorded with their payments
+     * @param paymentMapper the mapper between API models and entities
+     * @param counterpartyResolver the insert-or-get path for counterparty accounts
+     * @param transactionTemplate the template used for the payment insert transactions
+     * @param eventPublisher publishes the saved payments to commit-bound listeners
+     * @param readModel the in-memory read model, available when {@code payment.read-model.enabled} is set
+     * @param paymentTotals the running per-currency totals
+     * @param archive the archived payments, available when {@code payment.archive.enabled} is set
+     * @param shards routes each payment to its shard and reads the shards in parallel
+     * @param meterRegistry the registry of the save phase timers and query result sizes
      */
     @Autowired
     public PaymentServiceImpl(PaymentRepository paymentRepository,
-                              AccountRepository accountRepository, PaymentMapper paymentMapper) {
+                              AccountRepository accountRepository,
+                              IdempotencyKeyRepository idempotencyKeyRepository, PaymentMapper paymentMapper,
+                              CounterpartyResolver counterpartyResolver, TransactionTemplate transactionTemplate,
+                              ApplicationEventPublisher eventPublisher, ObjectProvider<PaymentReadModel> readModel,
+                              PaymentTotals paymentTotals, ObjectProvider<PaymentArchive> archive,
+                              PaymentShards shards, MeterRegistry meterRegistry) {
         this.paymentRepository = paymentRepository;
         this.accountRepository = accountRepository;
+        this.idempotencyKeyRepository = idempotencyKeyRepository;
         this.paymentMapper = paymentMapper;
+        this.counterpartyResolver = counterpartyResolver;
+        this.transactionTemplate = transactionTemplate;
+        this.readOnlyTransaction = new TransactionTemplate(transactionTemplate.getTransactionManager());
+        this.readOnlyTransaction.setReadOnly(true);
+        this.eventPublisher = eventPublisher;
+        this.readModel = readModel.getIfAvailable();
+        this.paymentTotals = paymentTotals;
+        this.archive = archive.getIfAvailable();
+        this.shards = shards;
+        this.mappingTimer = phaseTimer(meterRegistry, "single", "mapping");
+        this.accountLookupTimer = phaseTimer(meterRegistry, "single", "account_lookup");
+        this.insertTimer = phaseTimer(meterRegistry, "single", "insert");
+        this.batchMappingTimer = phaseTimer(meterRegistry, "batch", "mapping");
+        this.batchAccountLookupTimer = phaseTimer(meterRegistry, "batch", "account_lookup");
+        this.batchInsertTimer = phaseTimer(meterRegistry, "batch", "insert");
+        this.databaseResults = resultsSummary(meterRegistry, "database");
+        this.readModelResults = resultsSummary(meterRegistry, "read_model");
+    }
+
+    private static Timer phaseTimer(MeterRegistry meterRegistry, String operation, String phase) {
+        return Timer.builder(SAVE_PHASE_METRIC)
+                .description("Time spent in each phase of saving payments")
+                .tag("operation", operation)
+                .tag("phase", phase)
+                .register(meterRegistry);
+    }
+
+    private static DistributionSummary resultsSummary(MeterRegistry meterRegistry, String source) {
+        return DistributionSummary.builder(QUERY_RESULTS_METRIC)
+                .description("Payments returned per filtered page")
+                .baseUnit("payments")
+                .tag("source", source)
+                .register(meterRegistry);
     }
 
     /**
      * Saves a payment after validation and checks for existing counterparty accounts.
      * If an account with the given account number and sort code exists, the existing account is used to avoid duplicates.
+     * The counterparty is resolved, or created, by the {@link CounterpartyResolver} before the payment transaction
+     * starts and is then attached by reference, so concurrent first payments for the same counterparty never
+     * collide on the accounts unique constraint. Both steps run in the payment's shard.
      *
      * @param payment the Payment object to be saved
      * @return the saved Payment object with any updates applied
@@ -57,36 +167,459 @@ public class PaymentServiceImpl implements PaymentService {
      */
     @Override
     public Payment savePayment(Payment payment) {
+        return savePayment(payment, null, 0);
+    }
+
+    /**
+     * Saves a payment as {@link #savePayment(Payment)} and records its idempotency key in the same transaction,
+     * so the payment and its key are committed together or not at all.
+     *
+     * @param payment the Payment object to be saved
+     * @param idempotencyKey the client's key of the payment, null for none
+     * @param requestHash the fingerprint of the request recorded with the key
+     * @return the saved Payment object with any updates applied
+     * @throws org.springframework.dao.DataIntegrityViolationException if the key is already recorded
+     */
+    @Override
+    public Payment savePayment(Payment payment, String idempotencyKey, long requestHash) {
+        long start = System.nanoTime();
         PaymentDAO paymentDAO = paymentMapper.toDAO(payment);
+        // Stored values equal the incoming ones, map the response now so the account reference is never loaded
+        Payment savedPayment = paymentMapper.toModel(paymentDAO);
+        start = record(mappingTimer, start);
 
         // Proceed with saving paymentDAO if account already exists fetch existing one - accountNumber, sortCode unique
-        if (paymentDAO.getCounterparty() != null) {
-            AccountDAO incomingAccount = paymentDAO.getCounterparty();
-            // Lookup existing account by accountNumber and sortCode
-            Optional<AccountDAO> existingAccountOpt = accountRepository.findByAccountNumberAndSortCode(
-                    incomingAccount.getAccountNumber(), incomingAccount.getSortCode());
-            // Use existing account to avoid duplicates
-            existingAccountOpt.ifPresent(paymentDAO::setCounterparty);
+        int shard = shards.shardOf(paymentDAO);
+        Long accountId = (paymentDAO.getCounterparty() == null)
+                ? null
+                : shards.on(shard, () -> counterpartyResolver.resolveAccountId(paymentDAO.getCounterparty()));
+        start = record(accountLookupTimer, start);
+
+        PaymentDAO savedPaymentDAO = shards.on(shard, () -> transactionTemplate.execute(status -> {
+            if (accountId != null) {
+                paymentDAO.setCounterparty(accountRepository.getReferenceById(accountId));
+            }
+            PaymentDAO saved = paymentRepository.save(paymentDAO);
+            if (idempotencyKey != null) {
+                // Flushed here, so a key recorded meanwhile fails this save rather than its commit
+                idempotencyKeyRepository.saveAndFlush(
+                        new IdempotencyKeyDAO(idempotencyKey, requestHash, saved, saved.getCreatedAt()));
+            }
+            eventPublisher.publishEvent(new PaymentsSavedEvent(List.of(
+                    new PaymentRow(saved.getId(), saved.getCurrency(), saved.getAmountMinor(), savedPayment))));
+            return saved;
+        }));
+        record(insertTimer, start);
+        // Log ids rather than the entity graph, printing the account reference would load it. The request itself
+        // is logged by the request log, this is for tracing
+        logger.debug("Saved paymentDAO: id: {} + currency: {} + amount: {} + counterparty id: {}",
+                savedPaymentDAO.getId(), savedPaymentDAO.getCurrency(), savedPayment.getAmount(), accountId);
+        return savedPayment;
+    }
+
+    /**
+     * Saves a batch of already validated payments. All distinct counterparties are resolved, or created, by the
+     * {@link CounterpartyResolver} with one query and one batched insert, then the payments are inserted in a
+     * single transaction with JDBC batching. Payments of different shards are saved in parallel, one transaction
+     * per shard, so a failure in one shard does not undo the payments already committed in another: the
+     * payments of a failed shard are reported {@code FAILED} with an error, and can be sent again on their own.
+     *
+     * @param payments the payments to save, between 1 and {@value #MAX_BATCH_SIZE} of them
+     * @return the outcome of each payment in request order
+     * @throws ValidationException if the batch is empty or too large, or an amount does not fit its currency
+     * @throws RuntimeException the failure of the first shard if no payment could be saved
+     */
+    @Override
+    public PaymentBatchResult savePayments(List<Payment> payments) {
+        if (payments == null || payments.isEmpty() || payments.size() > MAX_BATCH_SIZE) {
+            throw new ValidationException(List.of(
+                    new Error().message("payments : size must be between 1 and " + MAX_BATCH_SIZE)));
+        }
+
+        long start = System.nanoTime();
+        List<PaymentDAO> liPaymentDAO = new ArrayList<>(payments.size());
+        List<PaymentBatchItem> items = new ArrayList<>(payments.size());
+        List<Error> errors = new ArrayList<>();
+        for (int i = 0; i < payments.size(); i++) {
+            try {
+                PaymentDAO paymentDAO = paymentMapper.toDAO(payments.get(i));
+                items.add(new PaymentBatchItem(i, PaymentBatchItem.StatusEnum.CREATED)
+                        .payment(paymentMapper.toModel(paymentDAO)));
+                liPaymentDAO.add(paymentDAO);
+            } catch (ValidationException e) {
+                // Same "payment[i].field : message" form as the bean validation errors of the batch
+                int index = i;
+                e.getErrors().forEach(error -> errors.add(new Error().message("payment[" + index + "]." + error.getMessage())));
+            }
+        }
+        if (!errors.isEmpty()) {
+            throw new ValidationException(errors);
+        }
+
+        start = record(batchMappingTimer, start);
+
+        List<Payment> savedPayments = items.stream().map(PaymentBatchItem::getPayment).toList();
+        int counterparties = 0;
+        int failed = 0;
+        for (ShardOutcome outcome : insertBatch(liPaymentDAO, savedPayments, start)) {
+            counterparties += outcome.counterparties();
+            if (outcome.failure() != null) {
+                for (int index : outcome.indexes()) {
+                    items.get(index).status(PaymentBatchItem.StatusEnum.FAILED).error(new Error().message(
+                            "payment[" + index + "] : not saved, its shard failed; it can be sent again"));
+                }
+                failed += outcome.indexes().size();
+            }
         }
 
-        logger.info("Saving paymentDAO: {}", paymentDAO);
-        return paymentMapper.toModel(paymentRepository.save(paymentDAO));
+        if (logger.isDebugEnabled()) {
+            logger.debug("Saved payment batch: {} payments, {} failed, {} counterparties",
+                    items.size(), failed, counterparties);
+        }
+        return new PaymentBatchResult().created(items.size() - failed).failed(failed).items(items);
     }
 
     /**
-     * Retrieves a list of payments filtered by currencies and minimum amount.
+     * Saves payments replayed from the ingestion journal. They were validated when they were accepted, so they
+     * go straight to the batch path: one counterparty lookup and one transaction for the whole list.
+     *
+     * @param payments the journaled payments, each carrying its journal sequence
+     */
+    @Override
+    public void saveIngested(List<PaymentDAO> payments) {
+        if (payments.isEmpty()) {
+            return;
+        }
+        long start = System.nanoTime();
+        int counterparties = 0;
+        // The journal runs on a single shard, a failure is never partial
+        for (ShardOutcome outcome : insertBatch(payments, paymentMapper.toModelList(payments), start)) {
+            if (outcome.failure() != null) {
+                throw outcome.failure();
+            }
+            counterparties += outcome.counterparties();
+        }
+        logger.info("Saved journaled payments: {} payments up to sequence {}, {} counterparties",
+                payments.size(), payments.get(payments.size() - 1).getIngestSeq(), counterparties);
+    }
+
+    // The payments of one shard's transaction, by their index in the batch, and how it ended
+    private record ShardOutcome(List<Integer> indexes, int counterparties, RuntimeException failure) {
+    }
+
+    // Splits the payments by shard and inserts each part in its shard. A shard that fails does not undo the
+    // others, so its failure is returned with its payments rather than thrown, unless every shard failed and
+    // nothing was saved
+    private List<ShardOutcome> insertBatch(List<PaymentDAO> liPaymentDAO, List<Payment> savedPayments, long start) {
+        if (!shards.isSharded()) {
+            int counterparties = insertShardBatch(liPaymentDAO, savedPayments, start);
+            return List.of(new ShardOutcome(List.of(), counterparties, null));
+        }
+        Map<Integer, List<Integer>> byShard = new TreeMap<>();
+        for (int i = 0; i < liPaymentDAO.size(); i++) {
+            byShard.computeIfAbsent(shards.shardOf(liPaymentDAO.get(i)), shard -> new ArrayList<>()).add(i);
+        }
+        int[] targets = byShard.keySet().stream().mapToInt(Integer::intValue).toArray();
+        List<ShardOutcome> outcomes = shards.scatter(targets, shard -> {
+            List<Integer> indexes = byShard.get(shard);
+            try {
+                return new ShardOutcome(indexes, insertShardBatch(indexes.stream().map(liPaymentDAO::get).toList(),
+                        indexes.stream().map(savedPayments::get).toList(), start), null);
+            } catch (RuntimeException e) {
+                logger.error(AccountMasking.MASKED, "Failed to save {} payments of a batch on shard {}",
+                        indexes.size(), shard, e);
+                return new ShardOutcome(indexes, 0, e);
+            }
+        });
+        if (outcomes.stream().allMatch(outcome -> outcome.failure() != null)) {
+            RuntimeException failure = outcomes.get(0).failure();
+            outcomes.stream().skip(1).forEach(outcome -> failure.addSuppressed(outcome.failure()));
+            throw failure;
+        }
+        return outcomes;
+    }
+
+    // Resolves the counterparties, then inserts the payments and publishes them in one transaction.
+    // Returns the number of distinct counterparties
+    private int insertShardBatch(List<PaymentDAO> liPaymentDAO, List<Payment> savedPayments, long start) {
+        Map<String, Long> accountIds = counterpartyResolver.resolveAccountIds(liPaymentDAO.stream()
+                .map(PaymentDAO::getCounterparty)
+                .toList());
+        start = record(batchAccountLookupTimer, start);
+
+        transactionTemplate.executeWithoutResult(status -> {
+            for (PaymentDAO paymentDAO : liPaymentDAO) {
+                Long accountId = accountIds.get(CounterpartyResolver.accountKey(paymentDAO.getCounterparty()));
+                paymentDAO.setCounterparty(accountRepository.getReferenceById(accountId));
+            }
+            paymentRepository.saveAll(liPaymentDAO);
+
+            List<PaymentRow> rows = new ArrayList<>(liPaymentDAO.size());
+            for (int i = 0; i < liPaymentDAO.size(); i++) {
+                PaymentDAO paymentDAO = liPaymentDAO.get(i);
+                rows.add(new PaymentRow(paymentDAO.getId(), paymentDAO.getCurrency(), paymentDAO.getAmountMinor(),
+                        savedPayments.get(i)));
+            }
+            eventPublisher.publishEvent(new PaymentsSavedEvent(rows));
+        });
+        record(batchInsertTimer, start);
+        return accountIds.size();
+    }
+
+    /**
+     * Retrieves one page of payments filtered by currencies, minimum amount and creation time, in ascending id order.
      * If the currency list is empty or null, no filtering by currency is applied.
+     * The page is read with a keyset seek past the cursor, so its cost does not grow with page depth. Archived
+     * payments are merged in from the {@link PaymentArchive}, which skips the files the filter excludes. With
+     * several shards the page is read from each shard the currencies can be in, in parallel, and the pages are
+     * merged by id, so the read takes about as long as the slowest shard.
      *
      * @param currencies the list of currency codes to filter by, can be null or empty
      * @param minAmount the minimum payment amount to filter payments
-     * @return a list of payments matching the filter criteria
+     * @param from the earliest creation time (inclusive), can be null
+     * @param to the latest creation time (exclusive), can be null
+     * @param limit the maximum number of payments in the page, defaults to {@value #DEFAULT_PAGE_SIZE}
+     * @param cursor the cursor returned with the previous page, null for the first page
+     * @return the page of payments matching the filter criteria and the cursor of the next page
+     * @throws ValidationException if the limit is out of range or the cursor is invalid
      */
     @Override
-    public List<Payment> getPaymentsByFilters(List<String> currencies, BigDecimal minAmount) {
-        // If currencies list is empty, pass null to query for no filtering on currencies
-        List<PaymentDAO> liPaymentDAO = paymentRepository.findByCurrencyInAndAmountGreaterThanEqual(
-                (currencies == null || currencies.isEmpty()) ? null : currencies,
-                minAmount);
-        return paymentMapper.toModelList(liPaymentDAO);
+    public PaymentPage getPaymentsByFilters(List<String> currencies, BigDecimal minAmount, Instant from, Instant to,
+                                           Integer limit, String cursor) {
+        int pageSize = (limit == null) ? DEFAULT_PAGE_SIZE : limit;
+        if (pageSize < 1 || pageSize > MAX_PAGE_SIZE) {
+            throw new ValidationException(List.of(
+                    new Error().message("limit : must be between 1 and " + MAX_PAGE_SIZE)));
+        }
+        long afterId = PaymentCursor.decode(cursor);
+
+        // Read one extra row to learn whether a next page exists without a count query
+        // If currencies list is empty, no predicate is emitted for currencies
+        // Filtered queries are answered from memory when the read model is enabled, the read model has no
+        // creation times so time ranges always go to the database
+        PaymentFilter filter = new PaymentFilter(currencies, minAmount, from, to);
+        boolean fromReadModel = readModel != null && !filter.isEmpty() && !filter.isTimeBounded();
+        List<PaymentRow> rows = fromReadModel
+                ? readModel.findPage(filter, afterId, pageSize + 1)
+                : findPage(filter, afterId, pageSize + 1);
+        if (archive != null) {
+            rows = take(mergeById(List.of(archive.findPage(filter, afterId, pageSize + 1).iterator(), rows.iterator())),
+                    pageSize + 1);
+        }
+
+        String nextCursor = null;
+        int size = Math.min(rows.size(), pageSize);
+        if (rows.size() > pageSize) {
+            nextCursor = PaymentCursor.encode(rows.get(pageSize - 1).getId());
+        }
+        // Rows are projected straight into the API models, there is nothing left to map
+        List<Payment> payments = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            payments.add(rows.get(i).getPayment());
+        }
+        (fromReadModel ? readModelResults : databaseResults).record(size);
+        return new PaymentPage(payments, nextCursor);
+    }
+
+    /**
+     * Streams every payment matching the filters to the sink in ascending id order without materializing
+     * the result set. Each row is projected and handed to the sink as soon as it is read and nothing enters
+     * the persistence context, so the heap stays flat however many rows are read. Archived payments are
+     * merged in one row group at a time. With several shards each shard is read in keyset pages of
+     * {@value #STREAM_PAGE_SIZE} payments, each in its own short transaction, merged by id.
+     *
+     * @param currencies the list of currency codes to filter by, can be null or empty
+     * @param minAmount the minimum payment amount to filter payments
+     * @param from the earliest creation time (inclusive), can be null
+     * @param to the latest creation time (exclusive), can be null
+     * @param sink receives each matching payment in turn
+     * @return the number of payments written to the sink
+     */
+    @Override
+    public long streamPaymentsByFilters(List<String> currencies, BigDecimal minAmount, Instant from, Instant to,
+                                        Consumer<Payment> sink) {
+        PaymentFilter filter = new PaymentFilter(currencies, minAmount, from, to);
+        List<Iterator<PaymentRow>> sources = new ArrayList<>();
+        if (archive != null) {
+            sources.add(archive.iterator(filter, 0L));
+        }
+        if (!shards.isSharded()) {
+            return readOnlyTransaction.execute(status -> {
+                try (Stream<PaymentRow> stream = paymentRepository.stream(filter)) {
+                    sources.add(stream.iterator());
+                    return drain(mergeById(sources), sink);
+                }
+            });
+        }
+        int[] targets = shards.shardsFor(filter);
+        List<List<PaymentRow>> firstPages = shards.scatter(targets,
+                shard -> paymentRepository.findPage(filter, 0L, STREAM_PAGE_SIZE));
+        for (int i = 0; i < targets.length; i++) {
+            sources.add(new ShardPages(targets[i], filter, firstPages.get(i)));
+        }
+        return drain(mergeById(sources), sink);
+    }
+
+    private static long drain(Iterator<PaymentRow> iterator, Consumer<Payment> sink) {
+        long count = 0;
+        while (iterator.hasNext()) {
+            sink.accept(iterator.next().getPayment());
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Summarizes the payments of each currency. Without a threshold the running {@link PaymentTotals} are read,
+     * one entry per currency; a {@code minAmount} threshold is applied by an aggregate query over the
+     * currency and amount index instead, on every shard in parallel, and by the archive's summaries for the
+     * archived payments.
+     *
+     * @param minAmount the minimum payment amount to include, can be null
+     * @return the count, sum, minimum and maximum per currency with payments, in currency code order
+     */
+    @Override
+    public List<CurrencySummary> getPaymentSummary(BigDecimal minAmount) {
+        List<CurrencyTotals> totals;
+        if (minAmount == null) {
+            totals = paymentTotals.snapshot();
+        } else {
+            PaymentFilter filter = new PaymentFilter(null, minAmount);
+            totals = (archive == null) ? List.of() : archive.summarize(filter);
+            for (List<CurrencyTotals> shardTotals
+                    : shards.scatter(shards.shardsFor(filter), shard -> paymentRepository.summarize(filter))) {
+                totals = CurrencyTotals.merge(totals, shardTotals);
+            }
+        }
+        return totals.stream().map(paymentMapper::toModel).toList();
+    }
+
+    // One page from every shard the filter may match, read in parallel and merged by id
+    private List<PaymentRow> findPage(PaymentFilter filter, long afterId, int limit) {
+        if (!shards.isSharded()) {
+            return paymentRepository.findPage(filter, afterId, limit);
+        }
+        List<Iterator<PaymentRow>> pages = new ArrayList<>();
+        for (List<PaymentRow> page
+                : shards.scatter(shards.shardsFor(filter), shard -> paymentRepository.findPage(filter, afterId, limit))) {
+            pages.add(page.iterator());
+        }
+        return take(mergeById(pages), limit);
+    }
+
+    // Merges id ordered sequences of rows, a k-way merge on the smallest next id. Ids are unique across shards,
+    // but a payment being archived is in the archive and its shard until its rows are deleted, only one copy is
+    // kept
+    private static Iterator<PaymentRow> mergeById(List<Iterator<PaymentRow>> sources) {
+        if (sources.size() == 1) {
+            return sources.get(0);
+        }
+        PriorityQueue<Source> heads = new PriorityQueue<>(Math.max(1, sources.size()),
+                Comparator.comparingLong(Source::id));
+        for (Iterator<PaymentRow> iterator : sources) {
+            if (iterator.hasNext()) {
+                heads.add(new Source(iterator));
+            }
+        }
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return !heads.isEmpty();
+            }
+
+            @Override
+            public PaymentRow next() {
+                if (heads.isEmpty()) {
+                    throw new NoSuchElementException();
+                }
+                PaymentRow row = heads.peek().head;
+                while (!heads.isEmpty() && heads.peek().id() == row.getId()) {
+                    Source source = heads.poll();
+                    if (source.advance()) {
+                        heads.add(source);
+                    }
+                }
+                return row;
+            }
+        };
+    }
+
+    // One input of the merge and its next row
+    private static final class Source {
+
+        private final Iterator<PaymentRow> iterator;
+        private PaymentRow head;
+
+        private Source(Iterator<PaymentRow> iterator) {
+            this.iterator = iterator;
+            this.head = iterator.next();
+        }
+
+        private long id() {
+            return head.getId();
+        }
+
+        private boolean advance() {
+            if (!iterator.hasNext()) {
+                return false;
+            }
+            head = iterator.next();
+            return true;
+        }
+    }
+
+    // The payments of one shard in id order, read a keyset page at a time in the shard
+    private final class ShardPages implements Iterator<PaymentRow> {
+
+        private final int shard;
+        private final PaymentFilter filter;
+        private Iterator<PaymentRow> page;
+        private boolean last;
+        private long afterId;
+
+        private ShardPages(int shard, PaymentFilter filter, List<PaymentRow> firstPage) {
+            this.shard = shard;
+            this.filter = filter;
+            read(firstPage);
+        }
+
+        private void read(List<PaymentRow> rows) {
+            page = rows.iterator();
+            last = rows.size() < STREAM_PAGE_SIZE;
+            if (!rows.isEmpty()) {
+                afterId = rows.get(rows.size() - 1).getId();
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (!page.hasNext() && !last) {
+                read(shards.on(shard, () -> paymentRepository.findPage(filter, afterId, STREAM_PAGE_SIZE)));
+            }
+            return page.hasNext();
+        }
+
+        @Override
+        public PaymentRow next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return page.next();
+        }
+    }
+
+    private static List<PaymentRow> take(Iterator<PaymentRow> iterator, int limit) {
+        List<PaymentRow> rows = new ArrayList<>(limit);
+        while (rows.size() < limit && iterator.hasNext()) {
+            rows.add(iterator.next());
+        }
+        return rows;
+    }
+
+    // Records the time since start and returns the end, which starts the next phase
+    private static long record(Timer timer, long start) {
+        long end = System.nanoTime();
+        timer.record(end - start, TimeUnit.NANOSECONDS);
+        return end;
     }
 }
@@ -0,0 +1,20 @@
+package com.tw.finseta.payment.service;
+
+import com.tw.finseta.payment.repository.PaymentRow;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.List;
+
+/**
+ * Published inside the transaction that inserts payments, so listeners bound to the commit see only
+ * payments that were actually stored.
+ *
+ * @author Ranga Raju
+ */
+@Getter
+@AllArgsConstructor
+public class PaymentsSavedEvent {
+
+    private final List<PaymentRow> payments;
+}
@@ -0,0 +1,268 @@
+package com.tw.finseta.payment.shard;
+
+import com.tw.finseta.payment.dao.AccountDAO;
+import com.tw.finseta.payment.dao.PaymentDAO;
+import com.tw.finseta.payment.money.CurrencyCode;
+import com.tw.finseta.payment.repository.PaymentFilter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+
+/**
+ * Routes payments to one of {@code payment.shards.count} databases and runs work across several of them.
+ *
+ * <p>With the default single shard every method runs its work on the calling thread against the one
+ * datasource. With more, {@link ShardRoutingDataSource} sends each connection to the shard selected by
+ * {@link #on(int, Supplier)} on the current thread. A payment's shard is a hash of its currency, or of its
+ * counterparty with {@code payment.shards.routing=counterparty}; currency routing lets a currency filter skip
+ * every shard that cannot hold a match. The mapping depends on the shard count, changing it needs the data
+ * to be moved.</p>
+ *
+ * <p>{@link #scatter(int[], IntFunction)} runs one task per shard in parallel, the first on the calling thread
+ * and the rest on a fixed pool of {@code payment.shards.threads} threads with a queue of
+ * {@code payment.shards.queue} tasks. When the queue is full the calling thread runs the task itself, so a
+ * burst of requests slows down rather than piles up.</p>
+ *
+ * @author Ranga Raju
+ */
+@Component
+public class PaymentShards implements MeterBinder {
+
+    /** What a payment's shard is derived from. */
+    public enum Routing {
+        CURRENCY,
+        COUNTERPARTY
+    }
+
+    private static final ThreadLocal<Integer> CURRENT = new ThreadLocal<>();
+
+    private final int count;
+    private final Routing routing;
+    private final int[] all;
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * Constructs a PaymentShards.
+     *
+     * @param count the number of shards
+     * @param routing {@code currency} or {@code counterparty}
+     * @param threads the number of threads working on the shards in parallel
+     * @param queue the number of shard tasks waiting for a thread before callers run them themselves
+     */
+    public PaymentShards(@Value("${payment.shards.count:1}") int count,
+                         @Value("${payment.shards.routing:currency}") String routing,
+                         @Value("${payment.shards.threads:8}") int threads,
+                         @Value("${payment.shards.queue:256}") int queue) {
+        if (count < 1) {
+            throw new IllegalArgumentException("payment.shards.count must be at least 1");
+        }
+        this.count = count;
+        this.routing = Routing.valueOf(routing.trim().toUpperCase(Locale.ROOT));
+        this.all = new int[count];
+        for (int shard = 0; shard < count; shard++) {
+            all[shard] = shard;
+        }
+        if (count == 1) {
+            this.executor = null;
+        } else {
+            AtomicInteger created = new AtomicInteger();
+            this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(queue), runnable -> {
+                        Thread thread = new Thread(runnable, "payment-shard-" + created.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }, new ThreadPoolExecutor.CallerRunsPolicy());
+        }
+    }
+
+    @PreDestroy
+    void stop() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * The shard selected on the current thread, null outside {@link #on(int, Supplier)}.
+     */
+    public static Integer current() {
+        return CURRENT.get();
+    }
+
+    public int count() {
+        return count;
+    }
+
+    public boolean isSharded() {
+        return count > 1;
+    }
+
+    public Routing routing() {
+        return routing;
+    }
+
+    /**
+     * Every shard, in order.
+     */
+    public int[] all() {
+        return all.clone();
+    }
+
+    /**
+     * The shard a payment is stored in. Payments without a counterparty are routed by currency.
+     */
+    public int shardOf(PaymentDAO payment) {
+        AccountDAO counterparty = payment.getCounterparty();
+        if (routing == Routing.COUNTERPARTY && counterparty != null) {
+            return shardOf(counterparty.getSortCode() + counterparty.getAccountNumber());
+        }
+        return shardOf(payment.getCurrency());
+    }
+
+    /**
+     * The shard holding the payments of a currency, with currency routing.
+     */
+    public int shardOf(CurrencyCode currency) {
+        return bucket(currency.code());
+    }
+
+    private int shardOf(String counterpartyKey) {
+        return bucket(counterpartyKey.hashCode());
+    }
+
+    // Spreads similar codes, which differ in their low bits only, over the shards
+    private int bucket(int hash) {
+        int mixed = hash * 0x9E3779B9;
+        return Math.floorMod(mixed ^ (mixed >>> 16), count);
+    }
+
+    /**
+     * The shards that may hold payments matching the filter, in order. With currency routing and a currency
+     * filter only the shards of those currencies, possibly none when no code is known; every shard otherwise.
+     */
+    public int[] shardsFor(PaymentFilter filter) {
+        List<CurrencyCode> currencies = filter.getCurrencies();
+        if (count == 1 || routing != Routing.CURRENCY || currencies == null) {
+            return all.clone();
+        }
+        boolean[] selected = new boolean[count];
+        for (CurrencyCode currency : currencies) {
+            selected[shardOf(currency)] = true;
+        }
+        int[] shards = new int[count];
+        int size = 0;
+        for (int shard = 0; shard < count; shard++) {
+            if (selected[shard]) {
+                shards[size++] = shard;
+            }
+        }
+        return Arrays.copyOf(shards, size);
+    }
+
+    /**
+     * Runs the work with every connection of the current thread going to the shard. The shard of a connection
+     * is fixed when a transaction takes it, so this must not be called inside one.
+     *
+     * @throws IllegalStateException if a transaction is active on the current thread
+     */
+    public <T> T on(int shard, Supplier<T> work) {
+        if (count == 1) {
+            return work.get();
+        }
+        if (TransactionSynchronizationManager.isActualTransactionActive()) {
+            throw new IllegalStateException("Cannot switch to payment shard " + shard + " inside a transaction");
+        }
+        Integer previous = CURRENT.get();
+        CURRENT.set(shard);
+        try {
+            return work.get();
+        } finally {
+            if (previous == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(previous);
+            }
+        }
+    }
+
+    /**
+     * Runs the work on each shard in parallel and waits for all of them. A failure of any shard cancels the
+     * ones not started yet and is rethrown.
+     *
+     * @param shards the shards to run on
+     * @param work the work, given the shard it runs on
+     * @return the result of each shard, in the order of {@code shards}
+     */
+    public <T> List<T> scatter(int[] shards, IntFunction<T> work) {
+        if (shards.length == 0) {
+            return List.of();
+        }
+        if (shards.length == 1 || executor == null) {
+            List<T> results = new ArrayList<>(shards.length);
+            for (int shard : shards) {
+                results.add(on(shard, () -> work.apply(shard)));
+            }
+            return results;
+        }
+
+        List<Future<T>> futures = new ArrayList<>(shards.length - 1);
+        try {
+            for (int i = 1; i < shards.length; i++) {
+                int shard = shards[i];
+                futures.add(executor.submit(() -> on(shard, () -> work.apply(shard))));
+            }
+            List<T> results = new ArrayList<>(shards.length);
+            results.add(on(shards[0], () -> work.apply(shards[0])));
+            for (Future<T> future : futures) {
+                results.add(future.get());
+            }
+            return results;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            if (cause instanceof Error error) {
+                throw error;
+            }
+            throw new IllegalStateException("Payment shard task failed", cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the payment shards", e);
+        } finally {
+            for (Future<T> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        if (executor == null) {
+            return;
+        }
+        Gauge.builder("payment.shards.tasks.active", executor, ThreadPoolExecutor::getActiveCount)
+                .description("Shard tasks running on the scatter-gather pool")
+                .register(registry);
+        Gauge.builder("payment.shards.tasks.queued", executor, pool -> pool.getQueue().size())
+                .description("Shard tasks waiting for a thread of the scatter-gather pool")
+                .register(registry);
+    }
+}
@@ -0,0 +1,163 @@
+package com.tw.finseta.payment.shard;
+
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.metrics.micrometer.MicrometerMetricsTrackerFactory;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The application's datasource when {@code payment.shards.count} is above 1: one connection pool per shard,
+ * each connection taken from the shard {@link PaymentShards#on(int, java.util.function.Supplier)} selected on
+ * the current thread, or from shard 0 outside of it.
+ *
+ * <p>Shard {@code i} connects to {@code payment.shards.url} with {@code {shard}} replaced by {@code i}, with the
+ * {@code spring.datasource} credentials and a pool of {@code payment.shards.pool-size} connections named
+ * {@code payment-shard-i} in the {@code hikaricp.*} metrics. Hibernate creates the schema in shard 0 on
+ * startup; on the first routed connection, for embedded H2 shards, it is copied to the others, and every
+ * sequence is moved so that shard {@code i} hands out blocks {@code i, i + count, i + 2 * count...} of its
+ * allocation size. Hibernate's pooled id optimizer then never gives two shards the same id, so ids stay
+ * unique and comparable across shards. Other databases must be provisioned that way beforehand.</p>
+ *
+ * @author Ranga Raju
+ */
+@Component
+@ConditionalOnExpression("${payment.shards.count:1} > 1")
+public class ShardRoutingDataSource extends AbstractRoutingDataSource {
+
+    private static final Logger logger = LogManager.getLogger(ShardRoutingDataSource.class);
+
+    private static final String SHARD_PLACEHOLDER = "{shard}";
+
+    private final List<HikariDataSource> shards = new ArrayList<>();
+    private final boolean embedded;
+    private volatile boolean prepared;
+
+    /**
+     * Constructs a ShardRoutingDataSource.
+     *
+     * @param paymentShards the shard count
+     * @param properties the {@code spring.datasource} driver and credentials shared by the shards
+     * @param url the JDBC URL of the shards, with a {@code {shard}} placeholder
+     * @param poolSize the maximum number of connections of each shard
+     * @param meterRegistry the registry of the pool metrics
+     */
+    public ShardRoutingDataSource(PaymentShards paymentShards, DataSourceProperties properties,
+                                  @Value("${payment.shards.url:jdbc:h2:mem:paymentdb-shard{shard}}") String url,
+                                  @Value("${payment.shards.pool-size:10}") int poolSize,
+                                  ObjectProvider<MeterRegistry> meterRegistry) {
+        if (!url.contains(SHARD_PLACEHOLDER)) {
+            throw new IllegalArgumentException("payment.shards.url must contain " + SHARD_PLACEHOLDER);
+        }
+        this.embedded = url.startsWith("jdbc:h2:");
+        MeterRegistry registry = meterRegistry.getIfAvailable();
+        Map<Object, Object> targets = new LinkedHashMap<>();
+        for (int shard = 0; shard < paymentShards.count(); shard++) {
+            HikariDataSource dataSource = new HikariDataSource();
+            dataSource.setPoolName("payment-shard-" + shard);
+            dataSource.setJdbcUrl(url.replace(SHARD_PLACEHOLDER, Integer.toString(shard)));
+            dataSource.setDriverClassName(properties.determineDriverClassName());
+            dataSource.setUsername(properties.determineUsername());
+            dataSource.setPassword(properties.determinePassword());
+            dataSource.setMaximumPoolSize(poolSize);
+            if (registry != null) {
+                dataSource.setMetricsTrackerFactory(new MicrometerMetricsTrackerFactory(registry));
+            }
+            shards.add(dataSource);
+            targets.put(shard, dataSource);
+        }
+        setTargetDataSources(targets);
+        setDefaultTargetDataSource(shards.get(0));
+        setLenientFallback(false);
+        logger.info("Routing payments over {} shards at {}", shards.size(), url);
+    }
+
+    @PreDestroy
+    void close() {
+        shards.forEach(HikariDataSource::close);
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        Integer shard = PaymentShards.current();
+        // Hibernate has built the schema of shard 0 before anything selects a shard
+        if (shard != null && !prepared) {
+            prepare();
+        }
+        return shard;
+    }
+
+    private synchronized void prepare() {
+        if (prepared) {
+            return;
+        }
+        if (!embedded) {
+            logger.warn("Payment shards are not embedded H2, their schemas and sequences must already be in place");
+            prepared = true;
+            return;
+        }
+        try {
+            List<String> schema = new ArrayList<>();
+            Map<String, Long> increments = new HashMap<>();
+            try (Connection connection = shards.get(0).getConnection();
+                 Statement statement = connection.createStatement()) {
+                try (ResultSet script = statement.executeQuery("SCRIPT NODATA NOPASSWORDS NOSETTINGS NOVERSION")) {
+                    while (script.next()) {
+                        schema.add(script.getString(1));
+                    }
+                }
+                try (ResultSet sequences = statement.executeQuery("SELECT SEQUENCE_NAME, INCREMENT"
+                        + " FROM INFORMATION_SCHEMA.SEQUENCES WHERE SEQUENCE_SCHEMA = 'PUBLIC'")) {
+                    while (sequences.next()) {
+                        increments.put(sequences.getString(1), sequences.getLong(2));
+                    }
+                }
+            }
+            for (int shard = 0; shard < shards.size(); shard++) {
+                try (Connection connection = shards.get(shard).getConnection();
+                     Statement statement = connection.createStatement()) {
+                    if (shard > 0) {
+                        for (String sql : schema) {
+                            statement.execute(sql);
+                        }
+                    }
+                    for (Map.Entry<String, Long> sequence : increments.entrySet()) {
+                        long increment = sequence.getValue();
+                        statement.execute("ALTER SEQUENCE \"" + sequence.getKey() + "\" RESTART WITH "
+                                + increment * (shard + 1) + " INCREMENT BY " + increment * shards.size());
+                    }
+                }
+            }
+            logger.info("Prepared {} payment shards: {} schema statements, {} sequences",
+                    shards.size(), schema.size(), increments.size());
+        } catch (SQLException e) {
+            throw new IllegalStateException("Cannot prepare the payment shards", e);
+        }
+        prepared = true;
+    }
+
+    /**
+     * The pool of a shard, for reads that must bypass the routing.
+     */
+    public DataSource shard(int shard) {
+        return shards.get(shard);
+    }
+}
@@ -0,0 +1,57 @@
+package com.tw.finseta.payment.util;
+
+import com.tw.finseta.payment.exception.ValidationException;
+import com.tw.finseta.payment.model.Error;
+
+import java.nio.ByteBuffer;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * Encodes and decodes the opaque keyset cursor used to page through payments.
+ *
+ * <p>The cursor carries the id of the last payment returned on the previous page, so the next page
+ * can seek straight to {@code id > cursor} instead of skipping rows with an OFFSET.</p>
+ *
+ * @author Ranga Raju
+ */
+public final class PaymentCursor {
+
+    /** Id to seek from when no cursor is supplied, ids are always positive. */
+    public static final long START = 0L;
+
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    private PaymentCursor() {
+    }
+
+    public static String encode(long lastId) {
+        return ENCODER.encodeToString(ByteBuffer.allocate(Long.BYTES).putLong(lastId).array());
+    }
+
+    /**
+     * Decodes a cursor previously produced by {@link #encode(long)}.
+     *
+     * @param cursor the cursor sent by the client, may be null or blank for the first page
+     * @return the id to seek from
+     * @throws ValidationException if the cursor was not produced by this service
+     */
+    public static long decode(String cursor) {
+        if (cursor == null || cursor.isBlank()) {
+            return START;
+        }
+        try {
+            byte[] bytes = DECODER.decode(cursor);
+            if (bytes.length == Long.BYTES) {
+                long lastId = ByteBuffer.wrap(bytes).getLong();
+                if (lastId >= START) {
+                    return lastId;
+                }
+            }
+        } catch (IllegalArgumentException ex) {
+            // fall through to the validation error below
+        }
+        throw new ValidationException(List.of(new Error().message("cursor : invalid cursor")));
+    }
+}
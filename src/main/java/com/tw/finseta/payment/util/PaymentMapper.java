@@ -1,14 +1,74 @@
 package com.tw.finseta.payment.util;
 
 import org.mapstruct.*;
+import com.tw.finseta.payment.exception.ValidationException;
+import com.tw.finseta.payment.model.Account;
+import com.tw.finseta.payment.model.CurrencySummary;
+import com.tw.finseta.payment.model.Error;
 import com.tw.finseta.payment.model.Payment;
+import com.tw.finseta.payment.dao.AccountDAO;
 import com.tw.finseta.payment.dao.PaymentDAO;
+import com.tw.finseta.payment.money.CurrencyCode;
+import com.tw.finseta.payment.money.Money;
+import com.tw.finseta.payment.repository.CurrencyTotals;
 import java.util.List;
 
 @Mapper(componentModel = "spring")
 public interface PaymentMapper {
-    Payment toModel(PaymentDAO dao);
-    PaymentDAO toDAO(Payment model);
 
-    List<Payment> toModelList(List<PaymentDAO> daoList);
+    // The amount is scaled by the currency, so payments convert by hand around the generated account mappings
+    default Payment toModel(PaymentDAO dao) {
+        if (dao == null) {
+            return null;
+        }
+        return new Payment(dao.getCurrency().toString(),
+                Money.toDecimal(dao.getAmountMinor(), dao.getCurrency()), toModel(dao.getCounterparty()));
+    }
+
+    /**
+     * Converts an API payment to an entity, holding the amount exactly as minor units of its currency.
+     *
+     * @throws ValidationException if the currency is not an ISO 4217 code or the amount is not a whole
+     *                             number of its minor units
+     */
+    default PaymentDAO toDAO(Payment model) {
+        if (model == null) {
+            return null;
+        }
+        CurrencyCode currency = CurrencyCode.lookup(model.getCurrency());
+        if (currency == null) {
+            throw new ValidationException(List.of(
+                    new Error().message("currency : must be an ISO 4217 currency code")));
+        }
+        if (model.getAmount() == null) {
+            throw new ValidationException(List.of(new Error().message("amount : must not be null")));
+        }
+        long amountMinor;
+        try {
+            amountMinor = Money.toMinorUnits(model.getAmount(), currency);
+        } catch (ArithmeticException e) {
+            String message = (model.getAmount().stripTrailingZeros().scale() > currency.exponent())
+                    ? "amount : must have at most " + currency.exponent() + " decimal places for " + currency
+                    : "amount : is too large";
+            throw new ValidationException(List.of(new Error().message(message)));
+        }
+        return new PaymentDAO(currency, amountMinor, toDAO(model.getCounterparty()));
+    }
+
+    Account toModel(AccountDAO dao);
+    @Mapping(target = "id", ignore = true)
+    AccountDAO toDAO(Account model);
+
+    default CurrencySummary toModel(CurrencyTotals totals) {
+        if (totals == null) {
+            return null;
+        }
+        CurrencyCode currency = totals.currency();
+        return new CurrencySummary(currency.toString(), totals.count(), Money.toDecimal(totals.sumMinor(), currency),
+                Money.toDecimal(totals.minMinor(), currency), Money.toDecimal(totals.maxMinor(), currency));
+    }
+
+    default List<Payment> toModelList(List<PaymentDAO> daoList) {
+        return (daoList == null) ? null : daoList.stream().map(this::toModel).toList();
+    }
 }
@@ -0,0 +1,142 @@
+package com.tw.finseta.payment.validation;
+
+import com.tw.finseta.payment.exception.ValidationException;
+import com.tw.finseta.payment.model.Account;
+import com.tw.finseta.payment.model.Error;
+import com.tw.finseta.payment.model.Payment;
+import com.tw.finseta.payment.money.CurrencyCode;
+import org.springframework.stereotype.Component;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Validates incoming payments with plain checks against precomputed tables, in place of reflective bean validation.
+ *
+ * <p>The currency is looked up in the {@link CurrencyCode} table, the account number and sort code must be
+ * exactly {@value #ACCOUNT_NUMBER_LENGTH} and {@value #SORT_CODE_LENGTH} digits, and the amount must be
+ * non-negative, have no more decimal places than its currency and fit a {@code long} of minor units. Every error
+ * of every payment is collected, in the {@code field : message} form of the {@code BadRequest} response, and a
+ * valid payment allocates nothing.</p>
+ *
+ * @author Ranga Raju
+ */
+@Component
+public class PaymentValidator {
+
+    static final int ACCOUNT_NUMBER_LENGTH = 8;
+    static final int SORT_CODE_LENGTH = 6;
+
+    // Largest amount whose minor units fit a long, by currency exponent
+    private static final BigDecimal[] MAX_AMOUNT;
+
+    static {
+        int maxExponent = CurrencyCode.byExponent().keySet().stream().max(Integer::compare).orElseThrow();
+        MAX_AMOUNT = new BigDecimal[maxExponent + 1];
+        for (int exponent = 0; exponent <= maxExponent; exponent++) {
+            MAX_AMOUNT[exponent] = BigDecimal.valueOf(Long.MAX_VALUE, exponent);
+        }
+    }
+
+    /**
+     * Validates a single payment.
+     *
+     * @throws ValidationException with every invalid field of the payment
+     */
+    public void validate(Payment payment) {
+        List<Error> errors = collect(payment, "", null);
+        if (errors != null) {
+            throw new ValidationException(errors);
+        }
+    }
+
+    /**
+     * Validates every payment of a batch, reporting fields as {@code payment[index].field}.
+     *
+     * @throws ValidationException with every invalid field of every payment
+     */
+    public void validateAll(List<Payment> payments) {
+        if (payments == null) {
+            return;
+        }
+        List<Error> errors = null;
+        for (int i = 0; i < payments.size(); i++) {
+            errors = collect(payments.get(i), "payment[" + i + "].", errors);
+        }
+        if (errors != null) {
+            throw new ValidationException(errors);
+        }
+    }
+
+    // Appends the errors of one payment, creating the list on the first one. Returns null while all are valid
+    private static List<Error> collect(Payment payment, String prefix, List<Error> errors) {
+        if (payment == null) {
+            String path = prefix.isEmpty() ? "payment" : prefix.substring(0, prefix.length() - 1);
+            return add(errors, "", path + " : must not be null");
+        }
+        CurrencyCode currency = null;
+        if (payment.getCurrency() == null) {
+            errors = add(errors, prefix, "currency : must not be null");
+        } else if ((currency = CurrencyCode.lookup(payment.getCurrency())) == null) {
+            errors = add(errors, prefix, "currency : must be an ISO 4217 currency code");
+        }
+
+        BigDecimal amount = payment.getAmount();
+        if (amount == null) {
+            errors = add(errors, prefix, "amount : must not be null");
+        } else if (amount.signum() < 0) {
+            errors = add(errors, prefix, "amount : must be greater than or equal to 0");
+        } else if (currency != null) {
+            int exponent = currency.exponent();
+            if (amount.scale() > exponent && amount.stripTrailingZeros().scale() > exponent) {
+                errors = add(errors, prefix,
+                        "amount : must have at most " + exponent + " decimal places for " + currency);
+            } else if (amount.compareTo(MAX_AMOUNT[exponent]) > 0) {
+                errors = add(errors, prefix, "amount : is too large");
+            }
+        }
+
+        Account counterparty = payment.getCounterparty();
+        if (counterparty == null) {
+            return add(errors, prefix, "counterparty : must not be null");
+        }
+        if (counterparty.getType() == null) {
+            errors = add(errors, prefix, "counterparty.type : must not be null");
+        }
+        errors = checkDigits(errors, prefix, "counterparty.accountNumber", counterparty.getAccountNumber(),
+                ACCOUNT_NUMBER_LENGTH);
+        return checkDigits(errors, prefix, "counterparty.sortCode", counterparty.getSortCode(), SORT_CODE_LENGTH);
+    }
+
+    private static List<Error> checkDigits(List<Error> errors, String prefix, String field, String value, int length) {
+        if (value == null) {
+            return add(errors, prefix, field + " : must not be null");
+        }
+        if (!isDigits(value, length)) {
+            return add(errors, prefix, field + " : must be " + length + " digits");
+        }
+        return errors;
+    }
+
+    static boolean isDigits(String value, int length) {
+        if (value.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static List<Error> add(List<Error> errors, String prefix, String message) {
+        if (errors == null) {
+            errors = new ArrayList<>(4);
+        }
+        errors.add(new Error().message(prefix + message));
+        return errors;
+    }
+}
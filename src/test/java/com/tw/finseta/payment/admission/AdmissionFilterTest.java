@@ -0,0 +1,172 @@
+package com.tw.finseta.payment.admission;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.servlet.FilterChain;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit test class for {@link AdmissionFilter}.
+ *
+ * <p>Covers bounded latency of admitted requests under 10x overload, shedding of reads while writes are
+ * saturated and per-client rate limiting.</p>
+ *
+ * @author Ranga Raju
+ * @see AdmissionFilter
+ */
+public class AdmissionFilterTest {
+
+    private static final int CONNECTIONS = 2;
+    private static final long SERVICE_MILLIS = 20;
+    private static final int CLIENTS = 10 * CONNECTIONS;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    // Stands in for the service: two database connections held for 20 ms per request, so it serves 100 requests
+    // a second and queues everything beyond two concurrent requests
+    private final Semaphore connections = new Semaphore(CONNECTIONS, true);
+    private final FilterChain database = (request, response) -> {
+        connections.acquireUninterruptibly();
+        try {
+            Thread.sleep(SERVICE_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            connections.release();
+        }
+    };
+
+    @Test
+    void testTenfoldOverload_keepsAdmittedLatencyBounded() throws Exception {
+        AdmissionFilter filter = new AdmissionFilter(16, 1, 100, Duration.ofMillis(50), Duration.ofMillis(50),
+                0, 0, "X-Client-Id", meterRegistry);
+
+        long unlimited = p99Millis(run(database));
+        List<Long> admitted = run((request, response) -> filter.doFilter(request, response, database));
+        long limited = p99Millis(admitted);
+
+        // Without admission control every request waits behind the other clients, 10 x 20 ms
+        assertTrue(unlimited >= 150, "unlimited p99 " + unlimited + " ms");
+        assertTrue(limited <= 100 && limited * 2 < unlimited,
+                "limited p99 " + limited + " ms, unlimited " + unlimited + " ms");
+        assertTrue(admitted.size() > 50, admitted.size() + " admitted");
+        assertTrue(filter.limit(AdmissionFilter.Endpoint.CREATE) < 16);
+        assertTrue(rejected("POST /payments", "limit") > 0);
+    }
+
+    @Test
+    void testReadsAreShedWhileWritesAreSaturated_andClientsAreRateLimited() throws Exception {
+        AdmissionFilter filter = new AdmissionFilter(1, 1, 1, Duration.ofSeconds(1), Duration.ofSeconds(1),
+                1, 2, "X-Client-Id", meterRegistry);
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> write = executor.submit(() -> {
+                filter.doFilter(request("POST", "/payments", "writer"), new MockHttpServletResponse(),
+                        (request, response) -> {
+                            writing.countDown();
+                            try {
+                                release.await();
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                            }
+                        });
+                return null;
+            });
+            writing.await();
+
+            MockHttpServletResponse read = send(filter, "GET", "/payments", "reader");
+            assertEquals(503, read.getStatus());
+            assertEquals("1", read.getHeader(HttpHeaders.RETRY_AFTER));
+            release.countDown();
+            write.get();
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // The reader's burst of two had one token taken by the rejected read
+        assertEquals(200, send(filter, "GET", "/payments", "reader").getStatus());
+        MockHttpServletResponse limited = send(filter, "GET", "/payments", "reader");
+        assertEquals(429, limited.getStatus());
+        assertEquals("1", limited.getHeader(HttpHeaders.RETRY_AFTER));
+        assertEquals(200, send(filter, "GET", "/payments", "other").getStatus());
+        assertEquals(1, rejected("GET /payments", "priority"));
+        assertEquals(1, rejected("GET /payments", "rate"));
+    }
+
+    // Runs the clients against the chain for a second after a half second warm up, returning the latency of
+    // each successful request in nanoseconds. Rejected clients back off for 5 ms and retry
+    private static List<Long> run(FilterChain chain) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(CLIENTS);
+        long start = System.nanoTime();
+        long measureFrom = start + TimeUnit.MILLISECONDS.toNanos(500);
+        long end = measureFrom + TimeUnit.SECONDS.toNanos(1);
+        List<Future<List<Long>>> clients = new ArrayList<>();
+        for (int i = 0; i < CLIENTS; i++) {
+            clients.add(executor.submit(() -> {
+                List<Long> latencies = new ArrayList<>();
+                while (System.nanoTime() < end) {
+                    MockHttpServletResponse response = new MockHttpServletResponse();
+                    long sent = System.nanoTime();
+                    chain.doFilter(request("POST", "/payments", null), response);
+                    long received = System.nanoTime();
+                    if (response.getStatus() == 200) {
+                        if (sent >= measureFrom) {
+                            latencies.add(received - sent);
+                        }
+                    } else {
+                        Thread.sleep(5);
+                    }
+                }
+                return latencies;
+            }));
+        }
+        List<Long> latencies = new ArrayList<>();
+        for (Future<List<Long>> client : clients) {
+            latencies.addAll(client.get());
+        }
+        executor.shutdown();
+        return latencies;
+    }
+
+    private double rejected(String endpoint, String reason) {
+        return meterRegistry.get(AdmissionFilter.REJECTED_METRIC).tag("endpoint", endpoint).tag("reason", reason)
+                .counter().count();
+    }
+
+    private static long p99Millis(List<Long> latencies) {
+        List<Long> sorted = latencies.stream().sorted().toList();
+        return TimeUnit.NANOSECONDS.toMillis(sorted.get((int) Math.ceil(sorted.size() * 0.99) - 1));
+    }
+
+    private static MockHttpServletResponse send(AdmissionFilter filter, String method, String path, String client)
+            throws Exception {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        filter.doFilter(request(method, path, client), response, (request, ignored) -> { });
+        return response;
+    }
+
+    private static MockHttpServletRequest request(String method, String path, String client) {
+        MockHttpServletRequest request = new MockHttpServletRequest(method, path);
+        if (client != null) {
+            request.addHeader("X-Client-Id", client);
+        }
+        return request;
+    }
+}
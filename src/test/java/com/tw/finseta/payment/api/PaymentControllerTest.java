@@ -1,7 +1,16 @@
 package com.tw.finseta.payment.api;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.tw.finseta.payment.feed.PaymentFeed;
+import com.tw.finseta.payment.idempotency.IdempotencyStore;
+import com.tw.finseta.payment.model.CurrencySummary;
 import com.tw.finseta.payment.model.Payment;
+import com.tw.finseta.payment.model.PaymentBatchItem;
+import com.tw.finseta.payment.model.PaymentBatchResult;
+import com.tw.finseta.payment.service.PaymentPage;
 import com.tw.finseta.payment.service.PaymentService;
+import com.tw.finseta.payment.util.PaymentCursor;
+import com.tw.finseta.payment.validation.PaymentValidator;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -9,13 +18,18 @@ import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.ByteArrayOutputStream;
 import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
 import java.util.Collections;
 import java.util.List;
+import java.util.function.Consumer;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.mockito.Mockito.*;
 
 /**
@@ -27,8 +41,11 @@ import static org.mockito.Mockito.*;
  *
  * <p>The test class covers the following scenarios:
  * <ul>
- *   <li>GET /payments - Testing retrieval of payments with filters</li>
+ *   <li>GET /payments - Testing retrieval of payments with filters and paging</li>
+ *   <li>GET /payments as NDJSON - Testing streaming of payments</li>
  *   <li>POST /payments - Testing creation of new payments</li>
+ *   <li>POST /payments/batch - Testing creation of a batch of payments</li>
+ *   <li>GET /payments/summary - Testing retrieval of the per-currency summaries</li>
  * </ul>
  * </p>
  *
@@ -42,6 +59,15 @@ public class PaymentControllerTest {
     @Mock
     private PaymentService paymentService;
 
+    @Mock
+    private PaymentFeed paymentFeed;
+
+    @Mock
+    private PaymentValidator paymentValidator;
+
+    @Mock
+    private IdempotencyStore idempotencyStore;
+
     @InjectMocks
     private PaymentController paymentController;
 
@@ -56,27 +82,89 @@ public class PaymentControllerTest {
 
     @Test
     void testPaymentsGet_returnsPaymentsList() {
-        List<Payment> payments = List.of(samplePayment);
-        when(paymentService.getPaymentsByFilters(anyList(), any(BigDecimal.class))).thenReturn(payments);
+        PaymentPage page = new PaymentPage(List.of(samplePayment), null);
+        when(paymentService.getPaymentsByFilters(anyList(), any(BigDecimal.class), isNull(), isNull(), anyInt(), isNull())).thenReturn(page);
 
-        ResponseEntity<List<Payment>> response = paymentController.paymentsGet(BigDecimal.valueOf(50), Collections.singletonList("USD"));
+        ResponseEntity<List<Payment>> response = paymentController.paymentsGet(BigDecimal.valueOf(50), Collections.singletonList("USD"), null, null, 100, null);
 
         assertNotNull(response);
         assertEquals(200, response.getStatusCode().value());
         assertNotNull(response.getBody(), "Response body should not be null");
         assertEquals(1, response.getBody().size());
-        verify(paymentService, times(1)).getPaymentsByFilters(anyList(), any(BigDecimal.class));
+        assertNull(response.getHeaders().getFirst(PaymentController.NEXT_CURSOR_HEADER));
+        verify(paymentService, times(1)).getPaymentsByFilters(anyList(), any(BigDecimal.class), isNull(), isNull(), anyInt(), isNull());
+    }
+
+    @Test
+    void testPaymentsGet_returnsNextCursorHeader() {
+        String nextCursor = PaymentCursor.encode(42L);
+        PaymentPage page = new PaymentPage(List.of(samplePayment), nextCursor);
+        when(paymentService.getPaymentsByFilters(isNull(), isNull(), isNull(), isNull(), eq(1), isNull())).thenReturn(page);
+
+        ResponseEntity<List<Payment>> response = paymentController.paymentsGet(null, null, null, null, 1, null);
+
+        assertEquals(200, response.getStatusCode().value());
+        assertEquals(nextCursor, response.getHeaders().getFirst(PaymentController.NEXT_CURSOR_HEADER));
+        assertEquals(42L, PaymentCursor.decode(nextCursor));
+    }
+
+    @Test
+    void testPaymentsStream_writesOnePaymentPerLine() throws Exception {
+        PaymentController streamingController = new PaymentController(paymentService, new ObjectMapper(), paymentFeed,
+                paymentValidator, idempotencyStore);
+        when(paymentService.streamPaymentsByFilters(isNull(), isNull(), isNull(), isNull(), any())).thenAnswer(invocation -> {
+            Consumer<Payment> sink = invocation.getArgument(4);
+            sink.accept(samplePayment);
+            sink.accept(samplePayment);
+            return 2L;
+        });
+
+        ResponseEntity<StreamingResponseBody> response = streamingController.paymentsStream(null, null, null, null);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        response.getBody().writeTo(out);
+
+        assertEquals(200, response.getStatusCode().value());
+        assertEquals(PaymentController.NDJSON_VALUE, response.getHeaders().getContentType().toString());
+        String line = "{\"currency\":\"USD\",\"amount\":100,\"counterparty\":null}\n";
+        assertEquals(line + line, out.toString(StandardCharsets.UTF_8));
     }
 
     @Test
     void testPaymentsPost_returnsCreatedPayment() {
         when(paymentService.savePayment(any(Payment.class))).thenReturn(samplePayment);
 
-        ResponseEntity<Payment> response = paymentController.paymentsPost(samplePayment);
+        ResponseEntity<Payment> response = paymentController.paymentsPost(samplePayment, null);
 
         assertNotNull(response);
         assertEquals(201, response.getStatusCode().value());
         assertEquals(samplePayment, response.getBody());
+        verify(paymentValidator).validate(samplePayment);
         verify(paymentService, times(1)).savePayment(any(Payment.class));
     }
+
+    @Test
+    void testPaymentsBatchPost_returnsBatchResult() {
+        PaymentBatchResult result = new PaymentBatchResult().created(1)
+                .items(List.of(new PaymentBatchItem(0, PaymentBatchItem.StatusEnum.CREATED).payment(samplePayment)));
+        when(paymentService.savePayments(anyList())).thenReturn(result);
+
+        ResponseEntity<PaymentBatchResult> response = paymentController.paymentsBatchPost(List.of(samplePayment));
+
+        assertEquals(200, response.getStatusCode().value());
+        assertEquals(result, response.getBody());
+        verify(paymentValidator).validateAll(List.of(samplePayment));
+        verify(paymentService, times(1)).savePayments(List.of(samplePayment));
+    }
+
+    @Test
+    void testPaymentsSummaryGet_returnsSummaries() {
+        List<CurrencySummary> summaries = List.of(new CurrencySummary("USD", 2L, BigDecimal.valueOf(300),
+                BigDecimal.valueOf(100), BigDecimal.valueOf(200)));
+        when(paymentService.getPaymentSummary(null)).thenReturn(summaries);
+
+        ResponseEntity<List<CurrencySummary>> response = paymentController.paymentsSummaryGet(null);
+
+        assertEquals(200, response.getStatusCode().value());
+        assertEquals(summaries, response.getBody());
+    }
 }
@@ -0,0 +1,176 @@
+package com.tw.finseta.payment.archive;
+
+import com.tw.finseta.payment.dao.AccountType;
+import com.tw.finseta.payment.money.CurrencyCode;
+import com.tw.finseta.payment.repository.CurrencyTotals;
+import com.tw.finseta.payment.repository.PaymentFilter;
+import com.tw.finseta.payment.repository.PaymentRow;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit test class for {@link PaymentArchive} over {@link PaymentArchiveFile}s.
+ *
+ * <p>Checks pages, streams and summaries against a brute force scan of the archived payments, and that files
+ * and row groups whose summaries exclude the filter are never decoded.</p>
+ *
+ * @author Ranga Raju
+ * @see PaymentArchive
+ */
+public class PaymentArchiveTest {
+
+    private static final String[] CURRENCIES = {"GBP", "USD", "JPY", "KWD"};
+    private static final YearMonth JANUARY = YearMonth.of(2026, 1);
+    private static final YearMonth FEBRUARY = YearMonth.of(2026, 2);
+
+    @TempDir
+    Path directory;
+
+    private final List<PaymentRow> all = new ArrayList<>();
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    @Test
+    void testFindPage_matchesBruteForceAcrossFilesAndRowGroups() throws IOException {
+        PaymentArchive archive = archive();
+        List<PaymentFilter> filters = List.of(
+                new PaymentFilter(null, null),
+                new PaymentFilter(List.of("GBP"), new BigDecimal("500.5")),
+                new PaymentFilter(List.of("KWD", "JPY"), new BigDecimal("900"), null, start(FEBRUARY)),
+                new PaymentFilter(null, null, start(JANUARY).plusSeconds(86_400 * 20), start(FEBRUARY).plusSeconds(3600)),
+                new PaymentFilter(List.of("CHF"), null));
+        for (PaymentFilter filter : filters) {
+            List<Long> expected = all.stream().filter(row -> matches(filter, row)).map(PaymentRow::getId).toList();
+            List<Long> actual = new ArrayList<>();
+            long afterId = 0;
+            List<PaymentRow> page;
+            do {
+                page = archive.findPage(filter, afterId, 1000);
+                page.forEach(row -> actual.add(row.getId()));
+                afterId = page.isEmpty() ? afterId : page.get(page.size() - 1).getId();
+            } while (page.size() == 1000);
+            assertEquals(expected, actual, filter.toString());
+        }
+
+        List<Long> streamed = new ArrayList<>();
+        archive.iterator(new PaymentFilter(null, null), 0L).forEachRemaining(row -> streamed.add(row.getId()));
+        assertEquals(all.stream().map(PaymentRow::getId).toList(), streamed);
+        PaymentRow first = archive.findPage(new PaymentFilter(null, null), 0L, 1).get(0);
+        assertEquals(all.get(0).getPayment(), first.getPayment());
+        assertEquals(all.get(0).getCreatedAt(), first.getCreatedAt());
+    }
+
+    @Test
+    void testFindPage_skipsFilesAndRowGroupsTheFilterExcludes() throws IOException {
+        PaymentArchive archive = archive();
+        int januaryGroups = archive.files().get(0).groupCount();
+        int februaryGroups = archive.files().get(1).groupCount();
+        assertTrue(januaryGroups > 1, "January spans several row groups");
+
+        // February only: every January group is pruned from the file summary
+        List<PaymentRow> february = archive.findPage(new PaymentFilter(null, null, start(FEBRUARY), null), 0L, 10);
+        assertEquals(start(FEBRUARY).plusSeconds(60), february.get(0).getCreatedAt());
+        assertEquals(januaryGroups + februaryGroups - 1, pruned());
+        assertEquals(1, read());
+
+        // No amount reaches the threshold in any group
+        assertEquals(List.of(), archive.findPage(new PaymentFilter(null, new BigDecimal("1000000")), 0L, 10));
+        assertEquals(1, read());
+
+        // Past the cursor, only the last group is left
+        long lastId = all.get(all.size() - 1).getId();
+        assertEquals(1, archive.findPage(new PaymentFilter(null, null), lastId - 1, 10).size());
+        assertEquals(2, read());
+    }
+
+    @Test
+    void testSummarize_matchesBruteForceAndReadsOnlyStraddlingGroups() throws IOException {
+        PaymentArchive archive = archive();
+        assertEquals(totals(new PaymentFilter(null, null)), archive.totals());
+
+        PaymentFilter everything = new PaymentFilter(null, BigDecimal.ZERO);
+        assertEquals(totals(everything), archive.summarize(everything));
+        assertEquals(0, read());
+
+        for (PaymentFilter filter : List.of(new PaymentFilter(null, new BigDecimal("500")),
+                new PaymentFilter(List.of("USD"), new BigDecimal("999.99"), start(FEBRUARY), null))) {
+            assertEquals(totals(filter), archive.summarize(filter), filter.toString());
+        }
+    }
+
+    // 20 000 January payments over several row groups and 5 000 in February, in id order
+    private PaymentArchive archive() throws IOException {
+        Random random = new Random(42);
+        List<PaymentRow> january = new ArrayList<>();
+        List<PaymentRow> february = new ArrayList<>();
+        for (int id = 1; id <= 25_000; id++) {
+            boolean inJanuary = id <= 20_000;
+            Instant createdAt = inJanuary
+                    ? start(JANUARY).plusSeconds(id * 120L)
+                    : start(FEBRUARY).plusSeconds((id - 20_000) * 60L);
+            PaymentRow row = row(id * 3L, CURRENCIES[random.nextInt(CURRENCIES.length)], random.nextInt(100_000),
+                    id % 37, createdAt);
+            (inJanuary ? january : february).add(row);
+            all.add(row);
+        }
+        PaymentArchiveFile.write(directory.resolve("payments-2026-01.0.pay"), JANUARY, january.iterator(), 7, 3);
+        PaymentArchiveFile.write(directory.resolve("payments-2026-02.0.pay"), FEBRUARY, february.iterator(), 9, 3);
+
+        PaymentArchive archive = new PaymentArchive(directory);
+        archive.load();
+        archive.bindTo(registry);
+        assertEquals(25_000, archive.payments());
+        assertEquals(9, archive.maxIngestSeq());
+        return archive;
+    }
+
+    private double read() {
+        return registry.get("payment.archive.row_groups").tag("result", "read").functionCounter().count();
+    }
+
+    private double pruned() {
+        return registry.get("payment.archive.row_groups").tag("result", "pruned").functionCounter().count();
+    }
+
+    private List<CurrencyTotals> totals(PaymentFilter filter) {
+        Map<CurrencyCode, CurrencyTotals> byCurrency = new TreeMap<>();
+        for (Iterator<PaymentRow> rows = all.stream().filter(row -> matches(filter, row)).iterator(); rows.hasNext(); ) {
+            PaymentRow row = rows.next();
+            byCurrency.merge(row.getCurrency(), CurrencyTotals.of(row.getCurrency(), row.getAmountMinor()),
+                    CurrencyTotals::plus);
+        }
+        return new ArrayList<>(byCurrency.values());
+    }
+
+    private static boolean matches(PaymentFilter filter, PaymentRow row) {
+        return (filter.getCurrencies() == null || filter.getCurrencies().contains(row.getCurrency()))
+                && (filter.getMinAmount() == null || row.getPayment().getAmount().compareTo(filter.getMinAmount()) >= 0)
+                && (filter.getFrom() == null || !row.getCreatedAt().isBefore(filter.getFrom()))
+                && (filter.getTo() == null || row.getCreatedAt().isBefore(filter.getTo()));
+    }
+
+    private static Instant start(YearMonth month) {
+        return month.atDay(1).atStartOfDay().toInstant(ZoneOffset.UTC);
+    }
+
+    private static PaymentRow row(long id, String code, long amountMinor, int account, Instant createdAt) {
+        return new PaymentRow(id, CurrencyCode.of(code), amountMinor, AccountType.SORT_CODE_ACCOUNT_NUMBER,
+                String.format("%08d", account), "123456", createdAt);
+    }
+}
@@ -0,0 +1,92 @@
+package com.tw.finseta.payment.archive;
+
+import com.tw.finseta.payment.dao.AccountDAO;
+import com.tw.finseta.payment.dao.AccountType;
+import com.tw.finseta.payment.dao.PaymentDAO;
+import com.tw.finseta.payment.money.CurrencyCode;
+import com.tw.finseta.payment.repository.AccountRepository;
+import com.tw.finseta.payment.repository.PaymentFilter;
+import com.tw.finseta.payment.repository.PaymentRepository;
+import com.tw.finseta.payment.repository.PaymentRow;
+import com.tw.finseta.payment.shard.PaymentShards;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Test class for {@link PaymentArchiver} against the payments table.
+ *
+ * <p>Covers moving the months older than the retention period to archive files, keeping the recent ones in the
+ * table, and a second run finding nothing left to move.</p>
+ *
+ * @author Ranga Raju
+ * @see PaymentArchiver
+ */
+@DataJpaTest(properties = {"payment.archive.enabled=true", "payment.archive.hot-months=3"})
+@Import({PaymentArchive.class, PaymentArchiver.class, PaymentShards.class})
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+public class PaymentArchiverTest {
+
+    @TempDir
+    static Path directory;
+
+    @Autowired
+    private PaymentArchiver archiver;
+
+    @Autowired
+    private PaymentArchive archive;
+
+    @Autowired
+    private PaymentRepository paymentRepository;
+
+    @Autowired
+    private AccountRepository accountRepository;
+
+    @DynamicPropertySource
+    static void archiveDirectory(DynamicPropertyRegistry registry) {
+        registry.add("payment.archive.dir", () -> directory.toString());
+    }
+
+    @Test
+    void testArchive_movesMonthsBeforeTheRetentionPeriodToFiles() {
+        AccountDAO account = accountRepository.save(
+                new AccountDAO(null, AccountType.SORT_CODE_ACCOUNT_NUMBER, "12345678", "123456"));
+        List<PaymentDAO> payments = new ArrayList<>();
+        for (String createdAt : List.of("2026-01-10T08:00:00Z", "2026-01-31T23:59:59.999999Z", "2026-02-20T12:00:00Z",
+                "2026-03-01T00:00:00Z", "2026-05-14T09:30:00Z")) {
+            PaymentDAO payment = new PaymentDAO(CurrencyCode.of("GBP"), 1050, account);
+            payment.setCreatedAt(Instant.parse(createdAt));
+            payments.add(payment);
+        }
+        paymentRepository.saveAll(payments);
+
+        // March to May are the three hot months in May
+        assertEquals(3, archiver.archive(Instant.parse("2026-05-15T00:00:00Z")));
+
+        assertEquals(2, paymentRepository.count());
+        assertEquals(Instant.parse("2026-03-01T00:00:00Z"), paymentRepository.findMinCreatedAt());
+        assertEquals(2, archive.files().size());
+        assertEquals(List.of(2L, 1L), archive.files().stream().map(file -> file.getSummary().rows()).toList());
+        List<PaymentRow> archived = archive.findPage(new PaymentFilter(null, null), 0L, 10);
+        assertEquals(payments.subList(0, 3).stream().map(PaymentDAO::getId).toList(),
+                archived.stream().map(PaymentRow::getId).toList());
+        assertEquals(Instant.parse("2026-01-31T23:59:59.999999Z"), archived.get(1).getCreatedAt());
+        assertEquals("12345678", archived.get(2).getPayment().getCounterparty().getAccountNumber());
+
+        assertEquals(0, archiver.archive(Instant.parse("2026-05-15T00:00:00Z")));
+        assertEquals(2, archive.files().size());
+    }
+}
@@ -0,0 +1,46 @@
+package com.tw.finseta.payment.cache;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Unit test class for {@link AccountIdCache}.
+ *
+ * <p>Covers packing of (sortCode, accountNumber) keys and the hit, miss and eviction accounting.</p>
+ *
+ * @author Ranga Raju
+ * @see AccountIdCache
+ */
+public class AccountIdCacheTest {
+
+    @Test
+    void testKey_packsSortCodeAndAccountNumber() {
+        assertEquals(12345612345678L, AccountIdCache.key("123456", "12345678"));
+        assertEquals(0L, AccountIdCache.key("000000", "00000000"));
+        assertEquals(99999999999999L, AccountIdCache.key("999999", "99999999"));
+    }
+
+    @Test
+    void testKey_rejectsValuesThatCannotBePacked() {
+        assertEquals(AccountIdCache.NOT_CACHEABLE, AccountIdCache.key("12345", "12345678"));
+        assertEquals(AccountIdCache.NOT_CACHEABLE, AccountIdCache.key("123456", "1234567a"));
+        assertEquals(AccountIdCache.NOT_CACHEABLE, AccountIdCache.key(null, "12345678"));
+    }
+
+    @Test
+    void testGetAndPut_recordHitsAndMisses() {
+        AccountIdCache cache = new AccountIdCache(10);
+        long key = AccountIdCache.key("123456", "12345678");
+
+        assertNull(cache.get(key));
+        cache.put(key, 42L);
+        assertEquals(42L, cache.get(key));
+
+        cache.put(AccountIdCache.NOT_CACHEABLE, 7L);
+        assertNull(cache.get(AccountIdCache.NOT_CACHEABLE));
+        assertEquals(1, cache.stats().hitCount());
+        assertEquals(1, cache.stats().missCount());
+    }
+}
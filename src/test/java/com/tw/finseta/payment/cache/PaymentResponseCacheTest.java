@@ -0,0 +1,95 @@
+package com.tw.finseta.payment.cache;
+
+import com.tw.finseta.payment.money.CurrencyCode;
+import com.tw.finseta.payment.repository.PaymentRow;
+import com.tw.finseta.payment.service.PaymentsSavedEvent;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.http.HttpServletResponse;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+/**
+ * Unit test class for {@link PaymentResponseCache}.
+ *
+ * <p>Covers conditional GETs, cache hits on equivalent queries and invalidation when a save in a filtered
+ * currency moves its version.</p>
+ *
+ * @author Ranga Raju
+ * @see PaymentResponseCache
+ */
+public class PaymentResponseCacheTest {
+
+    private final PaymentVersions versions = new PaymentVersions();
+    private final PaymentResponseCache responseCache = new PaymentResponseCache(versions, new SimpleMeterRegistry(), 1 << 20);
+    private final AtomicInteger queries = new AtomicInteger();
+
+    // Stands in for the controller, every call is a query
+    private final FilterChain controller = (request, response) -> {
+        int query = queries.incrementAndGet();
+        response.setContentType("application/json");
+        ((HttpServletResponse) response).setHeader("X-Next-Cursor", "cursor-" + query);
+        response.getOutputStream().write(("[" + query + "]").getBytes(StandardCharsets.UTF_8));
+    };
+
+    @Test
+    void testEquivalentQueries_areServedFromCacheAndRevalidated() throws Exception {
+        MockHttpServletResponse first = get("GBP,USD", "10.50", null);
+        String eTag = first.getHeader(HttpHeaders.ETAG);
+        assertNotNull(eTag);
+        assertEquals("[1]", first.getContentAsString());
+
+        // Same filter in another order and scale, and an unknown code that can never match
+        MockHttpServletResponse second = get("USD, GBP,XYZ", "10.5", null);
+        assertEquals("[1]", second.getContentAsString());
+        assertEquals("cursor-1", second.getHeader("X-Next-Cursor"));
+        assertEquals(eTag, second.getHeader(HttpHeaders.ETAG));
+
+        MockHttpServletResponse notModified = get("GBP,USD", "10.50", eTag);
+        assertEquals(304, notModified.getStatus());
+        assertEquals("", notModified.getContentAsString());
+        assertEquals(1, queries.get());
+    }
+
+    @Test
+    void testSaveInFilteredCurrency_invalidatesOnlyItsQueries() throws Exception {
+        String gbp = get("GBP", null, null).getHeader(HttpHeaders.ETAG);
+        String eur = get("EUR", null, null).getHeader(HttpHeaders.ETAG);
+
+        versions.onPaymentsSaved(new PaymentsSavedEvent(List.of(
+                new PaymentRow(1L, CurrencyCode.of("GBP"), 100L, null))));
+
+        MockHttpServletResponse changed = get("GBP", null, gbp);
+        assertEquals(200, changed.getStatus());
+        assertEquals("[3]", changed.getContentAsString());
+        assertNotEquals(gbp, changed.getHeader(HttpHeaders.ETAG));
+        assertEquals(304, get("EUR", null, eur).getStatus());
+        assertEquals(3, queries.get());
+    }
+
+    private MockHttpServletResponse get(String currencies, String minAmount, String ifNoneMatch) throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/payments");
+        if (currencies != null) {
+            request.addParameter("currencies", currencies);
+        }
+        if (minAmount != null) {
+            request.addParameter("minAmount", minAmount);
+        }
+        if (ifNoneMatch != null) {
+            request.addHeader(HttpHeaders.IF_NONE_MATCH, ifNoneMatch);
+        }
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        responseCache.doFilter(request, response, controller);
+        return response;
+    }
+}
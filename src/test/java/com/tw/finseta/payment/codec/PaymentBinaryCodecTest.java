@@ -0,0 +1,115 @@
+package com.tw.finseta.payment.codec;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.tw.finseta.payment.model.Account;
+import com.tw.finseta.payment.model.Payment;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit test class for {@link PaymentBinaryCodec}.
+ *
+ * <p>Covers the round trip of complete and partial payments, including amounts beyond a {@code long}, the
+ * encoded size against JSON and the rejection of truncated input and of oversized strings, amounts and lists.</p>
+ *
+ * @author Ranga Raju
+ * @see PaymentBinaryCodec
+ */
+public class PaymentBinaryCodecTest {
+
+    @Test
+    void testWriteAll_readsBackEqualPayments() throws IOException {
+        Payment partial = new Payment();
+        partial.setAmount(new BigDecimal("-1E+3"));
+        partial.setCounterparty(new Account().accountNumber("1234567"));
+        List<Payment> payments = List.of(
+                payment("GBP", "1234.56", "00000001"),
+                payment("JPY", "1000", "00000002"),
+                payment("USD", "92233720368547758070.00", "00000003"),
+                partial,
+                new Payment());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PaymentBinaryCodec.writeAll(payments, out);
+        List<Payment> read = PaymentBinaryCodec.readAll(new ByteArrayInputStream(out.toByteArray()));
+
+        assertEquals(payments, read);
+        assertEquals(2, read.get(0).getAmount().scale());
+    }
+
+    @Test
+    void testWriteAll_isAFifthOfJson() throws IOException {
+        List<Payment> payments = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            payments.add(payment("GBP", BigDecimal.valueOf(i * 37L, 2).toPlainString(), String.format("%08d", i)));
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PaymentBinaryCodec.writeAll(payments, out);
+        int json = new ObjectMapper().writeValueAsBytes(payments).length;
+
+        assertTrue(out.size() * 4 < json, out.size() + " bytes against " + json + " as JSON");
+        assertEquals(payments, PaymentBinaryCodec.readAll(new ByteArrayInputStream(out.toByteArray())));
+    }
+
+    @Test
+    void testRead_rejectsTruncatedInput() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PaymentBinaryCodec.write(payment("GBP", "10.00", "00000001"), out);
+        byte[] truncated = Arrays.copyOf(out.toByteArray(), out.size() - 1);
+
+        assertThrows(EOFException.class, () -> PaymentBinaryCodec.read(new ByteArrayInputStream(truncated)));
+        assertThrows(IOException.class, () -> PaymentBinaryCodec.read(new ByteArrayInputStream(new byte[] {-1})));
+    }
+
+    @Test
+    void testRead_rejectsOversizedValuesBeforeReadingThem() throws IOException {
+        // Only the flags and a length: a limit checked after reading would fail on the missing bytes instead
+        IOException string = assertThrows(IOException.class,
+                () -> PaymentBinaryCodec.read(new ByteArrayInputStream(new byte[] {1, 65})));
+        assertEquals("Invalid length 65", string.getMessage());
+        IOException amount = assertThrows(IOException.class,
+                () -> PaymentBinaryCodec.read(new ByteArrayInputStream(new byte[] {2 | 64, 0, 17})));
+        assertEquals("Invalid length 17", amount.getMessage());
+
+        assertThrows(IOException.class, () -> PaymentBinaryCodec.read(encoded(payment("GBP", "1" + "0".repeat(40),
+                "00000001"))));
+        assertThrows(IOException.class, () -> PaymentBinaryCodec.read(encoded(payment("GBP", "1E-65", "00000001"))));
+        assertThrows(IOException.class, () -> PaymentBinaryCodec.read(encoded(payment("GBP", "10.00",
+                "1".repeat(65)))));
+
+        List<Payment> payments = new ArrayList<>();
+        for (int i = 0; i <= 1000; i++) {
+            payments.add(payment("GBP", "10.00", "00000001"));
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PaymentBinaryCodec.writeAll(payments, out);
+        IOException count = assertThrows(IOException.class,
+                () -> PaymentBinaryCodec.readAll(new ByteArrayInputStream(out.toByteArray())));
+        assertEquals("Invalid payment count 1001", count.getMessage());
+        assertEquals(payments, PaymentBinaryCodec.readAll(new ByteArrayInputStream(out.toByteArray()), 1001));
+    }
+
+    private static ByteArrayInputStream encoded(Payment payment) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PaymentBinaryCodec.write(payment, out);
+        return new ByteArrayInputStream(out.toByteArray());
+    }
+
+    private static Payment payment(String currency, String amount, String accountNumber) {
+        return new Payment(currency, new BigDecimal(amount),
+                new Account(Account.TypeEnum.SORT_CODE_ACCOUNT_NUMBER, accountNumber, "123456"));
+    }
+}
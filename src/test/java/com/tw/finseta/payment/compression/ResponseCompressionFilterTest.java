@@ -0,0 +1,110 @@
+package com.tw.finseta.payment.compression;
+
+import com.github.luben.zstd.ZstdInputStream;
+import jakarta.servlet.http.HttpServletResponse;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.autoconfigure.web.ServerProperties;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Unit test class for {@link ResponseCompressionFilter}.
+ *
+ * <p>Covers the choice of content coding, malformed q-values taken as refusals, compression of large responses
+ * with a weakened {@code ETag}, and small or unlisted responses going out as they are.</p>
+ *
+ * @author Ranga Raju
+ * @see ResponseCompressionFilter
+ */
+public class ResponseCompressionFilterTest {
+
+    private static final byte[] LARGE = "{\"currency\":\"GBP\",\"amount\":10.00}".repeat(200)
+            .getBytes(StandardCharsets.UTF_8);
+
+    private final ResponseCompressionFilter filter;
+
+    public ResponseCompressionFilterTest() {
+        ServerProperties serverProperties = new ServerProperties();
+        serverProperties.getCompression().setMinResponseSize(DataSize.ofKilobytes(2));
+        serverProperties.getCompression().setMimeTypes(new String[] {"application/json"});
+        filter = new ResponseCompressionFilter(serverProperties, 3);
+    }
+
+    @Test
+    void testCoding_prefersZstdAndHonoursRefusals() {
+        assertEquals("zstd", ResponseCompressionFilter.coding("gzip, deflate, br, zstd"));
+        assertEquals("gzip", ResponseCompressionFilter.coding("gzip;q=0.5, zstd;q=0"));
+        assertNull(ResponseCompressionFilter.coding("identity"));
+        assertNull(ResponseCompressionFilter.coding(null));
+    }
+
+    @Test
+    void testMalformedQValue_isTakenAsARefusal() throws Exception {
+        assertNull(ResponseCompressionFilter.coding("gzip;q=abc"));
+        assertNull(ResponseCompressionFilter.coding("gzip;q="));
+        assertEquals("gzip", ResponseCompressionFilter.coding("zstd;q=NaN, gzip;q=1"));
+
+        MockHttpServletResponse response = send("gzip;q=abc", "application/json", LARGE);
+        assertNull(response.getHeader(HttpHeaders.CONTENT_ENCODING));
+        assertArrayEquals(LARGE, response.getContentAsByteArray());
+    }
+
+    @Test
+    void testLargeResponse_isCompressedWithAWeakETag() throws Exception {
+        MockHttpServletResponse zstd = send("zstd", "application/json", LARGE);
+        assertEquals("zstd", zstd.getHeader(HttpHeaders.CONTENT_ENCODING));
+        assertEquals("W/\"1-2\"", zstd.getHeader(HttpHeaders.ETAG));
+        assertEquals(HttpHeaders.ACCEPT_ENCODING, zstd.getHeader(HttpHeaders.VARY));
+        assertArrayEquals(LARGE, decode(new ZstdInputStream(new ByteArrayInputStream(zstd.getContentAsByteArray()))));
+
+        MockHttpServletResponse gzip = send("gzip", "application/json", LARGE);
+        assertEquals("gzip", gzip.getHeader(HttpHeaders.CONTENT_ENCODING));
+        assertArrayEquals(LARGE, decode(new GZIPInputStream(new ByteArrayInputStream(gzip.getContentAsByteArray()))));
+    }
+
+    @Test
+    void testSmallOrUnlistedResponse_isSentAsItIs() throws Exception {
+        byte[] small = "{}".getBytes(StandardCharsets.UTF_8);
+        MockHttpServletResponse smallResponse = send("zstd", "application/json", small);
+        assertNull(smallResponse.getHeader(HttpHeaders.CONTENT_ENCODING));
+        assertEquals("\"1-2\"", smallResponse.getHeader(HttpHeaders.ETAG));
+        assertEquals(small.length, smallResponse.getContentLength());
+        assertArrayEquals(small, smallResponse.getContentAsByteArray());
+
+        MockHttpServletResponse unlisted = send("zstd", "image/png", LARGE);
+        assertNull(unlisted.getHeader(HttpHeaders.CONTENT_ENCODING));
+        assertArrayEquals(LARGE, unlisted.getContentAsByteArray());
+    }
+
+    private MockHttpServletResponse send(String acceptEncoding, String contentType, byte[] body) throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/payments");
+        request.addHeader(HttpHeaders.ACCEPT_ENCODING, acceptEncoding);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        filter.doFilter(request, response, (req, res) -> {
+            HttpServletResponse http = (HttpServletResponse) res;
+            http.setContentType(contentType);
+            http.setHeader(HttpHeaders.ETAG, "\"1-2\"");
+            http.setContentLength(body.length);
+            http.getOutputStream().write(body);
+        });
+        return response;
+    }
+
+    private static byte[] decode(InputStream in) throws IOException {
+        try (in) {
+            return in.readAllBytes();
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package com.tw.finseta.payment.feed;
+
+import com.tw.finseta.payment.model.Payment;
+import com.tw.finseta.payment.money.CurrencyCode;
+import com.tw.finseta.payment.money.Money;
+import com.tw.finseta.payment.repository.PaymentFilter;
+import com.tw.finseta.payment.repository.PaymentRow;
+import com.tw.finseta.payment.service.PaymentsSavedEvent;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit test class for {@link PaymentFeed}.
+ *
+ * <p>Covers server-side filtering, resuming from a {@code Last-Event-ID}, the reset event for an unknown resume
+ * point, and disconnection of a subscriber that the ring has lapped or whose write is blocked.</p>
+ *
+ * @author Ranga Raju
+ * @see PaymentFeed
+ */
+public class PaymentFeedTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private PaymentFeed feed = new PaymentFeed(4, 10, 2, Duration.ofHours(1), Duration.ofHours(1), meterRegistry);
+    private long nextId;
+
+    @AfterEach
+    void tearDown() {
+        feed.close();
+    }
+
+    @Test
+    void testSubscribe_sendsMatchingPaymentsAndResumesAfterLastEventId() throws Exception {
+        RecordingEmitter gbpOver10 = new RecordingEmitter(null);
+        feed.subscribe(new PaymentFilter(List.of("GBP"), BigDecimal.TEN), null, gbpOver10);
+
+        publish("GBP", "5.00", "GBP", "15.00", "USD", "20.00", "GBP", "10.00");
+        await(() -> gbpOver10.events.size() == 2);
+        assertEquals("payment GBP 15.00", gbpOver10.events.get(0).toString());
+        assertEquals("payment GBP 10.00", gbpOver10.events.get(1).toString());
+
+        // Reconnecting after the first event replays the payments committed since, whatever the filter skipped
+        RecordingEmitter resumed = new RecordingEmitter(null);
+        feed.subscribe(new PaymentFilter(null, null), gbpOver10.events.get(0).id(), resumed);
+        await(() -> resumed.events.size() == 2);
+        assertEquals("payment USD 20.00", resumed.events.get(0).toString());
+        assertEquals(gbpOver10.events.get(1).id(), resumed.events.get(1).id());
+    }
+
+    @Test
+    void testSubscribe_unknownLastEventIdGetsReset() throws Exception {
+        RecordingEmitter emitter = new RecordingEmitter(null);
+        feed.subscribe(new PaymentFilter(null, null), "0-12", emitter);
+        await(() -> emitter.events.size() == 1);
+        publish("EUR", "1.00");
+
+        await(() -> emitter.events.size() == 2);
+        assertEquals(PaymentFeed.RESET_EVENT, emitter.events.get(0).name());
+        assertEquals("payment EUR 1.00", emitter.events.get(1).toString());
+    }
+
+    @Test
+    void testSlowSubscriber_isDisconnectedWithoutBlockingPublishers() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        RecordingEmitter slow = new RecordingEmitter(release);
+        feed.subscribe(new PaymentFilter(null, null), null, slow);
+
+        publish("GBP", "1.00");
+        await(slow.blocked::get);
+        // The ring holds 4 payments, these overwrite everything the subscriber has not read yet
+        for (int i = 0; i < 10; i++) {
+            publish("GBP", "2.00");
+        }
+        release.countDown();
+
+        await(slow::isCompleted);
+        await(() -> feed.subscribers() == 0);
+        assertEquals(1, slow.events.size());
+        assertEquals(1.0, meterRegistry.get("payment.feed.dropped").counter().count());
+    }
+
+    @Test
+    void testStalledSubscriber_isDisconnectedWhileOthersKeepReceiving() throws Exception {
+        feed.close();
+        feed = new PaymentFeed(4, 10, 2, Duration.ofHours(1), Duration.ofMillis(100), meterRegistry);
+        CountDownLatch release = new CountDownLatch(1);
+        RecordingEmitter stalled = new RecordingEmitter(release);
+        RecordingEmitter reader = new RecordingEmitter(null);
+        feed.subscribe(new PaymentFilter(null, null), null, stalled);
+        feed.subscribe(new PaymentFilter(null, null), null, reader);
+
+        publish("GBP", "1.00");
+        await(stalled.blocked::get);
+        await(() -> feed.subscribers() == 1);
+        assertEquals(1.0, meterRegistry.get("payment.feed.stalled").counter().count());
+
+        // The stalled write still holds one of the two senders, the other keeps serving
+        publish("GBP", "2.00");
+        await(() -> reader.events.size() == 2);
+        release.countDown();
+        await(stalled::isCompleted);
+        publish("GBP", "3.00");
+        await(() -> reader.events.size() == 3);
+        assertEquals(1, stalled.events.size());
+        assertEquals(0.0, meterRegistry.get("payment.feed.dropped").counter().count());
+    }
+
+    private void publish(String... currencyAmounts) {
+        List<PaymentRow> rows = new ArrayList<>();
+        for (int i = 0; i < currencyAmounts.length; i += 2) {
+            CurrencyCode currency = CurrencyCode.of(currencyAmounts[i]);
+            BigDecimal amount = new BigDecimal(currencyAmounts[i + 1]);
+            rows.add(new PaymentRow(++nextId, currency, Money.toMinorUnits(amount, currency),
+                    new Payment(currency.toString(), amount, null)));
+        }
+        feed.onPaymentsSaved(new PaymentsSavedEvent(rows));
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "Timed out waiting for the feed");
+            Thread.sleep(5);
+        }
+    }
+
+    private record Event(String id, String name, Payment payment) {
+
+        @Override
+        public String toString() {
+            return name + (payment == null ? "" : " " + payment.getCurrency() + " " + payment.getAmount());
+        }
+    }
+
+    /**
+     * Records the events sent instead of writing them to a response, optionally blocking on the first one.
+     */
+    private static final class RecordingEmitter extends SseEmitter {
+
+        private final List<Event> events = new CopyOnWriteArrayList<>();
+        private final CountDownLatch release;
+        private final AtomicBoolean blocked = new AtomicBoolean();
+        private volatile boolean completed;
+
+        private RecordingEmitter(CountDownLatch release) {
+            this.release = release;
+        }
+
+        @Override
+        public void send(SseEventBuilder builder) throws IOException {
+            String id = null;
+            String name = null;
+            Payment payment = null;
+            for (DataWithMediaType data : builder.build()) {
+                if (data.getData() instanceof Payment value) {
+                    payment = value;
+                } else {
+                    for (String line : data.getData().toString().split("\n")) {
+                        if (line.startsWith("id:")) {
+                            id = line.substring(3);
+                        } else if (line.startsWith("event:")) {
+                            name = line.substring(6);
+                        }
+                    }
+                }
+            }
+            if (name != null) {
+                events.add(new Event(id, name, payment));
+            }
+            if (release != null && blocked.compareAndSet(false, true)) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+        }
+
+        @Override
+        public void complete() {
+            completed = true;
+        }
+
+        private boolean isCompleted() {
+            return completed;
+        }
+    }
+}
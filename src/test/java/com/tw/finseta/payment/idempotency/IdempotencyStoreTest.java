@@ -0,0 +1,145 @@
+package com.tw.finseta.payment.idempotency;
+
+import com.tw.finseta.payment.api.PaymentController;
+import com.tw.finseta.payment.exception.IdempotencyKeyException;
+import com.tw.finseta.payment.model.Account;
+import com.tw.finseta.payment.model.Payment;
+import com.tw.finseta.payment.repository.IdempotencyKeyRepository;
+import com.tw.finseta.payment.repository.PaymentRepository;
+import com.tw.finseta.payment.shard.PaymentShards;
+import com.tw.finseta.payment.util.PaymentMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test class for create requests with an {@code Idempotency-Key}, through {@link PaymentController} and
+ * {@link IdempotencyStore} against the database.
+ *
+ * <p>Covers a retry getting the first response without a second payment, a key reused with another payment, a
+ * retry after a restart finding the key in the database, concurrent requests with one key saving once, and
+ * expired keys being deleted.</p>
+ *
+ * @author Ranga Raju
+ * @see IdempotencyStore
+ */
+@SpringBootTest
+public class IdempotencyStoreTest {
+
+    @Autowired
+    private PaymentController paymentController;
+
+    @Autowired
+    private IdempotencyStore idempotencyStore;
+
+    @Autowired
+    private IdempotencyKeyRepository idempotencyKeyRepository;
+
+    @Autowired
+    private PaymentRepository paymentRepository;
+
+    @Autowired
+    private PaymentMapper paymentMapper;
+
+    @Autowired
+    private PaymentShards shards;
+
+    @Test
+    void testPaymentsPost_replaysTheFirstResponseForTheSameKey() {
+        long before = paymentRepository.count();
+
+        ResponseEntity<Payment> first = paymentController.paymentsPost(payment("12.50"), "key-replay");
+        ResponseEntity<Payment> retry = paymentController.paymentsPost(payment("12.5"), "key-replay");
+
+        assertEquals(HttpStatus.CREATED, first.getStatusCode());
+        assertNull(first.getHeaders().getFirst(IdempotencyStore.REPLAYED_HEADER));
+        assertEquals(HttpStatus.CREATED, retry.getStatusCode());
+        assertEquals("true", retry.getHeaders().getFirst(IdempotencyStore.REPLAYED_HEADER));
+        assertEquals(first.getBody(), retry.getBody());
+        assertEquals(before + 1, paymentRepository.count());
+        assertTrue(idempotencyKeyRepository.existsById("key-replay"));
+
+        IdempotencyKeyException reused = assertThrows(IdempotencyKeyException.class,
+                () -> paymentController.paymentsPost(payment("99.00"), "key-replay"));
+        assertEquals(HttpStatus.UNPROCESSABLE_ENTITY, reused.getStatus());
+
+        // A new store has nothing in memory, as after a restart
+        IdempotencyStore restarted = store(Duration.ofHours(24));
+        ResponseEntity<Payment> afterRestart = restarted.execute("key-replay", payment("12.50"), requestHash -> {
+            throw new AssertionError("The payment must not be created again");
+        });
+        restarted.stop();
+        assertEquals(HttpStatus.CREATED, afterRestart.getStatusCode());
+        assertEquals("true", afterRestart.getHeaders().getFirst(IdempotencyStore.REPLAYED_HEADER));
+        assertEquals(first.getBody(), afterRestart.getBody());
+        assertEquals(before + 1, paymentRepository.count());
+    }
+
+    @Test
+    void testExecute_coalescesConcurrentRequestsOntoTheFirst() throws Exception {
+        CountDownLatch creating = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger creates = new AtomicInteger();
+        Payment payment = payment("7.00");
+
+        CompletableFuture<ResponseEntity<Payment>> first = CompletableFuture.supplyAsync(() ->
+                idempotencyStore.execute("key-coalesce", payment, requestHash -> {
+                    creates.incrementAndGet();
+                    creating.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return ResponseEntity.status(HttpStatus.CREATED).body(payment);
+                }));
+        assertTrue(creating.await(5, TimeUnit.SECONDS));
+        CompletableFuture<ResponseEntity<Payment>> second = CompletableFuture.supplyAsync(() ->
+                idempotencyStore.execute("key-coalesce", payment, requestHash -> {
+                    creates.incrementAndGet();
+                    return ResponseEntity.status(HttpStatus.CREATED).body(payment);
+                }));
+        Thread.sleep(200);
+        release.countDown();
+
+        assertNull(first.get(5, TimeUnit.SECONDS).getHeaders().getFirst(IdempotencyStore.REPLAYED_HEADER));
+        assertEquals("true", second.get(5, TimeUnit.SECONDS).getHeaders().getFirst(IdempotencyStore.REPLAYED_HEADER));
+        assertEquals(1, creates.get());
+    }
+
+    @Test
+    void testDeleteExpired_removesKeysOlderThanTheTtl() {
+        paymentController.paymentsPost(payment("3.00"), "key-expired");
+        assertTrue(idempotencyKeyRepository.existsById("key-expired"));
+
+        assertEquals(0, idempotencyStore.deleteExpired());
+        IdempotencyStore expiring = store(Duration.ZERO);
+        assertTrue(expiring.deleteExpired() >= 1);
+        expiring.stop();
+        assertTrue(idempotencyKeyRepository.findById("key-expired").isEmpty());
+    }
+
+    private IdempotencyStore store(Duration ttl) {
+        return new IdempotencyStore(100, ttl, Duration.ofSeconds(1), Duration.ofHours(1), idempotencyKeyRepository,
+                paymentMapper, shards);
+    }
+
+    private static Payment payment(String amount) {
+        return new Payment("GBP", new BigDecimal(amount), new Account(Account.TypeEnum.SORT_CODE_ACCOUNT_NUMBER,
+                "87654321", "112233"));
+    }
+}
@@ -0,0 +1,167 @@
+package com.tw.finseta.payment.ingest;
+
+import com.tw.finseta.payment.dao.PaymentDAO;
+import com.tw.finseta.payment.model.Account;
+import com.tw.finseta.payment.model.Payment;
+import com.tw.finseta.payment.repository.PaymentRepository;
+import com.tw.finseta.payment.service.PaymentService;
+import com.tw.finseta.payment.util.PaymentMapperImpl;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.dao.DataIntegrityViolationException;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit test class for {@link PaymentJournal}.
+ *
+ * <p>Covers acknowledgement and commit of appended payments, recovery of uncommitted payments after a
+ * failed commit, including a torn last record, and a payment that can never be inserted moving to the
+ * dead-letter file.</p>
+ *
+ * @author Ranga Raju
+ * @see PaymentJournal
+ */
+public class PaymentJournalTest {
+
+    @TempDir
+    Path directory;
+
+    private final PaymentService paymentService = mock(PaymentService.class);
+    private final PaymentRepository paymentRepository = mock(PaymentRepository.class);
+    private final List<PaymentDAO> committed = new CopyOnWriteArrayList<>();
+
+    @Test
+    void testAppend_commitsPaymentsAndDeletesTheJournal() throws Exception {
+        doAnswer(invocation -> committed.addAll(invocation.getArgument(0))).when(paymentService).saveIngested(anyList());
+        PaymentJournal journal = journal();
+        journal.open();
+
+        AcceptedPayment first = journal.append(payment("GBP", "10.5"));
+        AcceptedPayment second = journal.append(payment("JPY", "1000"));
+        journal.close();
+
+        assertEquals(1, first.ingestId());
+        assertEquals(2, second.ingestId());
+        assertEquals(new BigDecimal("10.50"), first.payment().getAmount());
+        assertEquals(List.of(1L, 2L), committed.stream().map(PaymentDAO::getIngestSeq).toList());
+        assertEquals(1050, committed.get(0).getAmountMinor());
+        assertEquals("12345678", committed.get(1).getCounterparty().getAccountNumber());
+        assertEquals(List.of(), segments());
+    }
+
+    @Test
+    void testOpen_replaysUncommittedPaymentsAndIgnoresATornRecord() throws Exception {
+        doThrow(new IllegalStateException("database down")).when(paymentService).saveIngested(anyList());
+        PaymentJournal failing = journal();
+        failing.open();
+        for (int i = 0; i < 3; i++) {
+            failing.append(payment("GBP", "1"));
+        }
+        failing.close();
+        assertEquals(3, failing.backlog());
+
+        // Sequence 1 was committed before the crash, and the last record was only partly written
+        tearLastRecord(segments().get(0), 3);
+        when(paymentRepository.findMaxIngestSeq()).thenReturn(1L);
+        doAnswer(invocation -> committed.addAll(invocation.getArgument(0))).when(paymentService).saveIngested(anyList());
+        PaymentJournal recovered = journal();
+        recovered.open();
+        AcceptedPayment next = recovered.append(payment("EUR", "2"));
+        recovered.close();
+
+        assertEquals(3, next.ingestId());
+        assertEquals(List.of(2L, 3L), committed.stream().map(PaymentDAO::getIngestSeq).toList());
+        assertTrue(segments().isEmpty());
+    }
+
+    @Test
+    void testCommit_movesAPoisonRecordToTheDeadLetterFile() throws Exception {
+        // 6.66 stands for a payment the database rejects whatever it is saved with
+        doAnswer(invocation -> {
+            List<PaymentDAO> batch = invocation.getArgument(0);
+            if (batch.stream().anyMatch(payment -> payment.getAmountMinor() == 666)) {
+                throw new DataIntegrityViolationException("Check constraint violated by account 12345678");
+            }
+            return committed.addAll(batch);
+        }).when(paymentService).saveIngested(anyList());
+        MeterRegistry meterRegistry = new SimpleMeterRegistry();
+        PaymentJournal journal = journal(meterRegistry, 1);
+        journal.open();
+        journal.append(payment("GBP", "1"));
+        journal.append(payment("GBP", "6.66"));
+        journal.append(payment("GBP", "2"));
+        journal.append(payment("GBP", "6.66"));
+        for (int i = 0; i < 100 && journal.backlog() > 0; i++) {
+            Thread.sleep(100);
+        }
+        journal.close();
+
+        assertEquals(List.of(1L, 3L), committed.stream().map(PaymentDAO::getIngestSeq).toList());
+        assertEquals(2, meterRegistry.get("payment.ingest.dead_letters").counter().count());
+        Path deadLetters = directory.resolve(PaymentJournal.DEAD_LETTER_FILE);
+        assertEquals(List.of(deadLetters), segments());
+        ByteBuffer records = ByteBuffer.wrap(Files.readAllBytes(deadLetters));
+        assertEquals(2L, records.getLong(2 * Integer.BYTES));
+        assertEquals(4L, records.getLong(records.capacity() / 2 + 2 * Integer.BYTES));
+
+        // The last payment was dead-lettered, not committed, and is neither replayed nor its sequence reused
+        when(paymentRepository.findMaxIngestSeq()).thenReturn(3L);
+        PaymentJournal reopened = journal();
+        reopened.open();
+        AcceptedPayment next = reopened.append(payment("GBP", "3"));
+        reopened.close();
+        assertEquals(5, next.ingestId());
+        assertEquals(List.of(1L, 3L, 5L), committed.stream().map(PaymentDAO::getIngestSeq).toList());
+    }
+
+    private PaymentJournal journal() {
+        return journal(new SimpleMeterRegistry(), 3);
+    }
+
+    private PaymentJournal journal(MeterRegistry meterRegistry, int commitRetries) {
+        return new PaymentJournal(paymentService, paymentRepository, new PaymentMapperImpl(),
+                meterRegistry, directory, 4096, 100, commitRetries, Duration.ofMillis(200));
+    }
+
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.sorted().toList();
+        }
+    }
+
+    private static Payment payment(String currency, String amount) {
+        return new Payment(currency, new BigDecimal(amount),
+                new Account(Account.TypeEnum.SORT_CODE_ACCOUNT_NUMBER, "12345678", "123456"));
+    }
+
+    // Corrupts a byte in the body of the last of count equally sized records
+    private static void tearLastRecord(Path segment, int count) throws IOException {
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer length = ByteBuffer.allocate(Integer.BYTES);
+            channel.read(length, 0);
+            long recordBytes = 2 * Integer.BYTES + length.flip().getInt();
+            channel.write(ByteBuffer.wrap(new byte[] {(byte) 0xFF}), (count - 1) * recordBytes + 20);
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package com.tw.finseta.payment.logging;
+
+import com.sun.management.ThreadMXBean;
+import com.tw.finseta.payment.model.Account;
+import com.tw.finseta.payment.model.Payment;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.Marker;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.config.DefaultConfiguration;
+import org.apache.logging.log4j.core.impl.Log4jLogEvent;
+import org.apache.logging.log4j.core.layout.PatternLayout;
+import org.apache.logging.log4j.message.SimpleMessage;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit test class for {@link RequestLog}.
+ *
+ * <p>Covers the structured line of each kind of request with its account number masked, per-endpoint sampling
+ * that still writes every 5xx, dropping lines while the ring is full, request threads handing their lines
+ * over without allocating, and stack traces written with their account numbers masked.</p>
+ *
+ * @author Ranga Raju
+ * @see RequestLog
+ * @see RequestFields
+ */
+public class RequestLogTest {
+
+    private final Payment payment = new Payment("GBP", new BigDecimal("10.50"),
+            new Account(Account.TypeEnum.SORT_CODE_ACCOUNT_NUMBER, "12345678", "654321"));
+
+    @Test
+    void testEnd_writesStructuredFieldsWithMaskedAccount() {
+        List<String> lines = new CopyOnWriteArrayList<>();
+        RequestLog requestLog = new RequestLog(16, "", true, text -> lines.add(text.toString()));
+
+        RequestFields fields = requestLog.begin("POST");
+        RequestLog.payment(payment);
+        requestLog.end(fields, "/payments", 201);
+
+        fields = requestLog.begin("GET");
+        RequestLog.query(List.of("GBP", "USD"), new BigDecimal("100"), null, null);
+        RequestLog.count(3);
+        requestLog.end(fields, "/payments", 200);
+        assertNull(RequestLog.current(), "Fields are closed once the request ends");
+        requestLog.close();
+
+        assertEquals(2, lines.size());
+        assertTrue(lines.get(0).matches("method=POST route=/payments status=201 micros=\\d+ currency=GBP amount=10.50 "
+                + "account=\\*\\*\\*\\*5678"), lines.get(0));
+        assertTrue(lines.get(1).matches("method=GET route=/payments status=200 micros=\\d+ currencies=GBP,USD "
+                + "minAmount=100 count=3"), lines.get(1));
+        assertEquals("Duplicate account ****5678 at 654321, payment 123456789",
+                AccountMasking.maskAll("Duplicate account 12345678 at 654321, payment 123456789"));
+    }
+
+    @Test
+    void testMaskedEx_writesTheStackTraceWithAccountsMaskedWhenMarked() {
+        PatternLayout layout = PatternLayout.newBuilder().withPattern("%msg%n%maskedEx")
+                .withConfiguration(new DefaultConfiguration()).build();
+        Exception ex = new IllegalStateException("Duplicate payment 123456789",
+                new IllegalArgumentException("Unique index on account 12345678"));
+
+        String masked = layout.toSerializable(event(AccountMasking.MASKED, ex));
+        assertTrue(masked.contains("Caused by: java.lang.IllegalArgumentException: Unique index on account ****5678"),
+                masked);
+        assertTrue(masked.contains("Duplicate payment 123456789"), masked);
+        assertTrue(masked.contains("at com.tw.finseta.payment.logging.RequestLogTest"), masked);
+
+        assertTrue(layout.toSerializable(event(null, ex)).contains("account 12345678"),
+                "Unmarked events are not masked");
+        assertEquals("Unhandled exception" + System.lineSeparator(), layout.toSerializable(event(null, null)));
+    }
+
+    private static LogEvent event(Marker marker, Throwable thrown) {
+        return Log4jLogEvent.newBuilder().setLevel(Level.ERROR).setMarker(marker)
+                .setMessage(new SimpleMessage("Unhandled exception")).setThrown(thrown).build();
+    }
+
+    @Test
+    void testEnd_samplesListedEndpointsButWritesEveryServerError() {
+        List<String> lines = new CopyOnWriteArrayList<>();
+        RequestLog requestLog = new RequestLog(64, "GET /payments=10, POST /payments=1", false,
+                text -> lines.add(text.toString()));
+
+        for (int i = 0; i < 30; i++) {
+            requestLog.end(requestLog.begin("GET"), "/payments", 200);
+        }
+        requestLog.end(requestLog.begin("GET"), "/payments", 503);
+        requestLog.end(requestLog.begin("GET"), "/payments/summary", 200);
+        RequestFields fields = requestLog.begin("POST");
+        RequestLog.payment(payment);
+        requestLog.end(fields, "/payments", 201);
+        requestLog.close();
+
+        assertEquals(3, lines.stream().filter(line -> line.contains("route=/payments status=200")).count());
+        assertEquals(1, lines.stream().filter(line -> line.contains("status=503")).count());
+        assertEquals(1, lines.stream().filter(line -> line.contains("route=/payments/summary")).count());
+        assertTrue(lines.stream().anyMatch(line -> line.endsWith("sortCode=654321 account=12345678")),
+                "Masking can be turned off");
+    }
+
+    @Test
+    void testPublish_dropsLinesWhileTheRingIsFull() throws InterruptedException {
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<String> lines = new CopyOnWriteArrayList<>();
+        RequestLog requestLog = new RequestLog(4, "", true, text -> {
+            lines.add(text.toString());
+            writing.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+
+        // The writer holds the first line's slot until released, so 3 more fill the ring and the last 2 drop
+        requestLog.end(requestLog.begin("GET"), "/payments", 200);
+        assertTrue(writing.await(5, TimeUnit.SECONDS));
+        int published = 0;
+        for (int i = 0; i < 5; i++) {
+            RequestFields fields = requestLog.begin("GET");
+            fields.route = "/payments";
+            published += requestLog.publish(fields) ? 1 : 0;
+        }
+        assertEquals(3, published);
+        release.countDown();
+        requestLog.close();
+        assertEquals(4, lines.size());
+    }
+
+    @Test
+    void testEnd_doesNotAllocateOnTheRequestThread() {
+        ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        RequestLog requestLog = new RequestLog(1024, "GET /payments=100", true, text -> { });
+        List<String> currencies = List.of("GBP");
+        Runnable request = () -> {
+            RequestFields fields = requestLog.begin("POST");
+            RequestLog.payment(payment);
+            requestLog.end(fields, "/payments", 201);
+            fields = requestLog.begin("GET");
+            RequestLog.query(currencies, null, null, null);
+            RequestLog.count(25);
+            requestLog.end(fields, "/payments", 200);
+        };
+        for (int i = 0; i < 20_000; i++) {
+            request.run();
+        }
+
+        long before = threads.getCurrentThreadAllocatedBytes();
+        for (int i = 0; i < 10_000; i++) {
+            request.run();
+        }
+        long allocated = threads.getCurrentThreadAllocatedBytes() - before;
+        requestLog.close();
+
+        // Less than a byte per request leaves room for the measurement itself, not for any object per request
+        assertTrue(allocated < 10_000, () -> allocated + " bytes for 10 000 requests");
+        // Every create and one query in 100, written unless the ring was full
+        assertEquals(30_000 + 300, lines(requestLog, "written") + lines(requestLog, "dropped"));
+    }
+
+    private static long lines(RequestLog requestLog, String outcome) {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        requestLog.bindTo(registry);
+        return (long) registry.get("payment.request-log.lines").tag("outcome", outcome).functionCounter().count();
+    }
+}
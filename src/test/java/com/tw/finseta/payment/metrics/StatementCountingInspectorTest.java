@@ -0,0 +1,43 @@
+package com.tw.finseta.payment.metrics;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.servlet.HandlerMapping;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Unit test class for {@link StatementCountingInspector}.
+ *
+ * <p>Checks that statements are counted per request, tagged with the matched URI pattern, and ignored
+ * outside a request.</p>
+ *
+ * @author Ranga Raju
+ * @see StatementCountingInspector
+ */
+public class StatementCountingInspectorTest {
+
+    @Test
+    void testDoFilter_recordsStatementsOfTheRequest() throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        StatementCountingInspector inspector = new StatementCountingInspector(registry);
+        inspector.inspect("select 1");
+
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/payments");
+        inspector.doFilter(request, new MockHttpServletResponse(), (req, res) -> {
+            inspector.inspect("select 1");
+            inspector.inspect("select 2");
+            req.setAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE, "/payments");
+        });
+
+        DistributionSummary summary = registry.get(StatementCountingInspector.STATEMENTS_METRIC)
+                .tag("method", "GET")
+                .tag("uri", "/payments")
+                .summary();
+        assertEquals(1, summary.count());
+        assertEquals(2.0, summary.totalAmount());
+    }
+}
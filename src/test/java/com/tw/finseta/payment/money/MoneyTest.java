@@ -0,0 +1,73 @@
+package com.tw.finseta.payment.money;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Unit test class for {@link Money} and {@link CurrencyCode}.
+ *
+ * <p>Covers the ISO 4217 exponent table and exact conversion between decimal amounts and minor units.</p>
+ *
+ * @author Ranga Raju
+ * @see Money
+ */
+public class MoneyTest {
+
+    @Test
+    void testCurrencyCode_lookupIsSharedAndCarriesExponent() {
+        CurrencyCode gbp = CurrencyCode.of("GBP");
+        assertSame(gbp, CurrencyCode.of("GBP"));
+        assertSame(gbp, CurrencyCode.of(gbp.code()));
+        assertEquals(2, gbp.exponent());
+        assertEquals(0, CurrencyCode.of("JPY").exponent());
+        assertEquals(3, CurrencyCode.of("KWD").exponent());
+        assertEquals("GBP", gbp.toString());
+    }
+
+    @Test
+    void testCurrencyCode_rejectsUnknownCodes() {
+        assertNull(CurrencyCode.lookup("gbp"));
+        assertNull(CurrencyCode.lookup("GB"));
+        assertNull(CurrencyCode.lookup("XAU"));
+        assertNull(CurrencyCode.lookup(null));
+        assertThrows(IllegalArgumentException.class, () -> CurrencyCode.of("ZZZ"));
+    }
+
+    @Test
+    void testToMinorUnits_isExact() {
+        CurrencyCode gbp = CurrencyCode.of("GBP");
+        assertEquals(1050L, Money.toMinorUnits(new BigDecimal("10.5"), gbp));
+        assertEquals(1050L, Money.toMinorUnits(new BigDecimal("10.500"), gbp));
+        assertEquals(500L, Money.toMinorUnits(new BigDecimal("500"), CurrencyCode.of("JPY")));
+        assertThrows(ArithmeticException.class, () -> Money.toMinorUnits(new BigDecimal("10.505"), gbp));
+        assertThrows(ArithmeticException.class, () -> Money.toMinorUnits(new BigDecimal("1E+20"), gbp));
+    }
+
+    @Test
+    void testToDecimal_usesCurrencyScale() {
+        assertEquals(new BigDecimal("10.50"), Money.toDecimal(1050L, CurrencyCode.of("GBP")));
+        assertEquals(new BigDecimal("1.050"), Money.toDecimal(1050L, CurrencyCode.of("KWD")));
+        assertEquals("GBP 10.50", Money.ofMinor(1050L, CurrencyCode.of("GBP")).toString());
+    }
+
+    @Test
+    void testCeilMinorUnits_roundsUpAndClamps() {
+        assertEquals(1001L, Money.ceilMinorUnits(new BigDecimal("10.001"), 2));
+        assertEquals(11L, Money.ceilMinorUnits(new BigDecimal("10.001"), 0));
+        assertEquals(Long.MAX_VALUE, Money.ceilMinorUnits(new BigDecimal("1E+30"), 2));
+    }
+
+    @Test
+    void testPlusAndCompare_requireSameCurrency() {
+        Money ten = Money.of(BigDecimal.TEN, CurrencyCode.of("GBP"));
+        assertEquals(2000L, ten.plus(ten).minorUnits());
+        assertEquals(0, ten.compareTo(Money.ofMinor(1000L, CurrencyCode.of("GBP"))));
+        assertThrows(IllegalArgumentException.class, () -> ten.plus(Money.ofMinor(1L, CurrencyCode.of("USD"))));
+    }
+}
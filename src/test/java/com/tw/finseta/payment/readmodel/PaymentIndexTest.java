@@ -0,0 +1,94 @@
+package com.tw.finseta.payment.readmodel;
+
+import com.tw.finseta.payment.model.Account;
+import com.tw.finseta.payment.model.Payment;
+import com.tw.finseta.payment.money.CurrencyCode;
+import com.tw.finseta.payment.money.Money;
+import com.tw.finseta.payment.repository.PaymentFilter;
+import com.tw.finseta.payment.repository.PaymentRow;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit test class for {@link PaymentIndex}.
+ *
+ * <p>Checks every filter combination and page boundary against a brute force scan of the same payments,
+ * with enough payments added one at a time to force delta runs to merge into the base.</p>
+ *
+ * @author Ranga Raju
+ * @see PaymentIndex
+ */
+public class PaymentIndexTest {
+
+    private static final String[] CURRENCIES = {"GBP", "USD", "JPY", "KWD"};
+
+    @Test
+    void testFindPage_matchesBruteForce() {
+        Random random = new Random(42);
+        List<PaymentRow> all = new ArrayList<>();
+        for (int id = 1; id <= 5000; id++) {
+            all.add(row(id, CURRENCIES[random.nextInt(CURRENCIES.length)], random.nextInt(100_000), id % 37));
+        }
+        List<PaymentRow> shuffled = new ArrayList<>(all);
+        Collections.shuffle(shuffled, random);
+
+        PaymentIndex index = new PaymentIndex();
+        index.addAll(shuffled.subList(0, 2000));
+        for (PaymentRow row : shuffled.subList(2000, shuffled.size())) {
+            index.addAll(List.of(row));
+        }
+        assertEquals(5000, index.size());
+
+        List<PaymentFilter> filters = List.of(
+                new PaymentFilter(List.of("GBP"), null),
+                new PaymentFilter(null, new BigDecimal("500.5")),
+                new PaymentFilter(List.of("GBP", "JPY"), new BigDecimal("900")),
+                new PaymentFilter(List.of("KWD"), new BigDecimal("50.001")),
+                new PaymentFilter(List.of("CHF"), null));
+        for (PaymentFilter filter : filters) {
+            List<Long> expected = all.stream().filter(row -> matches(filter, row)).map(PaymentRow::getId).toList();
+            List<Long> actual = new ArrayList<>();
+            long afterId = 0;
+            List<PaymentRow> page;
+            do {
+                page = index.findPage(filter, afterId, 100);
+                page.forEach(row -> actual.add(row.getId()));
+                afterId = page.isEmpty() ? afterId : page.get(page.size() - 1).getId();
+            } while (page.size() == 100);
+            assertEquals(expected, actual, filter::toString);
+        }
+    }
+
+    @Test
+    void testFindPage_buildsModelsAndReportsFootprint() {
+        PaymentIndex index = new PaymentIndex();
+        index.addAll(List.of(row(7, "GBP", 1050, 1), row(3, "GBP", 1050, 1)));
+
+        List<PaymentRow> page = index.findPage(new PaymentFilter(List.of("GBP"), new BigDecimal("10.50")), 0L, 10);
+        assertEquals(List.of(3L, 7L), page.stream().map(PaymentRow::getId).toList());
+        Payment payment = page.get(0).getPayment();
+        assertEquals(new BigDecimal("10.50"), payment.getAmount());
+        assertEquals("00000001", payment.getCounterparty().getAccountNumber());
+        assertTrue(index.heapBytes() > 0);
+    }
+
+    private static boolean matches(PaymentFilter filter, PaymentRow row) {
+        return (filter.getCurrencies() == null || filter.getCurrencies().contains(row.getCurrency()))
+                && (filter.getMinAmount() == null || row.getPayment().getAmount().compareTo(filter.getMinAmount()) >= 0);
+    }
+
+    private static PaymentRow row(long id, String code, long amountMinor, int account) {
+        CurrencyCode currency = CurrencyCode.of(code);
+        Account counterparty = new Account(Account.TypeEnum.SORT_CODE_ACCOUNT_NUMBER, String.format("%08d", account), "123456");
+        return new PaymentRow(id, currency, amountMinor,
+                new Payment(code, Money.toDecimal(amountMinor, currency), counterparty));
+    }
+}
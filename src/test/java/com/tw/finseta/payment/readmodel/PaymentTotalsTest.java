@@ -0,0 +1,107 @@
+package com.tw.finseta.payment.readmodel;
+
+import com.tw.finseta.payment.archive.PaymentArchive;
+import com.tw.finseta.payment.model.Account;
+import com.tw.finseta.payment.model.CurrencySummary;
+import com.tw.finseta.payment.model.Payment;
+import com.tw.finseta.payment.money.CurrencyCode;
+import com.tw.finseta.payment.repository.CurrencyTotals;
+import com.tw.finseta.payment.repository.PaymentRepository;
+import com.tw.finseta.payment.repository.PaymentRow;
+import com.tw.finseta.payment.service.PaymentService;
+import com.tw.finseta.payment.service.PaymentsSavedEvent;
+import com.tw.finseta.payment.shard.PaymentShards;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Test class for {@link PaymentTotals}.
+ *
+ * <p>Covers exact sums of amounts across the 32 bit halves the sum is kept in, and sums beyond a {@code long}
+ * of minor units being reported exactly by the running totals, by the totals loaded after a restart and by the
+ * aggregate query.</p>
+ *
+ * @author Ranga Raju
+ * @see PaymentTotals
+ */
+@SpringBootTest
+public class PaymentTotalsTest {
+
+    private static final CurrencyCode GBP = CurrencyCode.of("GBP");
+    private static final CurrencyCode USD = CurrencyCode.of("USD");
+    // No other test saves BRL payments
+    private static final CurrencyCode BRL = CurrencyCode.of("BRL");
+
+    @Autowired
+    private PaymentService paymentService;
+
+    @Autowired
+    private PaymentRepository paymentRepository;
+
+    @Autowired
+    private ObjectProvider<PaymentArchive> archive;
+
+    @Autowired
+    private PaymentShards shards;
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testSnapshot_sumsExactlyBeyondALong() {
+        PaymentTotals totals = new PaymentTotals(null, mock(ObjectProvider.class), null);
+        long half = Long.MAX_VALUE / 2;
+
+        totals.onPaymentsSaved(new PaymentsSavedEvent(List.of(
+                row(1, GBP, 0xFFFF_FFFFL), row(2, GBP, 1), row(3, GBP, half), row(4, USD, 7))));
+        assertEquals(List.of(new CurrencyTotals(GBP, 3, BigInteger.valueOf(half + 0x1_0000_0000L), 1, half),
+                CurrencyTotals.of(USD, 7)), totals.snapshot());
+
+        totals.onPaymentsSaved(new PaymentsSavedEvent(List.of(row(5, GBP, half), row(6, GBP, -3))));
+        BigInteger sum = BigInteger.valueOf(half).shiftLeft(1).add(BigInteger.valueOf(0x1_0000_0000L - 3));
+        assertEquals(new CurrencyTotals(GBP, 5, sum, -3, half), totals.snapshot().get(0));
+    }
+
+    @Test
+    void testPaymentSummary_isExactBeyondALongLiveAndAfterARestart() {
+        BigDecimal max = BigDecimal.valueOf(Long.MAX_VALUE, BRL.exponent());
+        paymentService.savePayment(payment(max));
+        paymentService.savePayment(payment(max));
+        try {
+            CurrencySummary expected = new CurrencySummary("BRL", 2L, max.add(max), max, max);
+            assertEquals(expected, summaryOf(paymentService.getPaymentSummary(null)));
+            assertEquals(expected, summaryOf(paymentService.getPaymentSummary(BigDecimal.ONE)));
+
+            // Totals seeded from the database, as after a restart
+            PaymentTotals restarted = new PaymentTotals(paymentRepository, archive, shards);
+            restarted.load();
+            assertEquals(new CurrencyTotals(BRL, 2, BigInteger.valueOf(Long.MAX_VALUE).shiftLeft(1),
+                    Long.MAX_VALUE, Long.MAX_VALUE), restarted.snapshot().stream()
+                    .filter(totals -> totals.currency() == BRL).findFirst().orElseThrow());
+        } finally {
+            // Out of the database, so the aggregate queries of other tests do not see them
+            paymentRepository.deleteAll(paymentRepository.findAll().stream()
+                    .filter(payment -> payment.getCurrency() == BRL).toList());
+        }
+    }
+
+    private static CurrencySummary summaryOf(List<CurrencySummary> summaries) {
+        return summaries.stream().filter(summary -> summary.getCurrency().equals("BRL")).findFirst().orElseThrow();
+    }
+
+    private static Payment payment(BigDecimal amount) {
+        return new Payment("BRL", amount, new Account(Account.TypeEnum.SORT_CODE_ACCOUNT_NUMBER, "87654321",
+                "112233"));
+    }
+
+    private static PaymentRow row(long id, CurrencyCode currency, long amountMinor) {
+        return new PaymentRow(id, currency, amountMinor, null);
+    }
+}
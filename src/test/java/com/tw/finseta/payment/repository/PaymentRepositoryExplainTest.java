@@ -0,0 +1,218 @@
+package com.tw.finseta.payment.repository;
+
+import com.tw.finseta.payment.dao.AccountDAO;
+import com.tw.finseta.payment.dao.AccountType;
+import com.tw.finseta.payment.dao.PaymentDAO;
+import com.tw.finseta.payment.model.Account;
+import com.tw.finseta.payment.money.CurrencyCode;
+import com.tw.finseta.payment.money.Money;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.ResultSet;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Query plan test class for the dynamic filter queries of {@link PaymentRepository}.
+ *
+ * <p>Captures the SQL Hibernate generates for each filter combination and checks the H2 {@code EXPLAIN}
+ * output, so that a regression back to a catch-all query or a scan of the payments table fails the build.</p>
+ *
+ * @author Ranga Raju
+ * @see PaymentRepositoryImpl
+ */
+@DataJpaTest(properties = "spring.jpa.properties.hibernate.session_factory.statement_inspector="
+        + "com.tw.finseta.payment.repository.RecordingStatementInspector")
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+public class PaymentRepositoryExplainTest {
+
+    // H2 numbers the primary key constraints in creation order, so only the seek on the payments id is matched
+    private static final Pattern PRIMARY_KEY_SEEK =
+            Pattern.compile("FROM \"PUBLIC\"\\.\"PAYMENTS\" \"\\w+\"\\s+/\\* PUBLIC\\.PRIMARY_KEY_\\w+: ID > \\?");
+    private static final String CURRENCY_AMOUNT_INDEX = "PUBLIC.IDX_PAYMENTS_CURRENCY_AMOUNT";
+    private static final String AMOUNT_INDEX = "PUBLIC.IDX_PAYMENTS_AMOUNT";
+    private static final String CREATED_AT_INDEX = "PUBLIC.IDX_PAYMENTS_CREATED_AT";
+
+    @Autowired
+    private PaymentRepository paymentRepository;
+
+    @Autowired
+    private AccountRepository accountRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    // ANALYZE commits, so the data is seeded once for the class rather than rolled back per test
+    @BeforeEach
+    void setUp() {
+        if (paymentRepository.count() > 0) {
+            return;
+        }
+        List<AccountDAO> accounts = new ArrayList<>();
+        // One counterparty per payment, so a plan cannot start from a much smaller accounts table
+        for (int i = 0; i < 2000; i++) {
+            accounts.add(new AccountDAO(null, AccountType.SORT_CODE_ACCOUNT_NUMBER, String.format("%08d", i), "123456"));
+        }
+        accountRepository.saveAllAndFlush(accounts);
+        String[] currencies = {"GBP", "USD", "EUR", "JPY", "INR"};
+        List<PaymentDAO> payments = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            CurrencyCode currency = CurrencyCode.of(currencies[i % currencies.length]);
+            payments.add(new PaymentDAO(currency, Money.toMinorUnits(BigDecimal.valueOf(i % 500), currency),
+                    accounts.get(i % accounts.size())));
+        }
+        paymentRepository.saveAllAndFlush(payments);
+        // H2 also analyzes automatically after enough row changes, run it now so plans use fresh selectivity
+        jdbcTemplate.execute("ANALYZE");
+    }
+
+    @Test
+    void testFindPage_noFilters_seeksOnPrimaryKey() {
+        // The first page as well, an id order walk that stops at the limit
+        for (long afterId : new long[] {0L, 100L}) {
+            String plan = explainPage(new PaymentFilter(null, null), afterId);
+            assertTrue(PRIMARY_KEY_SEEK.matcher(plan).find(), plan);
+        }
+    }
+
+    @Test
+    void testFindPage_currencies_usesCurrencyAmountIndex() {
+        String plan = explainPage(new PaymentFilter(List.of("GBP", "USD"), null));
+        assertTrue(plan.contains(CURRENCY_AMOUNT_INDEX), plan);
+    }
+
+    @Test
+    void testFindPage_minAmount_usesAmountIndex() {
+        String plan = explainPage(new PaymentFilter(null, BigDecimal.valueOf(450)));
+        assertTrue(plan.contains(AMOUNT_INDEX), plan);
+    }
+
+    @Test
+    void testFindPage_timeRange_usesCreatedAtIndex() {
+        Instant now = Instant.now();
+        String plan = explainPage(new PaymentFilter(null, null, now.minus(1, ChronoUnit.HOURS), now.plus(1, ChronoUnit.HOURS)));
+        assertTrue(plan.contains(CREATED_AT_INDEX), plan);
+    }
+
+    @Test
+    void testStream_minAmount_usesAmountIndex() {
+        RecordingStatementInspector.clear();
+        assertEquals(200, streamCount(new PaymentFilter(null, BigDecimal.valueOf(450))));
+        String plan = explain(paymentQuery());
+        assertTrue(plan.contains(AMOUNT_INDEX), plan);
+    }
+
+    @Test
+    void testFindPage_currenciesAndMinAmount_usesCurrencyAmountIndex() {
+        String plan = explainPage(new PaymentFilter(List.of("GBP"), BigDecimal.valueOf(450)));
+        assertTrue(plan.contains(CURRENCY_AMOUNT_INDEX), plan);
+    }
+
+    @Test
+    void testStream_currenciesAndMinAmount_usesCurrencyAmountIndex() {
+        RecordingStatementInspector.clear();
+        assertEquals(40, streamCount(new PaymentFilter(List.of("GBP"), BigDecimal.valueOf(450))));
+        String plan = explain(paymentQuery());
+        assertTrue(plan.contains(CURRENCY_AMOUNT_INDEX), plan);
+    }
+
+    @Test
+    void testFindPage_absentFiltersEmitNoPredicates() {
+        RecordingStatementInspector.clear();
+        paymentRepository.findPage(new PaymentFilter(List.of(), null), 0L, 10);
+        String sql = paymentQuery().toLowerCase();
+        assertFalse(sql.contains("currency in"), sql);
+        assertFalse(sql.contains("is null"), sql);
+    }
+
+    @Test
+    void testFindPage_projectsCounterpartyInOneStatement() {
+        RecordingStatementInspector.clear();
+        List<PaymentRow> rows = paymentRepository.findPage(new PaymentFilter(List.of("USD"), null), 0L, 50);
+        assertEquals(50, rows.size());
+        assertEquals(1, RecordingStatementInspector.statements().size(), RecordingStatementInspector.statements()::toString);
+        PaymentRow row = rows.get(0);
+        assertEquals("USD", row.getPayment().getCurrency());
+        assertEquals("123456", row.getPayment().getCounterparty().getSortCode());
+        assertEquals(Account.TypeEnum.SORT_CODE_ACCOUNT_NUMBER, row.getPayment().getCounterparty().getType());
+    }
+
+    @Test
+    void testFindPage_minAmountAppliesPerCurrencyExponent() {
+        // 450 is 45000 pence but 450 yen, each currency is compared in its own minor units
+        List<PaymentRow> rows = paymentRepository.findPage(
+                new PaymentFilter(List.of("GBP", "JPY"), BigDecimal.valueOf(450)), 0L, 1000);
+        assertEquals(80, rows.size());
+        assertTrue(rows.stream().allMatch(row -> row.getPayment().getAmount().compareTo(BigDecimal.valueOf(450)) >= 0));
+    }
+
+    @Test
+    void testSummarize_minAmount_aggregatesPerCurrencyFromIndex() {
+        RecordingStatementInspector.clear();
+        List<CurrencyTotals> totals = paymentRepository.summarize(new PaymentFilter(null, BigDecimal.valueOf(450)));
+        String plan = explain(paymentQuery());
+        assertTrue(plan.contains(AMOUNT_INDEX) || plan.contains(CURRENCY_AMOUNT_INDEX), plan);
+
+        assertEquals(List.of("EUR", "GBP", "INR", "JPY", "USD"),
+                totals.stream().map(currencyTotals -> currencyTotals.currency().toString()).toList());
+        // GBP holds 450, 455 ... 495 four times each
+        CurrencyTotals gbp = totals.get(1);
+        assertEquals(40, gbp.count());
+        assertEquals(BigInteger.valueOf(1_890_000), gbp.sumMinor());
+        assertEquals(45_000, gbp.minMinor());
+        assertEquals(49_500, gbp.maxMinor());
+    }
+
+    private String explainPage(PaymentFilter filter) {
+        return explainPage(filter, 0L);
+    }
+
+    private String explainPage(PaymentFilter filter, long afterId) {
+        RecordingStatementInspector.clear();
+        assertFalse(paymentRepository.findPage(filter, afterId, 10).isEmpty());
+        return explain(paymentQuery());
+    }
+
+    private long streamCount(PaymentFilter filter) {
+        return transactionTemplate.execute(status -> {
+            try (Stream<PaymentRow> stream = paymentRepository.stream(filter)) {
+                return stream.count();
+            }
+        });
+    }
+
+    private static String paymentQuery() {
+        return RecordingStatementInspector.statements().stream()
+                .filter(sql -> sql.startsWith("select") && sql.contains(" from payments "))
+                .findFirst()
+                .orElseThrow(() -> new AssertionError("No payments query recorded"));
+    }
+
+    // H2 plans statements with unbound parameters, the plan names the index chosen for each table
+    private String explain(String sql) {
+        String plan = jdbcTemplate.query(con -> con.prepareStatement("EXPLAIN " + sql),
+                (ResultSet rs) -> rs.next() ? rs.getString(1) : "");
+        assertFalse(plan.contains("PUBLIC.PAYMENTS.tableScan"), plan);
+        return plan;
+    }
+}
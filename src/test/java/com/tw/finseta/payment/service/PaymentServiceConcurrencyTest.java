@@ -0,0 +1,121 @@
+package com.tw.finseta.payment.service;
+
+import com.tw.finseta.payment.model.Account;
+import com.tw.finseta.payment.model.Payment;
+import com.tw.finseta.payment.repository.AccountRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Concurrency test class for the counterparty insert-or-get path of {@link PaymentServiceImpl}.
+ *
+ * <p>Runs against the embedded H2 database and hammers new counterparties from many threads at once,
+ * through both the single and the batch save paths, expecting no errors and exactly one account per
+ * counterparty.</p>
+ *
+ * @author Ranga Raju
+ * @see PaymentServiceImpl
+ * @see CounterpartyResolver
+ */
+@SpringBootTest
+public class PaymentServiceConcurrencyTest {
+
+    private static final int THREADS = 16;
+    private static final int SAVES_PER_THREAD = 25;
+
+    @Autowired
+    private PaymentService paymentService;
+
+    @Autowired
+    private AccountRepository accountRepository;
+
+    @Test
+    void testSavePayment_sameNewCounterpartyFromManyThreads() throws Exception {
+        Account counterparty = account("11111111", "222222");
+        AtomicInteger saved = new AtomicInteger();
+
+        Queue<Throwable> errors = runConcurrently(() -> {
+            for (int i = 0; i < SAVES_PER_THREAD; i++) {
+                paymentService.savePayment(payment("GBP", counterparty));
+                saved.incrementAndGet();
+            }
+        });
+
+        assertTrue(errors.isEmpty(), () -> "Unexpected errors: " + errors);
+        assertEquals(THREADS * SAVES_PER_THREAD, saved.get());
+        assertEquals(1, accountRepository.findByAccountNumberInAndSortCodeIn(
+                Set.of("11111111"), Set.of("222222")).size());
+    }
+
+    @Test
+    void testSavePayments_overlappingNewCounterpartiesFromManyThreads() throws Exception {
+        List<Payment> batch = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            batch.add(payment("EUR", account(String.format("3%07d", i), "444444")));
+        }
+
+        // Batches insert their new accounts without the striped locks, so racing batches exercise the
+        // unique constraint fallback, while single saves on the same counterparties take the locked path
+        Queue<Throwable> errors = runConcurrently(new Runnable() {
+            private final AtomicInteger turn = new AtomicInteger();
+
+            @Override
+            public void run() {
+                if (turn.getAndIncrement() % 2 == 0) {
+                    paymentService.savePayments(batch);
+                } else {
+                    batch.forEach(paymentService::savePayment);
+                }
+            }
+        });
+
+        assertTrue(errors.isEmpty(), () -> "Unexpected errors: " + errors);
+        assertEquals(20, accountRepository.findByAccountNumberInAndSortCodeIn(
+                batch.stream().map(p -> p.getCounterparty().getAccountNumber()).toList(),
+                Set.of("444444")).size());
+    }
+
+    private static Queue<Throwable> runConcurrently(Runnable task) throws InterruptedException {
+        Queue<Throwable> errors = new ConcurrentLinkedQueue<>();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        for (int t = 0; t < THREADS; t++) {
+            executor.execute(() -> {
+                try {
+                    start.await();
+                    task.run();
+                } catch (Throwable ex) {
+                    errors.add(ex);
+                }
+            });
+        }
+        start.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(2, TimeUnit.MINUTES), "Workers did not finish in time");
+        return errors;
+    }
+
+    private static Payment payment(String currency, Account counterparty) {
+        return new Payment(currency, BigDecimal.valueOf(10), counterparty);
+    }
+
+    private static Account account(String accountNumber, String sortCode) {
+        return new Account(Account.TypeEnum.SORT_CODE_ACCOUNT_NUMBER, accountNumber, sortCode);
+    }
+}
@@ -0,0 +1,200 @@
+package com.tw.finseta.payment.shard;
+
+import com.tw.finseta.payment.model.Account;
+import com.tw.finseta.payment.model.CurrencySummary;
+import com.tw.finseta.payment.model.Payment;
+import com.tw.finseta.payment.model.PaymentBatchItem;
+import com.tw.finseta.payment.model.PaymentBatchResult;
+import com.tw.finseta.payment.money.CurrencyCode;
+import com.tw.finseta.payment.service.PaymentPage;
+import com.tw.finseta.payment.service.PaymentService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test class for payments spread over four embedded H2 shards by {@link PaymentShards} and
+ * {@link ShardRoutingDataSource}.
+ *
+ * <p>Checks that saves land in the shard of their currency, that currency filters only query the shards of
+ * those currencies, that pages, streams and summaries merge every shard back in id order, that a batch reports
+ * the payments of a failed shard as not saved while the other shards keep theirs, and that an unfiltered page
+ * takes about as long as the slowest shard rather than all of them in turn.</p>
+ *
+ * @author Ranga Raju
+ * @see PaymentShards
+ */
+@SpringBootTest(properties = {"payment.shards.count=4",
+        "spring.jpa.properties.hibernate.session_factory.statement_inspector="
+                + "com.tw.finseta.payment.shard.ShardLatencyInspector"})
+public class PaymentShardingTest {
+
+    private static final List<String> CANDIDATES = List.of("GBP", "USD", "EUR", "JPY", "CHF", "SEK", "NOK", "CAD",
+            "AUD", "NZD", "DKK", "PLN", "CZK", "HUF", "SGD", "HKD", "ZAR", "MXN", "INR", "KWD");
+
+    @Autowired
+    private PaymentService paymentService;
+
+    @Autowired
+    private PaymentShards shards;
+
+    @Autowired
+    private ShardRoutingDataSource dataSource;
+
+    @AfterEach
+    void clearInspector() {
+        ShardLatencyInspector.clear();
+    }
+
+    @Test
+    void testSaves_landInTheirCurrencyShardAndReadsMergeInIdOrder() {
+        // Two currencies of each shard
+        List<String> currencies = new ArrayList<>();
+        for (int shard = 0; shard < 4; shard++) {
+            int target = shard;
+            CANDIDATES.stream().filter(code -> shards.shardOf(CurrencyCode.of(code)) == target).limit(2)
+                    .forEach(currencies::add);
+        }
+        assertEquals(8, currencies.size(), "The candidates cover every shard twice");
+        long before = total();
+
+        // Single saves take ids in save order across shards, so do their amounts; the shards of a batch are
+        // inserted in parallel, its ids only grow within each shard
+        List<Payment> saved = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            saved.add(payment(currencies.get(i % currencies.size()), 1000 + i, i % 5));
+        }
+        saved.subList(0, 20).forEach(paymentService::savePayment);
+        paymentService.savePayments(saved.subList(20, 40));
+
+        long[] expected = new long[4];
+        saved.forEach(payment -> expected[shards.shardOf(CurrencyCode.of(payment.getCurrency()))]++);
+        for (int shard = 0; shard < 4; shard++) {
+            assertEquals(expected[shard], count(shard, 1000), "shard " + shard);
+        }
+
+        List<Payment> paged = new ArrayList<>();
+        String cursor = null;
+        do {
+            PaymentPage page = paymentService.getPaymentsByFilters(null, new BigDecimal("1000"), null, null, 7, cursor);
+            paged.addAll(page.getPayments());
+            cursor = page.getNextCursor();
+        } while (cursor != null);
+        assertEquals(amounts(saved).subList(0, 20), amounts(paged).subList(0, 20));
+        assertEquals(amounts(saved), amounts(paged).stream().sorted().toList());
+        for (int shard = 0; shard < 4; shard++) {
+            int target = shard;
+            List<Integer> ofShard = amounts(paged.stream()
+                    .filter(payment -> shards.shardOf(CurrencyCode.of(payment.getCurrency())) == target).toList());
+            assertEquals(ofShard.stream().sorted().toList(), ofShard, "shard " + shard);
+        }
+
+        List<Payment> streamed = new ArrayList<>();
+        assertEquals(40, paymentService.streamPaymentsByFilters(null, new BigDecimal("1000"), null, null, streamed::add));
+        assertEquals(amounts(paged), amounts(streamed));
+
+        ShardLatencyInspector.clear();
+        String currency = currencies.get(0);
+        List<Payment> filtered = paymentService.getPaymentsByFilters(List.of(currency), new BigDecimal("1000"), null,
+                null, 100, null).getPayments();
+        assertEquals(5, filtered.size());
+        assertTrue(filtered.stream().allMatch(payment -> payment.getCurrency().equals(currency)));
+        assertEquals(List.of(shards.shardOf(CurrencyCode.of(currency))), ShardLatencyInspector.queried());
+
+        // No known currency, no shard to ask
+        ShardLatencyInspector.clear();
+        assertEquals(List.of(), paymentService.getPaymentsByFilters(List.of("XYZ"), null, null, null, 10, null)
+                .getPayments());
+        assertEquals(List.of(), ShardLatencyInspector.queried());
+
+        Map<String, Long> counts = paymentService.getPaymentSummary(new BigDecimal("1000")).stream()
+                .collect(Collectors.toMap(CurrencySummary::getCurrency, CurrencySummary::getCount, Long::sum, TreeMap::new));
+        assertEquals(currencies.stream().collect(Collectors.toMap(code -> code, code -> 5L, Long::sum, TreeMap::new)),
+                counts);
+        assertEquals(before + 40, total());
+    }
+
+    @Test
+    void testSavePayments_reportsThePaymentsOfAFailedShard() {
+        String failing = CANDIDATES.stream().filter(code -> shards.shardOf(CurrencyCode.of(code)) == 1)
+                .findFirst().orElseThrow();
+        String healthy = CANDIDATES.stream().filter(code -> shards.shardOf(CurrencyCode.of(code)) == 2)
+                .findFirst().orElseThrow();
+        // Zero amounts stay out of the other tests, which count from 1000
+        List<Payment> batch = List.of(payment(healthy, 0, 1), payment(failing, 0, 1),
+                payment(healthy, 0, 2), payment(failing, 0, 2));
+        long[] before = {count(1, 0), count(2, 0)};
+
+        ShardLatencyInspector.failInserts(1);
+        PaymentBatchResult result = paymentService.savePayments(batch);
+
+        assertEquals(2, result.getCreated());
+        assertEquals(2, result.getFailed());
+        assertEquals(List.of(PaymentBatchItem.StatusEnum.CREATED, PaymentBatchItem.StatusEnum.FAILED,
+                        PaymentBatchItem.StatusEnum.CREATED, PaymentBatchItem.StatusEnum.FAILED),
+                result.getItems().stream().map(PaymentBatchItem::getStatus).toList());
+        assertEquals("payment[1] : not saved, its shard failed; it can be sent again",
+                result.getItems().get(1).getError().getMessage());
+        assertNull(result.getItems().get(0).getError());
+        assertEquals(before[0], count(1, 0));
+        assertEquals(before[1] + 2, count(2, 0));
+
+        // Nothing saved at all is still a failure of the whole request
+        RuntimeException failure = assertThrows(RuntimeException.class,
+                () -> paymentService.savePayments(List.of(payment(failing, 0, 3))));
+        assertEquals("Payment shard 1 is down", failure.getMessage());
+        assertEquals(before[0], count(1, 0));
+    }
+
+    @Test
+    void testFindPage_takesAboutAsLongAsTheSlowestShard() {
+        paymentService.getPaymentsByFilters(null, null, null, null, 10, null);
+        ShardLatencyInspector.clear();
+
+        ShardLatencyInspector.delay(50, 100, 150, 200);
+        long slowest = 200;
+        long sum = 500;
+
+        long start = System.nanoTime();
+        paymentService.getPaymentsByFilters(null, new BigDecimal("1"), null, null, 10, null);
+        long elapsed = (System.nanoTime() - start) / 1_000_000;
+
+        assertEquals(List.of(0, 1, 2, 3), ShardLatencyInspector.queried().stream().sorted().toList());
+        assertTrue(elapsed >= slowest, () -> elapsed + " ms");
+        assertTrue(elapsed < slowest + (sum - slowest) / 2,
+                () -> elapsed + " ms is closer to the sum of the shards (" + sum + " ms) than to the slowest one");
+    }
+
+    private long count(int shard, long minAmountMinor) {
+        return new JdbcTemplate(dataSource.shard(shard)).queryForObject(
+                "select count(*) from payments where amount_minor >= ?", Long.class, minAmountMinor);
+    }
+
+    private long total() {
+        return IntStream.range(0, 4).mapToLong(shard -> count(shard, 0)).sum();
+    }
+
+    private static List<Integer> amounts(List<Payment> payments) {
+        return payments.stream().map(payment -> payment.getAmount().intValue()).toList();
+    }
+
+    private static Payment payment(String currency, int amount, int counterparty) {
+        return new Payment(currency, BigDecimal.valueOf(amount), new Account(Account.TypeEnum.SORT_CODE_ACCOUNT_NUMBER,
+                String.format("5%07d", counterparty), "654321"));
+    }
+}
@@ -0,0 +1,58 @@
+package com.tw.finseta.payment.shard;
+
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Hibernate {@link StatementInspector} that records the shard of every payment query and can delay the queries
+ * of each shard, standing in for shards of different speeds, or fail the payment inserts of one shard, standing
+ * in for a shard that is down.
+ *
+ * @author Ranga Raju
+ */
+public class ShardLatencyInspector implements StatementInspector {
+
+    private static final List<Integer> QUERIED = new CopyOnWriteArrayList<>();
+    private static volatile long[] delayMillis = new long[0];
+    private static volatile int failingShard = -1;
+
+    @Override
+    public String inspect(String sql) {
+        Integer shard = PaymentShards.current();
+        if (shard != null && shard == failingShard && sql.startsWith("insert into payments")) {
+            throw new IllegalStateException("Payment shard " + shard + " is down");
+        }
+        if (shard != null && sql.startsWith("select") && sql.contains(" from payments ")) {
+            QUERIED.add(shard);
+            long[] delays = delayMillis;
+            if (shard < delays.length) {
+                try {
+                    Thread.sleep(delays[shard]);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+        return sql;
+    }
+
+    public static void delay(long... millisByShard) {
+        delayMillis = millisByShard.clone();
+    }
+
+    public static void failInserts(int shard) {
+        failingShard = shard;
+    }
+
+    public static void clear() {
+        QUERIED.clear();
+        delayMillis = new long[0];
+        failingShard = -1;
+    }
+
+    public static List<Integer> queried() {
+        return List.copyOf(QUERIED);
+    }
+}
@@ -0,0 +1,75 @@
+package com.tw.finseta.payment.validation;
+
+import com.tw.finseta.payment.exception.ValidationException;
+import com.tw.finseta.payment.model.Account;
+import com.tw.finseta.payment.model.Error;
+import com.tw.finseta.payment.model.Payment;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Unit test class for {@link PaymentValidator}.
+ *
+ * <p>Covers acceptance of valid payments and the collected errors of invalid single and batch payments.</p>
+ *
+ * @author Ranga Raju
+ * @see PaymentValidator
+ */
+public class PaymentValidatorTest {
+
+    private final PaymentValidator validator = new PaymentValidator();
+
+    @Test
+    void testValidate_acceptsValidPayments() {
+        assertDoesNotThrow(() -> validator.validate(payment("GBP", "10.50", "12345678", "123456")));
+        // Trailing zeros beyond the currency exponent do not change the amount
+        assertDoesNotThrow(() -> validator.validate(payment("JPY", "1000.00", "00000000", "000000")));
+        assertDoesNotThrow(() -> validator.validate(payment("GBP", "0", "12345678", "123456")));
+    }
+
+    @Test
+    void testValidate_collectsEveryErrorWithoutAStackTrace() {
+        ValidationException ex = assertThrows(ValidationException.class,
+                () -> validator.validate(payment("GBX", "-1", "1234567a", "12345")));
+
+        assertEquals(List.of(
+                "currency : must be an ISO 4217 currency code",
+                "amount : must be greater than or equal to 0",
+                "counterparty.accountNumber : must be 8 digits",
+                "counterparty.sortCode : must be 6 digits"), messages(ex));
+        assertEquals(0, ex.getStackTrace().length);
+    }
+
+    @Test
+    void testValidateAll_prefixesErrorsWithTheIndex() {
+        Payment noCounterparty = new Payment("USD", BigDecimal.ONE, null);
+        ValidationException ex = assertThrows(ValidationException.class, () -> validator.validateAll(Arrays.asList(
+                payment("GBP", "1.005", "12345678", "123456"),
+                payment("EUR", "1", "12345678", "123456"),
+                noCounterparty,
+                null,
+                payment("GBP", "92233720368547758.08", "12345678", "123456"))));
+
+        assertEquals(List.of(
+                "payment[0].amount : must have at most 2 decimal places for GBP",
+                "payment[2].counterparty : must not be null",
+                "payment[3] : must not be null",
+                "payment[4].amount : is too large"), messages(ex));
+    }
+
+    private static Payment payment(String currency, String amount, String accountNumber, String sortCode) {
+        return new Payment(currency, new BigDecimal(amount),
+                new Account(Account.TypeEnum.SORT_CODE_ACCOUNT_NUMBER, accountNumber, sortCode));
+    }
+
+    private static List<String> messages(ValidationException ex) {
+        return ex.getErrors().stream().map(Error::getMessage).toList();
+    }
+}